@@ -449,6 +449,7 @@ CREATE TABLE IF NOT EXISTS `spectrum` (
   `mzarray` text NOT NULL,
   `intarray` text NOT NULL,
   `chargearray` text NOT NULL,
+  `peaks` mediumblob,
   `total_int` decimal(20,4) NOT NULL,
   `maximum_int` decimal(12,4) NOT NULL,
   `creationdate` datetime NOT NULL,
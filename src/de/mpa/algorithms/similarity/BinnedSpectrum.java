@@ -0,0 +1,113 @@
+package de.mpa.algorithms.similarity;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Sparse, unit-length intensity vector of a binned spectrum. Bins are stored as
+ * ascending integer indexes with the transformed intensities normalized by the
+ * vector magnitude, so the normalized dot product of two spectra reduces to a
+ * merge of two sorted primitive arrays.
+ */
+public class BinnedSpectrum {
+	
+	/**
+	 * The empty vector.
+	 */
+	private static final BinnedSpectrum EMPTY = new BinnedSpectrum(new int[0], new float[0]);
+
+	/**
+	 * The bin indexes in ascending order.
+	 */
+	private final int[] bins;
+	
+	/**
+	 * The normalized intensities.
+	 */
+	private final float[] intensities;
+	
+	/**
+	 * Creates a vector from the specified arrays.
+	 * @param bins the bin indexes in ascending order
+	 * @param intensities the normalized intensities
+	 */
+	private BinnedSpectrum(int[] bins, float[] intensities) {
+		this.bins = bins;
+		this.intensities = intensities;
+	}
+	
+	/**
+	 * Creates a vector from a peak map vectorized by a binning method, i.e.
+	 * with keys of the form <code>index * binWidth + binShift</code>.
+	 * @param vectPeaks the vectorized and transformed peak map
+	 * @param binWidth the width of the bins
+	 * @param binShift the shift of the bin boundaries
+	 * @return the binned spectrum, empty if the vector magnitude is zero
+	 */
+	public static BinnedSpectrum create(Map<Double, Double> vectPeaks, double binWidth, double binShift) {
+		int size = vectPeaks.size();
+		long[] binned = new long[size];
+		double[] values = new double[size];
+		double magnitude = 0.0;
+		int i = 0;
+		for (Entry<Double, Double> peak : vectPeaks.entrySet()) {
+			binned[i] = Math.round((peak.getKey() - binShift) / binWidth);
+			values[i] = peak.getValue();
+			magnitude += values[i] * values[i];
+			i++;
+		}
+		if (magnitude == 0.0) {
+			return EMPTY;
+		}
+		magnitude = Math.sqrt(magnitude);
+		
+		// sort bins, keys are unique so the values can be looked up afterwards
+		long[] sorted = binned.clone();
+		Arrays.sort(sorted);
+		int[] bins = new int[size];
+		float[] intensities = new float[size];
+		for (i = 0; i < size; i++) {
+			int j = Arrays.binarySearch(sorted, binned[i]);
+			bins[j] = (int) binned[i];
+			intensities[j] = (float) (values[i] / magnitude);
+		}
+		return new BinnedSpectrum(bins, intensities);
+	}
+	
+	/**
+	 * Returns the number of occupied bins.
+	 * @return the number of bins
+	 */
+	public int size() {
+		return bins.length;
+	}
+	
+	/**
+	 * Returns the normalized dot product of this and the specified vector.
+	 * Like {@link NormalizedDotProduct} the result is <code>NaN</code> if
+	 * either vector has zero magnitude.
+	 * @param that the other vector
+	 * @return the normalized dot product
+	 */
+	public double dotProduct(BinnedSpectrum that) {
+		if ((this.bins.length == 0) || (that.bins.length == 0)) {
+			return Double.NaN;
+		}
+		int[] binsA = this.bins, binsB = that.bins;
+		float[] intenA = this.intensities, intenB = that.intensities;
+		double dot = 0.0;
+		int a = 0, b = 0;
+		while ((a < binsA.length) && (b < binsB.length)) {
+			if (binsA[a] < binsB[b]) {
+				a++;
+			} else if (binsA[a] > binsB[b]) {
+				b++;
+			} else {
+				dot += intenA[a++] * intenB[b++];
+			}
+		}
+		return dot;
+	}
+
+}
@@ -0,0 +1,94 @@
+package de.mpa.algorithms.similarity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe cache of library spectra vectorized by a binning method, keyed
+ * by libspectrum ID. A cache instance is bound to one vectorization and
+ * transformation setting, so library spectra falling into the precursor
+ * tolerance window of many queries are binned and normalized only once.
+ */
+public class BinnedSpectrumCache {
+	
+	/**
+	 * The binning vectorization method. Must not keep per-spectrum state.
+	 */
+	private final Vectorization vect;
+	
+	/**
+	 * The transformation method.
+	 */
+	private final Transformation trafo;
+	
+	/**
+	 * The width of the bins.
+	 */
+	private final double binWidth;
+	
+	/**
+	 * The shift of the bin boundaries.
+	 */
+	private final double binShift;
+	
+	/**
+	 * The cached vectors mapped to their libspectrum IDs.
+	 */
+	private final Map<Long, BinnedSpectrum> vectors = new ConcurrentHashMap<Long, BinnedSpectrum>();
+
+	/**
+	 * Creates a cache for the specified binning settings.
+	 * @param vect the direct binning or profiling vectorization method
+	 * @param trafo the transformation method
+	 * @param binWidth the width of the bins
+	 * @param binShift the shift of the bin boundaries
+	 */
+	public BinnedSpectrumCache(Vectorization vect, Transformation trafo, double binWidth, double binShift) {
+		this.vect = vect;
+		this.trafo = trafo;
+		this.binWidth = binWidth;
+		this.binShift = binShift;
+	}
+	
+	/**
+	 * Returns the vector of the specified library spectrum, vectorizing its
+	 * peaks if it is not cached yet.
+	 * @param libspectrumID the libspectrum ID
+	 * @param peaks the peak map of the library spectrum
+	 * @return the binned spectrum
+	 */
+	public BinnedSpectrum get(long libspectrumID, Map<Double, Double> peaks) {
+		BinnedSpectrum vector = vectors.get(libspectrumID);
+		if (vector == null) {
+			// concurrent misses compute equal vectors, the last one stays cached
+			vector = this.vectorize(peaks);
+			vectors.put(libspectrumID, vector);
+		}
+		return vector;
+	}
+	
+	/**
+	 * Vectorizes the specified peaks without caching, e.g. for query spectra.
+	 * @param peaks the peak map
+	 * @return the binned spectrum
+	 */
+	public BinnedSpectrum vectorize(Map<Double, Double> peaks) {
+		return BinnedSpectrum.create(vect.vectorize(peaks, trafo), binWidth, binShift);
+	}
+	
+	/**
+	 * Returns the number of cached vectors.
+	 * @return the cache size
+	 */
+	public int size() {
+		return vectors.size();
+	}
+	
+	/**
+	 * Removes all cached vectors.
+	 */
+	public void clear() {
+		vectors.clear();
+	}
+
+}
@@ -0,0 +1,258 @@
+package de.mpa.analysis.taxonomy;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.mpa.analysis.UniProtUtilities.TaxonomyRank;
+import de.mpa.analysis.taxonomy.TaxonomyUtils.TaxonomyDefinition;
+
+/**
+ * Index over the lineages of a set of taxonomy nodes answering lowest common
+ * ancestor queries by binary lifting.
+ * <p>
+ * Every distinct taxonomy ID occurring in the registered lineages is assigned
+ * an index, index <code>0</code> denoting the taxonomic root. Common
+ * taxonomies of whole groups of taxonomic instances are determined by folding
+ * the index-based rules of a {@link TaxonomyDefinition} over their children,
+ * which yields the same taxonomies as folding
+ * {@link TaxonomyDefinition#getCommonTaxonomyNode(TaxonomyNode, TaxonomyNode)}
+ * without building any root paths. Once all lineages are registered, the
+ * index is read-only and may be queried concurrently.
+ */
+public class CommonAncestorIndex {
+
+	/**
+	 * The index of the taxonomic root.
+	 */
+	public static final int ROOT = 0;
+
+	/**
+	 * Pseudo-index denoting a newly created root node, as returned by
+	 * {@link TaxonomyDefinition#COMMON_ANCESTOR} for unrelated taxonomies.
+	 */
+	public static final int COMMON_ROOT = -1;
+
+	/**
+	 * Taxonomy ID-to-index mapping.
+	 */
+	private TIntIntHashMap indices;
+
+	/**
+	 * The first registered taxonomy node instance of each index.
+	 */
+	private List<TaxonomyNode> nodes;
+
+	/**
+	 * The parent indices, the root being its own parent.
+	 */
+	private TIntArrayList parents;
+
+	/**
+	 * The depths, i.e. the lengths of the root paths. The root has depth zero.
+	 */
+	private TIntArrayList depths;
+
+	/**
+	 * The ancestor tables, <code>ancestors[k][i]</code> being the
+	 * 2<sup>k</sup>-th ancestor of index <code>i</code>.
+	 */
+	private int[][] ancestors;
+
+	/**
+	 * The shared root node returned for unrelated taxonomies.
+	 */
+	private final TaxonomyNode commonRoot = new TaxonomyNode(1, TaxonomyRank.NO_RANK, "root");
+
+	/**
+	 * Creates an empty index.
+	 */
+	public CommonAncestorIndex() {
+		indices = new TIntIntHashMap(1024, 0.5f, Integer.MIN_VALUE, -1);
+		nodes = new ArrayList<TaxonomyNode>();
+		parents = new TIntArrayList();
+		depths = new TIntArrayList();
+		// the root is registered in advance, lineages may omit it
+		indices.put(1, ROOT);
+		nodes.add(null);
+		parents.add(ROOT);
+		depths.add(0);
+	}
+
+	/**
+	 * Registers the lineage of the specified taxonomy node. Invalidates
+	 * the ancestor tables.
+	 * @param node the taxonomy node, may be <code>null</code>
+	 */
+	public void add(TaxonomyNode node) {
+		if (node == null) {
+			return;
+		}
+		if (node.getID() == 1) {
+			if (nodes.get(ROOT) == null) {
+				nodes.set(ROOT, node);
+			}
+			return;
+		}
+		if (indices.containsKey(node.getID())) {
+			return;
+		}
+		// collect unregistered ancestors, then register them from the top down
+		List<TaxonomyNode> chain = new ArrayList<TaxonomyNode>();
+		TaxonomyNode current = node;
+		while ((current != null) && (current.getID() != 1) && !indices.containsKey(current.getID())) {
+			chain.add(current);
+			current = current.getParentNode();
+		}
+		int parent = ((current == null) || (current.getID() == 1)) ? ROOT : indices.get(current.getID());
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			TaxonomyNode child = chain.get(i);
+			int index = nodes.size();
+			indices.put(child.getID(), index);
+			nodes.add(child);
+			parents.add(parent);
+			depths.add(depths.getQuick(parent) + 1);
+			parent = index;
+		}
+		ancestors = null;
+	}
+
+	/**
+	 * Registers the lineages of the taxonomy nodes of the specified taxonomic instances.
+	 * @param taxList the taxonomic instances
+	 */
+	public void addAll(List<? extends Taxonomic> taxList) {
+		for (Taxonomic taxonomic : taxList) {
+			this.add(taxonomic.getTaxonomyNode());
+		}
+	}
+
+	/**
+	 * Builds the ancestor tables. Must be called after registering all
+	 * lineages and before querying the index.
+	 */
+	public void build() {
+		int size = nodes.size();
+		int maxDepth = depths.max();
+		int levels = 1;
+		while ((1 << levels) <= maxDepth) {
+			levels++;
+		}
+		ancestors = new int[levels][];
+		ancestors[0] = parents.toArray();
+		for (int k = 1; k < levels; k++) {
+			int[] previous = ancestors[k - 1];
+			int[] level = new int[size];
+			for (int i = 0; i < size; i++) {
+				level[i] = previous[previous[i]];
+			}
+			ancestors[k] = level;
+		}
+	}
+
+	/**
+	 * Returns the index of the specified taxonomy node.
+	 * @param node the taxonomy node
+	 * @return the index or <code>-1</code> if the node has not been registered
+	 */
+	public int indexOf(TaxonomyNode node) {
+		return indices.get(node.getID());
+	}
+
+	/**
+	 * Returns the taxonomy ID at the specified index.
+	 * @param index the index or {@link #COMMON_ROOT}
+	 * @return the taxonomy ID
+	 */
+	public int getID(int index) {
+		return (index == COMMON_ROOT) ? 1 : this.getNode(index).getID();
+	}
+
+	/**
+	 * Returns the depth, i.e. the root path length, at the specified index.
+	 * @param index the index or {@link #COMMON_ROOT}
+	 * @return the depth
+	 */
+	public int getDepth(int index) {
+		return (index == COMMON_ROOT) ? 0 : depths.getQuick(index);
+	}
+
+	/**
+	 * Returns the taxonomy node at the specified index.
+	 * @param index the index or {@link #COMMON_ROOT}
+	 * @return the first registered node instance of the index
+	 */
+	public TaxonomyNode getNode(int index) {
+		if (index == COMMON_ROOT) {
+			return commonRoot;
+		}
+		TaxonomyNode node = nodes.get(index);
+		return (node == null) ? commonRoot : node;
+	}
+
+	/**
+	 * Returns the lowest common ancestor of the specified indices.
+	 * @param indexA the first index
+	 * @param indexB the second index
+	 * @return the index of the lowest common ancestor, {@link #ROOT} if the
+	 *  indices share no other ancestor
+	 */
+	public int getLowestCommonAncestor(int indexA, int indexB) {
+		int depthA = depths.getQuick(indexA), depthB = depths.getQuick(indexB);
+		if (depthA < depthB) {
+			int temp = indexA;
+			indexA = indexB;
+			indexB = temp;
+			temp = depthA;
+			depthA = depthB;
+			depthB = temp;
+		}
+		// lift the deeper index to the depth of the other one
+		for (int k = 0, diff = depthA - depthB; diff > 0; k++, diff >>>= 1) {
+			if ((diff & 1) != 0) {
+				indexA = ancestors[k][indexA];
+			}
+		}
+		if (indexA == indexB) {
+			return indexA;
+		}
+		// lift both indices to just below their lowest common ancestor
+		for (int k = ancestors.length - 1; k >= 0; k--) {
+			int ancestorA = ancestors[k][indexA], ancestorB = ancestors[k][indexB];
+			if (ancestorA != ancestorB) {
+				indexA = ancestorA;
+				indexB = ancestorB;
+			}
+		}
+		return ancestors[0][indexA];
+	}
+
+	/**
+	 * Returns the common taxonomy node of the taxonomy nodes of the specified
+	 * taxonomic instances, folding the rules of the specified taxonomy
+	 * definition over them in list order.
+	 * @param children the taxonomic instances, whose lineages must have been registered
+	 * @param definition the taxonomy definition
+	 * @param repeatFirst <code>true</code> if the fold shall start by
+	 *  combining the first taxonomy with itself
+	 * @return the common taxonomy node or <code>null</code> if there are no children
+	 */
+	public TaxonomyNode getCommonTaxonomyNode(List<? extends Taxonomic> children,
+			TaxonomyDefinition definition, boolean repeatFirst) {
+		int size = children.size();
+		if (size == 0) {
+			return null;
+		}
+		int ancestor = this.indexOf(children.get(0).getTaxonomyNode());
+		if (repeatFirst) {
+			ancestor = definition.getCommonIndex(this, ancestor, ancestor);
+		}
+		for (int i = 1; i < size; i++) {
+			ancestor = definition.getCommonIndex(this, ancestor, this.indexOf(children.get(i).getTaxonomyNode()));
+		}
+		return this.getNode(ancestor);
+	}
+
+}
@@ -0,0 +1,641 @@
+package de.mpa.analysis.taxonomy;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import de.mpa.analysis.UniProtUtilities;
+import de.mpa.analysis.UniProtUtilities.TaxonomyRank;
+import de.mpa.client.Constants;
+import de.mpa.db.DBManager;
+import de.mpa.db.accessor.Taxonomy;
+import de.mpa.main.Starter;
+
+/**
+ * Immutable in-memory taxonomy forest holding all entries of the
+ * <code>taxonomy</code> table.
+ * <p>
+ * Taxonomies are stored in primitive arrays sorted by taxonomy ID, their
+ * names in a UTF-8 string pool. Each entry references its nearest ancestor of
+ * a rank contained in {@link UniProtUtilities#TAXONOMY_RANKS_MAP} (or the root
+ * of its tree), so lineages can be walked without any lookups. Taxonomy nodes
+ * are created on first request and interned, every caller asking for the same
+ * taxonomy ID receives the same {@link TaxonomyNode} instance, sharing its
+ * whole lineage. The nodes are shared and must not be modified.
+ * <p>
+ * The resulting lineages are identical to the ones built by
+ * {@link TaxonomyUtils#createTaxonomyNode(long, Map, Connection)}. The tree
+ * is either fetched from the database in a single query or read from a
+ * binary snapshot file (see {@link #write(File)}).
+ */
+public class TaxonomyTree {
+
+	/**
+	 * The file extension of binary taxonomy snapshot files.
+	 */
+	public static final String EXTENSION = ".tidx";
+
+	/**
+	 * The file name of the default taxonomy snapshot inside the configuration folder.
+	 */
+	private static final String SNAPSHOT_FILENAME = "taxonomy" + EXTENSION;
+
+	/**
+	 * The magic number starting every snapshot file ("TIDX").
+	 */
+	private static final int MAGIC = 0x54494458;
+
+	/**
+	 * The current format version.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The header size in bytes: magic, version, entry count and string pool size.
+	 */
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4;
+
+	/**
+	 * The character set of the pooled names.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Rank code of taxonomies whose rank is not contained in the targeted ranks.
+	 */
+	private static final byte NO_TARGET_RANK = -1;
+
+	/**
+	 * The taxonomic ranks indexed by rank code.
+	 */
+	private static final TaxonomyRank[] RANKS = TaxonomyRank.values();
+
+	/**
+	 * The shared taxonomy tree instance.
+	 */
+	private static TaxonomyTree instance;
+
+	/**
+	 * The taxonomy IDs known to be missing from the taxonomy table the shared tree has been built from.
+	 */
+	private static TLongHashSet missingIDs = new TLongHashSet();
+
+	/**
+	 * The number of taxonomies.
+	 */
+	private final int size;
+
+	/**
+	 * The taxonomy IDs in ascending order.
+	 */
+	private final int[] taxIDs;
+
+	/**
+	 * The indices of the nearest ancestors of targeted rank, <code>-1</code> for roots.
+	 */
+	private final int[] parents;
+
+	/**
+	 * The rank codes, i.e. the ordinals of the targeted ranks or {@link #NO_TARGET_RANK}.
+	 */
+	private final byte[] ranks;
+
+	/**
+	 * The start offsets of the names in the string pool, followed by the pool size.
+	 */
+	private final int[] nameOffsets;
+
+	/**
+	 * The string pool holding the UTF-8 encoded names.
+	 */
+	private final byte[] names;
+
+	/**
+	 * The interned taxonomy nodes, created on demand.
+	 */
+	private final AtomicReferenceArray<TaxonomyNode> nodes;
+
+	/**
+	 * Constructs a taxonomy tree from the specified taxonomy table rows.
+	 * @param taxIDs the taxonomy IDs
+	 * @param parentIDs the parent taxonomy IDs, <code>0</code> for roots
+	 * @param ranks the rank strings as stored in the database
+	 * @param names the taxonomy names
+	 */
+	public TaxonomyTree(int[] taxIDs, int[] parentIDs, String[] ranks, String[] names) {
+		this(taxIDs, parentIDs, encodeRanks(ranks), encodeNames(names));
+	}
+
+	/**
+	 * Constructs a taxonomy tree from rows in arbitrary order.
+	 * @param taxIDs the taxonomy IDs
+	 * @param parentIDs the parent taxonomy IDs
+	 * @param rankCodes the rank codes
+	 * @param pool the encoded names, the offsets of which are followed by the pool size
+	 */
+	private TaxonomyTree(int[] taxIDs, int[] parentIDs, byte[] rankCodes, NamePool pool) {
+		this.size = taxIDs.length;
+
+		// Sort rows by taxonomy ID
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = ((long) taxIDs[i] << 32) | i;
+		}
+		Arrays.sort(order);
+
+		this.taxIDs = new int[size];
+		this.ranks = new byte[size];
+		this.nameOffsets = new int[size + 1];
+		this.names = new byte[pool.offsets[size]];
+		int[] rawParents = new int[size];
+		int offset = 0;
+		for (int i = 0; i < size; i++) {
+			int row = (int) order[i];
+			this.taxIDs[i] = (int) (order[i] >>> 32);
+			this.ranks[i] = rankCodes[row];
+			int length = pool.offsets[row + 1] - pool.offsets[row];
+			System.arraycopy(pool.bytes, pool.offsets[row], this.names, offset, length);
+			this.nameOffsets[i] = offset;
+			offset += length;
+		}
+		this.nameOffsets[size] = offset;
+
+		// Resolve parent IDs, treat self-references and unknown parents as roots
+		for (int i = 0; i < size; i++) {
+			int parentID = parentIDs[(int) order[i]];
+			int parent = (parentID == this.taxIDs[i]) ? -1 : this.indexOf(parentID);
+			if ((parent < 0) && (parentID != 0) && (parentID != this.taxIDs[i])) {
+				System.err.println("Unknown parent ID: " + parentID);
+			}
+			rawParents[i] = parent;
+		}
+		this.parents = condense(rawParents, ranks);
+		this.nodes = new AtomicReferenceArray<TaxonomyNode>(size);
+	}
+
+	/**
+	 * Constructs a taxonomy tree from already sorted and condensed arrays.
+	 */
+	private TaxonomyTree(int[] taxIDs, int[] parents, byte[] ranks, int[] nameOffsets, byte[] names) {
+		this.size = taxIDs.length;
+		this.taxIDs = taxIDs;
+		this.parents = parents;
+		this.ranks = ranks;
+		this.nameOffsets = nameOffsets;
+		this.names = names;
+		this.nodes = new AtomicReferenceArray<TaxonomyNode>(size);
+	}
+
+	/**
+	 * Replaces the parents of all taxonomies by their nearest ancestors which
+	 * are either of targeted rank or a root.
+	 * @param rawParents the parent indices, <code>-1</code> for roots
+	 * @param ranks the rank codes
+	 * @return the condensed parent indices
+	 */
+	private static int[] condense(int[] rawParents, byte[] ranks) {
+		int size = rawParents.length;
+		// The nearest kept ancestor-or-self of each taxonomy, -2 if unresolved
+		int[] kept = new int[size];
+		Arrays.fill(kept, -2);
+		TIntArrayList stack = new TIntArrayList();
+		for (int i = 0; i < size; i++) {
+			int current = i;
+			while (kept[current] == -2) {
+				if ((ranks[current] != NO_TARGET_RANK) || (rawParents[current] < 0) || (stack.size() > size)) {
+					kept[current] = current;
+					break;
+				}
+				stack.add(current);
+				current = rawParents[current];
+			}
+			int ancestor = kept[current];
+			for (int j = 0; j < stack.size(); j++) {
+				kept[stack.getQuick(j)] = ancestor;
+			}
+			stack.resetQuick();
+		}
+		int[] parents = new int[size];
+		for (int i = 0; i < size; i++) {
+			int parent = rawParents[i];
+			parents[i] = (parent < 0) ? -1 : kept[parent];
+		}
+		return parents;
+	}
+
+	/**
+	 * Returns the shared taxonomy tree. The tree is read from the snapshot file
+	 * in the configuration folder if it exists, otherwise it is fetched from
+	 * the database.
+	 * @param conn the database connection
+	 * @return the taxonomy tree
+	 * @throws SQLException if a database error occurs
+	 */
+	public static synchronized TaxonomyTree getInstance(Connection conn) throws SQLException {
+		if (instance == null) {
+			File snapshot = getSnapshotFile();
+			if ((snapshot != null) && snapshot.exists()) {
+				try {
+					instance = read(snapshot);
+				} catch (IOException e) {
+					System.err.println("Could not read taxonomy snapshot: " + e.getMessage());
+				}
+			}
+			if (instance == null) {
+				instance = load(conn);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Replaces the shared taxonomy tree by a fresh copy of the taxonomy table,
+	 * e.g. after taxonomies have been added to the database.
+	 * @param conn the database connection
+	 * @return the reloaded taxonomy tree
+	 * @throws SQLException if a database error occurs
+	 */
+	public static synchronized TaxonomyTree reload(Connection conn) throws SQLException {
+		instance = load(conn);
+		missingIDs.clear();
+		return instance;
+	}
+
+	/**
+	 * Returns the shared taxonomy tree for resolving the specified taxonomy IDs.
+	 * If the tree lacks some of them it is reloaded, but only if the taxonomy
+	 * table has changed since. IDs still missing are remembered and resolve to
+	 * the root taxonomy (see {@link #getNode(long)}) without further checks.
+	 * @param conn the database connection
+	 * @param taxIDs the taxonomy IDs to be resolved
+	 * @return the taxonomy tree
+	 * @throws SQLException if a database error occurs
+	 */
+	public static synchronized TaxonomyTree getInstance(Connection conn, Collection<Long> taxIDs) throws SQLException {
+		TaxonomyTree tree = getInstance(conn);
+		boolean missing = false;
+		for (Long taxID : taxIDs) {
+			if (!tree.contains(taxID) && !missingIDs.contains(taxID)) {
+				missing = true;
+				break;
+			}
+		}
+		if (missing) {
+			if (tree.isOutdated(conn)) {
+				tree = reload(conn);
+			}
+			for (Long taxID : taxIDs) {
+				if (!tree.contains(taxID)) {
+					missingIDs.add(taxID);
+				}
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Returns whether the taxonomy table differs from this tree in row count
+	 * or maximum taxonomy ID.
+	 * @param conn the database connection
+	 * @return <code>true</code> if the taxonomy table has changed
+	 * @throws SQLException if a database error occurs
+	 */
+	private boolean isOutdated(Connection conn) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*), MAX(" + Taxonomy.TAXONOMYID + ") FROM taxonomy");
+			rs.next();
+			long count = rs.getLong(1);
+			long maxTaxID = rs.getLong(2);
+			rs.close();
+			return (count != size) || (maxTaxID != ((size == 0) ? 0L : taxIDs[size - 1]));
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Returns the default snapshot file.
+	 * @return the snapshot file or <code>null</code> if the configuration folder cannot be located
+	 */
+	private static File getSnapshotFile() {
+		if (Starter.isJarExport()) {
+			return new File(Constants.CONFIGURATION_PATH_JAR, SNAPSHOT_FILENAME);
+		}
+		URL url = ClassLoader.getSystemResource(Constants.CONFIGURATION_PATH_JAR + "/" + SNAPSHOT_FILENAME);
+		if (url != null) {
+			try {
+				return new File(url.toURI());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Fetches all entries of the taxonomy table in a single streamed query.
+	 * @param conn the database connection
+	 * @return the taxonomy tree
+	 * @throws SQLException if a database error occurs
+	 */
+	public static TaxonomyTree load(Connection conn) throws SQLException {
+		TIntArrayList taxIDs = new TIntArrayList();
+		TIntArrayList parentIDs = new TIntArrayList();
+		TByteArrayList rankCodes = new TByteArrayList();
+		TIntArrayList nameOffsets = new TIntArrayList();
+		ByteArrayOutputStream names = new ByteArrayOutputStream(1 << 20);
+
+		Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		stmt.setFetchSize(Integer.MIN_VALUE);
+		ResultSet rs = stmt.executeQuery("SELECT " + Taxonomy.TAXONOMYID + ", " + Taxonomy.PARENTID + ", "
+				+ Taxonomy.DESCRIPTION + ", " + Taxonomy.RANK + " FROM taxonomy");
+		while (rs.next()) {
+			taxIDs.add((int) rs.getLong(1));
+			parentIDs.add((int) rs.getLong(2));
+			nameOffsets.add(names.size());
+			String name = rs.getString(3);
+			if (name != null) {
+				byte[] bytes = name.getBytes(UTF8);
+				names.write(bytes, 0, bytes.length);
+			}
+			rankCodes.add(encodeRank(rs.getString(4)));
+		}
+		rs.close();
+		stmt.close();
+		nameOffsets.add(names.size());
+
+		return new TaxonomyTree(taxIDs.toArray(), parentIDs.toArray(), rankCodes.toArray(),
+				new NamePool(nameOffsets.toArray(), names.toByteArray()));
+	}
+
+	/**
+	 * Reads a taxonomy tree from the specified snapshot file.
+	 * @param file the snapshot file
+	 * @return the taxonomy tree
+	 * @throws IOException if the file cannot be read or is not a valid snapshot file
+	 */
+	public static TaxonomyTree read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = channel.map(MapMode.READ_ONLY, 0L, channel.size());
+			if ((buf.limit() < HEADER_SIZE) || (buf.getInt() != MAGIC)) {
+				throw new IOException("Not a taxonomy snapshot file: " + file);
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported taxonomy snapshot version " + version + ".");
+			}
+			int size = buf.getInt();
+			int poolSize = buf.getInt();
+
+			int[] taxIDs = new int[size];
+			int[] parents = new int[size];
+			byte[] ranks = new byte[size];
+			int[] nameOffsets = new int[size + 1];
+			byte[] names = new byte[poolSize];
+			buf.asIntBuffer().get(taxIDs);
+			buf.position(buf.position() + 4 * size);
+			buf.asIntBuffer().get(parents);
+			buf.position(buf.position() + 4 * size);
+			buf.asIntBuffer().get(nameOffsets);
+			buf.position(buf.position() + 4 * (size + 1));
+			buf.get(ranks);
+			buf.get(names);
+			return new TaxonomyTree(taxIDs, parents, ranks, nameOffsets, names);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes this taxonomy tree to the specified snapshot file.
+	 * @param file the snapshot file
+	 * @throws IOException if writing the file fails
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(size);
+			dos.writeInt(names.length);
+			for (int i = 0; i < size; i++) {
+				dos.writeInt(taxIDs[i]);
+			}
+			for (int i = 0; i < size; i++) {
+				dos.writeInt(parents[i]);
+			}
+			for (int i = 0; i <= size; i++) {
+				dos.writeInt(nameOffsets[i]);
+			}
+			dos.write(ranks);
+			dos.write(names);
+		} finally {
+			dos.close();
+		}
+	}
+
+	/**
+	 * Returns the index of the specified taxonomy ID.
+	 * @param taxID the taxonomy ID
+	 * @return the index or a negative value if the ID is unknown
+	 */
+	private int indexOf(long taxID) {
+		if ((taxID < Integer.MIN_VALUE) || (taxID > Integer.MAX_VALUE)) {
+			return -1;
+		}
+		return Math.max(-1, Arrays.binarySearch(taxIDs, (int) taxID));
+	}
+
+	/**
+	 * Returns whether the specified taxonomy ID is contained in this tree.
+	 * @param taxID the taxonomy ID
+	 * @return <code>true</code> if the taxonomy is known
+	 */
+	public boolean contains(long taxID) {
+		return indexOf(taxID) >= 0;
+	}
+
+	/**
+	 * Returns the number of taxonomies.
+	 * @return the number of taxonomies
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the shared taxonomy node of the specified taxonomy ID including
+	 * its lineage up to the root. Unknown IDs are mapped to the root taxonomy.
+	 * @param taxID the taxonomy ID
+	 * @return the taxonomy node or <code>null</code> if neither the ID nor the root are known
+	 */
+	public TaxonomyNode getNode(long taxID) {
+		int index = indexOf(taxID);
+		if (index < 0) {
+			index = indexOf(1L);
+			if (index < 0) {
+				return null;
+			}
+		}
+		return this.getNode(index);
+	}
+
+	/**
+	 * Returns the shared taxonomy node at the specified index, creating it
+	 * and its uncreated ancestors if necessary.
+	 * @param index the taxonomy index
+	 * @return the taxonomy node
+	 */
+	private TaxonomyNode getNode(int index) {
+		TaxonomyNode node = nodes.get(index);
+		if (node != null) {
+			return node;
+		}
+		// Collect uncreated ancestors, then create nodes from the top down
+		TIntArrayList chain = new TIntArrayList();
+		int current = index;
+		while ((current >= 0) && (nodes.get(current) == null)) {
+			chain.add(current);
+			current = parents[current];
+		}
+		TaxonomyNode parentNode = (current >= 0) ? nodes.get(current) : null;
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			int child = chain.getQuick(i);
+			TaxonomyNode childNode = new TaxonomyNode(taxIDs[child], this.getRank(child), this.getName(child), parentNode);
+			// Use the node of a concurrent caller if it was faster
+			if (!nodes.compareAndSet(child, null, childNode)) {
+				childNode = nodes.get(child);
+			}
+			parentNode = childNode;
+		}
+		return parentNode;
+	}
+
+	/**
+	 * Returns the rank of the taxonomy node at the specified index. Untargeted
+	 * ranks are treated as species, species below species as subspecies.
+	 */
+	private TaxonomyRank getRank(int index) {
+		int parent = parents[index];
+		if ((parent >= 0) && (ranks[parent] == TaxonomyRank.SPECIES.ordinal())) {
+			return TaxonomyRank.SUBSPECIES;
+		}
+		if (ranks[index] != NO_TARGET_RANK) {
+			return RANKS[ranks[index]];
+		}
+		return (parent < 0) ? TaxonomyRank.NO_RANK : TaxonomyRank.SPECIES;
+	}
+
+	/**
+	 * Returns the name of the taxonomy at the specified index.
+	 */
+	private String getName(int index) {
+		int offset = nameOffsets[index];
+		return new String(names, offset, nameOffsets[index + 1] - offset, UTF8);
+	}
+
+	/**
+	 * Returns the code of the specified rank string.
+	 */
+	private static byte encodeRank(String rank) {
+		TaxonomyRank taxonomyRank = UniProtUtilities.TAXONOMY_RANKS_MAP.get(rank);
+		return (taxonomyRank == null) ? NO_TARGET_RANK : (byte) taxonomyRank.ordinal();
+	}
+
+	/**
+	 * Returns the codes of the specified rank strings.
+	 */
+	private static byte[] encodeRanks(String[] ranks) {
+		byte[] codes = new byte[ranks.length];
+		for (int i = 0; i < ranks.length; i++) {
+			codes[i] = encodeRank(ranks[i]);
+		}
+		return codes;
+	}
+
+	/**
+	 * Returns the string pool of the specified names.
+	 */
+	private static NamePool encodeNames(String[] names) {
+		int[] offsets = new int[names.length + 1];
+		ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		for (int i = 0; i < names.length; i++) {
+			offsets[i] = pool.size();
+			if (names[i] != null) {
+				byte[] bytes = names[i].getBytes(UTF8);
+				pool.write(bytes, 0, bytes.length);
+			}
+		}
+		offsets[names.length] = pool.size();
+		return new NamePool(offsets, pool.toByteArray());
+	}
+
+	/**
+	 * UTF-8 encoded names and their offsets.
+	 */
+	private static class NamePool {
+
+		/**
+		 * The name start offsets, followed by the pool size.
+		 */
+		private final int[] offsets;
+
+		/**
+		 * The encoded names.
+		 */
+		private final byte[] bytes;
+
+		private NamePool(int[] offsets, byte[] bytes) {
+			this.offsets = offsets;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the taxonomy table of the configured database to
+	 * the specified file.
+	 * @param args the path of the snapshot file
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("No file provided.");
+		} else {
+			try {
+				System.out.print("Writing taxonomy snapshot " + args[0] + "... ");
+				long startTime = System.currentTimeMillis();
+				TaxonomyTree tree = load(DBManager.getInstance().getConnection());
+				tree.write(new File(args[0]));
+				System.out.println("done (" + tree.size() + " taxonomies, "
+						+ (System.currentTimeMillis() - startTime) + " ms).");
+			} catch (Exception e) {
+				System.err.println("aborted.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -3,14 +3,15 @@ package de.mpa.analysis.taxonomy;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import de.mpa.analysis.UniProtUtilities;
 import de.mpa.analysis.UniProtUtilities.TaxonomyRank;
-import de.mpa.client.Client;
+import de.mpa.client.ProgressCounter;
 import de.mpa.client.model.SpectrumMatch;
 import de.mpa.client.model.dbsearch.PeptideHit;
 import de.mpa.client.model.dbsearch.ProteinHit;
@@ -91,6 +92,29 @@ public class TaxonomyUtils {
 				}
 				return ancestor;
 			}
+
+			@Override
+			public int getCommonIndex(CommonAncestorIndex index, int indexA, int indexB) {
+				int len = Math.min(index.getDepth(indexA), index.getDepth(indexB));
+				// Only root
+				if (len == 0) {
+					return CommonAncestorIndex.COMMON_ROOT;
+				}
+				// Taxonomy is superkingdom or "unclassified" (taxID == "0")
+				if (len == 1) {
+					int idA = index.getID(indexA), idB = index.getID(indexB);
+					if ((idA == 0) && (idB == 0)) {
+						return CommonAncestorIndex.COMMON_ROOT;
+					} else if (idA == 0) {
+						return indexB;
+					} else if (idB == 0) {
+						return indexA;
+					}
+				}
+				// Different superkingdoms share only the root
+				int ancestor = index.getLowestCommonAncestor(indexA, indexB);
+				return (ancestor == CommonAncestorIndex.ROOT) ? CommonAncestorIndex.COMMON_ROOT : ancestor;
+			}
 		},
 		MOST_SPECIFIC("by most specific member") {
 			@Override
@@ -106,6 +130,11 @@ public class TaxonomyUtils {
 					return nodeB;
 				}
 			}
+
+			@Override
+			public int getCommonIndex(CommonAncestorIndex index, int indexA, int indexB) {
+				return (index.getDepth(indexA) >= index.getDepth(indexB)) ? indexA : indexB;
+			}
 		};
 
 		/**
@@ -141,8 +170,29 @@ public class TaxonomyUtils {
 		 */
 		public abstract TaxonomyNode getCommonTaxonomyNode(TaxonomyNode nodeA,
 				TaxonomyNode nodeB);
+
+		/**
+		 * Returns the index of the common taxonomy of the specified pair of
+		 * indexed taxonomies. Follows the same rules as
+		 * {@link #getCommonTaxonomyNode(TaxonomyNode, TaxonomyNode)}.
+		 * 
+		 * @param index
+		 *            the index containing both taxonomies
+		 * @param indexA
+		 *            the index of the first taxonomy
+		 * @param indexB
+		 *            the index of the second taxonomy
+		 * @return the index of the common taxonomy or
+		 *         {@link CommonAncestorIndex#COMMON_ROOT}
+		 */
+		public abstract int getCommonIndex(CommonAncestorIndex index, int indexA, int indexB);
 	}
 
+	/**
+	 * The minimum number of taxonomic instances processed by a single task.
+	 */
+	private static final int MIN_PARTITION_SIZE = 1000;
+
 	/**
 	 * Private constructor as class contains only static helper methods.
 	 */
@@ -287,65 +337,28 @@ public class TaxonomyUtils {
 	 * @param peptideSet the peptide set
 	 */
 	public static void determinePeptideTaxonomy(Set<PeptideHit> peptideSet, TaxonomyDefinition definition) {
+		TaxonomyUtils.determinePeptideTaxonomy(peptideSet, definition, null);
+	}
 
-		// Map with taxonomy entries used to merge redundant nodes
-		Map<Integer, TaxonomyNode> nodeMap = new HashMap<Integer, TaxonomyNode>();
-		// Insert root node
-		nodeMap.put(1, new TaxonomyNode(1, TaxonomyRank.NO_RANK, "root"));
-
-		// Iterate peptides and gather common taxonomy
-		for (PeptideHit peptideHit : peptideSet) {
-
-			// Gather protein taxonomy nodes
-			List<TaxonomyNode> taxonNodes = new ArrayList<TaxonomyNode>();
-
-			for (ProteinHit proteinHit : peptideHit.getProteinHits()) {
-				taxonNodes.add(proteinHit.getTaxonomyNode());
-			}
-
-			// Find common ancestor node
-			TaxonomyNode ancestor = taxonNodes.get(0);
-			for (int i = 0; i < taxonNodes.size(); i++) {
-				ancestor = definition.getCommonTaxonomyNode(ancestor, taxonNodes.get(i));
-			}
-
-			// Gets the parent node of the taxon node
-			TaxonomyNode child = ancestor;
-			TaxonomyNode parent = nodeMap.get(ancestor.getID());
-			if (parent == null) {
-				parent = child.getParentNode();
-				// iterate up the taxonomy hierarchy until a mapped node is found (which may be the root)
-				while (true) {
-					// retrieve parent node from map
-					TaxonomyNode temp = nodeMap.get(parent.getID());
-
-					if (temp == null) {
-						// add child's parent node to map
-						child.setParentNode(parent);
-						nodeMap.put(parent.getID(), parent);
-						child = parent;
-						parent = parent.getParentNode();
-					} else {
-						// replace child's parent node with mapped parent and break out of loop
-						child.setParentNode(temp);
-						break;
-					}
-				}
-			} else {
-				ancestor = parent;
-			}
-
-			// set peptide hit taxon node to ancestor
-			peptideHit.setTaxonomyNode(ancestor);
+	/**
+	 * Method to go through a peptide set and define for each peptide hit the
+	 * common taxonomy of the subsequent proteins.
+	 * @param peptideSet the peptide set
+	 * @param definition the taxonomy definition
+	 * @param pool the fork-join pool to use or <code>null</code> to create one if needed
+	 */
+	public static void determinePeptideTaxonomy(Set<PeptideHit> peptideSet, TaxonomyDefinition definition, ForkJoinPool pool) {
+		List<PeptideHit> peptides = new ArrayList<PeptideHit>(peptideSet);
 
-			// possible TODO: determine spectrum taxonomy instead of inheriting directly from peptide
-			for (SpectrumMatch match : peptideHit.getSpectrumMatches()) {
-				match.setTaxonomyNode(ancestor);
-			}
-			
-			// fire progress notification
-			Client.getInstance().firePropertyChange("progressmade", false, true);
+		// Index protein taxonomies, common taxonomies are part of their lineages
+		CommonAncestorIndex index = new CommonAncestorIndex();
+		for (PeptideHit peptideHit : peptides) {
+			index.addAll(peptideHit.getProteinHits());
 		}
+		index.build();
+
+		// Find and set common ancestor nodes
+		determineCommonTaxonomyNodes(peptides, index, definition, true, pool);
 	}
 
 	/**
@@ -381,33 +394,167 @@ public class TaxonomyUtils {
 	 * @param definition the taxonomy definition
 	 */
 	public static void determineTaxonomy(List<? extends Taxonomic> taxList, TaxonomyDefinition definition) {
-		// iterate taxonomic list
+		TaxonomyUtils.determineTaxonomy(taxList, definition, null);
+	}
+
+	/**
+	 * Sets the taxonomy of the elements of the specified taxonomic list to the
+	 * common taxonomy based on their child taxonomies.
+	 * 
+	 * @param taxList the list of taxonomic instances
+	 * @param definition the taxonomy definition
+	 * @param pool the fork-join pool to use or <code>null</code> to create one if needed
+	 */
+	public static void determineTaxonomy(List<? extends Taxonomic> taxList, TaxonomyDefinition definition, ForkJoinPool pool) {
+		// Index child taxonomies
+		CommonAncestorIndex index = new CommonAncestorIndex();
 		for (Taxonomic taxonomic : taxList) {
-			// extract child taxonomy nodes
-			List<TaxonomyNode> taxonNodes = new ArrayList<TaxonomyNode>();
 			List<? extends Taxonomic> children = taxonomic.getTaxonomicChildren();
 			for (Taxonomic childTax : children) {
-				TaxonomyNode taxNode = childTax.getTaxonomyNode();
-				if (taxNode == null) {
+				if (childTax.getTaxonomyNode() == null) {
 					System.err.println("ERROR: no taxonomic children found for " + childTax);
 				}
-				taxonNodes.add(taxNode);
 			}
-			
-			// find common taxonomy node
-			TaxonomyNode ancestor = taxonNodes.get(0);
-			if (ancestor == null) {
-				System.err.println("ERROR: no taxonomic ancestor found for " + taxonomic);
+			index.addAll(children);
+		}
+		index.build();
+
+		// Find and set common taxonomy nodes
+		determineCommonTaxonomyNodes(taxList, index, definition, false, pool);
+	}
+
+	/**
+	 * Determines and sets the common taxonomy nodes of the specified
+	 * taxonomic instances, partitioning them across a fork-join pool if there
+	 * are enough of them. The taxonomies of peptides are determined from
+	 * their proteins and passed on to their spectrum matches, those of all
+	 * other instances are determined from their taxonomic children.
+	 * @param taxList the taxonomic instances
+	 * @param index the index containing the lineages of all children
+	 * @param definition the taxonomy definition
+	 * @param peptides <code>true</code> if the instances are peptide hits
+	 * @param pool the fork-join pool to use or <code>null</code> to create one if needed
+	 */
+	private static void determineCommonTaxonomyNodes(List<? extends Taxonomic> taxList,
+			CommonAncestorIndex index, TaxonomyDefinition definition, boolean peptides, ForkJoinPool pool) {
+		int size = taxList.size();
+		ProgressCounter progress = new ProgressCounter(size);
+		int threadCount = (pool != null) ? pool.getParallelism() : Runtime.getRuntime().availableProcessors();
+		if ((threadCount < 2) || (size < 2 * MIN_PARTITION_SIZE)) {
+			new AncestorTask(taxList, index, definition, peptides, progress, 0, size, size).compute();
+		} else {
+			int partitionSize = Math.max(MIN_PARTITION_SIZE, size / (threadCount * 4));
+			AncestorTask task = new AncestorTask(taxList, index, definition, peptides, progress, 0, size, partitionSize);
+			if (pool != null) {
+				pool.invoke(task);
+			} else {
+				pool = new ForkJoinPool(threadCount);
+				try {
+					pool.invoke(task);
+				} finally {
+					pool.shutdown();
+				}
 			}
-			for (int i = 1; i < taxonNodes.size(); i++) {
-				ancestor = definition.getCommonTaxonomyNode(ancestor, taxonNodes.get(i));
+		}
+		progress.finish();
+	}
+
+	/**
+	 * Fork-join task determining and setting the common taxonomy nodes of a
+	 * range of taxonomic instances.
+	 */
+	private static class AncestorTask extends RecursiveAction {
+
+		/**
+		 * Serialization ID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The taxonomic instances.
+		 */
+		private final List<? extends Taxonomic> taxList;
+
+		/**
+		 * The index containing the lineages of all children.
+		 */
+		private final CommonAncestorIndex index;
+
+		/**
+		 * The taxonomy definition.
+		 */
+		private final TaxonomyDefinition definition;
+
+		/**
+		 * Flag denoting whether the instances are peptide hits.
+		 */
+		private final boolean peptides;
+
+		/**
+		 * The progress counter shared by all tasks.
+		 */
+		private final ProgressCounter progress;
+
+		/**
+		 * The index range.
+		 */
+		private final int from, to;
+
+		/**
+		 * The maximum number of instances processed without further splitting.
+		 */
+		private final int partitionSize;
+
+		/**
+		 * Creates a task for the specified index range.
+		 */
+		public AncestorTask(List<? extends Taxonomic> taxList, CommonAncestorIndex index, TaxonomyDefinition definition,
+				boolean peptides, ProgressCounter progress, int from, int to, int partitionSize) {
+			this.taxList = taxList;
+			this.index = index;
+			this.definition = definition;
+			this.peptides = peptides;
+			this.progress = progress;
+			this.from = from;
+			this.to = to;
+			this.partitionSize = partitionSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= partitionSize) {
+				for (int i = from; i < to; i++) {
+					Taxonomic taxonomic = taxList.get(i);
+					if (peptides) {
+						// peptide taxonomies start by combining the first protein taxonomy with itself
+						PeptideHit peptideHit = (PeptideHit) taxonomic;
+						TaxonomyNode ancestor = index.getCommonTaxonomyNode(
+								peptideHit.getProteinHits(), definition, true);
+						peptideHit.setTaxonomyNode(ancestor);
+
+						// possible TODO: determine spectrum taxonomy instead of inheriting directly from peptide
+						for (SpectrumMatch match : peptideHit.getSpectrumMatches()) {
+							match.setTaxonomyNode(ancestor);
+						}
+					} else {
+						TaxonomyNode ancestor = index.getCommonTaxonomyNode(
+								taxonomic.getTaxonomicChildren(), definition, false);
+						if (ancestor == null) {
+							System.err.println("ERROR: no taxonomic ancestor found for " + taxonomic);
+						}
+						taxonomic.setTaxonomyNode(ancestor);
+					}
+					// add progress in batches to avoid contention on the counter
+					if (((i - from) & 0xFF) == 0xFF) {
+						progress.add(0x100);
+					}
+				}
+				progress.add((to - from) & 0xFF);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new AncestorTask(taxList, index, definition, peptides, progress, from, mid, partitionSize),
+						new AncestorTask(taxList, index, definition, peptides, progress, mid, to, partitionSize));
 			}
-			
-			// set common taxonomy node
-			taxonomic.setTaxonomyNode(ancestor);
-			
-			// fire progress notification
-			Client.getInstance().firePropertyChange("progressmade", false, true);
 		}
 	}
 
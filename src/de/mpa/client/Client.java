@@ -47,6 +47,7 @@ import de.mpa.client.ui.CheckBoxTreeTable;
 import de.mpa.client.ui.CheckBoxTreeTableNode;
 import de.mpa.client.ui.ClientFrame;
 import de.mpa.db.DBConfiguration;
+import de.mpa.db.SpectrumPeaksMigrator;
 import de.mpa.db.accessor.SpecSearchHit;
 import de.mpa.db.extractor.SpectrumExtractor;
 import de.mpa.graphdb.insert.GraphDatabaseHandler;
@@ -171,6 +172,8 @@ public class Client {
 			
 			DBConfiguration dbconfig = new DBConfiguration(connectionParams);
 			this.conn = dbconfig.getConnection();
+			// spectra are read from the binary peaks column
+			SpectrumPeaksMigrator.ensurePeaksColumn(conn);
 		}
 		return conn;
 	}
@@ -404,8 +407,8 @@ public class Client {
 		// Create a new graph database.
 		GraphDatabase graphDb = new GraphDatabase("target/graphdb", true);
 		
-		// Setup the graph database handler. 
-		graphDatabaseHandler = new GraphDatabaseHandler(graphDb);
+		// Setup the graph database handler, bulk import into the new database
+		graphDatabaseHandler = new GraphDatabaseHandler(graphDb, true);
 		graphDatabaseHandler.setData(dbSearchResult);
 	}
 	
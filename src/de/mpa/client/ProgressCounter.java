@@ -0,0 +1,106 @@
+package de.mpa.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe progress counter reporting the progress of a processing step
+ * to the client's listeners in batches.
+ * <p>
+ * Instead of firing one <code>"progressmade"</code> event per processed
+ * element, the counter fires absolute <code>"progress"</code> events once
+ * the count has advanced by at least one percent of the expected total and
+ * the last event lies at least {@link #MIN_INTERVAL} milliseconds back.
+ * Counts may be added concurrently from several worker threads.
+ */
+public class ProgressCounter {
+
+	/**
+	 * The number of count steps into which the expected total is divided.
+	 */
+	private static final int STEPS = 100;
+
+	/**
+	 * The minimum time between two progress events in milliseconds.
+	 */
+	public static final long MIN_INTERVAL = 50L;
+
+	/**
+	 * The current count.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * The count at which the next progress event is due.
+	 */
+	private final AtomicLong nextCount;
+
+	/**
+	 * The count increase between two progress events.
+	 */
+	private final long step;
+
+	/**
+	 * The time of the last progress event in milliseconds.
+	 */
+	private volatile long lastTime;
+
+	/**
+	 * Creates a progress counter for the specified expected total count.
+	 * @param total the expected total count
+	 */
+	public ProgressCounter(long total) {
+		this.step = Math.max(1L, total / STEPS);
+		this.nextCount = new AtomicLong(step);
+	}
+
+	/**
+	 * Increments the count by one.
+	 */
+	public void increment() {
+		this.add(1L);
+	}
+
+	/**
+	 * Increments the count by the specified amount and fires a progress event
+	 * if one is due.
+	 * @param delta the count increase
+	 */
+	public void add(long delta) {
+		long value = count.addAndGet(delta);
+		long next = nextCount.get();
+		if ((value >= next) && (System.currentTimeMillis() - lastTime >= MIN_INTERVAL)
+				&& nextCount.compareAndSet(next, value + step)) {
+			// only the thread advancing the threshold reports
+			this.fireProgress();
+		}
+	}
+
+	/**
+	 * Returns the current count.
+	 * @return the count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Fires a progress event for the final count. To be called once all
+	 * elements have been processed.
+	 */
+	public void finish() {
+		this.fireProgress();
+	}
+
+	/**
+	 * Fires a progress event for the current count. Events are fired one at
+	 * a time, the reported counts thus never decrease.
+	 */
+	private synchronized void fireProgress() {
+		lastTime = System.currentTimeMillis();
+		Client client = Client.getInstance();
+		if (client != null) {
+			client.firePropertyChange("progress", -1L, count.get());
+		}
+	}
+
+}
@@ -3,7 +3,6 @@ package de.mpa.client.model;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -13,7 +12,7 @@ import org.jdesktop.swingx.error.ErrorLevel;
 
 import de.mpa.analysis.UniProtUtilities.TaxonomyRank;
 import de.mpa.analysis.taxonomy.TaxonomyNode;
-import de.mpa.analysis.taxonomy.TaxonomyUtils;
+import de.mpa.analysis.taxonomy.TaxonomyTree;
 import de.mpa.client.Client;
 import de.mpa.client.model.dbsearch.DbSearchResult;
 import de.mpa.client.model.dbsearch.PeptideHit;
@@ -25,13 +24,13 @@ import de.mpa.client.ui.dialogs.GeneralDialog.Operation;
 import de.mpa.db.ProjectManager;
 import de.mpa.db.accessor.ExpProperty;
 import de.mpa.db.accessor.ExperimentAccessor;
-import de.mpa.db.accessor.PeptideAccessor;
 import de.mpa.db.accessor.ProteinAccessor;
 import de.mpa.db.accessor.SearchHit;
 import de.mpa.db.accessor.Searchspectrum;
-import de.mpa.db.accessor.Taxonomy;
 import de.mpa.db.accessor.Uniprotentry;
 import de.mpa.db.extractor.SearchHitExtractor;
+import de.mpa.db.extractor.SearchHitExtractor.SearchHitHandler;
+import de.mpa.db.extractor.SearchResultExtractor;
 
 /**
  * Implementation of the experiment interface for database-linked experiments.
@@ -46,9 +45,9 @@ public class DatabaseExperiment extends AbstractExperiment {
 	private DbSearchResult searchResult;
 	
 	/**
-	 * Taxonomy map containing all entries from taxonomy db table.
+	 * The shared taxonomy tree.
 	 */
-	private Map<Long, Taxonomy> taxonomyMap;
+	private TaxonomyTree taxonomyTree;
 	
 	/**
 	 * The shared taxonomy node instance for undefined taxonomies.
@@ -92,9 +91,6 @@ public class DatabaseExperiment extends AbstractExperiment {
 				this.addProperty(property.getName(), property.getValue());
 			}
 		}
-		
-		// init taxonomy map
-		this.taxonomyMap = new HashMap<>();
 	}
 	
 	@Override
@@ -112,7 +108,7 @@ public class DatabaseExperiment extends AbstractExperiment {
 	@Override
 	public DbSearchResult getSearchResult() {
 		if (searchResult == null) {
-			Client client = Client.getInstance();
+			final Client client = Client.getInstance();
 			try {
 				// initialize the result object
 				DbSearchResult searchResult = new DbSearchResult(this.getProject().getTitle(), this.getTitle(), null);
@@ -125,24 +121,41 @@ public class DatabaseExperiment extends AbstractExperiment {
 				// initialize database connection
 				Connection conn = client.getConnection();
 
-				// gather search hits from remote database
-				List<SearchHit> searchHits = SearchHitExtractor.findSearchHitsFromExperimentID(this.getID(), conn);
+				// gather proteins and UniProt entries referenced by the search hits in bulk
+				final SearchResultExtractor extractor = new SearchResultExtractor(conn);
+				extractor.extractFromExperimentID(this.getID());
+				
+				// resolve taxonomies through the shared tree, reload it only if the taxonomy table has changed since
+				taxonomyTree = TaxonomyTree.getInstance(conn, extractor.getTaxonomyIDs());
+				
+				// determine total spectral count
+				int spectralCount = Searchspectrum.getSpectralCountFromExperimentID(this.getID(), conn);
+				searchResult.setTotalSpectrumCount(spectralCount);
 
-				long maxProgress = searchHits.size();
+				// progress is measured in search spectra as hits arrive ordered by spectrum
 				client.firePropertyChange("new message", null, "BUILDING RESULTS OBJECT");
 				client.firePropertyChange("indeterminate", true, false);
-				client.firePropertyChange("resetall", 0L, maxProgress);
-				client.firePropertyChange("resetcur", 0L, maxProgress);
-				
+				client.firePropertyChange("resetall", 0L, (long) spectralCount);
+				client.firePropertyChange("resetcur", 0L, (long) spectralCount);
 				
-				// add search hits to result object
-				for (SearchHit searchHit : searchHits) {
-					this.addProteinSearchHit(searchResult, searchHit, this.getID(), conn);
-					client.firePropertyChange("progressmade", true, false);
-				}
-				
-				// determine total spectral count
-				searchResult.setTotalSpectrumCount(Searchspectrum.getSpectralCountFromExperimentID(this.getID(), conn));
+				// stream search hits from remote database into result object
+				final DbSearchResult result = searchResult;
+				final Connection connection = conn;
+				SearchHitExtractor.extractSearchHitsFromExperimentID(this.getID(), conn, new SearchHitHandler() {
+					/** The ID of the previously handled search spectrum. */
+					private long lastSpectrumID = -1L;
+					
+					@Override
+					public void handleSearchHit(SearchHit searchHit) throws SQLException {
+						long proteinID = searchHit.getFk_proteinid();
+						addProteinSearchHit(result, searchHit, extractor.getProtein(proteinID),
+								extractor.getUniProtEntry(proteinID), getID(), connection);
+						if (searchHit.getFk_searchspectrumid() != lastSpectrumID) {
+							lastSpectrumID = searchHit.getFk_searchspectrumid();
+							client.firePropertyChange("progressmade", true, false);
+						}
+					}
+				});
 
 				client.firePropertyChange("new message", null, "BUILDING RESULTS OBJECT FINISHED");
 
@@ -168,20 +181,31 @@ public class DatabaseExperiment extends AbstractExperiment {
 	 */
 	public void addProteinSearchHit(DbSearchResult result, SearchHit hit,
 			long experimentID, Connection conn) throws Exception {
+		// retrieve the protein database entry and its UniProt meta-data
+		long proteinID = hit.getFk_proteinid();
+		this.addProteinSearchHit(result, hit, ProteinAccessor.findFromID(proteinID, conn),
+				Uniprotentry.findFromProteinID(proteinID, conn), experimentID, conn);
+	}
+	
+	/**
+	 * This method converts a search hit into a protein hit using the provided
+	 * protein database entry and UniProt meta-data and adds it to the current
+	 * protein hit set.
+	 * @param result the database search result
+	 * @param hit the search hit implementation
+	 * @param protein the protein database entry
+	 * @param uniprotEntryAccessor the UniProt meta-data, may be <code>null</code>
+	 * @param experimentID the experiment ID
+	 */
+	private void addProteinSearchHit(DbSearchResult result, SearchHit hit, ProteinAccessor protein,
+			Uniprotentry uniprotEntryAccessor, long experimentID, Connection conn) throws SQLException {
 
 		// wrap the search hit in a new PSM
 		PeptideSpectrumMatch psm = new PeptideSpectrumMatch(hit.getFk_searchspectrumid(), hit);
 		
-		// wrap the PSM in a new peptide
-		PeptideAccessor peptide = PeptideAccessor.findFromID(hit.getFk_peptideid(), conn);
-		PeptideHit peptideHit = new PeptideHit(peptide.getSequence(), psm);
-		
-		// retrieve the protein database entry
-		long proteinID = hit.getFk_proteinid();
-		ProteinAccessor protein = ProteinAccessor.findFromID(proteinID, conn);
+		// wrap the PSM in a new peptide, the hit queries already provide the sequence
+		PeptideHit peptideHit = new PeptideHit(hit.getSequence(), psm);
 		
-		// retrieve UniProt meta-data
-		Uniprotentry uniprotEntryAccessor = Uniprotentry.findFromProteinID(proteinID, conn);
 		ReducedUniProtEntry uniprotEntry = null;
 		TaxonomyNode taxonomyNode = null;
 		// if meta-data exists...
@@ -196,8 +220,11 @@ public class DatabaseExperiment extends AbstractExperiment {
 					uniprotEntryAccessor.getUniref90(),
 					uniprotEntryAccessor.getUniref50());
 			
-			// retrieve taxonomy branch
-			taxonomyNode = TaxonomyUtils.createTaxonomyNode(taxID, taxonomyMap, conn);
+			// retrieve shared taxonomy branch
+			if (taxonomyTree == null) {
+				taxonomyTree = TaxonomyTree.getInstance(conn);
+			}
+			taxonomyNode = taxonomyTree.getNode(taxID);
 		} else {
 			// create dummy UniProt entry
 			uniprotEntry = new ReducedUniProtEntry(1, "", "", "", null, null, null);
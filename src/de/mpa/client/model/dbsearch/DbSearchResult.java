@@ -2,6 +2,7 @@ package de.mpa.client.model.dbsearch;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -64,6 +65,24 @@ public class DbSearchResult implements Serializable {
 	 */
 	private int totalSpectra;
 
+	/**
+	 * Index of the visible protein hits by accession. Lazily built, not
+	 * serialized.
+	 */
+	private transient Map<String, ProteinHit> proteinIndex;
+
+	/**
+	 * Index of the visible peptide hits by sequence. Lazily built, not
+	 * serialized.
+	 */
+	private transient Map<String, PeptideHit> peptideIndex;
+
+	/**
+	 * Index of the visible spectrum matches by peptide sequence and search
+	 * spectrum ID. Lazily built, not serialized.
+	 */
+	private transient Map<String, SpectrumMatch> matchIndex;
+
 	/**
 	 * Constructs a result object from the specified project title, experiment
 	 * title and FASTA database name.
@@ -91,7 +110,7 @@ public class DbSearchResult implements Serializable {
 		Set<Long> experimentIDs = proteinHit.getExperimentIDs();
 
 		// check for existing elements
-		
+		buildIndexes();
 		SpectrumMatch currentSpectrumMatch = this.getSpectrumMatch(peptideHit.getSequence() + spectrumMatch.getSearchSpectrumID());
 		if (currentSpectrumMatch != null) {
 			currentSpectrumMatch.addExperimentIDs(experimentIDs);
@@ -116,12 +135,64 @@ public class DbSearchResult implements Serializable {
 					"Meta-Protein " + proteinHit.getAccession(), proteinHit);
 			proteinHit.setMetaProteinHit(mph);
 			this.metaProteins.add(mph);
+			proteinIndex.put(proteinHit.getAccession(), proteinHit);
 		}
 		
 		// add elements, possibly replacing them with existing ones
 		proteinHit.addPeptideHit(peptideHit);
 		peptideHit.addSpectrumMatch(peptideHit.getSequence(), spectrumMatch);
 		spectrumMatch.addSearchHit(searchHit);
+		
+		// update indexes
+		if (currentPeptideHit == null) {
+			peptideIndex.put(peptideHit.getSequence(), peptideHit);
+		}
+		if (currentSpectrumMatch == null) {
+			matchIndex.put(peptideHit.getSequence() + spectrumMatch.getSearchSpectrumID(), spectrumMatch);
+		}
+	}
+
+	/**
+	 * Builds the protein, peptide and spectrum match indexes from the
+	 * currently visible meta-proteins unless they already exist.
+	 */
+	private void buildIndexes() {
+		if (proteinIndex != null) {
+			return;
+		}
+		proteinIndex = new HashMap<String, ProteinHit>();
+		peptideIndex = new HashMap<String, PeptideHit>();
+		matchIndex = new HashMap<String, SpectrumMatch>();
+		for (ProteinHit mph : this.getMetaProteins()) {
+			for (Map.Entry<String, ProteinHit> proteinEntry : ((MetaProteinHit) mph).getProteinHits().entrySet()) {
+				ProteinHit proteinHit = proteinEntry.getValue();
+				// the first occurrence wins, like in a linear scan
+				if (!proteinIndex.containsKey(proteinEntry.getKey())) {
+					proteinIndex.put(proteinEntry.getKey(), proteinHit);
+				}
+				for (PeptideHit peptideHit : proteinHit.getPeptideHits().values()) {
+					String sequence = peptideHit.getSequence();
+					if (!peptideIndex.containsKey(sequence)) {
+						peptideIndex.put(sequence, peptideHit);
+					}
+					for (SpectrumMatch spectrumMatch : peptideHit.getSpectrumMatches()) {
+						String key = sequence + spectrumMatch.getSearchSpectrumID();
+						if (!matchIndex.containsKey(key)) {
+							matchIndex.put(key, spectrumMatch);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Discards the indexes, they are rebuilt upon the next lookup.
+	 */
+	private void clearIndexes() {
+		proteinIndex = null;
+		peptideIndex = null;
+		matchIndex = null;
 	}
 
 	/**
@@ -166,6 +237,7 @@ public class DbSearchResult implements Serializable {
 	 */
 	public void clearVisibleMetaProteins() {
 		this.visMetaProteins = null;
+		this.clearIndexes();
 	}
 
 	/**
@@ -203,15 +275,8 @@ public class DbSearchResult implements Serializable {
 	 * @return the protein hit or <code>null</code> if no such hit exists
 	 */
 	public ProteinHit getProteinHit(String accession) {
-		ProteinHitList metaProteins =
-				(visMetaProteins == null) ? this.metaProteins : this.visMetaProteins;
-		for (ProteinHit mph : metaProteins) {
-			ProteinHit ph = ((MetaProteinHit) mph).getProteinHit(accession);
-			if (ph != null) {
-				return ph;
-			}
-		}
-		return null;
+		this.buildIndexes();
+		return proteinIndex.get(accession);
 	}
 	
 	/**
@@ -220,30 +285,18 @@ public class DbSearchResult implements Serializable {
 	 * @return the peptide hit or <code>null</code> if no such hit exists
 	 */
 	public PeptideHit getPeptideHit(String sequence) {
-		for (ProteinHit proteinHit : this.getProteinHitList()) {
-			PeptideHit peptideHit = proteinHit.getPeptideHit(sequence);
-			if (peptideHit != null) {
-				return peptideHit;
-			}
-		}
-		return null;
+		this.buildIndexes();
+		return peptideIndex.get(sequence);
 	}
 	
 	/**
 	 * Returns the spectrum match for a particular search spectrum ID.
-	 * @param key the search spectrum database key
+	 * @param key the peptide sequence concatenated with the search spectrum database key
 	 * @return the spectrum match or <code>null</code> if no such match exists
 	 */
 	public SpectrumMatch getSpectrumMatch(String key) {
-		for (ProteinHit proteinHit : this.getProteinHitList()) {
-			for (PeptideHit peptideHit : proteinHit.getPeptideHits().values()) {
-				SpectrumMatch spectrumMatch = peptideHit.getSpectrumMatch(key);
-				if (spectrumMatch != null) {
-					return spectrumMatch;
-				}
-			}
-		}
-		return null;
+		this.buildIndexes();
+		return matchIndex.get(key);
 	}
 
 	/**
@@ -350,6 +403,7 @@ public class DbSearchResult implements Serializable {
 	 * @param fdr the FDR threshold.
 	 */
 	public void setFDR(double fdr) {
+		this.clearIndexes();
 		this.visMetaProteins = new ProteinHitList();
 		for (ProteinHit mph : metaProteins) {
 			mph.setFDR(fdr);
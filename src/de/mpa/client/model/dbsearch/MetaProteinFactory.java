@@ -3,11 +3,12 @@ package de.mpa.client.model.dbsearch;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.log4j.Logger;
 
 import de.mpa.analysis.UniProtUtilities.TaxonomyRank;
 import de.mpa.analysis.taxonomy.TaxonomyUtils;
@@ -22,6 +23,11 @@ import de.mpa.client.settings.ResultParameters;
  */
 public class MetaProteinFactory {
 	
+	/**
+	 * Logger instance.
+	 */
+	private static Logger log = Logger.getLogger(MetaProteinFactory.class);
+	
 //	/**
 //	 * Enumeration holding rules for generating meta-proteins based on peptide sharing.
 //	 * @author A. Behne
@@ -449,6 +455,14 @@ public class MetaProteinFactory {
 			return this.name;
 		}
 
+		/**
+		 * Returns the taxonomy rank on which meta-proteins are merged.
+		 * @return the taxonomy rank or <code>null</code> for the trivial rules
+		 */
+		public TaxonomyRank getRank() {
+			return this.rank;
+		}
+
 		/**
 		 * Returns whether the provided meta-proteins should be merged on
 		 * grounds of sharing the same common taxonomy defined by the specified
@@ -531,55 +545,88 @@ public class MetaProteinFactory {
 	/**
 	 * Creates meta-proteins from the specified database search result and
 	 * creates the peptide, protein and meta-protein taxonomies.
+	 * <p>
+	 * The processing phases run one after another, the per-element taxonomy
+	 * phases distribute their elements across a fork-join pool shared by the
+	 * whole pipeline. The time spent in each phase is logged at the end.
 	 * @param result the database search result
 	 * @param params the result parameter settings
 	 */
 	public static void determineTaxonomyAndCreateMetaProteins(DbSearchResult result, ResultParameters params) {
-		// Create metaproteins for the new result object.
-		Client client = Client.getInstance();
-		
-		// Get various hit lists from result object
-		ProteinHitList metaProteins = result.getMetaProteins();
-		List<ProteinHit> proteinList = result.getProteinHitList();
-		Set<PeptideHit> peptideSet = ((ProteinHitList) proteinList).getPeptideSet();	// all distinct peptides
-
-		client.firePropertyChange("new message", null, "DETERMINING PEPTIDE TAXONOMY");
-		client.firePropertyChange("resetall", -1L, (long) (peptideSet.size() + proteinList.size() + metaProteins.size()));
-		client.firePropertyChange("resetcur", -1L, (long) peptideSet.size());
-
-		// Define common peptide taxonomy for each peptide
-		TaxonomyUtils.determinePeptideTaxonomy(
-				result.getMetaProteins().getPeptideSet(), TaxonomyDefinition.COMMON_ANCESTOR);
-		
-		client.firePropertyChange("new message", null, "DETERMINING PEPTIDE TAXONOMY FINISHED");
-		
-		// Apply FDR cut-off
-		result.setFDR((Double) params.get("FDR").getValue());
-
-		// Determine protein taxonomy
-		client.firePropertyChange("new message", null, "DETERMINING PROTEIN TAXONOMY");
-		client.firePropertyChange("resetcur", -1L, (long) result.getProteinHitList().size());
+		long[] durations = new long[5];
+		long start = System.nanoTime();
 
-		// Define protein taxonomy by common tax ID of peptides
-		TaxonomyUtils.determineProteinTaxonomy(result.getProteinHitList(), params);
-		
-		client.firePropertyChange("new message", null, "DETERMINING PROTEIN TAXONOMY FINISHED");
-
-		client.firePropertyChange("new message", null, "CONDENSING META-PROTEINS");
-		client.firePropertyChange("resetcur", -1L, (long) result.getMetaProteins().size());
+		// Get all distinct peptides and count proteins of result object
+		ProteinHitList metaProteins = result.getMetaProteins();
+		Set<PeptideHit> peptideSet = metaProteins.getPeptideSet();
+		int numProteins = 0;
+		for (ProteinHit mph : metaProteins) {
+			numProteins += ((MetaProteinHit) mph).getProteinHits().size();
+		}
+		Client.getInstance().firePropertyChange("resetall", -1L, (long) (peptideSet.size() + numProteins + metaProteins.size()));
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			// Define common peptide taxonomy for each peptide
+			long phaseStart = startPhase("DETERMINING PEPTIDE TAXONOMY", peptideSet.size());
+			TaxonomyUtils.determinePeptideTaxonomy(peptideSet, TaxonomyDefinition.COMMON_ANCESTOR, pool);
+			durations[0] = finishPhase("DETERMINING PEPTIDE TAXONOMY", phaseStart);
+
+			// Apply FDR cut-off
+			phaseStart = System.nanoTime();
+			result.setFDR((Double) params.get("FDR").getValue());
+			durations[1] = System.nanoTime() - phaseStart;
+
+			// Define protein taxonomy by common tax ID of peptides
+			List<ProteinHit> proteinList = result.getProteinHitList();
+			phaseStart = startPhase("DETERMINING PROTEIN TAXONOMY", proteinList.size());
+			TaxonomyUtils.determineTaxonomy(proteinList,
+					(TaxonomyDefinition) params.get("proteinTaxonomy").getValue(), pool);
+			durations[2] = finishPhase("DETERMINING PROTEIN TAXONOMY", phaseStart);
+
+			// Combine proteins to metaproteins
+			phaseStart = startPhase("CONDENSING META-PROTEINS", result.getMetaProteins().size());
+			MetaProteinFactory.condenseMetaProteins(result.getMetaProteins(), params);
+			durations[3] = finishPhase("CONDENSING META-PROTEINS", phaseStart);
+
+			// Determine meta-protein taxonomy
+			phaseStart = startPhase("DETERMINING META-PROTEIN TAXONOMY", result.getMetaProteins().size());
+			TaxonomyUtils.determineTaxonomy(result.getMetaProteins(),
+					(TaxonomyDefinition) params.get("metaProteinTaxonomy").getValue(), pool);
+			durations[4] = finishPhase("DETERMINING META-PROTEIN TAXONOMY", phaseStart);
+		} finally {
+			pool.shutdown();
+		}
 
-		// Combine proteins to metaproteins
-		MetaProteinFactory.condenseMetaProteins(result.getMetaProteins(), params);
+		log.info(String.format("Processed result in %.2f s (peptide taxonomy %.2f s, FDR %.2f s, "
+				+ "protein taxonomy %.2f s, condensing %.2f s, meta-protein taxonomy %.2f s).",
+				(System.nanoTime() - start) / 1e9, durations[0] / 1e9, durations[1] / 1e9,
+				durations[2] / 1e9, durations[3] / 1e9, durations[4] / 1e9));
+	}
 
-		client.firePropertyChange("new message", null, "CONDENSING META-PROTEINS FINISHED");
+	/**
+	 * Announces the start of a result processing phase.
+	 * @param message the status message
+	 * @param size the number of elements to process
+	 * @return the start time of the phase in nanoseconds
+	 */
+	private static long startPhase(String message, int size) {
+		Client client = Client.getInstance();
+		client.firePropertyChange("new message", null, message);
+		client.firePropertyChange("resetcur", -1L, (long) size);
+		return System.nanoTime();
+	}
 
-		client.firePropertyChange("new message", null, "DETERMINING META-PROTEIN TAXONOMY");
-		client.firePropertyChange("resetcur", -1L, (long) result.getMetaProteins().size());
-		
-		// Determine meta-protein taxonomy
-		TaxonomyUtils.determineMetaProteinTaxonomy(result.getMetaProteins(), params);
-		
-		client.firePropertyChange("new message", null, "DETERMINING META-PROTEIN TAXONOMY FINISHED");
+	/**
+	 * Announces the end of a result processing phase.
+	 * @param message the status message of the phase
+	 * @param start the start time of the phase in nanoseconds
+	 * @return the duration of the phase in nanoseconds
+	 */
+	private static long finishPhase(String message, long start) {
+		long duration = System.nanoTime() - start;
+		Client.getInstance().firePropertyChange("new message", null, message + " FINISHED");
+		return duration;
 	}
 	
 	/**
@@ -595,66 +642,8 @@ public class MetaProteinFactory {
 			PeptideRule peptideRule = (PeptideRule) params.get("peptideRule").getValue();
 			TaxonomyRule taxonomyRule = (TaxonomyRule) params.get("taxonomyRule").getValue();
 			
-			boolean distinctIL = peptideRule.isDistinctIL();
-			
-			// Iterate (initially single-protein) meta-proteins
-			Iterator<ProteinHit> rowIter = metaProteins.iterator();
-			while (rowIter.hasNext()) {
-				MetaProteinHit rowMP = (MetaProteinHit) rowIter.next();
-	
-				// Get set of peptide sequences
-				Set<PeptideHit> rowPeps = rowMP.getPeptideSet();
-				Set<String> rowPepSeqs = new HashSet<String>() ;
-				for (PeptideHit peptideHit : rowPeps) {
-					// Make copy of sequence string to avoid overwriting the original sequence
-					String sequence = new String(peptideHit.getSequence());
-					// Merge leucine and isoleucine if not considered distinct
-					if (!distinctIL) {
-						sequence = sequence.replaceAll("[IL]", "L");
-					}
-					rowPepSeqs.add(sequence);
-				}
-	
-				// Nested iteration of the same meta-protein list, stop when outer and inner iteration element 
-				// are identical, iterate backwards from the end of the list
-				ListIterator<ProteinHit> colIter = metaProteins.listIterator(metaProteins.size());
-				while (colIter.hasPrevious()) {
-					MetaProteinHit colMP = (MetaProteinHit) colIter.previous();
-					// Check termination condition
-					if (rowMP == colMP) {
-						break;
-					}
-	
-					// Get set of peptide sequences (of inner iteration element)
-					Set<PeptideHit> colPeps = colMP.getPeptideSet();
-					Set<String> colPepSeqs = new HashSet<String>() ;
-					for (PeptideHit peptideHit : colPeps) {
-						// Make copy of sequence string to avoid overwriting the original sequence
-						String sequence = new String(peptideHit.getSequence());
-						// Merge leucine and isoleucine into one if desired
-						if (!distinctIL) {
-							sequence = sequence.replaceAll("[IL]", "L");
-						}
-						colPepSeqs.add(sequence);
-					}
-	
-					// Merge meta-proteins if rules apply
-					if (clusterRule.shouldCondense(rowMP, colMP)
-							&& peptideRule.shouldCondense(rowPepSeqs, colPepSeqs)
-	//						&& levRule.shouldCondense(rowPepSeqs, colPepSeqs, levThreshold)
-							&& taxonomyRule.shouldCondense(rowMP, colMP)) {
-						// Add all proteins of outer meta-protein to inner meta-protein
-						colMP.addAll(rowMP.getProteinHitList());
-						// Remove emptied outer meta-protein from list
-						rowIter.remove();
-						// Abort inner iteration as outer element has been removed and 
-						// therefore cannot be merged into another meta-protein again
-						break;
-					}
-				}
-				// Fire progress notification
-				Client.getInstance().firePropertyChange("progressmade", false, true);
-			}
+			// Merge meta-proteins if rules apply
+			new MetaProteinGrouper(clusterRule, peptideRule, taxonomyRule).condense(metaProteins);
 	
 			// Re-number condensed meta-proteins
 			int metaIndex = 1;
@@ -0,0 +1,401 @@
+package de.mpa.client.model.dbsearch;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.mpa.analysis.taxonomy.TaxonomyUtils;
+import de.mpa.client.ProgressCounter;
+import de.mpa.client.model.dbsearch.MetaProteinFactory.ClusterRule;
+import de.mpa.client.model.dbsearch.MetaProteinFactory.PeptideRule;
+import de.mpa.client.model.dbsearch.MetaProteinFactory.TaxonomyRule;
+
+/**
+ * Grouping engine merging meta-proteins according to cluster, peptide and
+ * taxonomy rules.
+ * <p>
+ * Meta-proteins are visited in list order and each one is merged into the
+ * last following meta-protein satisfying all rules, exactly like the
+ * pairwise comparison of all meta-proteins. Instead of comparing every pair,
+ * cluster and taxonomy rules partition the meta-proteins into classes of
+ * equal UniRef cluster and taxon names, and an inverted index of normalized
+ * peptide sequences yields the candidates sharing peptides. A disjoint-set
+ * structure maps indexed meta-proteins to the meta-proteins they have been
+ * merged into.
+ */
+public class MetaProteinGrouper {
+
+	/**
+	 * The maximum Levenshtein distance for which peptide deletion variants
+	 * are indexed, larger distances compare all meta-proteins of a class.
+	 */
+	private static final int MAX_INDEXED_DISTANCE = 3;
+
+	/**
+	 * The cluster rule.
+	 */
+	private ClusterRule clusterRule;
+
+	/**
+	 * The peptide rule.
+	 */
+	private PeptideRule peptideRule;
+
+	/**
+	 * The taxonomy rule.
+	 */
+	private TaxonomyRule taxonomyRule;
+
+	/**
+	 * The meta-proteins.
+	 */
+	private MetaProteinHit[] metaProteins;
+
+	/**
+	 * The class index of each meta-protein, <code>-1</code> if it is never merged.
+	 */
+	private int[] classes;
+
+	/**
+	 * The members of each class in list order.
+	 */
+	private List<TIntArrayList> classMembers;
+
+	/**
+	 * The disjoint-set parent of each meta-protein.
+	 */
+	private int[] parents;
+
+	/**
+	 * The normalized peptide sequences of each remaining meta-protein.
+	 */
+	private List<Set<String>> peptideSets;
+
+	/**
+	 * The inverted index of peptide keys to meta-proteins.
+	 */
+	private Map<String, TIntArrayList> peptideIndex;
+
+	/**
+	 * The meta-proteins without peptides in list order.
+	 */
+	private TIntArrayList emptyMembers;
+
+	/**
+	 * Cache of normalized peptide sequences.
+	 */
+	private Map<String, String> normalized;
+
+	/**
+	 * Constructs a grouping engine using the specified rules.
+	 * @param clusterRule the cluster rule
+	 * @param peptideRule the peptide rule
+	 * @param taxonomyRule the taxonomy rule
+	 */
+	public MetaProteinGrouper(ClusterRule clusterRule, PeptideRule peptideRule, TaxonomyRule taxonomyRule) {
+		this.clusterRule = clusterRule;
+		this.peptideRule = peptideRule;
+		this.taxonomyRule = taxonomyRule;
+	}
+
+	/**
+	 * Merges the meta-proteins of the specified list. Merged meta-proteins
+	 * are removed from the list.
+	 * @param metaProteinList the list of meta-proteins to condense
+	 */
+	public void condense(ProteinHitList metaProteinList) {
+		int size = metaProteinList.size();
+		metaProteins = metaProteinList.toArray(new MetaProteinHit[size]);
+		parents = new int[size];
+		for (int i = 0; i < size; i++) {
+			parents[i] = i;
+		}
+		buildClasses();
+		buildPeptideIndex();
+
+		boolean[] merged = new boolean[size];
+		ProgressCounter progress = new ProgressCounter(size);
+		for (int i = 0; i < size; i++) {
+			if (classes[i] >= 0) {
+				int target = findTarget(i);
+				if (target >= 0) {
+					// Add all proteins of current meta-protein to target meta-protein
+					metaProteins[target].addAll(metaProteins[i].getProteinHitList());
+					parents[i] = target;
+					merged[i] = true;
+					peptideSets.set(target, getPeptideSequences(metaProteins[target]));
+					peptideSets.set(i, null);
+				}
+			}
+			progress.increment();
+		}
+		progress.finish();
+
+		List<ProteinHit> remaining = new ArrayList<ProteinHit>();
+		for (int i = 0; i < size; i++) {
+			if (!merged[i]) {
+				remaining.add(metaProteins[i]);
+			}
+		}
+		metaProteinList.clear();
+		metaProteinList.addAll(remaining);
+	}
+
+	/**
+	 * Partitions the meta-proteins into classes of meta-proteins which may
+	 * be merged according to the cluster and taxonomy rules.
+	 */
+	private void buildClasses() {
+		classes = new int[metaProteins.length];
+		classMembers = new ArrayList<TIntArrayList>();
+		Arrays.fill(classes, -1);
+		if ((clusterRule == ClusterRule.NEVER) || (peptideRule == PeptideRule.NEVER) || (taxonomyRule == TaxonomyRule.NEVER)) {
+			return;
+		}
+		Map<List<String>, Integer> classIndices = new HashMap<List<String>, Integer>();
+		for (int i = 0; i < metaProteins.length; i++) {
+			String clusterKey = getClusterKey(metaProteins[i]);
+			String taxonomyKey = getTaxonomyKey(metaProteins[i]);
+			if ((clusterKey != null) && (taxonomyKey != null)) {
+				List<String> key = Arrays.asList(clusterKey, taxonomyKey);
+				Integer index = classIndices.get(key);
+				if (index == null) {
+					index = classMembers.size();
+					classIndices.put(key, index);
+					classMembers.add(new TIntArrayList());
+				}
+				classes[i] = index;
+				classMembers.get(index).add(i);
+			}
+		}
+	}
+
+	/**
+	 * Returns the UniRef cluster identifier of the first protein of the
+	 * specified meta-protein as required by the cluster rule.
+	 * @return the cluster key or <code>null</code> if the meta-protein is never merged
+	 */
+	private String getClusterKey(MetaProteinHit mph) {
+		if (clusterRule == ClusterRule.ALWAYS) {
+			return "";
+		}
+		ReducedUniProtEntry upe = mph.getProteinHitList().get(0).getUniProtEntry();
+		if (upe == null) {
+			return null;
+		}
+		switch (clusterRule) {
+			case UNIREF100:
+				return upe.getUniRef100id();
+			case UNIREF90:
+				return upe.getUniRef90id();
+			case UNIREF50:
+				return upe.getUniRef50id();
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Returns the taxon name of the first protein of the specified
+	 * meta-protein on the rank required by the taxonomy rule.
+	 * @return the taxonomy key or <code>null</code> if the meta-protein is never merged
+	 */
+	private String getTaxonomyKey(MetaProteinHit mph) {
+		if (taxonomyRule == TaxonomyRule.ALWAYS) {
+			return "";
+		}
+		ProteinHit ph = mph.getProteinHitList().get(0);
+		return TaxonomyUtils.getTaxonNameByRank(ph.getTaxonomyNode(), taxonomyRule.getRank());
+	}
+
+	/**
+	 * Computes the normalized peptide sequences of all meta-proteins and
+	 * indexes them.
+	 */
+	private void buildPeptideIndex() {
+		normalized = new HashMap<String, String>();
+		peptideSets = new ArrayList<Set<String>>(metaProteins.length);
+		peptideIndex = new HashMap<String, TIntArrayList>();
+		emptyMembers = new TIntArrayList();
+		boolean indexed = (peptideRule != PeptideRule.ALWAYS) && (peptideRule.getMaximumDistance() <= MAX_INDEXED_DISTANCE);
+		for (int i = 0; i < metaProteins.length; i++) {
+			if (classes[i] < 0) {
+				peptideSets.add(null);
+				continue;
+			}
+			Set<String> sequences = getPeptideSequences(metaProteins[i]);
+			peptideSets.add(sequences);
+			if (sequences.isEmpty()) {
+				emptyMembers.add(i);
+			}
+			if (indexed) {
+				Set<String> keys = new HashSet<String>();
+				int distance = peptideRule.getMaximumDistance();
+				for (String sequence : sequences) {
+					addDeletionVariants(sequence, distance, keys);
+					if (distance > 0) {
+						// Distance computation lets the first residue of the
+						// second sequence be skipped, index its suffix as well
+						addDeletionVariants(sequence.substring(1), distance, keys);
+					}
+				}
+				for (String key : keys) {
+					TIntArrayList postings = peptideIndex.get(key);
+					if (postings == null) {
+						postings = new TIntArrayList(2);
+						peptideIndex.put(key, postings);
+					}
+					postings.add(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the specified sequence and all sequences derived from it by
+	 * deleting up to the specified number of residues. Sequences within the
+	 * specified Levenshtein distance of each other share at least one such
+	 * variant.
+	 */
+	private static void addDeletionVariants(String sequence, int deletions, Set<String> keys) {
+		if (deletions == 0) {
+			keys.add(sequence);
+		} else {
+			Set<String> variants = new HashSet<String>();
+			addDeletionVariants(sequence, deletions, variants, keys);
+		}
+	}
+
+	/**
+	 * Recursively adds deletion variants, skipping variants already visited
+	 * for the same sequence.
+	 */
+	private static void addDeletionVariants(String sequence, int deletions, Set<String> visited, Set<String> keys) {
+		if (visited.add(sequence)) {
+			keys.add(sequence);
+			if (deletions > 0) {
+				for (int i = 0; i < sequence.length(); i++) {
+					addDeletionVariants(sequence.substring(0, i) + sequence.substring(i + 1), deletions - 1, visited, keys);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the set of normalized peptide sequences of the specified
+	 * meta-protein. Leucine and isoleucine are merged unless considered
+	 * distinct by the peptide rule.
+	 */
+	private Set<String> getPeptideSequences(MetaProteinHit mph) {
+		Set<String> sequences = new HashSet<String>();
+		for (PeptideHit peptideHit : mph.getPeptideSet()) {
+			String sequence = peptideHit.getSequence();
+			if (!peptideRule.isDistinctIL()) {
+				String normal = normalized.get(sequence);
+				if (normal == null) {
+					normal = sequence.replace('I', 'L');
+					normalized.put(sequence, normal);
+				}
+				sequence = normal;
+			}
+			sequences.add(sequence);
+		}
+		return sequences;
+	}
+
+	/**
+	 * Returns the meta-protein the specified meta-protein has been merged into.
+	 */
+	private int find(int index) {
+		int root = index;
+		while (parents[root] != root) {
+			root = parents[root];
+		}
+		// Compress path
+		while (parents[index] != root) {
+			int next = parents[index];
+			parents[index] = root;
+			index = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Returns the last remaining meta-protein following the specified one
+	 * into which it shall be merged.
+	 * @return the target index or <code>-1</code> if the meta-protein is not merged
+	 */
+	private int findTarget(int index) {
+		TIntArrayList members = classMembers.get(classes[index]);
+		if (peptideRule == PeptideRule.ALWAYS) {
+			// Last member of a class is never merged
+			int last = members.get(members.size() - 1);
+			return (last > index) ? last : -1;
+		}
+
+		// Collect remaining candidates of the same class
+		Set<String> sequences = peptideSets.get(index);
+		boolean shared = (peptideRule == PeptideRule.SHARED_PEPTIDE);
+		if (shared && sequences.isEmpty()) {
+			return -1;
+		}
+		TIntSet candidates = new TIntHashSet();
+		boolean exact = shared && (peptideRule.getMaximumDistance() == 0);
+		if (sequences.isEmpty() || (peptideRule.getMaximumDistance() > MAX_INDEXED_DISTANCE)) {
+			exact = false;
+			for (int i = members.size() - 1; i >= 0; i--) {
+				int member = members.get(i);
+				if (member <= index) {
+					break;
+				}
+				if (find(member) == member) {
+					candidates.add(member);
+				}
+			}
+		} else {
+			Set<String> keys = new HashSet<String>();
+			for (String sequence : sequences) {
+				addDeletionVariants(sequence, peptideRule.getMaximumDistance(), keys);
+			}
+			for (String key : keys) {
+				TIntArrayList postings = peptideIndex.get(key);
+				if (postings != null) {
+					for (int i = 0; i < postings.size(); i++) {
+						int root = find(postings.get(i));
+						if ((root > index) && (classes[root] == classes[index])) {
+							candidates.add(root);
+						}
+					}
+				}
+			}
+			// Meta-proteins without peptides are only matched by the subset rule
+			for (int i = 0; !shared && (i < emptyMembers.size()); i++) {
+				int member = emptyMembers.get(i);
+				if ((member > index) && (find(member) == member) && (classes[member] == classes[index])) {
+					candidates.add(member);
+				}
+			}
+		}
+
+		// Check candidates starting from the end of the list
+		int[] sorted = candidates.toArray();
+		Arrays.sort(sorted);
+		for (int i = sorted.length - 1; i >= 0; i--) {
+			int candidate = sorted[i];
+			// Sharing an exact peptide satisfies the shared peptide rule
+			if (exact || peptideRule.shouldCondense(sequences, peptideSets.get(candidate))) {
+				return candidate;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,120 @@
+package de.mpa.client.model.specsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.mpa.util.IndexSort;
+
+/**
+ * Index over a list of spectral search candidates sorted by precursor m/z. Candidates within the
+ * precursor tolerance window of a query are located by binary search instead of scanning the
+ * whole candidate list.
+ */
+public class CandidateIndex {
+
+	/**
+	 * The candidates in their original order.
+	 */
+	private final SpectralSearchCandidate[] candidates;
+
+	/**
+	 * The precursor m/z values in ascending order.
+	 */
+	private final double[] precursorMzs;
+
+	/**
+	 * The original candidate positions in order of ascending precursor m/z.
+	 */
+	private final int[] positions;
+
+	/**
+	 * Creates an index over the specified candidates.
+	 * @param candidates the list of spectral search candidates
+	 */
+	public CandidateIndex(List<SpectralSearchCandidate> candidates) {
+		this.candidates = candidates.toArray(new SpectralSearchCandidate[candidates.size()]);
+		int size = this.candidates.length;
+
+		double[] mzs = new double[size];
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			mzs[i] = this.candidates[i].getPrecursorMz();
+			order[i] = i;
+		}
+		IndexSort.mergeSort(order, size, mzs);
+
+		this.precursorMzs = new double[size];
+		this.positions = order;
+		for (int i = 0; i < size; i++) {
+			precursorMzs[i] = mzs[order[i]];
+		}
+	}
+
+	/**
+	 * Returns the number of indexed candidates.
+	 * @return the number of candidates
+	 */
+	public int size() {
+		return candidates.length;
+	}
+
+	/**
+	 * Returns all candidates whose precursor m/z satisfies
+	 * <code>Math.abs(precursorMz - candidateMz) &lt; tolMz</code>, in the order of the
+	 * originally indexed list.
+	 * @param precursorMz the query precursor m/z
+	 * @param tolMz the precursor m/z tolerance
+	 * @return the list of candidates within tolerance
+	 */
+	public List<SpectralSearchCandidate> getCandidates(double precursorMz, double tolMz) {
+		int from = this.lowerBound(precursorMz, tolMz);
+		int to = this.upperBound(precursorMz, tolMz, from);
+		int[] window = Arrays.copyOfRange(positions, from, to);
+		// restore original candidate order
+		Arrays.sort(window);
+		List<SpectralSearchCandidate> res = new ArrayList<SpectralSearchCandidate>(window.length);
+		for (int position : window) {
+			res.add(candidates[position]);
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the index of the first sorted candidate that is not below the tolerance window.
+	 * The floating point differences are evaluated exactly as in the tolerance criterion, so the
+	 * window borders match a linear scan using <code>Math.abs()</code>.
+	 */
+	private int lowerBound(double precursorMz, double tolMz) {
+		int low = 0, high = precursorMzs.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			double mz = precursorMzs[mid];
+			if ((mz <= precursorMz) && ((precursorMz - mz) >= tolMz)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first sorted candidate above the tolerance window, starting the
+	 * search at the specified index.
+	 */
+	private int upperBound(double precursorMz, double tolMz, int from) {
+		int low = from, high = precursorMzs.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			double mz = precursorMzs[mid];
+			if ((mz >= precursorMz) && ((mz - precursorMz) >= tolMz)) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+
+}
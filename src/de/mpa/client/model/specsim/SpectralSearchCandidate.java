@@ -6,7 +6,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeSet;
 
-import de.mpa.io.SixtyFourBitStringSupport;
+import de.mpa.db.accessor.Spectrum;
 
 public class SpectralSearchCandidate {
 	
@@ -18,6 +18,27 @@ public class SpectralSearchCandidate {
 	private long peptideID;
 	private String sequence;
 	
+	/**
+	 * Creates a spectral search candidate from the specified values.
+	 * @param libspectrumID the libspectrum ID
+	 * @param spectrumTitle the spectrum title
+	 * @param precursorMz the precursor m/z
+	 * @param precursorCharge the precursor charge
+	 * @param peaks the map of m/z-intensity pairs
+	 * @param peptideID the peptide ID
+	 * @param sequence the peptide sequence
+	 */
+	public SpectralSearchCandidate(long libspectrumID, String spectrumTitle, double precursorMz,
+			int precursorCharge, Map<Double, Double> peaks, long peptideID, String sequence) {
+		this.libspectrumID = libspectrumID;
+		this.spectrumTitle = spectrumTitle;
+		this.precursorMz = precursorMz;
+		this.precursorCharge = precursorCharge;
+		this.peaks = peaks;
+		this.peptideID = peptideID;
+		this.sequence = sequence;
+	}
+	
 	/**
 	 * This constructor allows the creation of a SpectralSearchCandidate object based on a ResultSet
 	 * obtained by a complex SELECT query. Refer to SpectrumExtractor class for further details.
@@ -30,8 +51,7 @@ public class SpectralSearchCandidate {
 		this.spectrumTitle = aResultSet.getString("title");
 		this.precursorMz = aResultSet.getDouble("precursor_mz");
 		this.precursorCharge = aResultSet.getInt("precursor_charge");
-		this.peaks = SixtyFourBitStringSupport.buildPeakMap(SixtyFourBitStringSupport.decodeBase64StringToDoubles(aResultSet.getString("mzarray")),
-															SixtyFourBitStringSupport.decodeBase64StringToDoubles(aResultSet.getString("intarray")));
+		this.peaks = Spectrum.getPeakList(aResultSet).toPeakMap();
 		this.peptideID = aResultSet.getLong("peptideid");
 		this.sequence = aResultSet.getString("sequence");
 	}
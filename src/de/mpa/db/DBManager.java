@@ -22,12 +22,12 @@ import de.mpa.client.model.specsim.SpectrumSpectrumMatch;
 import de.mpa.client.settings.ConnectionParameters;
 import de.mpa.client.settings.ParameterMap;
 import de.mpa.db.accessor.Uniprotentry;
+import de.mpa.db.storager.BasicStorager;
 import de.mpa.db.storager.CruxStorager;
 import de.mpa.db.storager.InspectStorager;
 import de.mpa.db.storager.OmssaStorager;
 import de.mpa.db.storager.SpecSimStorager;
 import de.mpa.db.storager.SpectrumStorager;
-import de.mpa.db.storager.Storager;
 import de.mpa.db.storager.XTandemStorager;
 import de.mpa.util.Formatter;
 
@@ -93,6 +93,8 @@ public class DBManager {
 
 			DBConfiguration dbconfig = new DBConfiguration(connectionParams);
 			this.conn = dbconfig.getConnection();
+			// spectra are stored in the binary peaks column
+			SpectrumPeaksMigrator.ensurePeaksColumn(conn);
 		}
     }
 	
@@ -117,12 +119,29 @@ public class DBManager {
 	 * @param searchEngineType SearchEngine type.
 	 * @param resultFilename Search engine result filename
 	 * @param qValueFile q-value result file
-	 * @throws InterruptedException
+	 * @throws Exception if storing the results failed
 	 */
-	public void storeDatabaseSearchResults(SearchEngineType searchEngineType, String resultFilename, String qValueFilename) throws InterruptedException {
+	public void storeDatabaseSearchResults(SearchEngineType searchEngineType, String resultFilename, String qValueFilename) throws Exception {
+		this.storeDatabaseSearchResults(searchEngineType, resultFilename, qValueFilename, null, null);
+	}
+	
+	/**
+	 * This method is called to store the database search results to the SQL database
+	 * and links them to the searchspectra of the specified spectrum file mappings.
+	 * @param searchEngineType SearchEngine type.
+	 * @param resultFilename Search engine result filename
+	 * @param qValueFile q-value result file
+	 * @param title2SearchIdMap the spectrum title to searchspectrum ID mapping, <code>null</code> for the last stored spectrum file
+	 * @param fileName2IdMap the spectrum filename to searchspectrum ID mapping, <code>null</code> for the last stored spectrum file
+	 * @throws Exception if storing the results failed
+	 */
+	public void storeDatabaseSearchResults(SearchEngineType searchEngineType, String resultFilename, String qValueFilename,
+			Map<String, Long> title2SearchIdMap, Map<String, Long> fileName2IdMap) throws Exception {
 		// Wait for spectra to be stored to the database.
-		spectraThread.join();
-		Storager storager = null;
+		if (spectraThread != null) {
+			spectraThread.join();
+		}
+		BasicStorager storager = null;
 		
 		if (searchEngineType == SearchEngineType.XTANDEM && qValueFilename != null) {
 			String targetScoreFilename = qValueFilename.substring(0, qValueFilename.lastIndexOf("_qvalued")) + "_target.out";;
@@ -136,7 +155,11 @@ public class DBManager {
 		else if (searchEngineType == SearchEngineType.OMSSA && qValueFilename == null) storager = new OmssaStorager(conn, new File(resultFilename));
 		else if (searchEngineType == SearchEngineType.CRUX ) storager = new CruxStorager(conn, new File(resultFilename));
 		else if (searchEngineType == SearchEngineType.INSPECT) storager = new InspectStorager(conn, new File(resultFilename));
+		storager.setSearchspectrumIdMaps(title2SearchIdMap, fileName2IdMap);
 		storager.run();
+		if (storager.getError() != null) {
+			throw storager.getError();
+		}
 	}
 
 	/**
@@ -0,0 +1,195 @@
+package de.mpa.db;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import de.mpa.client.Client;
+import de.mpa.db.accessor.Spectrum;
+import de.mpa.io.PeakList;
+import de.mpa.io.PeakListCodec;
+
+/**
+ * Converts the Base64 encoded m/z, intensity and charge array columns of
+ * existing spectrum rows into the binary 'peaks' column (see
+ * {@link PeakListCodec}). Rows are processed in batches ordered by spectrum ID,
+ * each batch is committed, so an interrupted migration can simply be restarted.
+ */
+public class SpectrumPeaksMigrator {
+
+	/**
+	 * The logger instance.
+	 */
+	private static Logger log = Logger.getLogger(SpectrumPeaksMigrator.class);
+
+	/**
+	 * The database connection.
+	 */
+	private Connection conn;
+
+	/**
+	 * The number of rows converted per batch.
+	 */
+	private int batchSize = 1000;
+
+	/**
+	 * Flag denoting whether the peaks shall be compressed.
+	 */
+	private boolean compress = false;
+
+	/**
+	 * Flag denoting whether the Base64 encoded columns shall be cleared after
+	 * conversion. They are kept by default, e.g. for clients that cannot read
+	 * the binary format yet.
+	 */
+	private boolean clearBase64 = false;
+
+	/**
+	 * Creates a migrator using the specified database connection.
+	 * @param conn the database connection
+	 */
+	public SpectrumPeaksMigrator(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Sets the number of rows converted per batch.
+	 * @param batchSize the batch size
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Sets whether the binary encoded peaks shall be compressed.
+	 * @param compress <code>true</code> if peaks shall be compressed
+	 */
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	/**
+	 * Sets whether the Base64 encoded array columns shall be cleared after
+	 * conversion to save space. Disabled by default.
+	 * @param clearBase64 <code>true</code> if the Base64 columns shall be cleared
+	 */
+	public void setClearBase64(boolean clearBase64) {
+		this.clearBase64 = clearBase64;
+	}
+
+	/**
+	 * Adds the 'peaks' column to the spectrum table if it does not exist yet
+	 * and converts all rows without binary encoded peaks.
+	 * @return the number of converted rows
+	 * @throws SQLException if a database access error occurs
+	 */
+	public int migrate() throws SQLException {
+		ensurePeaksColumn(conn);
+
+		String update = (clearBase64) ? "UPDATE spectrum SET peaks = ?, mzarray = '', intarray = '', chargearray = '' WHERE spectrumid = ?"
+				: "UPDATE spectrum SET peaks = ? WHERE spectrumid = ?";
+		PreparedStatement select = conn.prepareStatement(
+				"SELECT spectrumid, mzarray, intarray, chargearray FROM spectrum "
+				+ "WHERE peaks IS NULL AND spectrumid > ? ORDER BY spectrumid LIMIT ?");
+		PreparedStatement ps = conn.prepareStatement(update);
+
+		long startTime = System.nanoTime();
+		long lastID = 0L;
+		int total = 0;
+		while (true) {
+			// fetch next batch of unconverted rows
+			select.setLong(1, lastID);
+			select.setInt(2, batchSize);
+			ResultSet rs = select.executeQuery();
+			List<Long> ids = new ArrayList<Long>(batchSize);
+			List<byte[]> blobs = new ArrayList<byte[]>(batchSize);
+			while (rs.next()) {
+				PeakList peakList = Spectrum.decodePeakList(null,
+						rs.getString("mzarray"), rs.getString("intarray"), rs.getString("chargearray"));
+				ids.add(rs.getLong("spectrumid"));
+				blobs.add(PeakListCodec.encodeToBytes(peakList, compress));
+			}
+			rs.close();
+			if (ids.isEmpty()) {
+				break;
+			}
+
+			// write binary peaks
+			for (int i = 0; i < ids.size(); i++) {
+				ps.setBytes(1, blobs.get(i));
+				ps.setLong(2, ids.get(i));
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			conn.commit();
+
+			lastID = ids.get(ids.size() - 1);
+			total += ids.size();
+			log.info("Converted " + total + " spectra.");
+		}
+		select.close();
+		ps.close();
+
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		log.info(String.format("Converted %d spectra in %.1f s (%.0f spectra/s).", total, seconds, total / seconds));
+		return total;
+	}
+
+	/**
+	 * Adds the 'peaks' column to the spectrum table if it does not exist yet.
+	 * Spectra are stored to and read from this column, therefore the check is
+	 * performed whenever a database connection is established. Existing rows
+	 * keep their Base64 encoded arrays until they are converted by
+	 * {@link #migrate()}.
+	 * @param conn the database connection
+	 * @throws SQLException if the column is missing and cannot be added
+	 */
+	public static void ensurePeaksColumn(Connection conn) throws SQLException {
+		DatabaseMetaData metaData = conn.getMetaData();
+		ResultSet rs = metaData.getColumns(conn.getCatalog(), null, "spectrum", "peaks");
+		boolean exists = rs.next();
+		rs.close();
+		if (!exists) {
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.executeUpdate("ALTER TABLE spectrum ADD COLUMN peaks MEDIUMBLOB NULL AFTER chargearray");
+			} catch (SQLException e) {
+				throw new SQLException("Table 'spectrum' lacks the column 'peaks' which could not be added: " + e.getMessage()
+						+ " Please run " + SpectrumPeaksMigrator.class.getName() + " with a privileged database user.", e);
+			} finally {
+				stmt.close();
+			}
+			log.info("Added column 'peaks' to table 'spectrum'.");
+		}
+	}
+
+	/**
+	 * Migrates the database configured in the client settings.
+	 * @param args optional flags <code>-compress</code> and <code>-clearBase64</code>
+	 */
+	public static void main(String[] args) {
+		try {
+			// connect to database
+			DBConfiguration dbconfig = new DBConfiguration(Client.getInstance().getConnectionParameters());
+			SpectrumPeaksMigrator migrator = new SpectrumPeaksMigrator(dbconfig.getConnection());
+			for (String arg : args) {
+				if (arg.equals("-compress")) {
+					migrator.setCompress(true);
+				} else if (arg.equals("-clearBase64")) {
+					migrator.setClearBase64(true);
+				}
+			}
+			migrator.migrate();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -342,7 +342,7 @@ public class CruxhitTableAccessor implements Deleteable, Retrievable, Updateable
 		this.iCleavage_type = (String)aResultSet.getObject("cleavage_type");
 		this.iFlank_aa = (String)aResultSet.getObject("flank_aa");
 		this.iCreationdate = (java.sql.Timestamp)aResultSet.getObject("creationdate");
-		this.iModificationdate = (String)aResultSet.getObject("modificationdate");
+		this.iModificationdate = aResultSet.getString("modificationdate");
 
 		this.iUpdated = true;
 	}
@@ -312,7 +312,7 @@ public class OmssahitTableAccessor implements Deleteable, Retrievable, Updateabl
 		this.iQvalue = (Number)aResultSet.getObject("qvalue");
 		this.iPep = (Number)aResultSet.getObject("pep");
 		this.iCreationdate = (java.sql.Timestamp)aResultSet.getObject("creationdate");
-		this.iModificationdate = (String)aResultSet.getObject("modificationdate");
+		this.iModificationdate = aResultSet.getString("modificationdate");
 
 		this.iUpdated = true;
 	}
@@ -6,6 +6,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -249,5 +251,41 @@ public class Searchspectrum extends SearchspectrumTableAccessor {
     	ps.close();
     	return res;
     }
-    
+
+    /**
+     * Inserts search spectra linking the specified spectra to an experiment
+     * using a single batch statement.
+     * @param spectrumIDs the IDs of the spectra to link
+     * @param experimentID the experiment ID
+     * @param conn the database connection
+     * @return the generated searchspectrum IDs in the order of the specified spectrum IDs
+     * @throws SQLException if a database access error occurs
+     */
+    public static long[] batchPersist(long[] spectrumIDs, long experimentID, Connection conn) throws SQLException {
+    	PreparedStatement ps = conn.prepareStatement(
+    			"INSERT INTO searchspectrum (searchspectrumid, fk_spectrumid, fk_experimentid, creationdate, modificationdate) "
+    			+ "values(?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", Statement.RETURN_GENERATED_KEYS);
+    	for (long spectrumID : spectrumIDs) {
+    		ps.setNull(1, Types.INTEGER);
+    		ps.setLong(2, spectrumID);
+    		ps.setLong(3, experimentID);
+    		ps.addBatch();
+    	}
+    	ps.executeBatch();
+    	
+    	// retrieve generated keys, one per batched row in insertion order
+    	long[] res = new long[spectrumIDs.length];
+    	ResultSet rs = ps.getGeneratedKeys();
+    	int i = 0;
+    	while (rs.next()) {
+    		res[i++] = rs.getLong(1);
+    	}
+    	rs.close();
+    	ps.close();
+    	if (i != res.length) {
+    		throw new SQLException("Expected " + res.length + " generated searchspectrum IDs, got " + i + ".");
+    	}
+    	return res;
+    }
+
 }
@@ -4,10 +4,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.HashMap;
+import java.util.List;
 
 import de.mpa.db.MapContainer;
 import de.mpa.io.MascotGenericFile;
+import de.mpa.io.PeakList;
+import de.mpa.io.PeakListCodec;
+import de.mpa.io.SixtyFourBitStringSupport;
 
 public class Spectrum extends SpectrumTableAccessor {
 
@@ -113,4 +119,109 @@ public class Spectrum extends SpectrumTableAccessor {
         return MapContainer.SpectrumTitle2IdMap.get(formatted);
     }
 
+    /**
+     * Inserts the specified spectra into the database using a single batch
+     * statement. The spectrum IDs of the specified objects are set to the
+     * generated keys.
+     * @param spectra the list of spectra to insert
+     * @param conn the database connection
+     * @return the generated spectrum IDs in list order
+     * @throws SQLException if a database access error occurs
+     */
+    public static long[] batchPersist(List<Spectrum> spectra, Connection conn) throws SQLException {
+    	PreparedStatement ps = conn.prepareStatement(
+    			"INSERT INTO spectrum (spectrumid, title, precursor_mz, precursor_int, precursor_charge, mzarray, intarray, chargearray, peaks, total_int, maximum_int, creationdate, modificationdate) "
+    			+ "values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", Statement.RETURN_GENERATED_KEYS);
+    	for (Spectrum spectrum : spectra) {
+    		ps.setNull(1, Types.INTEGER);
+    		ps.setObject(2, spectrum.getTitle());
+    		ps.setObject(3, spectrum.getPrecursor_mz());
+    		ps.setObject(4, spectrum.getPrecursor_int());
+    		ps.setLong(5, spectrum.getPrecursor_charge());
+    		ps.setObject(6, spectrum.getMzarray());
+    		ps.setObject(7, spectrum.getIntarray());
+    		ps.setObject(8, spectrum.getChargearray());
+    		if (spectrum.getPeaks() == null) {
+    			ps.setNull(9, Types.LONGVARBINARY);
+    		} else {
+    			ps.setBytes(9, spectrum.getPeaks());
+    		}
+    		ps.setObject(10, spectrum.getTotal_int());
+    		ps.setObject(11, spectrum.getMaximum_int());
+    		ps.addBatch();
+    	}
+    	ps.executeBatch();
+    	
+    	// retrieve generated keys, one per batched row in insertion order
+    	long[] res = new long[spectra.size()];
+    	ResultSet rs = ps.getGeneratedKeys();
+    	int i = 0;
+    	while (rs.next()) {
+    		res[i] = rs.getLong(1);
+    		spectra.get(i).setSpectrumid(res[i]);
+    		i++;
+    	}
+    	rs.close();
+    	ps.close();
+    	if (i != res.length) {
+    		throw new SQLException("Expected " + res.length + " generated spectrum IDs, got " + i + ".");
+    	}
+    	return res;
+    }
+
+    /**
+     * Returns the peaks of this spectrum. They are decoded from the binary
+     * 'peaks' column or, for rows stored before its introduction, from the
+     * Base64 encoded array columns.
+     * @return the peak list
+     */
+    public PeakList getPeakList() {
+    	return decodePeakList(this.getPeaks(), this.getMzarray(), this.getIntarray(), this.getChargearray());
+    }
+    
+    /**
+     * Reads the peaks of the spectrum row at the current position of the
+     * specified result set. The result set must contain the 'peaks',
+     * 'mzarray', 'intarray' and 'chargearray' columns.
+     * @param rs the result set
+     * @return the peak list
+     * @throws SQLException if a column could not be read
+     */
+    public static PeakList getPeakList(ResultSet rs) throws SQLException {
+    	byte[] peaks = rs.getBytes("peaks");
+    	if (peaks != null) {
+    		return PeakListCodec.decode(peaks);
+    	}
+    	return decodePeakList(null, rs.getString("mzarray"), rs.getString("intarray"), rs.getString("chargearray"));
+    }
+    
+    /**
+     * Decodes a peak list from the binary encoded peaks or, if these are
+     * <code>null</code>, from the Base64 encoded arrays.
+     * @param peaks the binary encoded peaks, may be <code>null</code>
+     * @param mzArray the Base64 encoded m/z values
+     * @param intArray the Base64 encoded intensities
+     * @param chargeArray the Base64 encoded charges, may be <code>null</code>
+     * @return the peak list
+     */
+    public static PeakList decodePeakList(byte[] peaks, String mzArray, String intArray, String chargeArray) {
+    	if (peaks != null) {
+    		return PeakListCodec.decode(peaks);
+    	}
+    	double[] mzValues = SixtyFourBitStringSupport.decodeBase64StringToDoubles(mzArray);
+    	double[] intensities = SixtyFourBitStringSupport.decodeBase64StringToDoubles(intArray);
+    	int[] charges = (chargeArray != null) ? SixtyFourBitStringSupport.decodeBase64StringToInts(chargeArray) : null;
+    	if ((charges != null) && (charges.length >= mzValues.length)) {
+    		// Unknown charges are stored as zero
+    		for (int i = 0; i < charges.length; i++) {
+    			if (charges[i] == 0) {
+    				charges[i] = PeakList.NO_CHARGE;
+    			}
+    		}
+    	} else {
+    		charges = null;
+    	}
+    	return PeakList.fromArrays(mzValues, intensities, charges, mzValues.length);
+    }
+
 }
@@ -92,6 +92,12 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 	protected String iChargearray = null;
 
 
+	/**
+	 * This variable represents the contents for the 'peaks' column.
+	 */
+	protected byte[] iPeaks = null;
+
+
 	/**
 	 * This variable represents the contents for the 'total_int' column.
 	 */
@@ -156,6 +162,11 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 	 */
 	public static final String CHARGEARRAY = "CHARGEARRAY";
 
+	/**
+	 * This variable represents the key for the 'peaks' column.
+	 */
+	public static final String PEAKS = "PEAKS";
+
 	/**
 	 * This variable represents the key for the 'total_int' column.
 	 */
@@ -216,6 +227,9 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 		if(aParams.containsKey(CHARGEARRAY)) {
 			this.iChargearray = (String)aParams.get(CHARGEARRAY);
 		}
+		if(aParams.containsKey(PEAKS)) {
+			this.iPeaks = (byte[])aParams.get(PEAKS);
+		}
 		if(aParams.containsKey(TOTAL_INT)) {
 			this.iTotal_int = (Number)aParams.get(TOTAL_INT);
 		}
@@ -248,6 +262,7 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 		this.iMzarray = (String)aResultSet.getObject("mzarray");
 		this.iIntarray = (String)aResultSet.getObject("intarray");
 		this.iChargearray = (String)aResultSet.getObject("chargearray");
+		this.iPeaks = (byte[])aResultSet.getObject("peaks");
 		this.iTotal_int = (Number)aResultSet.getObject("total_int");
 		this.iMaximum_int = (Number)aResultSet.getObject("maximum_int");
 		this.iCreationdate = (java.sql.Timestamp)aResultSet.getObject("creationdate");
@@ -329,6 +344,15 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 		return this.iChargearray;
 	}
 
+	/**
+	 * This method returns the value for the 'Peaks' column
+	 * 
+	 * @return	byte[]	with the value for the Peaks column.
+	 */
+	public byte[] getPeaks() {
+		return this.iPeaks;
+	}
+
 	/**
 	 * This method returns the value for the 'Total_int' column
 	 * 
@@ -445,6 +469,16 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 		this.iUpdated = true;
 	}
 
+	/**
+	 * This method sets the value for the 'Peaks' column
+	 * 
+	 * @param	aPeaks	byte[] with the value for the Peaks column.
+	 */
+	public void setPeaks(byte[] aPeaks) {
+		this.iPeaks = aPeaks;
+		this.iUpdated = true;
+	}
+
 	/**
 	 * This method sets the value for the 'Total_int' column
 	 * 
@@ -530,6 +564,7 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 			iMzarray = (String)lRS.getObject("mzarray");
 			iIntarray = (String)lRS.getObject("intarray");
 			iChargearray = (String)lRS.getObject("chargearray");
+			iPeaks = (byte[])lRS.getObject("peaks");
 			iTotal_int = (Number)lRS.getObject("total_int");
 			iMaximum_int = (Number)lRS.getObject("maximum_int");
 			iCreationdate = (java.sql.Timestamp)lRS.getObject("creationdate");
@@ -583,7 +618,7 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 		if(!this.iUpdated) {
 			return 0;
 		}
-		PreparedStatement lStat = aConn.prepareStatement("UPDATE spectrum SET spectrumid = ?, title = ?, precursor_mz = ?, precursor_int = ?, precursor_charge = ?, mzarray = ?, intarray = ?, chargearray = ?, total_int = ?, maximum_int = ?, creationdate = ?, modificationdate = CURRENT_TIMESTAMP WHERE spectrumid = ?");
+		PreparedStatement lStat = aConn.prepareStatement("UPDATE spectrum SET spectrumid = ?, title = ?, precursor_mz = ?, precursor_int = ?, precursor_charge = ?, mzarray = ?, intarray = ?, chargearray = ?, peaks = ?, total_int = ?, maximum_int = ?, creationdate = ?, modificationdate = CURRENT_TIMESTAMP WHERE spectrumid = ?");
 		lStat.setLong(1, iSpectrumid);
 		lStat.setObject(2, iTitle);
 		lStat.setObject(3, iPrecursor_mz);
@@ -592,10 +627,11 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 		lStat.setObject(6, iMzarray);
 		lStat.setObject(7, iIntarray);
 		lStat.setObject(8, iChargearray);
-		lStat.setObject(9, iTotal_int);
-		lStat.setObject(10, iMaximum_int);
-		lStat.setObject(11, iCreationdate);
-		lStat.setLong(12, iSpectrumid);
+		lStat.setObject(9, iPeaks);
+		lStat.setObject(10, iTotal_int);
+		lStat.setObject(11, iMaximum_int);
+		lStat.setObject(12, iCreationdate);
+		lStat.setLong(13, iSpectrumid);
 		int result = lStat.executeUpdate();
 		lStat.close();
 		this.iUpdated = false;
@@ -611,7 +647,7 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 	 */
 	public int persist(Connection aConn) throws SQLException {
 		PreparedStatement lStat = aConn.prepareStatement(
-				"INSERT INTO spectrum (spectrumid, title, precursor_mz, precursor_int, precursor_charge, mzarray, intarray, chargearray, total_int, maximum_int, creationdate, modificationdate) values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", Statement.RETURN_GENERATED_KEYS);
+				"INSERT INTO spectrum (spectrumid, title, precursor_mz, precursor_int, precursor_charge, mzarray, intarray, chargearray, peaks, total_int, maximum_int, creationdate, modificationdate) values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP)", Statement.RETURN_GENERATED_KEYS);
 		if(iSpectrumid == Long.MIN_VALUE) {
 			lStat.setNull(1, 4);
 		} else {
@@ -652,15 +688,20 @@ public class SpectrumTableAccessor implements Deleteable, Retrievable, Updateabl
 		} else {
 			lStat.setObject(8, iChargearray);
 		}
+		if(iPeaks == null) {
+			lStat.setNull(9, -4);
+		} else {
+			lStat.setObject(9, iPeaks);
+		}
 		if(iTotal_int == null) {
-			lStat.setNull(9, 3);
+			lStat.setNull(10, 3);
 		} else {
-			lStat.setObject(9, iTotal_int);
+			lStat.setObject(10, iTotal_int);
 		}
 		if(iMaximum_int == null) {
-			lStat.setNull(10, 3);
+			lStat.setNull(11, 3);
 		} else {
-			lStat.setObject(10, iMaximum_int);
+			lStat.setObject(11, iMaximum_int);
 		}
 		int result = lStat.executeUpdate();
 
@@ -1,11 +1,15 @@
 package de.mpa.db.extractor;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import de.mpa.db.accessor.Cruxhit;
 import de.mpa.db.accessor.Inspecthit;
@@ -14,22 +18,206 @@ import de.mpa.db.accessor.Omssahit;
 import de.mpa.db.accessor.SearchHit;
 import de.mpa.db.accessor.XTandemhit;
 
+/**
+ * Extracts the search hits of all search engines belonging to an experiment.
+ * The engine-specific hit tables are merged into a single
+ * <code>UNION ALL</code> query ordered by search spectrum, which is streamed
+ * row by row from the server and passed to a handler hit by hit.
+ */
 public class SearchHitExtractor {
-	
-	public static Map<Long, Boolean> MAP = new HashMap<Long, Boolean>();
-	
-	public static List<SearchHit> findSearchHitsFromExperimentID(long experimentID, Connection conn) throws SQLException{
-		List<SearchHit> searchHits = new ArrayList<SearchHit>();
-		searchHits.addAll(XTandemhit.getHitsFromExperimentID(experimentID, conn));
-		searchHits.addAll(Omssahit.getHitsFromExperimentID(experimentID, conn));
-		searchHits.addAll(Cruxhit.getHitsFromExperimentID(experimentID, conn));
-		searchHits.addAll(Inspecthit.getHitsFromExperimentID(experimentID, conn));
-		searchHits.addAll(Mascothit.getHitsFromExperimentID(experimentID, conn));
-		
-		for (SearchHit searchHit : searchHits) {			
-			MAP.put(searchHit.getFk_searchspectrumid(), true);
+
+	/**
+	 * Callback interface for receiving extracted search hits one at a time.
+	 */
+	public interface SearchHitHandler {
+
+		/**
+		 * Processes the specified search hit. The hits are streamed over the
+		 * extracting connection, which must not be used for other statements
+		 * until all hits have been handled.
+		 * @param searchHit the search hit
+		 * @throws SQLException if a database error occurs
+		 */
+		public void handleSearchHit(SearchHit searchHit) throws SQLException;
+
+	}
+
+	/**
+	 * Hit table names, aliases and the columns read by the respective accessor
+	 * classes. The creation and modification dates are selected separately, the
+	 * latter is cast to a common type as its column type differs between the tables.
+	 */
+	private static final String[][] HIT_TABLES = {
+		{ "xtandemhit", "x", "xtandemhitid", "fk_searchspectrumid", "fk_peptideid", "fk_proteinid", "domainid",
+			"start", "end", "evalue", "delta", "hyperscore", "pre", "post", "misscleavages", "qvalue", "pep" },
+		{ "omssahit", "o", "omssahitid", "fk_searchspectrumid", "fk_peptideid", "fk_proteinid", "hitsetnumber",
+			"evalue", "pvalue", "charge", "mass", "theomass", "start", "end", "qvalue", "pep" },
+		{ "cruxhit", "c", "cruxhitid", "fk_searchspectrumid", "fk_peptideid", "scannumber", "charge",
+			"neutral_mass", "peptide_mass", "delta_cn", "xcorr_score", "xcorr_rank", "percolator_score",
+			"percolator_rank", "qvalue", "matches_spectrum", "cleavage_type", "flank_aa" },
+		{ "inspecthit", "i", "inspecthitid", "fk_searchspectrumid", "fk_peptideid", "fk_proteinid", "scannumber",
+			"charge", "mq_score", "length", "total_prm_score", "median_prm_score", "fraction_y", "fraction_b",
+			"intensity", "ntt", "p_value", "f_score", "deltascore", "deltascore_other", "recordnumber",
+			"dbfilepos", "specfilepos", "precursor_mz_error" },
+		{ "mascothit", "m", "mascothitid", "fk_searchspectrumid", "fk_peptideid", "fk_proteinid", "charge",
+			"ionscore", "evalue", "delta" }
+	};
+
+	/**
+	 * The union query selecting all search hits of an experiment, the
+	 * experiment ID has to be bound to each of the parameters.
+	 */
+	private static final String UNION_QUERY = createUnionQuery();
+
+	/**
+	 * Builds the union query over all hit tables. Each sub-query selects the
+	 * superset of all hit table columns, columns not present in a table are
+	 * padded with <code>NULL</code>. The modification date is cast to
+	 * <code>DATETIME</code>, e.g. for the <code>VARCHAR</code> column of
+	 * OMSSA hits, so every engine's value survives the union.
+	 * @return the union query
+	 */
+	private static String createUnionQuery() {
+		Set<String> columns = new LinkedHashSet<String>();
+		for (String[] table : HIT_TABLES) {
+			columns.addAll(Arrays.asList(table).subList(2, table.length));
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int engine = 0; engine < HIT_TABLES.length; engine++) {
+			String[] table = HIT_TABLES[engine];
+			String name = table[0], alias = table[1];
+			List<String> tableColumns = Arrays.asList(table).subList(2, table.length);
+			if (engine > 0) {
+				sb.append(" UNION ALL ");
+			}
+			sb.append("SELECT ").append(engine).append(" AS engine");
+			for (String column : columns) {
+				sb.append(", ");
+				if (tableColumns.contains(column)) {
+					sb.append(alias).append('.').append(column);
+				} else {
+					sb.append("NULL");
+				}
+				sb.append(" AS `").append(column).append('`');
+			}
+			sb.append(", ").append(alias).append(".creationdate");
+			sb.append(", CAST(").append(alias).append(".modificationdate AS DATETIME) AS modificationdate");
+			sb.append(", p.sequence, pr.accession, pr.proteinid FROM ").append(name).append(' ').append(alias);
+			sb.append(" INNER JOIN searchspectrum s ON s.searchspectrumid = ").append(alias).append(".fk_searchspectrumid");
+			sb.append(" INNER JOIN peptide p ON p.peptideid = ").append(alias).append(".fk_peptideid");
+			if (name.equals("cruxhit")) {
+				sb.append(" INNER JOIN cruxhit2prot c2p ON c2p.fk_cruxhitid = ").append(alias).append(".cruxhitid");
+				sb.append(" INNER JOIN protein pr ON pr.proteinid = c2p.fk_proteinid");
+			} else {
+				sb.append(" INNER JOIN protein pr ON pr.proteinid = ").append(alias).append(".fk_proteinid");
+			}
+			sb.append(" WHERE s.fk_experimentid = ?");
+		}
+		sb.append(" ORDER BY fk_searchspectrumid");
+		return sb.toString();
+	}
+
+	/**
+	 * Extracts all search hits belonging to the specified experiment and
+	 * passes them to the specified handler in order of ascending search
+	 * spectrum ID.
+	 * @param experimentID the experiment ID
+	 * @param conn the database connection
+	 * @param handler the search hit handler
+	 * @return the number of extracted search hits
+	 * @throws SQLException if a database error occurs
+	 */
+	public static int extractSearchHitsFromExperimentID(long experimentID, Connection conn,
+			SearchHitHandler handler) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement(UNION_QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		for (int i = 1; i <= HIT_TABLES.length; i++) {
+			ps.setLong(i, experimentID);
 		}
+		// stream rows instead of buffering the whole result set
+		ps.setFetchSize(Integer.MIN_VALUE);
+
+		int count = 0;
+		ResultSet rs = ps.executeQuery();
+		try {
+			while (rs.next()) {
+				SearchHit searchHit;
+				switch (rs.getInt("engine")) {
+				case 0:
+					searchHit = new XTandemhit(rs);
+					break;
+				case 1:
+					searchHit = new Omssahit(rs);
+					break;
+				case 2:
+					searchHit = new Cruxhit(rs);
+					break;
+				case 3:
+					searchHit = new Inspecthit(rs);
+					break;
+				default:
+					searchHit = new Mascothit(rs);
+					break;
+				}
+				handler.handleSearchHit(searchHit);
+				count++;
+			}
+		} finally {
+			rs.close();
+			ps.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns all search hits belonging to the specified experiment in order
+	 * of ascending search spectrum ID.
+	 * @param experimentID the experiment ID
+	 * @param conn the database connection
+	 * @return the list of search hits
+	 * @throws SQLException if a database error occurs
+	 */
+	public static List<SearchHit> findSearchHitsFromExperimentID(long experimentID, Connection conn) throws SQLException {
+		final List<SearchHit> searchHits = new ArrayList<SearchHit>();
+		extractSearchHitsFromExperimentID(experimentID, conn, new SearchHitHandler() {
+			@Override
+			public void handleSearchHit(SearchHit searchHit) {
+				searchHits.add(searchHit);
+			}
+		});
 		return searchHits;
-		
 	}
+
+	/**
+	 * Returns the IDs of all search spectra of the specified experiment which
+	 * have been identified by at least one search engine.
+	 * @param experimentID the experiment ID
+	 * @param conn the database connection
+	 * @return the set of identified search spectrum IDs
+	 * @throws SQLException if a database error occurs
+	 */
+	public static Set<Long> findIdentifiedSearchSpectrumIDs(long experimentID, Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		for (int engine = 0; engine < HIT_TABLES.length; engine++) {
+			String name = HIT_TABLES[engine][0], alias = HIT_TABLES[engine][1];
+			if (engine > 0) {
+				sb.append(" UNION ");
+			}
+			sb.append("SELECT ").append(alias).append(".fk_searchspectrumid FROM ").append(name).append(' ').append(alias);
+			sb.append(" INNER JOIN searchspectrum s ON s.searchspectrumid = ").append(alias).append(".fk_searchspectrumid");
+			sb.append(" WHERE s.fk_experimentid = ?");
+		}
+		PreparedStatement ps = conn.prepareStatement(sb.toString());
+		for (int i = 1; i <= HIT_TABLES.length; i++) {
+			ps.setLong(i, experimentID);
+		}
+		Set<Long> res = new HashSet<Long>();
+		ResultSet rs = ps.executeQuery();
+		while (rs.next()) {
+			res.add(rs.getLong(1));
+		}
+		rs.close();
+		ps.close();
+		return res;
+	}
+
 }
@@ -0,0 +1,124 @@
+package de.mpa.db.extractor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import de.mpa.db.accessor.ProteinAccessor;
+import de.mpa.db.accessor.Uniprotentry;
+
+/**
+ * Bulk loader for the protein and UniProt data referenced by the search hits
+ * of an experiment. Instead of looking up every search hit's protein and
+ * UniProt entry separately, all proteins and UniProt entries are fetched in a
+ * single query. Taxonomies are resolved through the shared
+ * {@link de.mpa.analysis.taxonomy.TaxonomyTree}.
+ */
+public class SearchResultExtractor {
+
+	/**
+	 * Query selecting the distinct IDs of all proteins hit by any search engine
+	 * in an experiment. The experiment ID has to be bound to all five parameters.
+	 */
+	private static final String PROTEIN_IDS_FROM_EXPERIMENT_ID =
+			"SELECT x.fk_proteinid FROM xtandemhit x INNER JOIN searchspectrum s ON s.searchspectrumid = x.fk_searchspectrumid WHERE s.fk_experimentid = ? " +
+			"UNION SELECT o.fk_proteinid FROM omssahit o INNER JOIN searchspectrum s ON s.searchspectrumid = o.fk_searchspectrumid WHERE s.fk_experimentid = ? " +
+			"UNION SELECT c2p.fk_proteinid FROM cruxhit c INNER JOIN cruxhit2prot c2p ON c.cruxhitid = c2p.fk_cruxhitid INNER JOIN searchspectrum s ON s.searchspectrumid = c.fk_searchspectrumid WHERE s.fk_experimentid = ? " +
+			"UNION SELECT i.fk_proteinid FROM inspecthit i INNER JOIN searchspectrum s ON s.searchspectrumid = i.fk_searchspectrumid WHERE s.fk_experimentid = ? " +
+			"UNION SELECT m.fk_proteinid FROM mascothit m INNER JOIN searchspectrum s ON s.searchspectrumid = m.fk_searchspectrumid WHERE s.fk_experimentid = ?";
+
+	/**
+	 * Connection instance.
+	 */
+	private Connection conn;
+
+	/**
+	 * Protein ID-to-protein mapping.
+	 */
+	private Map<Long, ProteinAccessor> proteins;
+
+	/**
+	 * Protein ID-to-UniProt entry mapping.
+	 */
+	private Map<Long, Uniprotentry> uniProtEntries;
+
+	/**
+	 * The taxonomy IDs of the UniProt entries.
+	 */
+	private Set<Long> taxIDs;
+
+	/**
+	 * Constructor for the SearchResultExtractor.
+	 * @param conn the database connection
+	 */
+	public SearchResultExtractor(Connection conn) {
+		this.conn = conn;
+		this.taxIDs = new HashSet<Long>();
+		this.proteins = new HashMap<Long, ProteinAccessor>();
+		this.uniProtEntries = new HashMap<Long, Uniprotentry>();
+	}
+
+	/**
+	 * Fetches all proteins and UniProt entries referenced by the search hits
+	 * of the specified experiment.
+	 * @param experimentID the experiment ID
+	 * @throws SQLException if a database error occurs
+	 */
+	public void extractFromExperimentID(long experimentID) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement(
+				"SELECT pr.*, u.* FROM (" + PROTEIN_IDS_FROM_EXPERIMENT_ID + ") ids " +
+				"INNER JOIN protein pr ON pr.proteinid = ids.fk_proteinid " +
+				"LEFT JOIN uniprotentry u ON u.fk_proteinid = pr.proteinid",
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		for (int i = 1; i <= 5; i++) {
+			ps.setLong(i, experimentID);
+		}
+		ps.setFetchSize(Integer.MIN_VALUE);
+
+		ResultSet rs = ps.executeQuery();
+		while (rs.next()) {
+			ProteinAccessor protein = new ProteinAccessor(rs);
+			proteins.put(protein.getProteinid(), protein);
+			rs.getLong("uniprotentryid");
+			if (!rs.wasNull()) {
+				Uniprotentry uniProtEntry = new Uniprotentry(rs);
+				uniProtEntries.put(protein.getProteinid(), uniProtEntry);
+				taxIDs.add(uniProtEntry.getTaxid());
+			}
+		}
+		rs.close();
+		ps.close();
+	}
+
+	/**
+	 * Returns the protein of the specified ID.
+	 * @param proteinID the protein ID
+	 * @return the protein or <code>null</code> if it has not been extracted
+	 */
+	public ProteinAccessor getProtein(long proteinID) {
+		return proteins.get(proteinID);
+	}
+
+	/**
+	 * Returns the UniProt entry of the protein of the specified ID.
+	 * @param proteinID the protein ID
+	 * @return the UniProt entry or <code>null</code> if none exists
+	 */
+	public Uniprotentry getUniProtEntry(long proteinID) {
+		return uniProtEntries.get(proteinID);
+	}
+
+	/**
+	 * Returns the taxonomy IDs of the extracted UniProt entries.
+	 * @return the taxonomy IDs
+	 */
+	public Set<Long> getTaxonomyIDs() {
+		return taxIDs;
+	}
+
+}
@@ -243,7 +243,7 @@ public class SpectrumExtractor {
 		MascotGenericFile res = null;
 		
 		PreparedStatement ps = conn.prepareStatement("SELECT title, precursor_mz, precursor_int, " +
-				"precursor_charge, mzarray, intarray, chargearray, spectrumid FROM spectrum s " +
+				"precursor_charge, mzarray, intarray, chargearray, peaks, spectrumid FROM spectrum s " +
 				"WHERE s.spectrumid = ?");
 		ps.setLong(1, spectrumID);
 		ResultSet rs = ps.executeQuery();
@@ -276,7 +276,7 @@ public class SpectrumExtractor {
 		clause.setCharAt(clause.length() - 1, ')');
 		
 		PreparedStatement ps = conn.prepareStatement("SELECT title, precursor_mz, precursor_int, " +
-				"precursor_charge, mzarray, intarray, chargearray, spectrumid FROM spectrum " +
+				"precursor_charge, mzarray, intarray, chargearray, peaks, spectrumid FROM spectrum " +
 				"WHERE spectrum.spectrumid IN " + clause);
 		for (int i = 0; i < spectrumIDs.size(); i++) {
 			ps.setLong(i + 1, spectrumIDs.get(i));
@@ -310,7 +310,7 @@ public class SpectrumExtractor {
 		MascotGenericFile res = null;
 		
 		PreparedStatement ps = conn.prepareStatement("SELECT title, precursor_mz, precursor_int, " +
-				"precursor_charge, mzarray, intarray, chargearray FROM searchspectrum " +
+				"precursor_charge, mzarray, intarray, chargearray, peaks FROM searchspectrum " +
 				"INNER JOIN spectrum ON searchspectrum.fk_spectrumid = spectrum.spectrumid " +
 				"WHERE searchspectrum.searchspectrumid = ?");
 		ps.setLong(1, searchspectrumID);
@@ -333,7 +333,7 @@ public class SpectrumExtractor {
 		MascotGenericFile res = null;
 		
 		PreparedStatement ps = conn.prepareStatement("SELECT title, precursor_mz, precursor_int, " +
-				"precursor_charge, mzarray, intarray, chargearray FROM libspectrum ls " +
+				"precursor_charge, mzarray, intarray, chargearray, peaks FROM libspectrum ls " +
 				"INNER JOIN spectrum s on ls.fk_spectrumid = s.spectrumid " +
 				"WHERE ls.libspectrumid = ?");
 		ps.setLong(1, libspectrumID);
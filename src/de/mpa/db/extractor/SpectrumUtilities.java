@@ -9,9 +9,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import de.mpa.client.Client;
 import de.mpa.db.DBConfiguration;
+import de.mpa.db.SpectrumPeaksMigrator;
 import de.mpa.io.MascotGenericFile;
 
 /**
@@ -36,6 +38,8 @@ public class SpectrumUtilities {
 			// connect to database
 			DBConfiguration dbconfig = new DBConfiguration(Client.getInstance().getConnectionParameters());
 			this.conn = dbconfig.getConnection();
+			// spectra are read from the binary peaks column
+			SpectrumPeaksMigrator.ensurePeaksColumn(conn);
 		}
 	}
 	
@@ -66,7 +70,7 @@ public class SpectrumUtilities {
 		List<MascotGenericFile> res = new ArrayList<MascotGenericFile>();
 		
 		PreparedStatement ps = conn.prepareStatement("SELECT spectrumid, title, precursor_mz, precursor_int, " +
-				"precursor_charge, mzarray, intarray, chargearray FROM spectrum " +
+				"precursor_charge, mzarray, intarray, chargearray, peaks FROM spectrum " +
 				"INNER JOIN searchspectrum on spectrum.spectrumid = searchspectrum.fk_spectrumid " +
 				"WHERE searchspectrum.fk_experimentid = ?");
 		ps.setLong(1, experimentID);
@@ -93,19 +97,19 @@ public class SpectrumUtilities {
 		List<MascotGenericFile> res = new ArrayList<MascotGenericFile>();
 		
 		PreparedStatement ps = conn.prepareStatement("SELECT searchspectrum.searchspectrumid, spectrumid, title, precursor_mz, precursor_int, " +
-				"precursor_charge, mzarray, intarray, chargearray FROM spectrum " +
+				"precursor_charge, mzarray, intarray, chargearray, peaks FROM spectrum " +
 				"INNER JOIN searchspectrum on spectrum.spectrumid = searchspectrum.fk_spectrumid " +
 				"WHERE searchspectrum.fk_experimentid = ? " + 
 				"LIMIT ?, ?");
 		ps.setLong(1, experimentID);
 		ps.setLong(2, limit);
 		ps.setLong(3, length);
-		SearchHitExtractor.findSearchHitsFromExperimentID(experimentID, conn);
+		Set<Long> identifiedIDs = SearchHitExtractor.findIdentifiedSearchSpectrumIDs(experimentID, conn);
 		
 		ResultSet rs = ps.executeQuery();
         while (rs.next()) {
         	MascotGenericFile mgf = new MascotGenericFile(rs);
-        	if(SearchHitExtractor.MAP.get(rs.getLong("searchspectrumid")) != null) {
+        	if(identifiedIDs.contains(rs.getLong("searchspectrumid"))) {
         		mgf.setFilename("Spectrum" + rs.getInt("spectrumid") + ".mgf");
             	mgf.setTitle(mgf.getTitle());
                 res.add(mgf);
@@ -127,7 +131,7 @@ public class SpectrumUtilities {
 		List<MascotGenericFile> res = new ArrayList<MascotGenericFile>();
 		
 		PreparedStatement ps = conn.prepareStatement("SELECT searchspectrum.searchspectrumid, spectrumid, title, precursor_mz, precursor_int, " +
-				"precursor_charge, mzarray, intarray, chargearray FROM spectrum " +
+				"precursor_charge, mzarray, intarray, chargearray, peaks FROM spectrum " +
 				"INNER JOIN searchspectrum on spectrum.spectrumid = searchspectrum.fk_spectrumid " +
 				"WHERE searchspectrum.fk_experimentid = ? " + 
 				"LIMIT ?, ?");
@@ -135,12 +139,12 @@ public class SpectrumUtilities {
 		ps.setLong(1, experimentID);
 		ps.setLong(2, start);
 		ps.setLong(3, length);
-		SearchHitExtractor.findSearchHitsFromExperimentID(experimentID, conn);
+		Set<Long> identifiedIDs = SearchHitExtractor.findIdentifiedSearchSpectrumIDs(experimentID, conn);
 		
 		ResultSet rs = ps.executeQuery();
         while (rs.next()) {
         	MascotGenericFile mgf = new MascotGenericFile(rs);
-        	if(SearchHitExtractor.MAP.get(rs.getLong("searchspectrumid")) == null) {
+        	if(!identifiedIDs.contains(rs.getLong("searchspectrumid"))) {
         		mgf.setFilename("Spectrum" + rs.getInt("spectrumid") + ".mgf");
             	mgf.setTitle(mgf.getTitle());
                 res.add(mgf);
@@ -3,7 +3,6 @@ package de.mpa.db.job;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Scanner;
 
 import org.apache.log4j.Logger;
 
@@ -67,51 +66,78 @@ public abstract class Job implements Executable {
      * The job properties.
      */
 	protected ServerProperties jobProperties = ServerProperties.getInstance();
+	
+	/**
+	 * The wall-clock time in milliseconds after which the job process is
+	 * destroyed, <code>0</code> for no limit.
+	 */
+	protected long timeout = getDefaultTimeout();
+	
+	/**
+	 * The exit code of the job process, <code>null</code> if no process has terminated.
+	 */
+	private Integer exitCode;
+	
+	/**
+	 * The time the job execution started in milliseconds.
+	 */
+	private long startTime = -1L;
+	
+	/**
+	 * The time the job execution ended in milliseconds.
+	 */
+	private long endTime = -1L;
     
 	/**
 	 * Executes the job.
 	 */
 	public void run() {
-		proc = null;
+		ProcessRunner runner = new ProcessRunner(procBuilder, getDescription());
+		runner.setTimeout(timeout);
 		try {
-			proc = procBuilder.start();
+			proc = runner.start();
 			setStatus(JobStatus.RUNNING);
-		} catch (IOException ioe) {
-			setError(ioe);
-			ioe.printStackTrace();
-		}
-
-		// Retrieve inputstream from process
-		Scanner scan = new Scanner(proc.getInputStream());
-		scan.useDelimiter(System.getProperty("line.separator"));
-		
-		// Temporary string variable
-		String temp;
-
-		// Get input from scanner and send to stdout
-		while (scan.hasNext()) {
-			temp = scan.next();
-
-			if (temp.endsWith("done.") || temp.endsWith("loaded.") || temp.endsWith("started.") || temp.endsWith("loaded.")) {
-				temp += "\n";
+			exitCode = runner.waitFor();
+			log.info(getDescription() + " exited with code " + exitCode + " after " + runner.getLineCount() + " output lines.");
+			if (runner.isTimedOut()) {
+				setError("Process timed out after " + (timeout / 1000L) + " s.");
+			} else if (status == JobStatus.CANCELED) {
+				return;
+			} else if (exitCode != 0) {
+				setError("Process exited with code " + exitCode + ".");
 			} else {
-				temp += " ";
+				done();
 			}
-			System.out.print(temp);
-		}
-		scan.close();
-
-		try {
-			proc.waitFor();
-			done();
+		} catch (IOException ioe) {
+			setError(ioe);
 		} catch (InterruptedException e) {
-			setError(e);
-			e.printStackTrace();
-			if (proc != null) {
-				log.error("SUBPROCESS KILLED!");
-				proc.destroy();
+			log.error("SUBPROCESS KILLED!");
+			runner.destroy();
+			if (status != JobStatus.CANCELED) {
+				setError(e);
 			}
-		}		
+		}
+	}
+	
+	/**
+	 * Returns the process timeout configured in the server settings.
+	 * @return the timeout in milliseconds, <code>0</code> for no limit
+	 */
+	private static long getDefaultTimeout() {
+		ServerProperties properties = ServerProperties.getInstance();
+		String timeout = (properties == null) ? null : properties.getProperty("app.jobtimeout");
+		return (timeout == null) ? 0L : Long.parseLong(timeout.trim()) * 1000L;
+	}
+	
+	/**
+	 * Cancels the job by destroying its running process.
+	 */
+	public void cancel() {
+		if (proc != null) {
+			log.error("SUBPROCESS KILLED!");
+			proc.destroy();
+		}
+		setStatus(JobStatus.CANCELED);
 	}
 	
 	/**
@@ -196,4 +222,47 @@ public abstract class Job implements Executable {
 	public void setFilename(String filename) {
 		this.filename = filename;
 	}
+	
+	/**
+	 * Sets the time the job execution started.
+	 * @param startTime the start time in milliseconds
+	 */
+	void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+	
+	/**
+	 * Sets the time the job execution ended.
+	 * @param endTime the end time in milliseconds
+	 */
+	void setEndTime(long endTime) {
+		this.endTime = endTime;
+	}
+	
+	/**
+	 * Sets the wall-clock time after which the job process is destroyed.
+	 * @param timeout the timeout in milliseconds, <code>0</code> for no limit
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Returns the exit code of the job process.
+	 * @return the exit code or <code>null</code> if no process has terminated
+	 */
+	public Integer getExitCode() {
+		return exitCode;
+	}
+	
+	/**
+	 * Returns the execution time of the job.
+	 * @return the runtime in milliseconds or <code>-1</code> if the job has not been executed
+	 */
+	public long getRuntime() {
+		if (endTime < 0L) {
+			return -1L;
+		}
+		return endTime - startTime;
+	}
 }
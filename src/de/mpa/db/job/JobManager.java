@@ -1,87 +1,277 @@
 package de.mpa.db.job;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
 
 
 /**
  * The JobManager handles the execution of the various jobs.
+ * <p>
+ * Jobs are executed by a bounded pool of worker threads. Dependencies between
+ * jobs are modeled explicitly: a job is started as soon as all jobs it depends
+ * on have been executed, so that independent jobs (e.g. the searches of
+ * different search engines) run in parallel. Like in the former sequential
+ * queue, a failed job does not prevent its dependent jobs from being executed.
  * @author Thilo Muth
  *
  */
 public class JobManager implements Runnable {
-	
+
 	/**
 	 * JobManager instance.
 	 */
 	private static JobManager instance;
 
 	/**
-	 * JobQueue instance.
+	 * The logger instance.
+	 */
+	private static Logger log = Logger.getLogger(JobManager.class);
+
+	/**
+	 * The jobs waiting for execution in order of addition.
+	 */
+	private Set<Job> waitingJobs;
+
+	/**
+	 * The jobs currently being executed.
+	 */
+	private Set<Job> runningJobs;
+
+	/**
+	 * Mapping of jobs to the jobs they depend on.
+	 */
+	private Map<Job, List<Job>> dependencies;
+
+	/**
+	 * The jobs which failed during the last run.
+	 */
+	private List<Job> failedJobs;
+
+	/**
+	 * The maximum number of concurrently executed jobs.
+	 */
+	private int threadCount;
+
+	/**
+	 * The executor of the current run, <code>null</code> if no run is active.
 	 */
-	private Queue<Job> jobQueue;
-	
-	
+	private ExecutorService executor;
+
 	/**
-	 * Constructor for the job manager.
+	 * Flag denoting whether the current run has been canceled.
 	 */
-	private JobManager() {
-		this.jobQueue = new ArrayDeque<Job>();
+	private boolean canceled;
+
+	/**
+	 * Constructs a job manager independent of the shared instance, e.g. for
+	 * executing jobs alongside the shared job manager.
+	 */
+	public JobManager() {
+		this.waitingJobs = new LinkedHashSet<Job>();
+		this.runningJobs = new LinkedHashSet<Job>();
+		this.dependencies = new HashMap<Job, List<Job>>();
+		this.failedJobs = new ArrayList<Job>();
+		this.threadCount = Runtime.getRuntime().availableProcessors();
 	}
-	
+
 	/**
 	 * Returns the JobManager instance.
 	 *
 	 * @return the JobManager instance
 	 */
-	public static JobManager getInstance() {
+	public static synchronized JobManager getInstance() {
 		if (instance == null) {
 			instance = new JobManager();
 		}
 		return instance;
 	}
-	
+
 	/**
-	 * Adds a job to the job queue.
-	 * @param job
+	 * Adds a job to the job queue which is executed after all specified jobs
+	 * have been executed. Jobs without dependencies may be executed right away
+	 * if the job manager is running.
+	 * @param job the job to add
+	 * @param dependencies the previously added jobs the job depends on
 	 */
-	public void addJob(Job job){
-		jobQueue.add(job);
+	public synchronized void addJob(Job job, Job... dependencies) {
+		this.dependencies.put(job, new ArrayList<Job>(Arrays.asList(dependencies)));
+		waitingJobs.add(job);
+		this.notifyAll();
 	}
-	
+
 	/**
-	 * Removes a job from the job queue.
-	 * @param job
+	 * Removes a waiting job from the job queue. Jobs depending on the removed
+	 * job are no longer waiting for it.
+	 * @param job the job to remove
 	 */
-	public void deleteJob(Job job){
-		jobQueue.remove(job);
+	public synchronized void deleteJob(Job job) {
+		if (waitingJobs.remove(job)) {
+			dependencies.remove(job);
+			this.notifyAll();
+		}
 	}
-	
+
 	/**
-	 * Executes the jobs from the queue.
+	 * Executes the jobs from the queue and blocks until all jobs have been
+	 * executed or the run has been canceled.
 	 */
 	public void run() {
-		// Iterate the job queue
-		for (Job job : jobQueue) {			
+		long startTime = System.currentTimeMillis();
+		long jobTime = 0L;
+		int jobCount = 0;
+		synchronized (this) {
+			if (executor != null) {
+				throw new IllegalStateException("Job manager is already running.");
+			}
+			canceled = false;
+			failedJobs.clear();
+			executor = Executors.newFixedThreadPool(threadCount);
+			try {
+				while (!canceled) {
+					// start all jobs whose dependencies have been executed
+					Iterator<Job> iter = waitingJobs.iterator();
+					while (iter.hasNext()) {
+						final Job job = iter.next();
+						if (this.isReady(job)) {
+							iter.remove();
+							runningJobs.add(job);
+							executor.execute(new Runnable() {
+								@Override
+								public void run() {
+									execute(job);
+								}
+							});
+						}
+					}
+					if (runningJobs.isEmpty()) {
+						// all jobs have been executed
+						break;
+					}
+					this.wait();
+				}
+			} catch (InterruptedException e) {
+				this.cancel();
+				Thread.currentThread().interrupt();
+			} finally {
+				executor.shutdownNow();
+				executor = null;
+				for (Job job : waitingJobs) {
+					job.setStatus(JobStatus.CANCELED);
+				}
+				for (Job job : dependencies.keySet()) {
+					if (job.getStatus() == JobStatus.ERROR) {
+						failedJobs.add(job);
+					}
+					if (job.getRuntime() >= 0L) {
+						jobTime += job.getRuntime();
+						jobCount++;
+					}
+				}
+				waitingJobs.clear();
+				runningJobs.clear();
+				dependencies.clear();
+			}
+		}
+		log.info(String.format("Executed %d jobs in %.1f s (%.1f s job time).", jobCount,
+				(System.currentTimeMillis() - startTime) / 1000.0, jobTime / 1000.0));
+	}
+
+	/**
+	 * Returns whether none of the jobs the specified job depends on is still
+	 * waiting or running.
+	 */
+	private boolean isReady(Job job) {
+		for (Job dependency : dependencies.get(job)) {
+			if (waitingJobs.contains(dependency) || runningJobs.contains(dependency)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Executes the specified job on a worker thread and records its runtime.
+	 */
+	private void execute(Job job) {
+		job.setStartTime(System.currentTimeMillis());
+		try {
 			job.run();
-			// Remove job from the queue after successful execution.
-			jobQueue.remove(job);
+		} catch (Exception e) {
+			job.setError(e);
+		} finally {
+			job.setEndTime(System.currentTimeMillis());
+			log.info(String.format("%s took %.1f s.", job.getDescription(), job.getRuntime() / 1000.0));
+			synchronized (this) {
+				runningJobs.remove(job);
+				this.notifyAll();
+			}
 		}
 	}
-    
+
+	/**
+	 * Cancels the current run. Running jobs are interrupted and waiting jobs
+	 * are discarded.
+	 */
+	public synchronized void cancel() {
+		if (executor != null) {
+			canceled = true;
+			for (Job job : runningJobs) {
+				job.cancel();
+			}
+			executor.shutdownNow();
+			this.notifyAll();
+		}
+	}
+
 	/**
-	 * This method deletes all the jobs from the queue.	
-	 */	
-	public void clear(){		
-		jobQueue.clear();
+	 * This method deletes all the waiting jobs from the queue.
+	 */
+	public synchronized void clear() {
+		waitingJobs.clear();
+		dependencies.keySet().retainAll(runningJobs);
 	}
-	
+
 	/**
 	 * Returns the number of jobs that have yet to be processed.
 	 * @return The number of remaining jobs.
 	 */
-	public int getRemainingJobs() {
-		return jobQueue.size();
+	public synchronized int getRemainingJobs() {
+		return waitingJobs.size() + runningJobs.size();
+	}
+
+	/**
+	 * Returns the jobs which failed during the last run.
+	 * @return the failed jobs, empty if all jobs have been executed successfully
+	 */
+	public synchronized List<Job> getFailedJobs() {
+		return new ArrayList<Job>(failedJobs);
 	}
-	
+
+	/**
+	 * Returns the maximum number of concurrently executed jobs.
+	 * @return the number of worker threads
+	 */
+	public synchronized int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Sets the maximum number of concurrently executed jobs. Takes effect
+	 * with the next run.
+	 * @param threadCount the number of worker threads
+	 */
+	public synchronized void setThreadCount(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
 }
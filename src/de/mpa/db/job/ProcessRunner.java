@@ -0,0 +1,282 @@
+package de.mpa.db.job;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import de.mpa.db.job.instances.CommonJob;
+import de.mpa.webservice.Message;
+import de.mpa.webservice.MessageQueue;
+
+/**
+ * Runs an external process without blocking on its output. Standard output
+ * and standard error are drained by dedicated threads into a bounded buffer
+ * holding the most recent lines, so verbose processes never stall on a full
+ * pipe. Lines containing progress markers are posted to the message queue.
+ * An optional wall-clock timeout destroys processes running too long. Output
+ * still pending after the process has terminated, e.g. because a forked child
+ * keeps the pipes open, is abandoned after {@link #DRAIN_TIMEOUT}.
+ */
+public class ProcessRunner {
+
+	/**
+	 * The maximum number of output lines kept in the buffer.
+	 */
+	public static final int BUFFER_SIZE = 500;
+
+	/**
+	 * The time in milliseconds to wait for the output to be drained once the process has terminated.
+	 */
+	public static final long DRAIN_TIMEOUT = 10000L;
+
+	/**
+	 * Line endings marking progress messages of the search engines.
+	 */
+	private static final String[] PROGRESS_MARKERS = { "done.", "loaded.", "started." };
+
+	/**
+	 * Shared watchdog executor enforcing process timeouts.
+	 */
+	private static ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "ProcessWatchdog");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * The logger instance.
+	 */
+	private static Logger log = Logger.getLogger(ProcessRunner.class);
+
+	/**
+	 * The process builder.
+	 */
+	private ProcessBuilder procBuilder;
+
+	/**
+	 * The description used for progress messages.
+	 */
+	private String description;
+
+	/**
+	 * The timeout in milliseconds, <code>0</code> for no timeout.
+	 */
+	private long timeout;
+
+	/**
+	 * The running process.
+	 */
+	private Process proc;
+
+	/**
+	 * The output draining threads.
+	 */
+	private List<Thread> drainers = new ArrayList<Thread>();
+
+	/**
+	 * The drained output streams.
+	 */
+	private List<InputStream> streams = new ArrayList<InputStream>();
+
+	/**
+	 * Ring buffer of the most recent output lines.
+	 */
+	private String[] lines = new String[BUFFER_SIZE];
+
+	/**
+	 * The total number of output lines read.
+	 */
+	private int lineCount;
+
+	/**
+	 * Flag denoting whether the process has been destroyed due to its timeout.
+	 */
+	private volatile boolean timedOut;
+
+	/**
+	 * Constructs a runner for processes created by the specified process builder.
+	 * @param procBuilder the process builder
+	 * @param description the description used for progress messages
+	 */
+	public ProcessRunner(ProcessBuilder procBuilder, String description) {
+		this.procBuilder = procBuilder;
+		this.description = description;
+	}
+
+	/**
+	 * Sets the wall-clock timeout after which the process is destroyed.
+	 * @param timeout the timeout in milliseconds, <code>0</code> for no timeout
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Starts the process and the threads draining its output.
+	 * @return the started process
+	 * @throws IOException if the process cannot be started
+	 */
+	public Process start() throws IOException {
+		proc = procBuilder.start();
+		drain(proc.getInputStream(), "stdout");
+		drain(proc.getErrorStream(), "stderr");
+		return proc;
+	}
+
+	/**
+	 * Starts a thread reading the specified stream line by line.
+	 */
+	private void drain(final InputStream stream, String name) {
+		Thread drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+					String line;
+					while ((line = reader.readLine()) != null) {
+						addLine(line);
+					}
+					reader.close();
+				} catch (IOException e) {
+					// stream is closed when the process is destroyed
+					log.debug(e.getMessage());
+				}
+			}
+		}, description + " " + name);
+		drainer.setDaemon(true);
+		drainer.start();
+		drainers.add(drainer);
+		streams.add(stream);
+	}
+
+	/**
+	 * Stores an output line and posts progress markers to the message queue.
+	 */
+	private void addLine(String line) {
+		synchronized (lines) {
+			lines[lineCount % BUFFER_SIZE] = line;
+			lineCount++;
+		}
+		line = line.trim();
+		for (String marker : PROGRESS_MARKERS) {
+			if (line.endsWith(marker)) {
+				MessageQueue.getInstance().add(new Message(
+						new CommonJob(JobStatus.RUNNING, description + ": " + line), new Date()), log);
+				return;
+			}
+		}
+		log.debug(line);
+	}
+
+	/**
+	 * Waits for the process to terminate and for its output to be drained.
+	 * If the timeout elapses before, the process is destroyed. If the output
+	 * has not been drained within {@link #DRAIN_TIMEOUT} after termination,
+	 * the streams are closed and the remaining output is discarded.
+	 * @return the exit code of the process
+	 * @throws InterruptedException if the current thread has been interrupted while waiting
+	 */
+	public int waitFor() throws InterruptedException {
+		ScheduledFuture<?> timeoutTask = null;
+		if (timeout > 0L) {
+			timeoutTask = watchdog.schedule(new Runnable() {
+				@Override
+				public void run() {
+					timedOut = true;
+					log.error(description + " timed out after " + timeout + " ms.");
+					proc.destroy();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+		try {
+			int exitCode = proc.waitFor();
+			long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+			for (Thread drainer : drainers) {
+				drainer.join(Math.max(1L, deadline - System.currentTimeMillis()));
+			}
+			if (this.isDraining()) {
+				log.warn(description + " output has not been drained within " + DRAIN_TIMEOUT + " ms, closing streams.");
+				for (InputStream stream : streams) {
+					try {
+						stream.close();
+					} catch (IOException e) {
+						log.debug(e.getMessage());
+					}
+				}
+			}
+			return exitCode;
+		} finally {
+			if (timeoutTask != null) {
+				timeoutTask.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether any output draining thread is still alive.
+	 */
+	private boolean isDraining() {
+		for (Thread drainer : drainers) {
+			if (drainer.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Destroys the process.
+	 */
+	public void destroy() {
+		if (proc != null) {
+			proc.destroy();
+		}
+	}
+
+	/**
+	 * Returns whether the process has been destroyed due to its timeout.
+	 * @return <code>true</code> if the process timed out
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Returns the most recent output lines of both streams in order of arrival.
+	 * @return the buffered output lines
+	 */
+	public List<String> getOutput() {
+		synchronized (lines) {
+			List<String> output = new ArrayList<String>();
+			for (int i = Math.max(0, lineCount - BUFFER_SIZE); i < lineCount; i++) {
+				output.add(lines[i % BUFFER_SIZE]);
+			}
+			return output;
+		}
+	}
+
+	/**
+	 * Returns the total number of output lines read.
+	 * @return the number of output lines
+	 */
+	public int getLineCount() {
+		synchronized (lines) {
+			return lineCount;
+		}
+	}
+
+}
@@ -20,6 +20,17 @@ public class CommonJob extends Job {
 		this.description = description;
 	}
 	
+	/**
+	 * Constructs the generic job implementation with an error message.
+	 * @param status The job status.
+	 * @param description The job description.
+	 * @param error The error message.
+	 */
+	public CommonJob(JobStatus status, String description, String error) {
+		this(status, description);
+		this.error = error;
+	}
+	
 	/**
 	 * Run method has no function.
 	 */
@@ -1,6 +1,7 @@
 package de.mpa.db.job.instances;
 
 import java.io.File;
+import java.util.List;
 
 import de.mpa.db.job.Job;
 
@@ -12,15 +13,34 @@ import de.mpa.db.job.Job;
  */
 public class DeleteJob extends Job {	
 private String filename;
+
+	/**
+	 * The files to be removed, <code>null</code> if the result files are removed.
+	 */
+	private List<File> files;
 	
 	public DeleteJob() {}
 	
 	public DeleteJob(String filename) {
 		this.filename = filename;
 	}
+	
+	/**
+	 * Constructs a job removing the specified files, e.g. spectrum file shards.
+	 * @param files The files to remove.
+	 */
+	public DeleteJob(List<File> files) {
+		this.files = files;
+	}
 
 	@Override
 	public void run() {
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+			return;
+		}
 		
 		// Wait for 10 seconds before removing of files starts... to account for other processes to finish first.
 		try {
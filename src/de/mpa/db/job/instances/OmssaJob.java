@@ -4,6 +4,7 @@ import java.io.File;
 
 import de.mpa.db.job.Job;
 import de.mpa.db.job.SearchType;
+import de.mpa.db.job.ServerProperties;
 
 public class OmssaJob extends Job {
     
@@ -68,13 +69,23 @@ public class OmssaJob extends Job {
 		this.isPrecursorTolerancePpm = isPrecursorTolerancePpm;
 		this.searchType = searchType;
 		
+		this.filename = getResultFilename(mgfFile, searchType);
+		this.omssaFile = new File(jobProperties.getProperty("path.omssa"));
+		initJob();
+	}
+	
+	/**
+	 * Returns the OMSSA result filename including the path for the specified spectrum file.
+	 * @param mgfFile Spectrum file
+	 * @param searchType Target or decoy search type
+	 * @return filename
+	 */
+	public static String getResultFilename(File mgfFile, SearchType searchType) {
 		if(searchType == SearchType.DECOY){
-			this.filename = jobProperties.getProperty("path.omssa.output") + mgfFile.getName() + "_decoy.omx";
+			return ServerProperties.getInstance().getProperty("path.omssa.output") + mgfFile.getName() + "_decoy.omx";
 		} else {
-			this.filename = jobProperties.getProperty("path.omssa.output") + mgfFile.getName() + "_target.omx";
+			return ServerProperties.getInstance().getProperty("path.omssa.output") + mgfFile.getName() + "_target.omx";
 		}
-		this.omssaFile = new File(jobProperties.getProperty("path.omssa"));
-		initJob();
 	}
 	
 	/**
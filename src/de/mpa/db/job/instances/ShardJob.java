@@ -0,0 +1,132 @@
+package de.mpa.db.job.instances;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.mpa.db.job.Job;
+import de.mpa.db.job.JobStatus;
+import de.mpa.io.MascotGenericFileReader;
+import de.mpa.io.MascotGenericFileReader.LoadMode;
+
+/**
+ * Job splitting a spectrum file into shards containing equal numbers of
+ * spectra, which can be searched by concurrent search engine processes.
+ * The shard files are named when the job is created, the spectrum file is
+ * read and split when the job is executed. Any content preceding the first
+ * spectrum (e.g. a file-level charge statement) is copied to every shard.
+ * If the file contains fewer spectra than shards, the surplus shards contain
+ * no spectra.
+ */
+public class ShardJob extends Job {
+
+	/**
+	 * The spectrum file to be split.
+	 */
+	private File mgfFile;
+
+	/**
+	 * The shard files.
+	 */
+	private List<File> shardFiles;
+
+	/**
+	 * Constructs a job splitting the specified spectrum file into the
+	 * specified number of shards.
+	 * @param mgfFile The spectrum file.
+	 * @param shardCount The number of shards.
+	 */
+	public ShardJob(File mgfFile, int shardCount) {
+		this.mgfFile = mgfFile;
+		this.shardFiles = new ArrayList<File>();
+		setDescription("SPECTRUM FILE SHARDING");
+		shardCount = Math.max(1, shardCount);
+
+		String name = mgfFile.getName();
+		int extensionStart = name.lastIndexOf('.');
+		String baseName = (extensionStart < 0) ? name : name.substring(0, extensionStart);
+		String extension = (extensionStart < 0) ? "" : name.substring(extensionStart);
+		String format = "%s_shard%0" + Math.max(2, Integer.toString(shardCount).length()) + "d%s";
+		for (int i = 1; i <= shardCount; i++) {
+			shardFiles.add(new File(mgfFile.getParentFile(), String.format(format, baseName, i, extension)));
+		}
+	}
+
+	@Override
+	public void run() {
+		setStatus(JobStatus.RUNNING);
+		try {
+			long[] boundaries = this.getBoundaries();
+			FileInputStream fis = new FileInputStream(mgfFile);
+			FileChannel input = fis.getChannel();
+			try {
+				for (int i = 0; i < shardFiles.size(); i++) {
+					FileOutputStream fos = new FileOutputStream(shardFiles.get(i));
+					FileChannel output = fos.getChannel();
+					try {
+						// Copy file header followed by the spectra of the shard
+						transfer(input, 0L, boundaries[0], output);
+						transfer(input, boundaries[i], boundaries[i + 1], output);
+					} finally {
+						fos.close();
+					}
+				}
+			} finally {
+				fis.close();
+			}
+			done();
+		} catch (IOException e) {
+			setError(e);
+		}
+	}
+
+	/**
+	 * Surveys the spectrum file and determines the byte positions of the shard
+	 * boundaries. The first position denotes the start of the first spectrum,
+	 * the last one the end of the file.
+	 * @return the shard boundaries
+	 * @throws IOException if the spectrum file cannot be read
+	 */
+	private long[] getBoundaries() throws IOException {
+		MascotGenericFileReader reader = new MascotGenericFileReader(mgfFile, LoadMode.SURVEY);
+		List<Long> positions = reader.getSpectrumPositions();
+		int spectrumCount = positions.size();
+		int shardCount = shardFiles.size();
+
+		// Distribute spectra evenly, shard sizes differ by one spectrum at most
+		long[] boundaries = new long[shardCount + 1];
+		for (int i = 0; i < shardCount; i++) {
+			int first = (spectrumCount >= shardCount) ? (int) ((long) i * spectrumCount / shardCount) : i;
+			boundaries[i] = (first < spectrumCount) ? positions.get(first) : mgfFile.length();
+		}
+		boundaries[shardCount] = mgfFile.length();
+		return boundaries;
+	}
+
+	/**
+	 * Copies the specified byte range of the input channel to the output channel.
+	 */
+	private void transfer(FileChannel input, long from, long to, FileChannel output) throws IOException {
+		while (from < to) {
+			long count = input.transferTo(from, to - from, output);
+			if (count <= 0L) {
+				throw new IOException("End of file has been reached prematurely.");
+			}
+			from += count;
+		}
+	}
+
+	/**
+	 * Returns the shard files. The files exist after the job has been executed.
+	 * @return The shard files.
+	 */
+	public List<File> getShardFiles() {
+		return Collections.unmodifiableList(shardFiles);
+	}
+
+}
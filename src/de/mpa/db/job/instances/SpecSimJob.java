@@ -4,8 +4,12 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import de.mpa.algorithms.Interval;
+import de.mpa.algorithms.similarity.BinnedSpectrum;
+import de.mpa.algorithms.similarity.BinnedSpectrumCache;
 import de.mpa.algorithms.similarity.CrossCorrelation;
 import de.mpa.algorithms.similarity.EuclideanDistance;
 import de.mpa.algorithms.similarity.NormalizedDotProduct;
@@ -15,6 +19,7 @@ import de.mpa.algorithms.similarity.Transformation;
 import de.mpa.algorithms.similarity.Vectorization;
 import de.mpa.algorithms.similarity.VectorizationFactory;
 import de.mpa.client.SpecSimSettings;
+import de.mpa.client.model.specsim.CandidateIndex;
 import de.mpa.client.model.specsim.SpectralSearchCandidate;
 import de.mpa.client.model.specsim.SpectrumSpectrumMatch;
 import de.mpa.db.DBManager;
@@ -45,16 +50,34 @@ public class SpecSimJob extends Job {
 	 * The list of spectrum-spectrum matches.
 	 */
 	private List<SpectrumSpectrumMatch> ssmList;
-
+	
+	/**
+	 * The number of threads used for scoring query spectra.
+	 */
+	private int threadCount;
+	
 	/**
 	 * Constructs a spectral similarity search job from the specified list of
-	 * spetrum files and search settings.
+	 * spetrum files and search settings using all available processors.
 	 * @param mgfList the list of spectrum files
 	 * @param settings the spectral similarity search settings
 	 */
 	public SpecSimJob(List<MascotGenericFile> mgfList, SpecSimSettings settings) {
+		this(mgfList, settings, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a spectral similarity search job from the specified list of
+	 * spetrum files and search settings scoring the query spectra with the
+	 * specified number of threads.
+	 * @param mgfList the list of spectrum files
+	 * @param settings the spectral similarity search settings
+	 * @param threadCount the number of threads, values below 2 select serial execution
+	 */
+	public SpecSimJob(List<MascotGenericFile> mgfList, SpecSimSettings settings, int threadCount) {
 		this.mgfList = mgfList;
 		this.settings = settings;
+		this.threadCount = threadCount;
 		setDescription("SPECTRAL SIMILARITY SEARCH");
 	}
 
@@ -62,9 +85,6 @@ public class SpecSimJob extends Job {
 	public void run() {
 		setStatus(JobStatus.RUNNING);
 		
-		// store list of results in HashMap (with spectrum title as key)
-		ssmList = new ArrayList<SpectrumSpectrumMatch>();
-		
 		List<Interval> intervals = this.buildMzIntervals();
 
 		try {
@@ -83,46 +103,171 @@ public class SpecSimJob extends Job {
 //			int total = mgfList.size();
 //			int i = 0;
 			
-			// iterate query spectra to determine similarity scores
-			for (MascotGenericFile mgfQuery : mgfList) {
-				String title = mgfQuery.getTitle().trim();
-				long searchspectrumID = MapContainer.SpectrumTitle2IdMap.get(title);
-				
-				// Spectrum comparator method
-				SpectrumComparator specComp = getComparatorMethod(settings);
-				
-				// Comparison preparation
+			// score query spectra against candidates
+			ssmList = this.search(new CandidateIndex(candidates));
+			System.out.println("... done.");
+			done();
+		} catch (SQLException e) {
+			setError(e);
+		}
+	}
+	
+	/**
+	 * Scores all query spectra against the indexed candidates. Query spectra
+	 * are partitioned across a fork-join pool if more than one thread is
+	 * configured, each partition using its own comparators and result list.
+	 * The results are concatenated in query order and thus identical to those
+	 * of serial execution.
+	 * <p>
+	 * Library spectra are vectorized at most once per search. The vector cache
+	 * is discarded afterwards, so later searches always see the current library
+	 * contents.
+	 * @param candidateIndex the precursor-sorted candidates
+	 * @return the list of spectrum-spectrum matches
+	 */
+	List<SpectrumSpectrumMatch> search(CandidateIndex candidateIndex) {
+		BinnedSpectrumCache vectorCache = this.createVectorCache(settings);
+		try {
+			if ((threadCount < 2) || (mgfList.size() < 2)) {
+				return this.searchQueries(0, mgfList.size(), candidateIndex, vectorCache);
+			}
+			ForkJoinPool pool = new ForkJoinPool(threadCount);
+			try {
+				// split into a few partitions per thread to balance uneven candidate window sizes
+				int partitionSize = Math.max(1, mgfList.size() / (threadCount * 4));
+				return pool.invoke(new QueryTask(0, mgfList.size(), partitionSize, candidateIndex, vectorCache));
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			if (vectorCache != null) {
+				vectorCache.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Scores the query spectra in the specified index range against the indexed candidates.
+	 * @param from the index of the first query spectrum (inclusive)
+	 * @param to the index of the last query spectrum (exclusive)
+	 * @param candidateIndex the precursor-sorted candidates
+	 * @param vectorCache the cache of pre-vectorized library spectra, may be <code>null</code>
+	 * @return the list of spectrum-spectrum matches
+	 */
+	private List<SpectrumSpectrumMatch> searchQueries(int from, int to, CandidateIndex candidateIndex,
+			BinnedSpectrumCache vectorCache) {
+		List<SpectrumSpectrumMatch> matches = new ArrayList<SpectrumSpectrumMatch>();
+		for (MascotGenericFile mgfQuery : mgfList.subList(from, to)) {
+			String title = mgfQuery.getTitle().trim();
+			long searchspectrumID = MapContainer.SpectrumTitle2IdMap.get(title);
+			
+			// Comparison preparation
+			SpectrumComparator specComp = null;
+			BinnedSpectrum queryVector = null;
+			if (vectorCache != null) {
+				// library spectra are pre-vectorized, score by merging sparse vectors
+				queryVector = vectorCache.vectorize(mgfQuery.getHighestPeaks(settings.getPickCount()));
+			} else {
+				// Spectrum comparator method, vectorizations keep per-query state
+				specComp = getComparatorMethod(settings);
 				specComp.prepare(mgfQuery.getHighestPeaks(settings.getPickCount()));
+			}
+			
+			// iterate candidates inside precursor tolerance window
+			for (SpectralSearchCandidate candidate :
+					candidateIndex.getCandidates(mgfQuery.getPrecursorMZ(), settings.getTolMz())) {
+				// TODO: redundancy check in candidates (e.g. same spectrum from multiple peptide associations)
+				// Score query and library spectra
+				double score;
+				if (queryVector != null) {
+					score = queryVector.dotProduct(vectorCache.get(candidate.getLibpectrumID(), candidate.getPeaks()));
+				} else {
+					specComp.compareTo(candidate.getPeaks());
+					score = specComp.getSimilarity();
+				}
 				
-				// iterate candidates
-				for (SpectralSearchCandidate candidate : candidates) {
-					// (re-)check precursor tolerance criterion to determine proper candidates
-					if (Math.abs(mgfQuery.getPrecursorMZ() - candidate.getPrecursorMz()) < settings.getTolMz()) {
-						// TODO: redundancy check in candidates (e.g. same spectrum from multiple peptide associations)
-						// Score query and library spectra
-						specComp.compareTo(candidate.getPeaks());
-						double score = specComp.getSimilarity();
-						
-						// store result if score is above specified threshold
-						if (score >= settings.getThreshScore()) {
-							ssmList.add(new SpectrumSpectrumMatch(searchspectrumID, candidate.getLibpectrumID(), score));
-						}
-					}
+				// store result if score is above specified threshold
+				if (score >= settings.getThreshScore()) {
+					matches.add(new SpectrumSpectrumMatch(searchspectrumID, candidate.getLibpectrumID(), score));
 				}
+			}
+			if (specComp != null) {
 				specComp.getVectorization().cleanup();
-				
-//				if ((i%100) == 0) {
-//					System.out.println("" + i + " / " + total);
-//				}
-//				i++;
-				
-				// TODO: re-implement progress event handling
-//				pSupport.firePropertyChange("progressmade", 0, 1);
 			}
-			System.out.println("... done.");
-			done();
-		} catch (SQLException e) {
-			setError(e);
+		}
+		return matches;
+	}
+	
+	/**
+	 * Creates an empty cache for pre-vectorized library spectra for the
+	 * specified settings. Only normalized dot product scoring of binned spectra
+	 * is supported, peak matching depends on the query spectrum.
+	 * @param settings the spectral similarity search settings
+	 * @return the vector cache or <code>null</code> if the settings are not supported
+	 */
+	private BinnedSpectrumCache createVectorCache(SpecSimSettings settings) {
+		if ((settings.getCompIndex() != 1) || (settings.getVectIndex() == 0)) {
+			return null;
+		}
+		return new BinnedSpectrumCache(getVectorizationMethod(settings),
+				getTransformationMethod(settings), settings.getBinWidth(), settings.getBinShift());
+	}
+	
+	/**
+	 * Fork-join task scoring a contiguous range of query spectra.
+	 */
+	private class QueryTask extends RecursiveTask<List<SpectrumSpectrumMatch>> {
+		
+		/**
+		 * Serialization ID.
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The query index range.
+		 */
+		private final int from, to;
+		
+		/**
+		 * The maximum number of queries scored without further splitting.
+		 */
+		private final int partitionSize;
+		
+		/**
+		 * The precursor-sorted candidates.
+		 */
+		private final CandidateIndex candidateIndex;
+		
+		/**
+		 * The cache of pre-vectorized library spectra shared by all tasks of one search.
+		 */
+		private final BinnedSpectrumCache vectorCache;
+		
+		/**
+		 * Creates a task for the specified query index range.
+		 */
+		public QueryTask(int from, int to, int partitionSize, CandidateIndex candidateIndex,
+				BinnedSpectrumCache vectorCache) {
+			this.from = from;
+			this.to = to;
+			this.partitionSize = partitionSize;
+			this.candidateIndex = candidateIndex;
+			this.vectorCache = vectorCache;
+		}
+		
+		@Override
+		protected List<SpectrumSpectrumMatch> compute() {
+			if (to - from <= partitionSize) {
+				return searchQueries(from, to, candidateIndex, vectorCache);
+			}
+			int mid = (from + to) >>> 1;
+			QueryTask left = new QueryTask(from, mid, partitionSize, candidateIndex, vectorCache);
+			left.fork();
+			List<SpectrumSpectrumMatch> rightMatches =
+					new QueryTask(mid, to, partitionSize, candidateIndex, vectorCache).compute();
+			List<SpectrumSpectrumMatch> matches = left.join();
+			matches.addAll(rightMatches);
+			return matches;
 		}
 	}
 	
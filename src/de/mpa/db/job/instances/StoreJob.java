@@ -1,6 +1,7 @@
 package de.mpa.db.job.instances;
 
 import java.sql.SQLException;
+import java.util.Map;
 
 import de.mpa.client.model.dbsearch.SearchEngineType;
 import de.mpa.db.DBManager;
@@ -27,6 +28,16 @@ public class StoreJob extends Job {
 	 * The search engine result filename.
 	 */
 	private String resultFilename;
+	
+	/**
+	 * The spectrum title to searchspectrum ID mapping of the searched spectrum file.
+	 */
+	private Map<String, Long> title2SearchIdMap;
+	
+	/**
+	 * The spectrum filename to searchspectrum ID mapping of the searched spectrum file.
+	 */
+	private Map<String, Long> fileName2IdMap;
 
 	
 	/**
@@ -58,10 +69,22 @@ public class StoreJob extends Job {
 		setDescription(searchEngineType.name().toUpperCase() + " RESULTS STORING");
 	}
 	
+	/**
+	 * Sets the searchspectrum ID mappings of the spectrum file whose results are stored.
+	 * If unset, results are linked to the spectrum file stored last.
+	 * @param title2SearchIdMap the spectrum title to searchspectrum ID mapping
+	 * @param fileName2IdMap the spectrum filename to searchspectrum ID mapping
+	 */
+	public void setSearchspectrumIdMaps(Map<String, Long> title2SearchIdMap, Map<String, Long> fileName2IdMap) {
+		this.title2SearchIdMap = title2SearchIdMap;
+		this.fileName2IdMap = fileName2IdMap;
+	}
+	
 	@Override
 	public void run() {
 		try {
-			dbManager.storeDatabaseSearchResults(searchEngineType, resultFilename, qValueFilename);
+			dbManager.storeDatabaseSearchResults(searchEngineType, resultFilename, qValueFilename,
+					title2SearchIdMap, fileName2IdMap);
 		} catch (Exception e) {
 			setError(e);
 		}
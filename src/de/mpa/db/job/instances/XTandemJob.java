@@ -7,6 +7,7 @@ import java.io.IOException;
 
 import de.mpa.db.job.Job;
 import de.mpa.db.job.SearchType;
+import de.mpa.db.job.ServerProperties;
 
 /**
  * Executes the X!Tandem search process.
@@ -15,8 +16,7 @@ import de.mpa.db.job.SearchType;
  */
 public class XTandemJob extends Job {	
 	
-	private final static String INPUT_TARGET_FILE = "input_target.xml";
-	private final static String INPUT_DECOY_FILE = "input_decoy.xml";
+	private final static String INPUT_FILE_SUFFIX = "_input.xml";
     private final static String PARAMETER_FILE = "parameters.xml";   
     private final static String TAXONOMY_FILE = "taxonomy.xml";
     private final static String TAXONOMY_DECOY_FILE = "taxonomy_decoy.xml";
@@ -62,15 +62,14 @@ public class XTandemJob extends Job {
 		}
 		this.searchType = searchType;
 		this.xTandemFile = new File(jobProperties.getProperty("path.xtandem"));
+		this.filename = getResultFilename(mgfFile, searchType);
+		// Input files are specific to the spectrum file as spectrum file shards are searched concurrently
+		this.inputFile = new File(filename.substring(0, filename.length() - 4) + INPUT_FILE_SUFFIX);
 		if(searchType == SearchType.TARGET){
-			this.inputFile = new File(xTandemFile, INPUT_TARGET_FILE);
-			this.filename = jobProperties.getProperty("path.xtandem.output") + mgfFile.getName().substring(0, mgfFile.getName().length() - 4) + "_target.xml";
 			buildTaxonomyFile();
 			buildInputFile();
 			
 		} else if (searchType == SearchType.DECOY){
-			this.inputFile = new File(xTandemFile, INPUT_DECOY_FILE);
-			this.filename = jobProperties.getProperty("path.xtandem.output") + mgfFile.getName().substring(0, mgfFile.getName().length() - 4) + "_decoy.xml";
 			buildTaxonomyDecoyFile();
 			buildInputDecoyFile();
 		}
@@ -377,6 +376,17 @@ public class XTandemJob extends Job {
 		procBuilder.redirectErrorStream(true);
 	}
 	
+	/**
+	 * Returns the XTandem outfile name including the path for the specified spectrum file.
+	 * @param mgfFile Spectrum file
+	 * @param searchType Target or decoy search type
+	 * @return filename
+	 */
+	public static String getResultFilename(File mgfFile, SearchType searchType) {
+		String suffix = (searchType == SearchType.DECOY) ? "_decoy.xml" : "_target.xml";
+		return ServerProperties.getInstance().getProperty("path.xtandem.output") + mgfFile.getName().substring(0, mgfFile.getName().length() - 4) + suffix;
+	}
+	
 	/**
 	 * Returns the actual XTandem outfile name including the path.
 	 * @return filename
@@ -1,6 +1,10 @@
 package de.mpa.db.job.scoring;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import de.mpa.db.job.Job;
 import de.mpa.db.job.instances.QvalityJob;
@@ -13,11 +17,11 @@ import de.mpa.db.job.instances.QvalityJob;
  */
 public class OmssaScoreJob extends Job {
 	
-	// The Omssa target result file.
-	private String targetFile;
+	// The Omssa target result files.
+	private List<String> targetFiles;
 	
-	// The Omssa decoy result file.
-	private String decoyFile;
+	// The Omssa decoy result files.
+	private List<String> decoyFiles;
 	
 	private String filename;
 
@@ -27,8 +31,19 @@ public class OmssaScoreJob extends Job {
 	 * @param decoyFile Omssa decoy search result file.
 	 */
 	public OmssaScoreJob(String targetFile, String decoyFile) {
-		this.targetFile = targetFile;
-		this.decoyFile = decoyFile;
+		this(Collections.singletonList(targetFile), Collections.singletonList(decoyFile), targetFile);
+	}
+	
+	/**
+	 * Constructs the Omssa score job for the results of multiple spectrum file shards.
+	 * The scores of all shards are merged before the q-values are calculated.
+	 * @param targetFiles Omssa target search result files.
+	 * @param decoyFiles Omssa decoy search result files.
+	 * @param targetFile Omssa target search result file of the whole spectrum file, used for naming the merged score files.
+	 */
+	public OmssaScoreJob(List<String> targetFiles, List<String> decoyFiles, String targetFile) {
+		this.targetFiles = targetFiles;
+		this.decoyFiles = decoyFiles;
 		
 		// Set the description
 		filename = new File(targetFile).getAbsolutePath().substring(0, targetFile.lastIndexOf("_target")) + "_qvalued.out";
@@ -40,12 +55,33 @@ public class OmssaScoreJob extends Job {
 	 * Initalize the job.
 	 */
 	public void run() {
-		
 		// Extract the scores for OMSSA target and decoy search
-		OmssaScoreExtractor omssaExtractor = new OmssaScoreExtractor(new File(targetFile), new File(decoyFile));
+		List<String> targetOutputs = new ArrayList<String>();
+		List<String> decoyOutputs = new ArrayList<String>();
+		for (int i = 0; i < targetFiles.size(); i++) {
+			OmssaScoreExtractor omssaExtractor = new OmssaScoreExtractor(new File(targetFiles.get(i)), new File(decoyFiles.get(i)));
+			targetOutputs.add(omssaExtractor.getTargetOutput());
+			decoyOutputs.add(omssaExtractor.getDecoyOutput());
+		}
+		String targetOutput = targetOutputs.get(0);
+		String decoyOutput = decoyOutputs.get(0);
+		
+		// Merge the scores of the spectrum file shards
+		if (targetFiles.size() > 1) {
+			String prefix = filename.substring(0, filename.lastIndexOf("_qvalued"));
+			targetOutput = prefix + "_target.out";
+			decoyOutput = prefix + "_decoy.out";
+			try {
+				ScoreExtractor.mergeScores(targetOutputs, targetOutput, true);
+				ScoreExtractor.mergeScores(decoyOutputs, decoyOutput, true);
+			} catch (IOException e) {
+				setError(e);
+				return;
+			}
+		}
 		
 		// Executes QVality
-		QvalityJob omssaQVality = new QvalityJob(omssaExtractor.getTargetOutput(), omssaExtractor.getDecoyOutput(), true);
+		QvalityJob omssaQVality = new QvalityJob(targetOutput, decoyOutput, true);
 		omssaQVality.run();
 	}
 	
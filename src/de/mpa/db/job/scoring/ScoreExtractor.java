@@ -1,8 +1,12 @@
 package de.mpa.db.job.scoring;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 // FIXME Refactor this class!
@@ -111,4 +115,37 @@ public abstract class ScoreExtractor {
 	public List<Double> getDecoyScores() {
 		return decoyScores;
 	}
+	
+	/**
+	 * Merges the specified score files, e.g. the score files of spectrum file
+	 * shards, into a single score file sorted from best to worst score.
+	 * @param inputPaths Score file paths
+	 * @param outputPath Merged score file path
+	 * @param reverseScoring Condition whether low scores are better than high scores
+	 * @throws IOException
+	 */
+	public static void mergeScores(List<String> inputPaths, String outputPath, boolean reverseScoring) throws IOException {
+		List<Double> scores = new ArrayList<Double>();
+		for (String inputPath : inputPaths) {
+			BufferedReader reader = new BufferedReader(new FileReader(inputPath));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					scores.add(Double.valueOf(line));
+				}
+			}
+			reader.close();
+		}
+		if (reverseScoring) {
+			Collections.sort(scores);
+		} else {
+			Collections.sort(scores, Collections.reverseOrder());
+		}
+		FileWriter writer = new FileWriter(outputPath);
+		for (double score : scores) {
+			writer.write(Double.toString(score));
+			writer.write("\n");
+		}
+		writer.close();
+	}
 }
@@ -1,6 +1,10 @@
 package de.mpa.db.job.scoring;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import de.mpa.db.job.Job;
 import de.mpa.db.job.instances.QvalityJob;
@@ -13,8 +17,8 @@ import de.mpa.db.job.instances.QvalityJob;
  */
 public class XTandemScoreJob extends Job {
 	
-	private String targetFile;
-	private String decoyFile;
+	private List<String> targetFiles;
+	private List<String> decoyFiles;
 	private String filename;
 	
 	/**
@@ -23,8 +27,19 @@ public class XTandemScoreJob extends Job {
 	 * @param decoy !XTandem decoy search job.
 	 */
 	public XTandemScoreJob(String targetFile, String decoyFile) {
-		this.targetFile = targetFile;
-		this.decoyFile = decoyFile;
+		this(Collections.singletonList(targetFile), Collections.singletonList(decoyFile), targetFile);
+	}
+	
+	/**
+	 * Constructs the X!Tandem score job for the results of multiple spectrum file shards.
+	 * The scores of all shards are merged before the q-values are calculated.
+	 * @param targetFiles X!Tandem target search result files.
+	 * @param decoyFiles X!Tandem decoy search result files.
+	 * @param targetFile X!Tandem target search result file of the whole spectrum file, used for naming the merged score files.
+	 */
+	public XTandemScoreJob(List<String> targetFiles, List<String> decoyFiles, String targetFile) {
+		this.targetFiles = targetFiles;
+		this.decoyFiles = decoyFiles;
 		
 		// Set the description
 		filename = new File(targetFile).getAbsolutePath().substring(0, targetFile.lastIndexOf("_target")) + "_qvalued.out";
@@ -37,10 +52,32 @@ public class XTandemScoreJob extends Job {
 	 */
 	public void run() {
 		// Extract the scores for X!Tandem target and decoy search
-		XTandemScoreExtractor xTandemExtractor = new XTandemScoreExtractor(new File(targetFile), new File(decoyFile));
+		List<String> targetOutputs = new ArrayList<String>();
+		List<String> decoyOutputs = new ArrayList<String>();
+		for (int i = 0; i < targetFiles.size(); i++) {
+			XTandemScoreExtractor xTandemExtractor = new XTandemScoreExtractor(new File(targetFiles.get(i)), new File(decoyFiles.get(i)));
+			targetOutputs.add(xTandemExtractor.getTargetOutput());
+			decoyOutputs.add(xTandemExtractor.getDecoyOutput());
+		}
+		String targetOutput = targetOutputs.get(0);
+		String decoyOutput = decoyOutputs.get(0);
+		
+		// Merge the scores of the spectrum file shards
+		if (targetFiles.size() > 1) {
+			String prefix = filename.substring(0, filename.lastIndexOf("_qvalued"));
+			targetOutput = prefix + "_target.out";
+			decoyOutput = prefix + "_decoy.out";
+			try {
+				ScoreExtractor.mergeScores(targetOutputs, targetOutput, false);
+				ScoreExtractor.mergeScores(decoyOutputs, decoyOutput, false);
+			} catch (IOException e) {
+				setError(e);
+				return;
+			}
+		}
 		
 		// Executes QVality
-		QvalityJob xTandemQVality = new QvalityJob(xTandemExtractor.getTargetOutput(), xTandemExtractor.getDecoyOutput(), false);
+		QvalityJob xTandemQVality = new QvalityJob(targetOutput, decoyOutput, false);
 		xTandemQVality.run();
 	}
 	
@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -12,11 +14,7 @@ import com.compomics.util.protein.Protein;
 
 import de.mpa.client.model.dbsearch.SearchEngineType;
 import de.mpa.db.MapContainer;
-import de.mpa.db.accessor.Pep2prot;
-import de.mpa.db.accessor.PeptideAccessor;
 import de.mpa.db.accessor.ProteinAccessor;
-import de.mpa.db.accessor.Searchspectrum;
-import de.mpa.db.accessor.Spec2pep;
 
 /**
  * Basic storage functionality: Loading and storing of data.
@@ -46,12 +44,39 @@ public class BasicStorager implements Storager {
      */
     protected SearchEngineType searchEngineType;
     
+    /**
+     * The write-behind cache of the current run, <code>null</code> outside of a run.
+     */
+    private StorageCache storageCache;
+    
+    /**
+     * Map to link spectrum titles to the searchspectrum IDs of the spectrum file
+     * whose results are stored, <code>null</code> to use the last stored spectrum file.
+     */
+    private Map<String, Long> title2SearchIdMap;
+    
+    /**
+     * Map to link spectrum filenames to the searchspectrum IDs of the spectrum file
+     * whose results are stored, <code>null</code> to use the last stored spectrum file.
+     */
+    private Map<String, Long> fileName2IdMap;
+    
+    /**
+     * The error which caused the last run to fail, <code>null</code> if it succeeded.
+     */
+    protected Exception error;
+    
 	@Override
 	public void run() {
 		this.load();
+		error = null;
 		try {
 			this.store();
+			// write remaining queued links
+			this.getStorageCache().flush();
+			conn.commit();
 		} catch (Exception e) {
+			error = e;
 			try {
 				conn.rollback();
 			} catch (SQLException e1) {
@@ -60,9 +85,69 @@ public class BasicStorager implements Storager {
 			}
 			log.error(searchEngineType.name() + " storing error message: " + e.getMessage());
 			e.printStackTrace();
+		} finally {
+			// cached IDs are only valid inside this run's transaction, e.g. they may refer to rolled back rows
+			storageCache = null;
 		}
 		log.info(searchEngineType.name() + " results stored to the DB.");
 	}
+	
+	/**
+	 * Returns the error which caused the last run to fail.
+	 * @return the error or <code>null</code> if the run succeeded
+	 */
+	public Exception getError() {
+		return error;
+	}
+	
+	/**
+	 * Returns the write-behind cache of the current run. The cache is created
+	 * on first access and discarded at the end of {@link #run()}.
+	 * @return the storage cache
+	 */
+	protected StorageCache getStorageCache() {
+		if (storageCache == null) {
+			storageCache = this.createStorageCache();
+		}
+		return storageCache;
+	}
+	
+	/**
+	 * Creates an empty write-behind cache bound to this storager's connection.
+	 * @return the storage cache
+	 */
+	protected StorageCache createStorageCache() {
+		return new StorageCache(conn);
+	}
+	
+	/**
+	 * Sets the searchspectrum ID mappings of the spectrum file whose results
+	 * shall be stored, e.g. those of {@link SpectrumStorager#getTitle2SearchIdMap()}
+	 * and {@link SpectrumStorager#getFileName2IdMap()}. If unset, the mappings
+	 * of the spectrum file stored last are used.
+	 * @param title2SearchIdMap the mapping from spectrum title to searchspectrum ID
+	 * @param fileName2IdMap the mapping from spectrum filename to searchspectrum ID
+	 */
+	public void setSearchspectrumIdMaps(Map<String, Long> title2SearchIdMap, Map<String, Long> fileName2IdMap) {
+		this.title2SearchIdMap = title2SearchIdMap;
+		this.fileName2IdMap = fileName2IdMap;
+	}
+	
+	/**
+	 * Returns the mapping from spectrum title to searchspectrum ID.
+	 * @return the title mapping
+	 */
+	protected Map<String, Long> getTitle2SearchIdMap() {
+		return (title2SearchIdMap != null) ? title2SearchIdMap : MapContainer.SpectrumTitle2IdMap;
+	}
+	
+	/**
+	 * Returns the mapping from spectrum filename to searchspectrum ID.
+	 * @return the filename mapping
+	 */
+	protected Map<String, Long> getFileName2IdMap() {
+		return (fileName2IdMap != null) ? fileName2IdMap : MapContainer.FileName2IdMap;
+	}
 
 	@Override
 	public void load() { }
@@ -79,53 +164,34 @@ public class BasicStorager implements Storager {
 	 * @throws SQLException if a database error occurs
 	 */
 	protected long storePeptide(String sequence) throws SQLException {
-		// retrieve peptide from database
-		PeptideAccessor peptide = PeptideAccessor.findFromSequence(sequence, conn);
-		if (peptide == null) {
-			// peptide does not yet exist, store a new one
-			HashMap<Object, Object> data = new HashMap<Object, Object>(2);
-			data.put(PeptideAccessor.SEQUENCE, sequence);
-			peptide = new PeptideAccessor(data);
-			peptide.persist(conn);
-			// return generated peptide identifier
-			return (Long) peptide.getGeneratedKeys()[0];
-		} else {
-			return peptide.getPeptideid();
-		}
+		return this.getStorageCache().getPeptideID(sequence);
+	}
+	
+	/**
+	 * Looks up the stored peptides among the specified sequences and their
+	 * protein links in a few queries before the hits are stored.
+	 * @param sequences the peptide sequences of the result file
+	 * @throws SQLException if a database error occurs
+	 */
+	protected void prefetchPeptides(Collection<String> sequences) throws SQLException {
+		this.getStorageCache().prefetchPeptides(sequences);
 	}
 	
 	/**
 	 * Attempts to store a spectrum-to-peptide association in the database if it doesn't already exist.<br>
-	 * The actual spectrum id is inferred from the specified searchspecrum id.
+	 * The actual spectrum id is inferred from the specified searchspecrum id. New associations are
+	 * written in batches, the last batch is written after {@link #store()} has finished.
 	 * @param searchspectrumID the searchspectrum id
 	 * @param peptideID the peptide id
-	 * @return the spec2pep id
 	 * @throws SQLException if a database error occurs
 	 */
-	protected long storeSpec2Pep(long searchspectrumID, long peptideID) throws SQLException {
+	protected void storeSpec2Pep(long searchspectrumID, long peptideID) throws SQLException {
 		// check for errors
 		if ((searchspectrumID <= 0) || (peptideID <= 0)) {
 			// abort prematurely
-			return -1L;
+			return;
 		}
-		// retrieve searchspectrum from id, guaranteed to always work if searchspectrumID > 0
-		Searchspectrum searchspectrum =
-				Searchspectrum.findFromSearchSpectrumID(searchspectrumID, conn);
-		// extract spectrum id
-		long spectrumID = searchspectrum.getFk_spectrumid();
-		
-		// check whether spec2pep link already exists in database
-		Spec2pep spec2pep = Spec2pep.findLink(spectrumID, peptideID, conn);
-		if (spec2pep == null) {
-			// link does not yet exist, therefore store a new one
-			HashMap<Object, Object> data = new HashMap<Object, Object>();
-			data.put(Spec2pep.FK_SPECTRUMID, spectrumID);
-			data.put(Spec2pep.FK_PEPTIDEID, peptideID);
-			spec2pep = new Spec2pep(data);
-			spec2pep.persist(conn);
-			return (Long) spec2pep.getGeneratedKeys()[0];
-		}
-		return spec2pep.getSpec2pepid();
+		this.getStorageCache().addSpec2Pep(searchspectrumID, peptideID);
 	}
 	
 	/**
@@ -148,15 +214,10 @@ public class BasicStorager implements Storager {
 			ProteinAccessor proteinAccessor = ProteinAccessor.addProteinWithPeptideID(peptideID, accession, description, protein.getSequence().getSequence(), conn);
 			proteinID = proteinAccessor.getProteinid();
 			proteinIdMap.put(accession, proteinID);
+			this.getStorageCache().registerPep2Prot(peptideID, proteinID);
 		} else {
-			// check whether pep2prot link already exists,
-			// otherwise create new one
-			Pep2prot pep2prot = Pep2prot.findLink(peptideID, proteinID, conn);
-			// If no link from peptide to protein is given.
-			if (pep2prot == null) { 
-				// Link peptide to protein.
-				pep2prot = Pep2prot.linkPeptideToProtein(peptideID, proteinID, conn);
-			}
+			// link peptide to protein unless the link already exists
+			this.getStorageCache().addPep2Prot(peptideID, proteinID);
 		}
 		// Add protein for UniProt storing.
 		MapContainer.UniprotQueryProteins.put(accession, proteinID);
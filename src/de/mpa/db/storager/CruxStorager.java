@@ -10,7 +10,6 @@ import java.util.List;
 import java.util.StringTokenizer;
 
 import de.mpa.client.model.dbsearch.SearchEngineType;
-import de.mpa.db.MapContainer;
 import de.mpa.db.accessor.Cruxhit;
 import de.mpa.db.accessor.Cruxhit2protTableAccessor;
 import de.mpa.io.parser.crux.CruxFile;
@@ -66,12 +65,19 @@ public class CruxStorager extends BasicStorager {
     	scanNumberMap = new HashMap<Integer, Long>();
     	int counter = 0;
     	
+    	// Look up the stored peptides of all hits at once
+    	List<String> sequences = new ArrayList<String>();
+    	for (CruxHit hit : hitList) {
+    		sequences.add(hit.getPeptide());
+    	}
+    	this.prefetchPeptides(sequences);
+    	
         for (CruxHit hit : hitList) {
             HashMap<Object, Object> hitdata = new HashMap<Object, Object>(18);
             String name = filename.substring(firstIndex, lastIndex)+ "_" + hit.getScanNumber() + ".mgf";
             
             // Get the spectrum id
-            long searchspectrumID = MapContainer.FileName2IdMap.get(name);
+            long searchspectrumID = this.getFileName2IdMap().get(name);
 	    	hitdata.put(Cruxhit.FK_SEARCHSPECTRUMID, searchspectrumID);
             hitdata.put(Cruxhit.SCANNUMBER, Long.valueOf(hit.getScanNumber()));
             hitdata.put(Cruxhit.CHARGE, Long.valueOf(hit.getCharge()));
@@ -4,13 +4,13 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
 import com.compomics.util.protein.Header;
 
 import de.mpa.client.model.dbsearch.SearchEngineType;
-import de.mpa.db.MapContainer;
 import de.mpa.db.accessor.Inspecthit;
 import de.mpa.io.parser.inspect.InspectFile;
 import de.mpa.io.parser.inspect.InspectHit;
@@ -64,6 +64,13 @@ public class InspectStorager extends BasicStorager {
         // scan number as key, inspecthitid as value.
     	scanNumberMap = new HashMap<Long, Long>();
     	
+    	// Look up the stored peptides of all hits at once
+    	List<String> sequences = new ArrayList<String>();
+    	for (InspectHit hit : hitList) {
+    		sequences.add(hit.getAnnotation());
+    	}
+    	this.prefetchPeptides(sequences);
+    	
         // Get the start of the spectrum's filename
         int firstIndex = filename.lastIndexOf("/") + 1;
         int lastIndex = filename.indexOf(".mgf");
@@ -75,7 +82,7 @@ public class InspectStorager extends BasicStorager {
             String name = filename.substring(firstIndex, lastIndex)+ "_" + scannumber  + ".mgf";
             
             // Get the spectrum id
-            long searchspectrumID = MapContainer.FileName2IdMap.get(name);
+            long searchspectrumID = this.getFileName2IdMap().get(name);
 	    	hitdata.put(Inspecthit.FK_SEARCHSPECTRUMID, searchspectrumID);
             
             // Get the peptide id
@@ -50,7 +50,8 @@ import de.mpa.db.accessor.Spectrum;
 import de.mpa.db.accessor.Uniprotentry;
 import de.mpa.db.extractor.SpectrumExtractor;
 import de.mpa.io.MascotGenericFile;
-import de.mpa.io.SixtyFourBitStringSupport;
+import de.mpa.io.PeakList;
+import de.mpa.io.PeakListCodec;
 import de.mpa.util.Formatter;
 
 public class MascotStorager extends BasicStorager {
@@ -147,6 +148,20 @@ public class MascotStorager extends BasicStorager {
 		client.firePropertyChange("resetall", 0L, (long) queryList.size());
 		client.firePropertyChange("resetcur", null, (long) queryList.size());
 		
+		// Look up the stored peptides of all hits at once
+		List<String> sequences = new ArrayList<String>();
+		for (Query query : queryList) {
+			Vector<PeptideHit> peptideHitsFromQuery = queryToPeptideMap.getPeptideHitsAboveIdentityThreshold(query.getQueryNumber(), 0.05);
+			if (peptideHitsFromQuery != null) {
+				for (PeptideHit peptideHit : peptideHitsFromQuery) {
+					if (peptideHit.getIonsScore() >= scoreThreshold) {
+						sequences.add(peptideHit.getSequence());
+					}
+				}
+			}
+		}
+		this.prefetchPeptides(sequences);
+		
 		int idCounter = 0;
 //		int queryCounter = 0;
 		// Iterate the queries.
@@ -406,22 +421,19 @@ public class MascotStorager extends BasicStorager {
 		chargeString = chargeString.replaceAll("[^\\d]", "");
 		data.put(Spectrum.PRECURSOR_CHARGE, Long.valueOf(chargeString));
 		Peak[] peakList = query.getPeakList();
-		Double[] mzArray = new Double[peakList.length];
-		Double[] intArray = new Double[peakList.length];
-		Double[] chargeArray = new Double[peakList.length];
+		double[] mzArray = new double[peakList.length];
+		double[] intArray = new double[peakList.length];
 		double totalInt = 0.0;
-		if (peakList != null && peakList.length > 0) {
-			for (int j = 0; j < peakList.length; j++) {
-				Peak peak = peakList[j];
-				mzArray[j] = peak.getMZ();
-				intArray[j] = peak.getIntensity();
-				chargeArray[j] = 0.0;
-				totalInt += peak.getIntensity();
-			}
+		for (int j = 0; j < peakList.length; j++) {
+			Peak peak = peakList[j];
+			mzArray[j] = peak.getMZ();
+			intArray[j] = peak.getIntensity();
+			totalInt += peak.getIntensity();
 		}
-		data.put(Spectrum.MZARRAY,SixtyFourBitStringSupport.encodeDoublesToBase64String(mzArray));
-		data.put(Spectrum.INTARRAY, SixtyFourBitStringSupport.encodeDoublesToBase64String(intArray));
-		data.put(Spectrum.CHARGEARRAY,SixtyFourBitStringSupport.encodeDoublesToBase64String(chargeArray) );
+		data.put(Spectrum.PEAKS, PeakListCodec.encodeToBytes(PeakList.fromArrays(mzArray, intArray, null, mzArray.length), false));
+		data.put(Spectrum.MZARRAY, "");
+		data.put(Spectrum.INTARRAY, "");
+		data.put(Spectrum.CHARGEARRAY, "");
 		data.put(Spectrum.TOTAL_INT, totalInt); // Add
 		data.put(Spectrum.MAXIMUM_INT, query.getMaxIntensity());
 		// Save spectrum in database
@@ -16,7 +16,6 @@ import java.util.StringTokenizer;
 import com.compomics.util.protein.Header;
 
 import de.mpa.client.model.dbsearch.SearchEngineType;
-import de.mpa.db.MapContainer;
 import de.mpa.db.accessor.OmssahitTableAccessor;
 import de.mpa.db.job.scoring.ValidatedPSMScore;
 import de.proteinms.omxparser.OmssaOmxFile;
@@ -101,6 +100,16 @@ public class OmssaStorager extends BasicStorager {
     	Iterator<MSSpectrum> iterator = results.keySet().iterator();  	
     	// HitIndex as key, xtandemID as value.
     	hitNumberMap = new HashMap<String, Long>();
+    	
+    	// Look up the stored peptides of all hits at once
+    	List<String> sequences = new ArrayList<String>();
+    	for (MSHitSet msHitSet : results.values()) {
+    		for (MSHits msHit : msHitSet.MSHitSet_hits.MSHits) {
+    			sequences.add(msHit.MSHits_pepstring);
+    		}
+    	}
+    	this.prefetchPeptides(sequences);
+    	
     	int counter = 0;
     	while (iterator.hasNext()) {
     		// Get the next spectrum.
@@ -115,8 +124,8 @@ public class OmssaStorager extends BasicStorager {
     	    	String spectrumTitle = msSpectrum.MSSpectrum_ids.MSSpectrum_ids_E.get(0).toString();
     	    	
     	    	spectrumTitle = formatSpectrumTitle(spectrumTitle); 
-    	    	if(MapContainer.SpectrumTitle2IdMap.get(spectrumTitle) != null) {
-          	      	long searchspectrumID = MapContainer.SpectrumTitle2IdMap.get(spectrumTitle);
+    	    	if(this.getTitle2SearchIdMap().get(spectrumTitle) != null) {
+          	      	long searchspectrumID = this.getTitle2SearchIdMap().get(spectrumTitle);
           		  	
           	        Double qValue = 1.0;
     	            Double pep = 1.0;
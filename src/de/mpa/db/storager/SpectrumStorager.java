@@ -4,16 +4,21 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.Set;
 
 import de.mpa.db.MapContainer;
 import de.mpa.db.accessor.Searchspectrum;
 import de.mpa.db.accessor.Spectrum;
 import de.mpa.io.MascotGenericFile;
 import de.mpa.io.MascotGenericFileReader;
-import de.mpa.io.SixtyFourBitStringSupport;
+import de.mpa.io.MascotGenericFileReader.LoadMode;
+import de.mpa.io.PeakListCodec;
+import de.mpa.io.SpectrumIterator;
 
 /**
  * This class handles the storage of the spectrum files.
@@ -43,17 +48,57 @@ public class SpectrumStorager extends BasicStorager {
      */
     private long experimentid;
 
-    /**
-     * The list of spectra.
-     */
-	private List<MascotGenericFile> spectra;
-
 	/**
 	 * Flag denoting whether the database shall be searched to determine whether
 	 * a certain spectrum is already stored in it.
 	 */
 	private boolean redundancyCheck;
 	
+	/**
+	 * The default number of spectra inserted per batch statement.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	
+	/**
+	 * The default number of spectra stored between commits.
+	 */
+	public static final int DEFAULT_COMMIT_INTERVAL = 10000;
+	
+	/**
+	 * The number of spectra inserted per batch statement.
+	 */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	
+	/**
+	 * The number of spectra stored between commits.
+	 */
+	private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+	
+	/**
+	 * Flag denoting whether the binary encoded peaks shall be compressed.
+	 */
+	private boolean compressPeaks = false;
+	
+	/**
+	 * The spectra waiting to be inserted with the next batch.
+	 */
+	private List<PendingSpectrum> pending;
+	
+	/**
+	 * The titles of the pending spectra.
+	 */
+	private Set<String> pendingTitles;
+	
+	/**
+	 * The pending search spectrum links mapped to the IDs of their already existing spectra.
+	 */
+	private Map<Long, PendingSpectrum> pendingLinks;
+	
+	/**
+	 * The number of spectra stored since the last commit.
+	 */
+	private int uncommitted;
+	
     /**
      * Constructor with experiment id as additional parameter:
      * Used for storing the search spectra.
@@ -70,41 +115,54 @@ public class SpectrumStorager extends BasicStorager {
     }
 
     /**
-     * Loads the MGF-file.
+     * Surveys the MGF-file. Spectra are loaded lazily one at a time during storing.
      *
      * @param file
      */
     public void load() {
         try {
-            reader = new MascotGenericFileReader(file);
+            reader = new MascotGenericFileReader(file, LoadMode.SURVEY);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Stores the MGF-file to the database.
+     * Stores the MGF-file to the database. New spectrum and searchspectrum rows
+     * are inserted in batches of {@link #getBatchSize()} spectra and committed
+     * every {@link #getCommitInterval()} spectra.
      *
      * @param conn
      * @throws SQLException
      */
     public void store() throws IOException, SQLException {
-        // Get all spectra from the reader.
-        spectra = reader.getSpectrumFiles();
+        // Stream spectra from the reader.
+        SpectrumIterator spectra = reader.spectrumIterator();
         
         // Init cache maps.
         title2SearchIdMap = new HashMap<String, Long>();
         fileName2IdMap = new HashMap<String, Long>();
+        pending = new ArrayList<PendingSpectrum>(batchSize);
+        pendingTitles = new HashSet<String>();
+        pendingLinks = new HashMap<Long, PendingSpectrum>();
+        uncommitted = 0;
+        
+        long startTime = System.nanoTime();
+        int count = 0;
         
         // Iterate over all spectra.
-        for (MascotGenericFile mgf : spectra) {
+        while (spectra.hasNext()) {
+        	MascotGenericFile mgf = spectra.next();
             
             // The filename, remove leading and trailing whitespace.
             String title = mgf.getTitle().trim();
 
-            Spectrum query = (redundancyCheck) ? Spectrum.findFromTitle(title, conn) : generateQuery(mgf);
+            if (redundancyCheck && pendingTitles.contains(title)) {
+            	// Make duplicate titles visible to the redundancy check
+            	this.flush();
+            }
+            Spectrum query = (redundancyCheck) ? this.findSpectrum(title) : generateQuery(mgf);
             
-            Long searchspectrumid;
 			if (query == null) {
 	            /* New spectrum section */
 	            HashMap<Object, Object> data = new HashMap<Object, Object>(12);
@@ -121,24 +179,11 @@ public class SpectrumStorager extends BasicStorager {
                 // The precursor charge
                 data.put(Spectrum.PRECURSOR_CHARGE, Long.valueOf(mgf.getCharge()));
                 
-                // The m/z array
-                TreeMap<Double, Double> peakMap = new TreeMap<Double, Double>(mgf.getPeaks());
-				Double[] mzDoubles = peakMap.keySet().toArray(new Double[0]);
-                data.put(Spectrum.MZARRAY, SixtyFourBitStringSupport.encodeDoublesToBase64String(mzDoubles));
-                
-                // The intensity array
-				Double[] inDoubles = peakMap.values().toArray(new Double[0]);
-                data.put(Spectrum.INTARRAY, SixtyFourBitStringSupport.encodeDoublesToBase64String(inDoubles));
-                
-                // The charge array
-                TreeMap<Double, Integer> chargeMap = new TreeMap<Double, Integer>(mgf.getCharges());
-                for (Double mz : peakMap.keySet()) {
-					if (!chargeMap.containsKey(mz)) {
-						chargeMap.put(mz, 0);
-					}
-				}
-				Integer[] chInts = chargeMap.values().toArray(new Integer[0]);
-				data.put(Spectrum.CHARGEARRAY, SixtyFourBitStringSupport.encodeIntsToBase64String(chInts));
+                // The binary encoded peaks, the legacy Base64 array columns stay empty
+                data.put(Spectrum.PEAKS, PeakListCodec.encodeToBytes(mgf.getPeakList(), compressPeaks));
+                data.put(Spectrum.MZARRAY, "");
+                data.put(Spectrum.INTARRAY, "");
+				data.put(Spectrum.CHARGEARRAY, "");
                 
                 // The total intensity.
                 data.put(Spectrum.TOTAL_INT, mgf.getTotalIntensity());
@@ -146,56 +191,49 @@ public class SpectrumStorager extends BasicStorager {
                 // The highest intensity.
                 data.put(Spectrum.MAXIMUM_INT, mgf.getHighestIntensity());
 
-                // Create the database object.
-                query = new Spectrum(data);
-                query.persist(conn);
-
-                // Get the spectrumid from the generated keys.
-                Long spectrumid = (Long) query.getGeneratedKeys()[0];
-                
-                /* Searchspectrum storager*/
-                HashMap<Object, Object> searchData = new HashMap<Object, Object>(5);
-
-                searchData.put(Searchspectrum.FK_SPECTRUMID, spectrumid);
-                searchData.put(Searchspectrum.FK_EXPERIMENTID, experimentid);
-
-                Searchspectrum searchSpectrum = new Searchspectrum(searchData);
-                searchSpectrum.persist(conn);
-
-                // Get the search spectrum id from the generated keys.
-                searchspectrumid = (Long) searchSpectrum.getGeneratedKeys()[0];
+                // Create the database object, spectrum and searchspectrum are inserted with the next batch.
+                pending.add(new PendingSpectrum(new Spectrum(data), title, mgf.getFilename()));
+                pendingTitles.add(title);
                 
             } else {
             	/* Redundant spectrum section */
             	long spectrumid = query.getSpectrumid();
             	
+            	PendingSpectrum link = pendingLinks.get(spectrumid);
+            	if (link != null) {
+            		// The search spectrum is already queued, it will be mapped to this title and filename as well
+            		link.add(query.getTitle(), mgf.getFilename());
+            		count++;
+            		continue;
+            	}
+            	
             	// Find possibly already existing search spectrum for this experiment
-                Searchspectrum searchspectrum = Searchspectrum.findFromSpectrumIDAndExperimentID(spectrumid, experimentid, conn);
+                Searchspectrum searchspectrum = this.findSearchspectrum(spectrumid);
                 
 				if (searchspectrum == null) {
-                    /* Searchspectrum storager*/
-					// No search spectrum exists for this query, generate a new one
-                    HashMap<Object, Object> searchData = new HashMap<Object, Object>(5);
-                    searchData.put(Searchspectrum.FK_SPECTRUMID, spectrumid);
-                    searchData.put(Searchspectrum.FK_EXPERIMENTID, experimentid);
-                    Searchspectrum searchSpectrum = new Searchspectrum(searchData);
-                    searchSpectrum.persist(conn);
-                    
-                    // Get the search spectrum id from the generated keys.
-                    searchspectrumid = (Long) searchSpectrum.getGeneratedKeys()[0];
-                    
+					// No search spectrum exists for this query, generate a new one with the next batch
+					link = new PendingSpectrum(spectrumid, query.getTitle(), mgf.getFilename());
+					pending.add(link);
+					pendingLinks.put(spectrumid, link);
+					pendingTitles.add(title);
                 } else {
-                	// A search spectrum already exists, grab its ID
-                	searchspectrumid = searchspectrum.getSearchspectrumid();
+                	// A search spectrum already exists, grab its ID and fill the cache maps
+                	title2SearchIdMap.put(query.getTitle(), searchspectrum.getSearchspectrumid());
+                	fileName2IdMap.put(mgf.getFilename(), searchspectrum.getSearchspectrumid());
+                	uncommitted++;
                 }
-                
             }
-            // Fill the cache maps
-            title2SearchIdMap.put(query.getTitle(), searchspectrumid);
-            fileName2IdMap.put(mgf.getFilename(), searchspectrumid);
+            count++;
             
-            conn.commit();			
+            if (pending.size() >= batchSize) {
+            	this.flush();
+            }
         }
+        this.flush();
+        conn.commit();
+        
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        log.info(String.format("Stored %d spectra in %.1f s (%.0f spectra/s).", count, seconds, count / seconds));
         
         MapContainer.SpectrumTitle2IdMap = title2SearchIdMap;
         log.debug("No. of spectra: " + title2SearchIdMap.size());
@@ -203,14 +241,154 @@ public class SpectrumStorager extends BasicStorager {
         
         reader.close();
     }
-
-	/**
-	 * Returns the parsed spectra.
-	 * @return the spectra
-	 */
-	public List<MascotGenericFile> getSpectra() {
-		return spectra;
-	}
+    
+    /**
+     * Inserts the pending spectra and their search spectra using batch
+     * statements, fills the cache maps with the generated searchspectrum IDs
+     * and commits if the commit interval has been reached.
+     * @throws SQLException if a database access error occurs
+     */
+    private void flush() throws SQLException {
+    	if (!pending.isEmpty()) {
+    		// Insert new spectra and grab their generated IDs
+    		List<Spectrum> newSpectra = new ArrayList<Spectrum>(pending.size());
+    		for (PendingSpectrum spectrum : pending) {
+    			if (spectrum.spectrum != null) {
+    				newSpectra.add(spectrum.spectrum);
+    			}
+    		}
+    		if (!newSpectra.isEmpty()) {
+    			this.insertSpectra(newSpectra);
+    		}
+    		
+    		// Insert searchspectra for new and redundant spectra
+    		long[] spectrumIDs = new long[pending.size()];
+    		for (int i = 0; i < spectrumIDs.length; i++) {
+    			PendingSpectrum spectrum = pending.get(i);
+    			spectrumIDs[i] = (spectrum.spectrum != null) ? spectrum.spectrum.getSpectrumid() : spectrum.spectrumID;
+    		}
+    		long[] searchspectrumIDs = this.insertSearchspectra(spectrumIDs);
+    		
+    		// Fill the cache maps
+    		for (int i = 0; i < searchspectrumIDs.length; i++) {
+    			PendingSpectrum spectrum = pending.get(i);
+    			for (int j = 0; j < spectrum.titles.size(); j++) {
+    				title2SearchIdMap.put(spectrum.titles.get(j), searchspectrumIDs[i]);
+    				fileName2IdMap.put(spectrum.filenames.get(j), searchspectrumIDs[i]);
+    			}
+    		}
+    		uncommitted += pending.size();
+    		pending.clear();
+    		pendingTitles.clear();
+    		pendingLinks.clear();
+    	}
+    	if (uncommitted >= commitInterval) {
+    		conn.commit();
+    		uncommitted = 0;
+    	}
+    }
+    
+    /**
+     * Finds the stored spectrum with the specified title.
+     * @param title the spectrum title
+     * @return the spectrum or <code>null</code> if no such spectrum is stored
+     * @throws SQLException if a database access error occurs
+     */
+    protected Spectrum findSpectrum(String title) throws SQLException {
+    	return Spectrum.findFromTitle(title, conn);
+    }
+    
+    /**
+     * Finds the search spectrum linking the specified spectrum to the experiment.
+     * @param spectrumid the spectrum ID
+     * @return the search spectrum or <code>null</code> if no such search spectrum is stored
+     * @throws SQLException if a database access error occurs
+     */
+    protected Searchspectrum findSearchspectrum(long spectrumid) throws SQLException {
+    	return Searchspectrum.findFromSpectrumIDAndExperimentID(spectrumid, experimentid, conn);
+    }
+    
+    /**
+     * Inserts the specified new spectra with a single batch statement and
+     * assigns the generated spectrum IDs to them.
+     * @param spectra the new spectra
+     * @throws SQLException if a database access error occurs
+     */
+    protected void insertSpectra(List<Spectrum> spectra) throws SQLException {
+    	Spectrum.batchPersist(spectra, conn);
+    }
+    
+    /**
+     * Inserts search spectra linking the specified spectra to the experiment
+     * with a single batch statement.
+     * @param spectrumIDs the spectrum IDs
+     * @return the generated searchspectrum IDs in insertion order
+     * @throws SQLException if a database access error occurs
+     */
+    protected long[] insertSearchspectra(long[] spectrumIDs) throws SQLException {
+    	return Searchspectrum.batchPersist(spectrumIDs, experimentid, conn);
+    }
+    
+    /**
+     * Returns the number of spectra inserted per batch statement.
+     * @return the batch size
+     */
+    public int getBatchSize() {
+    	return batchSize;
+    }
+    
+    /**
+     * Sets the number of spectra inserted per batch statement.
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize) {
+    	this.batchSize = Math.max(1, batchSize);
+    }
+    
+    /**
+     * Returns the number of spectra stored between commits.
+     * @return the commit interval
+     */
+    public int getCommitInterval() {
+    	return commitInterval;
+    }
+    
+    /**
+     * Sets the number of spectra stored between commits. Commits happen after
+     * a batch has been inserted, so the effective interval is rounded up to a
+     * multiple of the batch size.
+     * @param commitInterval the commit interval
+     */
+    public void setCommitInterval(int commitInterval) {
+    	this.commitInterval = Math.max(1, commitInterval);
+    }
+    
+    /**
+     * Sets whether the binary encoded peaks shall be compressed. This saves
+     * little space for typical centroided spectra, hence it is disabled by default.
+     * @param compressPeaks <code>true</code> if peaks shall be compressed
+     */
+    public void setCompressPeaks(boolean compressPeaks) {
+    	this.compressPeaks = compressPeaks;
+    }
+    
+    /**
+     * Returns the mapping from spectrum title to searchspectrum ID of the stored file.
+     * @return the title mapping, <code>null</code> before storing
+     */
+    @Override
+    public Map<String, Long> getTitle2SearchIdMap() {
+    	return title2SearchIdMap;
+    }
+    
+    /**
+     * Returns the mapping from spectrum filename to searchspectrum ID of the stored file.
+     * @return the filename mapping, <code>null</code> before storing
+     */
+    @Override
+    public Map<String, Long> getFileName2IdMap() {
+    	return fileName2IdMap;
+    }
 
 	/**
 	 * Helper method to generate a Spectrum instance from information stored
@@ -233,9 +411,11 @@ public class SpectrumStorager extends BasicStorager {
 	@Override
 	public void run() {
 		this.load();
+		error = null;
 		try {
 			this.store();
 		} catch (Exception e) {
+			error = e;
 			try {
 				conn.rollback();
 			} catch (SQLException e1) {
@@ -247,5 +427,55 @@ public class SpectrumStorager extends BasicStorager {
 		}
 		log.info("Spectra stored to the DB.");
 	}
+	
+	/**
+	 * Spectrum waiting to be inserted with the next batch.
+	 */
+	private static class PendingSpectrum {
+		
+		/**
+		 * The new spectrum or <code>null</code> if the spectrum already exists.
+		 */
+		private Spectrum spectrum;
+		
+		/**
+		 * The ID of an already existing spectrum.
+		 */
+		private long spectrumID;
+		
+		/**
+		 * The spectrum titles mapping to the search spectrum.
+		 */
+		private List<String> titles = new ArrayList<String>(1);
+		
+		/**
+		 * The spectrum filenames mapping to the search spectrum.
+		 */
+		private List<String> filenames = new ArrayList<String>(1);
+		
+		/**
+		 * Creates a pending new spectrum.
+		 */
+		public PendingSpectrum(Spectrum spectrum, String title, String filename) {
+			this.spectrum = spectrum;
+			this.add(title, filename);
+		}
+		
+		/**
+		 * Creates a pending search spectrum link to an already existing spectrum.
+		 */
+		public PendingSpectrum(long spectrumID, String title, String filename) {
+			this.spectrumID = spectrumID;
+			this.add(title, filename);
+		}
+		
+		/**
+		 * Adds a title and filename which shall map to the search spectrum.
+		 */
+		public void add(String title, String filename) {
+			titles.add(title);
+			filenames.add(filename);
+		}
+	}
 
 }
@@ -0,0 +1,446 @@
+package de.mpa.db.storager;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import de.mpa.db.accessor.PeptideAccessor;
+
+/**
+ * Write-behind storage layer of a single storager run.
+ * <p>
+ * Peptide sequences, search spectrum-to-spectrum mappings and the existing
+ * spectrum-to-peptide and peptide-to-protein links are cached in primitive
+ * collections. The peptides of a result file and their protein links are
+ * prefetched by a few chunked queries restricted to the file's sequences
+ * (see {@link #prefetchPeptides(Collection)}), peptides which have not been
+ * prefetched are looked up one by one. New links are deduplicated in memory
+ * and written in JDBC batches, new peptides are inserted immediately as their
+ * generated IDs are referenced by the hit rows.
+ * <p>
+ * A cache is bound to the connection of the storager owning it and must not
+ * outlive the storager's transaction: cached IDs of rolled back rows would
+ * stay valid otherwise and rows written by other writers in the meantime
+ * would be missed.
+ */
+public class StorageCache {
+
+	/**
+	 * The number of queued links triggering a batch insert.
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	/**
+	 * The maximum number of values per <code>IN</code> clause of a prefetch query.
+	 */
+	public static final int CHUNK_SIZE = 1000;
+
+	/**
+	 * The statement inserting spectrum-to-peptide links.
+	 */
+	static final String INSERT_SPEC2PEP = "INSERT INTO spec2pep (fk_spectrumid, fk_peptideid) VALUES (?, ?)";
+
+	/**
+	 * The statement inserting peptide-to-protein links.
+	 */
+	static final String INSERT_PEP2PROT = "INSERT INTO pep2prot (fk_peptideid, fk_proteinid) VALUES (?, ?)";
+
+	/**
+	 * Logger instance.
+	 */
+	private Logger log = Logger.getLogger(getClass());
+
+	/**
+	 * The database connection of the owning storager.
+	 */
+	protected final Connection conn;
+
+	/**
+	 * Mapping from peptide sequence to peptide ID.
+	 */
+	private TObjectLongHashMap<String> peptideIDs = new TObjectLongHashMap<String>();
+
+	/**
+	 * The sequences which have been looked up in the database or inserted.
+	 */
+	private Set<String> checkedSequences = new HashSet<String>();
+
+	/**
+	 * Mapping from search spectrum ID to spectrum ID.
+	 */
+	private TLongLongHashMap spectrumIDs = new TLongLongHashMap();
+
+	/**
+	 * The IDs of the experiments whose search spectra have been cached.
+	 */
+	private TLongHashSet experimentIDs = new TLongHashSet();
+
+	/**
+	 * Existing and queued spectrum-to-peptide links.
+	 */
+	private LinkSet spec2pepLinks = new LinkSet();
+
+	/**
+	 * Existing and queued peptide-to-protein links of the peptides in {@link #linkedPeptideIDs}.
+	 */
+	private LinkSet pep2protLinks = new LinkSet();
+
+	/**
+	 * The IDs of the peptides whose peptide-to-protein links have been cached.
+	 */
+	private TLongHashSet linkedPeptideIDs = new TLongHashSet();
+
+	/**
+	 * Queued spectrum-to-peptide links as pairs of spectrum and peptide IDs.
+	 */
+	private TLongArrayList pendingSpec2Pep = new TLongArrayList();
+
+	/**
+	 * Queued peptide-to-protein links as pairs of peptide and protein IDs.
+	 */
+	private TLongArrayList pendingPep2Prot = new TLongArrayList();
+
+	/**
+	 * Creates an empty cache reading from and writing to the specified connection.
+	 * @param conn the database connection
+	 */
+	public StorageCache(Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Caches the IDs of the stored peptides among the specified sequences and
+	 * their peptide-to-protein links, e.g. those of all hits of a result file.
+	 * @param sequences the peptide sequences
+	 * @throws SQLException if a database error occurs
+	 */
+	public synchronized void prefetchPeptides(Collection<String> sequences) throws SQLException {
+		long startTime = System.currentTimeMillis();
+		List<String> unchecked = new ArrayList<String>();
+		for (String sequence : new HashSet<String>(sequences)) {
+			if (checkedSequences.add(sequence)) {
+				unchecked.add(sequence);
+			}
+		}
+		TLongArrayList found = new TLongArrayList();
+		for (int i = 0; i < unchecked.size(); i += CHUNK_SIZE) {
+			TObjectLongHashMap<String> res = this.selectPeptides(
+					unchecked.subList(i, Math.min(i + CHUNK_SIZE, unchecked.size())));
+			peptideIDs.putAll(res);
+			found.addAll(res.values());
+		}
+		this.cachePep2Prot(found);
+		log.debug("Cached " + found.size() + " of " + unchecked.size() + " peptides in " + (System.currentTimeMillis() - startTime) + " ms.");
+	}
+
+	/**
+	 * Returns the ID of the peptide with the specified sequence. If no such
+	 * peptide exists yet it will be stored in the database.
+	 * @param sequence the peptide sequence
+	 * @return the peptide ID
+	 * @throws SQLException if a database error occurs
+	 */
+	public synchronized long getPeptideID(String sequence) throws SQLException {
+		if (checkedSequences.add(sequence)) {
+			// peptide has not been prefetched
+			peptideIDs.putAll(this.selectPeptides(Collections.singletonList(sequence)));
+		}
+		if (peptideIDs.containsKey(sequence)) {
+			return peptideIDs.get(sequence);
+		}
+		// peptide does not yet exist, store a new one
+		long peptideID = this.insertPeptide(sequence);
+		peptideIDs.put(sequence, peptideID);
+		// a new peptide is not linked to any protein yet
+		linkedPeptideIDs.add(peptideID);
+		return peptideID;
+	}
+
+	/**
+	 * Queues a spectrum-to-peptide link for the spectrum referenced by the
+	 * specified search spectrum unless it already exists.
+	 * @param searchspectrumID the search spectrum ID
+	 * @param peptideID the peptide ID
+	 * @throws SQLException if a database error occurs
+	 */
+	public synchronized void addSpec2Pep(long searchspectrumID, long peptideID) throws SQLException {
+		if (!spectrumIDs.containsKey(searchspectrumID)) {
+			this.warmUpSearchSpectrum(searchspectrumID);
+		}
+		long spectrumID = spectrumIDs.get(searchspectrumID);
+		if (spec2pepLinks.add(spectrumID, peptideID)) {
+			pendingSpec2Pep.add(spectrumID);
+			pendingSpec2Pep.add(peptideID);
+			if (pendingSpec2Pep.size() >= 2 * BATCH_SIZE) {
+				this.flush();
+			}
+		}
+	}
+
+	/**
+	 * Queues a peptide-to-protein link unless it already exists.
+	 * @param peptideID the peptide ID
+	 * @param proteinID the protein ID
+	 * @throws SQLException if a database error occurs
+	 */
+	public synchronized void addPep2Prot(long peptideID, long proteinID) throws SQLException {
+		if (!linkedPeptideIDs.contains(peptideID)) {
+			this.cachePep2Prot(new TLongArrayList(new long[] { peptideID }));
+		}
+		if (pep2protLinks.add(peptideID, proteinID)) {
+			pendingPep2Prot.add(peptideID);
+			pendingPep2Prot.add(proteinID);
+			if (pendingPep2Prot.size() >= 2 * BATCH_SIZE) {
+				this.flush();
+			}
+		}
+	}
+
+	/**
+	 * Registers a peptide-to-protein link which has already been stored.
+	 * @param peptideID the peptide ID
+	 * @param proteinID the protein ID
+	 * @throws SQLException if a database error occurs
+	 */
+	public synchronized void registerPep2Prot(long peptideID, long proteinID) throws SQLException {
+		if (!linkedPeptideIDs.contains(peptideID)) {
+			this.cachePep2Prot(new TLongArrayList(new long[] { peptideID }));
+		}
+		pep2protLinks.add(peptideID, proteinID);
+	}
+
+	/**
+	 * Writes all queued links to the database. The links become visible to
+	 * other connections once the transaction is committed.
+	 * @throws SQLException if a database error occurs
+	 */
+	public synchronized void flush() throws SQLException {
+		if (!pendingSpec2Pep.isEmpty()) {
+			this.insertLinks(INSERT_SPEC2PEP, pendingSpec2Pep);
+			pendingSpec2Pep.clear();
+		}
+		if (!pendingPep2Prot.isEmpty()) {
+			this.insertLinks(INSERT_PEP2PROT, pendingPep2Prot);
+			pendingPep2Prot.clear();
+		}
+	}
+
+	/**
+	 * Discards all cached and queued data, e.g. after a rollback.
+	 */
+	public synchronized void clear() {
+		peptideIDs.clear();
+		checkedSequences.clear();
+		spectrumIDs.clear();
+		experimentIDs.clear();
+		spec2pepLinks.clear();
+		pep2protLinks.clear();
+		linkedPeptideIDs.clear();
+		pendingSpec2Pep.clear();
+		pendingPep2Prot.clear();
+	}
+
+	/**
+	 * Selects the IDs of the stored peptides with the specified sequences.
+	 * @param sequences at most {@link #CHUNK_SIZE} peptide sequences
+	 * @return the mapping from peptide sequence to peptide ID
+	 * @throws SQLException if a database error occurs
+	 */
+	protected TObjectLongHashMap<String> selectPeptides(List<String> sequences) throws SQLException {
+		TObjectLongHashMap<String> res = new TObjectLongHashMap<String>();
+		PreparedStatement ps = conn.prepareStatement(
+				"SELECT peptideid, sequence FROM peptide WHERE sequence IN (" + placeholders(sequences.size()) + ")");
+		for (int i = 0; i < sequences.size(); i++) {
+			ps.setString(i + 1, sequences.get(i));
+		}
+		ResultSet rs = ps.executeQuery();
+		while (rs.next()) {
+			res.put(rs.getString(2), rs.getLong(1));
+		}
+		rs.close();
+		ps.close();
+		return res;
+	}
+
+	/**
+	 * Inserts a new peptide.
+	 * @param sequence the peptide sequence
+	 * @return the generated peptide ID
+	 * @throws SQLException if a database error occurs
+	 */
+	protected long insertPeptide(String sequence) throws SQLException {
+		HashMap<Object, Object> data = new HashMap<Object, Object>(2);
+		data.put(PeptideAccessor.SEQUENCE, sequence);
+		PeptideAccessor peptide = new PeptideAccessor(data);
+		peptide.persist(conn);
+		return (Long) peptide.getGeneratedKeys()[0];
+	}
+
+	/**
+	 * Selects the stored peptide-to-protein links of the specified peptides.
+	 * @param peptideIDs at most {@link #CHUNK_SIZE} peptide IDs
+	 * @return the peptide and protein ID pairs
+	 * @throws SQLException if a database error occurs
+	 */
+	protected TLongArrayList selectPep2Prot(TLongArrayList peptideIDs) throws SQLException {
+		TLongArrayList res = new TLongArrayList();
+		PreparedStatement ps = conn.prepareStatement(
+				"SELECT fk_peptideid, fk_proteinid FROM pep2prot WHERE fk_peptideid IN (" + placeholders(peptideIDs.size()) + ")");
+		for (int i = 0; i < peptideIDs.size(); i++) {
+			ps.setLong(i + 1, peptideIDs.get(i));
+		}
+		ResultSet rs = ps.executeQuery();
+		while (rs.next()) {
+			res.add(rs.getLong(1));
+			res.add(rs.getLong(2));
+		}
+		rs.close();
+		ps.close();
+		return res;
+	}
+
+	/**
+	 * Inserts the specified ID pairs in a batch.
+	 * @param sql the insert statement taking both IDs as parameters
+	 * @param pairs the ID pairs
+	 * @throws SQLException if a database error occurs
+	 */
+	protected void insertLinks(String sql, TLongArrayList pairs) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement(sql);
+		for (int i = 0; i < pairs.size(); i += 2) {
+			ps.setLong(1, pairs.get(i));
+			ps.setLong(2, pairs.get(i + 1));
+			ps.addBatch();
+		}
+		ps.executeBatch();
+		ps.close();
+	}
+
+	/**
+	 * Returns a comma-separated list of the specified number of parameter placeholders.
+	 */
+	private static String placeholders(int count) {
+		StringBuilder sb = new StringBuilder(2 * count);
+		for (int i = 0; i < count; i++) {
+			sb.append((i == 0) ? "?" : ",?");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Caches the peptide-to-protein links of the specified peptides in chunks.
+	 */
+	private void cachePep2Prot(TLongArrayList peptideIDs) throws SQLException {
+		for (int i = 0; i < peptideIDs.size(); i += CHUNK_SIZE) {
+			TLongArrayList chunk = new TLongArrayList(peptideIDs.subList(i, Math.min(i + CHUNK_SIZE, peptideIDs.size())));
+			TLongArrayList pairs = this.selectPep2Prot(chunk);
+			for (int j = 0; j < pairs.size(); j += 2) {
+				pep2protLinks.add(pairs.get(j), pairs.get(j + 1));
+			}
+			linkedPeptideIDs.addAll(chunk);
+		}
+	}
+
+	/**
+	 * Caches the spectrum mapping and spectrum-to-peptide links of the
+	 * specified search spectrum. When the search spectrum belongs to an
+	 * experiment which has not been cached yet, all search spectra of that
+	 * experiment are cached at once.
+	 */
+	private void warmUpSearchSpectrum(long searchspectrumID) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement(
+				"SELECT fk_spectrumid, fk_experimentid FROM searchspectrum WHERE searchspectrumid = ?");
+		ps.setLong(1, searchspectrumID);
+		ResultSet rs = ps.executeQuery();
+		if (!rs.next()) {
+			rs.close();
+			ps.close();
+			throw new SQLException("Unknown search spectrum ID: " + searchspectrumID);
+		}
+		long spectrumID = rs.getLong(1);
+		long experimentID = rs.getLong(2);
+		rs.close();
+		ps.close();
+
+		if (experimentIDs.add(experimentID)) {
+			// cache all search spectra of the experiment and their links
+			ps = conn.prepareStatement("SELECT searchspectrumid, fk_spectrumid FROM searchspectrum WHERE fk_experimentid = ?");
+			ps.setLong(1, experimentID);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				spectrumIDs.put(rs.getLong(1), rs.getLong(2));
+			}
+			rs.close();
+			ps.close();
+
+			ps = conn.prepareStatement("SELECT DISTINCT s2p.fk_spectrumid, s2p.fk_peptideid FROM spec2pep s2p " +
+					"INNER JOIN searchspectrum ss ON ss.fk_spectrumid = s2p.fk_spectrumid WHERE ss.fk_experimentid = ?");
+			ps.setLong(1, experimentID);
+		} else {
+			// search spectrum has been added to a cached experiment later on
+			spectrumIDs.put(searchspectrumID, spectrumID);
+			ps = conn.prepareStatement("SELECT fk_spectrumid, fk_peptideid FROM spec2pep WHERE fk_spectrumid = ?");
+			ps.setLong(1, spectrumID);
+		}
+		rs = ps.executeQuery();
+		while (rs.next()) {
+			spec2pepLinks.add(rs.getLong(1), rs.getLong(2));
+		}
+		rs.close();
+		ps.close();
+	}
+
+	/**
+	 * Set of links between two database IDs. Pairs of IDs fitting into 32 bits
+	 * are packed into a single primitive key, other pairs are kept as strings.
+	 */
+	static class LinkSet {
+
+		/**
+		 * The packed links of IDs below 2^32.
+		 */
+		private TLongHashSet packedLinks = new TLongHashSet();
+
+		/**
+		 * The links involving larger IDs.
+		 */
+		private Set<String> wideLinks = new HashSet<String>();
+
+		/**
+		 * Adds the link between the specified IDs.
+		 * @param id1 the first ID
+		 * @param id2 the second ID
+		 * @return <code>true</code> if the link was not yet contained
+		 */
+		boolean add(long id1, long id2) {
+			if (((id1 | id2) >>> 32) == 0L) {
+				return packedLinks.add((id1 << 32) | id2);
+			}
+			return wideLinks.add(id1 + "_" + id2);
+		}
+
+		/**
+		 * Removes all links.
+		 */
+		void clear() {
+			packedLinks.clear();
+			wideLinks.clear();
+		}
+	}
+
+}
@@ -22,7 +22,6 @@ import org.xml.sax.SAXException;
 import com.compomics.util.protein.Header;
 
 import de.mpa.client.model.dbsearch.SearchEngineType;
-import de.mpa.db.MapContainer;
 import de.mpa.db.accessor.XtandemhitTableAccessor;
 import de.mpa.db.job.scoring.ValidatedPSMScore;
 import de.proteinms.xtandemparser.xtandem.Domain;
@@ -118,6 +117,19 @@ public class XTandemStorager extends BasicStorager {
         
         // DomainID as key, xtandemID as value.
         domainMap = new HashMap<String, Long>();
+        
+        // Look up the stored peptides of all hits at once
+        List<String> sequences = new ArrayList<String>();
+        @SuppressWarnings("unchecked")
+		Iterator<Spectrum> seqIter = xTandemFile.getSpectraIterator();
+        while (seqIter.hasNext()) {
+        	for (Peptide peptide : pepMap.getAllPeptides(seqIter.next().getSpectrumNumber())) {
+        		for (Domain domain : peptide.getDomains()) {
+        			sequences.add(domain.getDomainSequence());
+        		}
+        	}
+        }
+        this.prefetchPeptides(sequences);
 
         int counter = 0;
         while (iter.hasNext()) {
@@ -143,8 +155,8 @@ public class XTandemStorager extends BasicStorager {
                 	    HashMap<Object, Object> hitdata = new HashMap<Object, Object>(17);
                 	      
                 	    // Only store if the search spectrum id is referenced.
-                	    if(MapContainer.SpectrumTitle2IdMap.containsKey(spectrumTitle)) {
-                	    	long searchspectrumID = MapContainer.SpectrumTitle2IdMap.get(spectrumTitle);
+                	    if(this.getTitle2SearchIdMap().containsKey(spectrumTitle)) {
+                	    	long searchspectrumID = this.getTitle2SearchIdMap().get(spectrumTitle);
                 	    	
                 	        Double qValue = 1.0;
             	            Double pep = 1.0;
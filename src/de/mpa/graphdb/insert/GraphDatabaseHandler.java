@@ -1,6 +1,11 @@
 package de.mpa.graphdb.insert;
 
+import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +31,7 @@ import de.mpa.analysis.UniProtUtilities.Keyword;
 import de.mpa.analysis.UniProtUtilities.KeywordCategory;
 import de.mpa.analysis.taxonomy.TaxonomyNode;
 import de.mpa.client.Client;
+import de.mpa.client.ProgressCounter;
 import de.mpa.client.model.SpectrumMatch;
 import de.mpa.client.model.dbsearch.DbSearchResult;
 import de.mpa.client.model.dbsearch.MetaProteinHit;
@@ -85,14 +91,74 @@ public class GraphDatabaseHandler {
 
 	private ExecutionEngine engine;
 	
+	/**
+	 * The number of vertices and edges written per transaction in bulk import mode.
+	 */
+	private static final int CHUNK_SIZE = 20000;
+	
+	/**
+	 * The odd factor by which the edge keys of the bulk import mode are scrambled.
+	 */
+	private static final long EDGE_KEY_FACTOR = 0x9E3779B97F4A7C15L;
+	
+	/**
+	 * Flag denoting whether data is inserted in bulk import mode.
+	 */
+	private boolean bulkImport;
+	
+	/**
+	 * The IDs of the vertices inserted in bulk import mode, mapped by index
+	 * value for each vertex index.
+	 */
+	private Map<Index<Vertex>, TObjectLongHashMap<Object>> vertexIDs;
+	
+	/**
+	 * The edges inserted in bulk import mode, each encoded by the IDs of its
+	 * outgoing and incoming vertex.
+	 */
+	private TLongHashSet edgeKeys;
+	
+	/**
+	 * The number of vertices and edges written in the current transaction.
+	 */
+	private int uncommitted;
 	
+	/**
+	 * Constructs a handler inserting data into the specified graph database,
+	 * checking the database indices for existing elements.
+	 * @param graphDb the graph database
+	 */
 	public GraphDatabaseHandler(GraphDatabase graphDb) {
+		this(graphDb, false);
+	}
+	
+	/**
+	 * Constructs a handler inserting data into the specified graph database.
+	 * <p>
+	 * In bulk import mode, vertices and edges are deduplicated by in-memory
+	 * maps instead of index lookups and written in transactions of
+	 * {@link #CHUNK_SIZE} elements. The vertex indices are populated as
+	 * usual, the edge index is not. Bulk import requires all contents of
+	 * the database to be inserted through this handler, e.g. into a newly
+	 * created database.
+	 * @param graphDb the graph database
+	 * @param bulkImport <code>true</code> if data shall be inserted in bulk import mode
+	 */
+	public GraphDatabaseHandler(GraphDatabase graphDb, boolean bulkImport) {
 		this.graphDb = graphDb;
+		this.bulkImport = bulkImport;
 		GraphDatabaseService service = graphDb.getService();
-		engine = new ExecutionEngine(service);
 		indexGraph = new Neo4jGraph(service);
 		graph = new Neo4jGraph(service);		
 		this.setupIndices();
+		if (bulkImport) {
+			vertexIDs = new HashMap<Index<Vertex>, TObjectLongHashMap<Object>>();
+			for (Index<Vertex> index : Arrays.asList(proteinIndex, peptideIndex, psmIndex,
+					taxonomyIndex, enzymeIndex, pathwayIndex, ontologyIndex)) {
+				vertexIDs.put(index, new TObjectLongHashMap<Object>(1024, 0.5f, -1L));
+			}
+			edgeKeys = new TLongHashSet();
+		}
 	}
 	
 	/**
@@ -124,22 +190,28 @@ public class GraphDatabaseHandler {
 		Client client = Client.getInstance();
 		client.firePropertyChange("new message", null, "BUILDING GRAPH DATABASE");
 		client.firePropertyChange("resetall", -1L, Long.valueOf(proteinHits.size()));
+		client.firePropertyChange("resetcur", -1L, Long.valueOf(proteinHits.size()));
 		
 		// Add protein hits
+		ProgressCounter progress = new ProgressCounter(proteinHits.size());
 		for (ProteinHit proteinHit : proteinHits) {
 			this.addProtein(proteinHit);
-			client.firePropertyChange("progressmade", -1L, 0L);
+			progress.increment();
 		}
+		progress.finish();
 		
 		// Add meta-proteins for processed results
 		if (!data.isRaw()) {
 			ProteinHitList metaProteins = data.getMetaProteins();
 			client.firePropertyChange("resetall", -1L, Long.valueOf(metaProteins.size()));
+			client.firePropertyChange("resetcur", -1L, Long.valueOf(metaProteins.size()));
+			progress = new ProgressCounter(metaProteins.size());
 			for (ProteinHit proteinHit : metaProteins) {
 				MetaProteinHit metaProtein = (MetaProteinHit) proteinHit;
 				this.addMetaprotein(metaProtein);
-				client.firePropertyChange("progressmade", -1L, 0L);
+				progress.increment();
 			}
+			progress.finish();
 		}
 		
 		client.firePropertyChange("new message", null, "BUILDING GRAPH DATABASE FINISHED");
@@ -164,7 +236,7 @@ public class GraphDatabaseHandler {
 		proteinVertex.setProperty(ProteinProperty.SPECTRALCOUNT.toString(), protHit.getSpectralCount());		
 		
 		// Index the proteins by their accession
-		proteinIndex.put(ProteinProperty.IDENTIFIER.toString(), accession, proteinVertex);
+		this.indexVertex(proteinIndex, ProteinProperty.IDENTIFIER.toString(), accession, proteinVertex);
 		
 		// Add taxonomy
 		this.addTaxonomy(protHit, proteinVertex);
@@ -205,18 +277,17 @@ public class GraphDatabaseHandler {
 		metaProteinVertex.setProperty(ProteinProperty.PROTEINCOUNT.toString(), metaProteinHit.getProteinSet().size());
 		
 		// Index the proteins by their accession.
-		proteinIndex.put(ProteinProperty.IDENTIFIER.toString(), accession, metaProteinVertex);
+		this.indexVertex(proteinIndex, ProteinProperty.IDENTIFIER.toString(), accession, metaProteinVertex);
 		
-		Vertex proteinVertex = null;
 		ProteinHitList proteinHits = metaProteinHit.getProteinHitList();
 		
 		for (ProteinHit proteinHit : proteinHits) {
-			Iterator<Vertex> proteinIterator = proteinIndex.get(ProteinProperty.IDENTIFIER.toString(), proteinHit.getAccession()).iterator();
-			if (proteinIterator.hasNext()) {
-				proteinVertex = proteinIterator.next();
+			Vertex proteinVertex = this.getIndexedVertex(
+					proteinIndex, ProteinProperty.IDENTIFIER.toString(), proteinHit.getAccession());
+			if (proteinVertex != null) {
+				// Add edge between peptide and protein.
+				addEdge(metaProteinVertex, proteinVertex, RelationType.IS_METAPROTEIN_OF);
 			}
-			// Add edge between peptide and protein.
-			addEdge(metaProteinVertex, proteinVertex, RelationType.IS_METAPROTEIN_OF);
 		}
 	}
 	
@@ -228,18 +299,15 @@ public class GraphDatabaseHandler {
 	private void addTaxonomy(ProteinHit proteinHit, Vertex vertex) {
 		TaxonomyNode childNode = proteinHit.getTaxonomyNode();
 		String species = childNode.toString();
-		Vertex childVertex = null;
-		Iterator<Vertex> taxonomyIterator = taxonomyIndex.get(TaxonProperty.IDENTIFIER.toString(), species).iterator();
-		if (taxonomyIterator.hasNext()) {
-			childVertex = taxonomyIterator.next();
-		} else {
+		Vertex childVertex = this.getIndexedVertex(taxonomyIndex, TaxonProperty.IDENTIFIER.toString(), species);
+		if (childVertex == null) {
 			// Create new vertex.
 			childVertex = graph.addVertex(null);
 			childVertex.setProperty(TaxonProperty.IDENTIFIER.toString(), species);
 			childVertex.setProperty(TaxonProperty.TAXID.toString(), childNode.getID());
 			childVertex.setProperty(TaxonProperty.RANK.toString(), childNode.getRank().toString());
 			// Index the species by the species name.
-			taxonomyIndex.put(TaxonProperty.IDENTIFIER.toString(), species, childVertex);
+			this.indexVertex(taxonomyIndex, TaxonProperty.IDENTIFIER.toString(), species, childVertex);
 		}		
 		// Add edge between protein and species.
 		addEdge(vertex, childVertex, RelationType.BELONGS_TO);
@@ -249,17 +317,15 @@ public class GraphDatabaseHandler {
 		TaxonomyNode[] path = childNode.getPath();
 		for (TaxonomyNode pathNode : path) {
 			String taxon = pathNode.toString();
-			Iterator<Vertex> iterator = taxonomyIndex.get(TaxonProperty.IDENTIFIER.toString(), taxon).iterator();
-			if (iterator.hasNext()) {
-				parentVertex = iterator.next();
-			} else {
+			parentVertex = this.getIndexedVertex(taxonomyIndex, TaxonProperty.IDENTIFIER.toString(), taxon);
+			if (parentVertex == null) {
 				// Create new vertex.
 				parentVertex = graph.addVertex(null);
 				parentVertex.setProperty(TaxonProperty.IDENTIFIER.toString(), taxon);
 				parentVertex.setProperty(TaxonProperty.TAXID.toString(), pathNode.getID());
 				parentVertex.setProperty(TaxonProperty.RANK.toString(), pathNode.getRank().toString());
 				// Index the species by the species name.
-				taxonomyIndex.put(TaxonProperty.IDENTIFIER.toString(), taxon, parentVertex);
+				this.indexVertex(taxonomyIndex, TaxonProperty.IDENTIFIER.toString(), taxon, parentVertex);
 			}		
 			// Add edge between parent and child vertex
 			addEdge(parentVertex, childVertex, RelationType.IS_ANCESTOR_OF);
@@ -275,11 +341,8 @@ public class GraphDatabaseHandler {
 	private void addEnzymeNumbers(List<String> ecNumbers, Vertex proteinVertex) {
 		Vertex enzymeVertex = null;
 		for (String ecNumber : ecNumbers) {
-			Iterator<Vertex> vertexIterator =
-					enzymeIndex.get(EnzymeProperty.IDENTIFIER.toString(), ecNumber).iterator();
-			if (vertexIterator.hasNext()) {
-				enzymeVertex = vertexIterator.next();
-			} else {
+			enzymeVertex = this.getIndexedVertex(enzymeIndex, EnzymeProperty.IDENTIFIER.toString(), ecNumber);
+			if (enzymeVertex == null) {
 				// Split E.C. number string of the format '1.2.3.4'
 				String[] ecTokens = ecNumber.split("\\.");
 				for (int i = 0; i < ecTokens.length; i++) {
@@ -294,15 +357,15 @@ public class GraphDatabaseHandler {
 						ecFragment += "." + ((j <= i) ? ecTokens[j] : "-");
 					}
 					// Get existing vertex for (partial) E.C. number...
-					Vertex temp = graph.getVertex(ecFragment);
+					Vertex temp = this.getIndexedVertex(enzymeIndex, EnzymeProperty.IDENTIFIER.toString(), ecFragment);
 					if (temp == null) {
 						// ... or create new vertex.
-						temp = graph.addVertex(ecFragment);
+						temp = graph.addVertex(null);
 						temp.setProperty(EnzymeProperty.IDENTIFIER.toString(), ecFragment);
 						// TODO set description property, fetch from intenz.xml (ftp://ftp.ebi.ac.uk/pub/databases/intenz/xml/)
+						// Index vertex by E.C. Number.
+						this.indexVertex(enzymeIndex, EnzymeProperty.IDENTIFIER.toString(), ecFragment, temp);
 					}
-					// Index vertex by E.C. Number.
-					enzymeIndex.put(EnzymeProperty.IDENTIFIER.toString(), ecFragment, temp);
 					
 					// Link enzyme vertices
 					if (i > 0) {
@@ -313,7 +376,9 @@ public class GraphDatabaseHandler {
 				}
 			}
 			// Add edge between protein and enzyme number.
-			addEdge(proteinVertex, enzymeVertex, RelationType.BELONGS_TO_ENZYME);
+			if (enzymeVertex != null) {
+				addEdge(proteinVertex, enzymeVertex, RelationType.BELONGS_TO_ENZYME);
+			}
 		}
 	}
 	
@@ -325,16 +390,14 @@ public class GraphDatabaseHandler {
 	private void addPathways(List<String> koNumbers, Vertex proteinVertex) {
 		Vertex pathwayVertex = null;
 		for (String koNumber : koNumbers) {
-			Iterator<Vertex> pathwayIterator = pathwayIndex.get(PathwayProperty.IDENTIFIER.toString(), koNumber).iterator();
-			if (pathwayIterator.hasNext()) {
-				pathwayVertex = pathwayIterator.next();
-			} else {
+			pathwayVertex = this.getIndexedVertex(pathwayIndex, PathwayProperty.IDENTIFIER.toString(), koNumber);
+			if (pathwayVertex == null) {
 				// Create new vertex.
 				pathwayVertex = graph.addVertex(null);
 				pathwayVertex.setProperty(PathwayProperty.IDENTIFIER.toString(), koNumber);
 				//TODO: Add KEGG description + KEGG Number!
 				// Index the pathway by the ID.
-				pathwayIndex.put(PathwayProperty.IDENTIFIER.toString(), koNumber, pathwayVertex);
+				this.indexVertex(pathwayIndex, PathwayProperty.IDENTIFIER.toString(), koNumber, pathwayVertex);
 			}
 			// Add edge between protein and pathway.
 			addEdge(proteinVertex, pathwayVertex, RelationType.BELONGS_TO_PATHWAY);
@@ -359,18 +422,15 @@ public class GraphDatabaseHandler {
 					KeywordCategory type = KeywordCategory.valueOf(ontologyMap.get(keyword).getCategory());
 					
 					// Check if peptide is already contained in the graph.
-					Iterator<Vertex> ontologyIterator =
-							ontologyIndex.get(OntologyProperty.IDENTIFIER.toString(), keyword).iterator();
-					if (ontologyIterator.hasNext()) {
-						ontologyVertex = ontologyIterator.next();
-					} else {
+					ontologyVertex = this.getIndexedVertex(ontologyIndex, OntologyProperty.IDENTIFIER.toString(), keyword);
+					if (ontologyVertex == null) {
 						// Create new vertex.
 						ontologyVertex = graph.addVertex(null);
 						ontologyVertex.setProperty(OntologyProperty.IDENTIFIER.toString(), keyword);
 						ontologyVertex.setProperty(OntologyProperty.TYPE.toString(), type.toString());
 						
 						// Index the proteins by their accession.
-						ontologyIndex.put(OntologyProperty.IDENTIFIER.toString(), keyword, ontologyVertex);
+						this.indexVertex(ontologyIndex, OntologyProperty.IDENTIFIER.toString(), keyword, ontologyVertex);
 					}			
 					
 					// Add edge between protein and ontology.
@@ -399,12 +459,9 @@ public class GraphDatabaseHandler {
 		for (PeptideHit peptideHit : peptideHitList) {
 			String sequence = peptideHit.getSequence();
 			
-			Vertex peptideVertex = null;
 			// Check if peptide is already contained in the graph.
-			Iterator<Vertex> peptideIterator = peptideIndex.get(PeptideProperty.IDENTIFIER.toString(), sequence).iterator();
-			if (peptideIterator.hasNext()) {
-				peptideVertex = peptideIterator.next();
-			} else {
+			Vertex peptideVertex = this.getIndexedVertex(peptideIndex, PeptideProperty.IDENTIFIER.toString(), sequence);
+			if (peptideVertex == null) {
 				// Create new vertex.
 				peptideVertex = graph.addVertex(null);
 				peptideVertex.setProperty(PeptideProperty.IDENTIFIER.toString(), sequence);
@@ -419,7 +476,7 @@ public class GraphDatabaseHandler {
 				peptideVertex.setProperty(PeptideProperty.PROTEINCOUNT.toString(), peptideHit.getProteinCount());
 				
 				// Index the proteins by their accession.
-				peptideIndex.put(PeptideProperty.IDENTIFIER.toString(), sequence, peptideVertex);
+				this.indexVertex(peptideIndex, PeptideProperty.IDENTIFIER.toString(), sequence, peptideVertex);
 			}			
 			
 			// Add edge between peptide and protein.
@@ -439,23 +496,20 @@ public class GraphDatabaseHandler {
 	 */
 	private void addPeptideSpectrumMatches(List<SpectrumMatch> spectrumMatches, Vertex peptideVertex) {
 		for (SpectrumMatch sm : spectrumMatches) {
-			Vertex psmVertex =  null;
 			PeptideSpectrumMatch psm = (PeptideSpectrumMatch) sm;
 			
 			long spectrumID = psm.getSearchSpectrumID();
 			
 			// Check if PSM is already contained in the graph.
-			Iterator<Vertex> psmIterator = psmIndex.get(PsmProperty.SPECTRUMID.toString(), spectrumID).iterator();
-			if (psmIterator.hasNext()) {
-				psmVertex = psmIterator.next();
-			} else {
+			Vertex psmVertex = this.getIndexedVertex(psmIndex, PsmProperty.SPECTRUMID.toString(), spectrumID);
+			if (psmVertex == null) {
 				// Create new vertex.
 				psmVertex = graph.addVertex(null);
 				psmVertex.setProperty(PsmProperty.SPECTRUMID.toString(), spectrumID);
 				psmVertex.setProperty(PsmProperty.VOTES.toString(), psm.getVotes());
 				
 				// Index the proteins by their accession.
-				psmIndex.put(PsmProperty.SPECTRUMID.toString(), spectrumID, psmVertex);
+				this.indexVertex(psmIndex, PsmProperty.SPECTRUMID.toString(), spectrumID, psmVertex);
 			}	
 			addEdge(psmVertex, peptideVertex, RelationType.IS_MATCH_IN);
 		}
@@ -471,6 +525,20 @@ public class GraphDatabaseHandler {
 	private void addEdge(final Vertex outVertex, final Vertex inVertex, final RelationType relType) {
 		
 		String id = outVertex.getId()+ "_" + inVertex.getId();
+		if (bulkImport) {
+			// Encode edge by vertex IDs, fall back to index for IDs exceeding 32 bits
+			long outID = (Long) outVertex.getId();
+			long inID = (Long) inVertex.getId();
+			if (((outID | inID) >>> 32) == 0L) {
+				// scramble the bits by an odd factor, the hash of the packed IDs would be their XOR
+				if (edgeKeys.add(((outID << 32) | inID) * EDGE_KEY_FACTOR)) {
+					Edge edge = graph.addEdge(id, outVertex, inVertex, relType.name());
+					edge.setProperty(EdgeProperty.LABEL.name(), relType.name());
+					this.elementWritten();
+				}
+				return;
+			}
+		}
 		// Check if edge is not already contained in the graph.
 		if (!edgeIndex.get(EdgeProperty.ID.toString(), id).iterator().hasNext()) {
 			Edge edge = graph.addEdge(id, outVertex, inVertex, relType.name());
@@ -479,6 +547,52 @@ public class GraphDatabaseHandler {
 		} 
 	}
 	
+	/**
+	 * Returns the vertex stored in the specified index under the specified
+	 * key and value. In bulk import mode, the vertex is looked up in memory.
+	 * @param index the vertex index
+	 * @param key the index key
+	 * @param value the index value
+	 * @return the first indexed vertex or <code>null</code> if no such vertex exists
+	 */
+	private Vertex getIndexedVertex(Index<Vertex> index, String key, Object value) {
+		if (bulkImport) {
+			long vertexID = vertexIDs.get(index).get(value);
+			return (vertexID < 0L) ? null : graph.getVertex(vertexID);
+		}
+		Iterator<Vertex> iterator = index.get(key, value).iterator();
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+	
+	/**
+	 * Stores the specified vertex in the specified index under the specified
+	 * key and value. In bulk import mode, the vertex is also registered in
+	 * memory and the transaction is committed once it contains
+	 * {@link #CHUNK_SIZE} elements.
+	 * @param index the vertex index
+	 * @param key the index key
+	 * @param value the index value
+	 * @param vertex the vertex
+	 */
+	private void indexVertex(Index<Vertex> index, String key, Object value, Vertex vertex) {
+		index.put(key, value, vertex);
+		if (bulkImport) {
+			// the first indexed vertex takes precedence, like in index lookups
+			vertexIDs.get(index).putIfAbsent(value, (Long) vertex.getId());
+			this.elementWritten();
+		}
+	}
+	
+	/**
+	 * Counts a vertex or edge written in bulk import mode and commits the
+	 * current transaction once it contains {@link #CHUNK_SIZE} elements.
+	 */
+	private void elementWritten() {
+		if (++uncommitted >= CHUNK_SIZE) {
+			this.stopTransaction();
+		}
+	}
+	
 	/**
 	 * Method sets up the indices graph.
 	 */
@@ -566,6 +680,9 @@ public class GraphDatabaseHandler {
 	public ExecutionResult executeCypherQuery(CypherQuery cypherQuery) throws Exception {
 		// Validate query
 		if (cypherQuery.isValid()) {
+			if (engine == null) {
+				engine = new ExecutionEngine(graphDb.getService());
+			}
 			return engine.execute(cypherQuery.toString());
 		} else {
 			throw new Exception("Invalid Cypher Query");
@@ -576,6 +693,7 @@ public class GraphDatabaseHandler {
 	 * Stops the transaction of a graph database.
 	 */
 	public void stopTransaction() {
+		uncommitted = 0;
 		graph.stopTransaction(Conclusion.SUCCESS);
 		((TransactionalGraph)indexGraph).stopTransaction(Conclusion.SUCCESS);
 		
@@ -150,6 +150,31 @@ public abstract class InputFileReader {
 		return this.spectrumPositions;
 	}
 
+	/**
+	 * Returns an iterator lazily loading all spectra of this file one at a time. The file is
+	 * surveyed first if this has not happened yet. The reader must not be closed while iterating.
+	 * @return the spectrum iterator
+	 * @throws IOException if surveying the file fails
+	 */
+	public SpectrumIterator spectrumIterator() throws IOException {
+		if (this.spectrumPositions == null) {
+			this.survey();
+		}
+		return new SpectrumIterator(this, 0, this.spectrumPositions.size());
+	}
+
+	/**
+	 * Returns the number of spectra in this file. The file is surveyed first if this has not happened yet.
+	 * @return the number of spectra
+	 * @throws IOException if surveying the file fails
+	 */
+	public int getSpectrumCount() throws IOException {
+		if (this.spectrumPositions == null) {
+			this.survey();
+		}
+		return this.spectrumPositions.size();
+	}
+
 	/**
 	 * 
 	 * @param listener
@@ -187,11 +212,10 @@ public abstract class InputFileReader {
     }
 	
 	/**
-	 * 
-	 * @param index
-	 * @param pos1
-	 * @param pos2
-	 * @return
+	 * Loads the spectrum at the specified index of the surveyed spectrum positions.
+	 * Implementations must support concurrent invocation, see {@link SpectrumIterator#split(int)}.
+	 * @param index the spectrum index
+	 * @return the spectrum
 	 * @throws IOException
 	 */
 	public abstract MascotGenericFile loadSpectrum(int index) throws IOException;
@@ -16,14 +16,10 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Properties;
-import java.util.SortedSet;
 import java.util.StringTokenizer;
-import java.util.TreeSet;
 
 import com.compomics.util.interfaces.SpectrumFile;
 
@@ -53,9 +49,15 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
     private String iTitle = null;
 
     /**
-     * This HashMap holds all the peaks in the spectrum file.
+     * This HashMap holds all the peaks in the spectrum file. It is only created on demand by {@link #getPeaks()}
+     * (or supplied from outside) and takes precedence over the primitive peak list from then on.
      */
-    protected HashMap<Double,Double> iPeaks = new HashMap<Double, Double>();
+    protected HashMap<Double,Double> iPeaks = null;
+
+    /**
+     * The m/z-sorted primitive peak list, <code>null</code> while the peak and charge maps take precedence.
+     */
+    private PeakList iPeakList = PeakList.EMPTY;
 
     /**
      * The spectrum's database ID. Used to mark spectrum as already stored. 
@@ -78,9 +80,10 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
     protected double iIntensity = -1.0;
 
     /**
-     * This HashMap will hold the charges for those ions for which a charge is known.
+     * This HashMap will hold the charges for those ions for which a charge is known. It is created alongside the
+     * peak map.
      */
-    private HashMap<Double, Integer> iCharges = new HashMap<Double,Integer>();
+    private HashMap<Double, Integer> iCharges = null;
 
     /**
      * This constant defines the key in the spectrum header for the title.
@@ -131,6 +134,16 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
         this.parseFromString(aContents);
     }
 
+    /**
+     * This constructor creates an empty spectrum with only the filename specified. It is used by the byte-level
+     * {@link MascotGenericFileParser} which fills in the remaining fields itself.
+     *
+     * @param aFilename String with the filename for the MGF File.
+     */
+    MascotGenericFile(String aFilename) {
+        this.iFilename = aFilename;
+    }
+
     
     
     
@@ -169,6 +182,8 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
     	this.iFilename = aFileName;
         this.iTitle = aTitle;
         this.iPeaks = aPeaks;
+        this.iCharges = new HashMap<Double, Integer>();
+        this.iPeakList = null;
         this.iPrecursorMz = aPrecursorMz;
         this.iIntensity = aIntensity;
         this.iCharge = aCharge;
@@ -183,8 +198,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
 		this.iPrecursorMz = spectrum.getPrecursor_mz().doubleValue();
 		this.iIntensity = spectrum.getPrecursor_int().doubleValue();
 		this.iCharge = (int) spectrum.getPrecursor_charge();
-		this.iPeaks = SixtyFourBitStringSupport.buildPeakMap(SixtyFourBitStringSupport.decodeBase64StringToDoubles(spectrum.getMzarray()),
-				   											 SixtyFourBitStringSupport.decodeBase64StringToDoubles(spectrum.getIntarray()));
+		this.iPeakList = spectrum.getPeakList();
 	}
     /**
      * This constructor takes a result set from an SQL query.
@@ -197,10 +211,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
 		this.iPrecursorMz = aResultSet.getDouble("precursor_mz");
 		this.iIntensity = aResultSet.getDouble("precursor_int");
 		this.iCharge = aResultSet.getInt("precursor_charge");
-		this.iPeaks = SixtyFourBitStringSupport.buildPeakMap(SixtyFourBitStringSupport.decodeBase64StringToDoubles(aResultSet.getString("mzarray")),
-				   											 SixtyFourBitStringSupport.decodeBase64StringToDoubles(aResultSet.getString("intarray")));
-		this.iCharges = SixtyFourBitStringSupport.buildChargeMap(SixtyFourBitStringSupport.decodeBase64StringToDoubles(aResultSet.getString("mzarray")),
-																 SixtyFourBitStringSupport.decodeBase64StringToInts(aResultSet.getString("chargearray")));
+		this.iPeakList = Spectrum.getPeakList(aResultSet);
 	}
 
 	/**
@@ -350,8 +361,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
         if (anObject != null && anObject instanceof MascotGenericFile) {
             MascotGenericFile other = (MascotGenericFile) anObject;
             if (this.iFilename.equals(other.iFilename) && this.iCharge == other.iCharge &&
-                    this.iTitle.equals(other.iTitle) && this.iPeaks.equals(other.iPeaks) &&
-                    this.iCharges.equals(other.iCharges)) {
+                    this.iTitle.equals(other.iTitle) && this.getPeakList().equals(other.getPeakList())) {
                 result = true;
             }
         }
@@ -422,7 +432,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
      * @param aCharge String with the Mascot Generic File charge notation (eg., 1+).
      * @return int with the corresponding integer.
      */
-    private int extractCharge(String aCharge) {
+    static int extractCharge(String aCharge) {
         int charge = 0;
 
         // Trim the charge String.
@@ -472,6 +482,8 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
             boolean inSpectrum = false;
             boolean titleFound = false;
             StringBuffer comments = new StringBuffer();
+            HashMap<Double, Double> peaks = new HashMap<Double, Double>();
+            HashMap<Double, Integer> charges = new HashMap<Double, Integer>();
             while ((line = br.readLine()) != null) {
                 // Advance line count.
                 lineCount++;
@@ -507,36 +519,8 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
                 // Read embedded parameters. The most important parameters (such as TITLE, PEPMASS and optional CHARGE fields)
                 // will be saved as instance variables as well as in the iEmbeddedParameter Properties instance.
                 else if (inSpectrum && (line.indexOf("=") >= 0)) {
-                    // Find the starting location of the value (which is one beyond the location
-                    // of the '=').
-                    int equalSignIndex = line.indexOf("=");
-
-                    // See which header line is encountered.
-                    if (line.startsWith(TITLE)) {
-                        // TITLE line found.
-                        this.setTitle(line.substring(equalSignIndex + 1));
+                    if (this.parseEmbeddedParameter(line)) {
                     	titleFound = true;
-                    } else if (line.startsWith(PEPMASS)) {
-                        // PEPMASS line found.
-                        String value = line.substring(equalSignIndex + 1).trim();
-                        StringTokenizer st = new StringTokenizer(value, " \t");
-                        this.setPrecursorMZ(Double.parseDouble(st.nextToken().trim()));
-                        // It is possible that parent intensity is not mentioned. We then set it to '0'.
-                        if (st.hasMoreTokens()) {
-                            this.setIntensity(Double.parseDouble(st.nextToken().trim()));
-                        } else {
-                        	this.setIntensity(0.0);
-                        }
-                    } else if (line.startsWith(CHARGE)) {
-                        // CHARGE line found.
-                        // Note the extra parsing to read a Mascot Generic File charge (eg., 1+).
-                        this.setCharge(this.extractCharge(line.substring(equalSignIndex + 1)));
-                    } else {
-                        // This is an extra embedded parameter!
-                        String aKey = line.substring(0, equalSignIndex);
-                        String aValue = line.substring(equalSignIndex + 1);
-                        // Save the extra embedded parameter in iEmbeddedParameter
-                        addExtraEmbeddedParameter(aKey, aValue);
                     }
                 }
                 // Read peaks, minding the possibility of charge present!
@@ -558,16 +542,18 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
                         temp = st.nextToken().trim();
                         Double intensity = new Double(temp);
                         
-                        this.iPeaks.put(mass, intensity);
+                        peaks.put(mass, intensity);
                         if (st.hasMoreTokens()) {
                             int charge = extractCharge(st.nextToken());
-                            iCharges.put(mass, new Integer(charge));
+                            charges.put(mass, new Integer(charge));
                         }                     
                     } else {
                         System.out.println("\n\nUnrecognized line at line number " + lineCount + ": '" + line + "'!\n");
                     }
                 }
             }
+            // Store the peaks in sorted order.
+            this.setPeakList(PeakList.fromMaps(peaks, charges));
             // Last but not least: add the comments.
             this.iComments = comments.toString();
             // That's it.
@@ -578,6 +564,49 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
         }
     }
 
+    /**
+     * This method parses a single embedded parameter line (i.e. a line inside the ions block containing an '=').
+     * The most important parameters (such as TITLE, PEPMASS and optional CHARGE fields) will be saved as instance
+     * variables, everything else is kept in the iEmbeddedParameter Properties instance.
+     *
+     * @param line String with the trimmed parameter line.
+     * @return <code>true</code> if the line contained the spectrum title, <code>false</code> otherwise.
+     */
+    boolean parseEmbeddedParameter(String line) {
+        // Find the starting location of the value (which is one beyond the location
+        // of the '=').
+        int equalSignIndex = line.indexOf("=");
+
+        // See which header line is encountered.
+        if (line.startsWith(TITLE)) {
+            // TITLE line found.
+            this.setTitle(line.substring(equalSignIndex + 1));
+            return true;
+        } else if (line.startsWith(PEPMASS)) {
+            // PEPMASS line found.
+            String value = line.substring(equalSignIndex + 1).trim();
+            StringTokenizer st = new StringTokenizer(value, " \t");
+            this.setPrecursorMZ(Double.parseDouble(st.nextToken().trim()));
+            // It is possible that parent intensity is not mentioned. We then set it to '0'.
+            if (st.hasMoreTokens()) {
+                this.setIntensity(Double.parseDouble(st.nextToken().trim()));
+            } else {
+            	this.setIntensity(0.0);
+            }
+        } else if (line.startsWith(CHARGE)) {
+            // CHARGE line found.
+            // Note the extra parsing to read a Mascot Generic File charge (eg., 1+).
+            this.setCharge(extractCharge(line.substring(equalSignIndex + 1)));
+        } else {
+            // This is an extra embedded parameter!
+            String aKey = line.substring(0, equalSignIndex);
+            String aValue = line.substring(equalSignIndex + 1);
+            // Save the extra embedded parameter in iEmbeddedParameter
+            addExtraEmbeddedParameter(aKey, aValue);
+        }
+        return false;
+    }
+
     /**
      * This method writes the MGF object to the specified Writer.
      *
@@ -629,18 +658,15 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
         // After the header, it is customary to leave an empty line.
         bw.write("\n");
         // Next up the ions themselves.
-        SortedSet<Double> ss = new TreeSet<Double>(this.getPeaks().keySet());
-        Iterator<Double> it = ss.iterator();
-        while (it.hasNext()) {
-            Double tempKey = it.next();
-            BigDecimal lDouble = new BigDecimal(tempKey.doubleValue()).setScale(4, BigDecimal.ROUND_HALF_UP);
+        PeakList peakList = this.getPeakList();
+        for (int i = 0; i < peakList.size(); i++) {
+            BigDecimal lDouble = new BigDecimal(peakList.getMz(i)).setScale(4, BigDecimal.ROUND_HALF_UP);
             // We need to check whether a charge is known for this peak.
             String charge = "";
-            if (iCharges.containsKey(tempKey)) {
-                int chargeState = ((Integer) iCharges.get(tempKey)).intValue();
-                charge = "\t" + this.processCharge(chargeState);
+            if (peakList.hasCharge(i)) {
+                charge = "\t" + this.processCharge(peakList.getCharge(i));
             }
-            bw.write(lDouble.toString() + " " + new BigDecimal(((Double) this.iPeaks.get(tempKey)).doubleValue()).setScale(4, BigDecimal.ROUND_HALF_UP).toString() + charge + "\n");
+            bw.write(lDouble.toString() + " " + new BigDecimal(peakList.getIntensity(i)).setScale(4, BigDecimal.ROUND_HALF_UP).toString() + charge + "\n");
         }
 
         bw.write(IONS_END);
@@ -655,12 +681,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
      * @return Intensity total rounded.
      */
     public double getTotalIntensity() {
-        Iterator<Double> iter = this.iPeaks.values().iterator();
-        double totalIntensity = 0.0;
-        while (iter.hasNext()) {
-            totalIntensity += iter.next();
-        }
-        return round(totalIntensity);
+        return round(this.getPeakList().getTotalIntensity());
     }
 
     /**
@@ -668,15 +689,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
      * @return Highest intensity rounded
      */
     public double getHighestIntensity() {
-        Iterator<Double> iter = this.iPeaks.values().iterator();
-        double highestIntensity = -1.0;
-        while (iter.hasNext()) {
-            double temp = iter.next();
-            if (temp > highestIntensity) {
-                highestIntensity = temp;
-            }
-        }
-        return round(highestIntensity);
+        return round(this.getPeakList().getHighestIntensity());
     }
 
     /**
@@ -701,7 +714,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
     	
     	double signal = 0.0;
     	double noise = 0.0;
-    	for (double intensity : iPeaks.values()) {
+    	for (double intensity : this.getPeakList().getIntensities()) {
     		if (intensity > noiseLvl) {
     			signal += intensity;
     		} else {
@@ -745,13 +758,49 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
 
     /**
      * This method reports on the peaks in the spectrum, with the Doubles for the masses as keys in the HashMap, and the
-     * intensities for each peak as Double value for that mass key.
+     * intensities for each peak as Double value for that mass key.<br>
+     * The map is created on first access and may be modified by the caller. Performance-critical code should use
+     * {@link #getPeakList()} instead.
      *
      * @return HashMap with Doubles as keys (the masses) and Doubles as values (the intensities).
      */
     public HashMap<Double, Double> getPeaks() {
+        this.createPeakMaps();
         return iPeaks;
     }
+
+    /**
+     * Returns the m/z-sorted primitive peak list of the spectrum. If the peak map has been handed out before, the
+     * list is re-created from the (possibly modified) map on every call.
+     * @return the peak list
+     */
+    public PeakList getPeakList() {
+    	if (iPeakList != null) {
+    		return iPeakList;
+    	}
+    	return PeakList.fromMaps(iPeaks, iCharges);
+    }
+
+    /**
+     * Sets the peaks of the spectrum, replacing any previously set peaks and charges.
+     * @param aPeakList the peak list
+     */
+    public void setPeakList(PeakList aPeakList) {
+    	this.iPeakList = aPeakList;
+    	this.iPeaks = null;
+    	this.iCharges = null;
+    }
+
+    /**
+     * Switches from the primitive peak list to the peak and charge maps, if not already done.
+     */
+    private void createPeakMaps() {
+    	if (iPeakList != null) {
+    		iPeaks = iPeakList.toPeakMap();
+    		iCharges = iPeakList.toChargeMap();
+    		iPeakList = null;
+    	}
+    }
     
     /**
      * Returns the k highest peaks of the spectrum.
@@ -760,25 +809,28 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
      */
     public HashMap<Double, Double> getHighestPeaks(int k) {
     	if (k == 0) {
-    		return iPeaks;
+    		return this.getPeaks();
     	} else {
-    		HashMap<Double, Double> res = new HashMap<Double, Double>(iPeaks);
-    		ArrayList<Double> sortedList = new ArrayList<Double>(res.values());
-    		Collections.sort(sortedList);
-    		Iterator<Double> iter = sortedList.listIterator();
-    		while (res.size() > k) {
-    			res.values().remove(iter.next());
-    			iter.remove();
-    		}
-    		return res;
+    		return this.getHighestPeakList(k).toPeakMap();
     	}
     }
+
+    /**
+     * Returns the k highest peaks of the spectrum as m/z-sorted list. For equal intensities peaks with lower m/z
+     * are dropped first.
+     * @param k The amount of peaks to be picked, <code>0</code> picks all peaks.
+     * @return the peak list of the k highest peaks.
+     */
+    public PeakList getHighestPeakList(int k) {
+    	return this.getPeakList().getHighestPeaks(k);
+    }
     
     /**
      * Returns the charges map.
      * @return Map containing fragment m/z-to-charge pairs.
      */
 	public HashMap<Double, Integer> getCharges() {
+		this.createPeakMaps();
 		return iCharges;
 	}
     
@@ -852,6 +904,7 @@ public class MascotGenericFile implements SpectrumFile, Serializable {
 	@SuppressWarnings("unchecked")
 	@Override
 	public void setPeaks(HashMap aPeaks) {
+		this.createPeakMaps();
 		this.iPeaks = aPeaks;
 	}
 
@@ -0,0 +1,532 @@
+package de.mpa.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Byte-level parsing engine for Mascot generic files. The file is mapped into memory window by window
+ * through a {@link FileChannel} and scanned exactly once. Lines are handed out as trimmed byte ranges
+ * of the mapped buffer and peak lines are parsed straight from those bytes into primitive arrays, so no
+ * intermediate strings are created for the bulk of the file.
+ * <p>
+ * Alternatively the parser can operate on an in-memory {@link ByteBuffer} holding a single spectrum block,
+ * see {@link #parseSpectrum(String)}.
+ * <p>
+ * Line semantics are identical to {@link java.io.RandomAccessFile#readLine()}, i.e. lines are terminated
+ * by <code>'\n'</code>, <code>'\r'</code> or <code>"\r\n"</code> and bytes are interpreted as ISO-8859-1
+ * characters. Spectra are assembled the same way as by {@link MascotGenericFile#MascotGenericFile(String, String)}.
+ */
+public class MascotGenericFileParser {
+
+	/**
+	 * The logger instance.
+	 */
+	private static Logger log = Logger.getLogger(MascotGenericFileParser.class);
+
+	/**
+	 * The default size of a single memory-mapped window (64 MiB).
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The character set used to turn line bytes into strings.
+	 */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Powers of ten which can be represented exactly as doubles.
+	 */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/**
+	 * The largest integer mantissa that can be represented exactly as a double (2^53).
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private static final byte[] IONS_START = "BEGIN IONS".getBytes(ISO_8859_1);
+	private static final byte[] IONS_END = "END IONS".getBytes(ISO_8859_1);
+
+	/**
+	 * The channel of the file to parse, <code>null</code> when parsing an in-memory buffer.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The total size of the file in bytes.
+	 */
+	private final long fileSize;
+
+	/**
+	 * The maximum size of a mapped window.
+	 */
+	private final int windowSize;
+
+	/**
+	 * The currently mapped window.
+	 */
+	private ByteBuffer window;
+
+	/**
+	 * The absolute file offset of the first byte of the current window.
+	 */
+	private long windowStart;
+
+	/**
+	 * The absolute file offset of the next line to be read.
+	 */
+	private long position;
+
+	/**
+	 * Window-relative start (inclusive) and end (exclusive) of the current trimmed line.
+	 */
+	private int lineFrom, lineTo;
+
+	/**
+	 * The spectrum currently being assembled, <code>null</code> outside spectrum blocks.
+	 */
+	private MascotGenericFile spectrum;
+
+	/**
+	 * The comments of the spectrum currently being assembled.
+	 */
+	private StringBuilder spectrumComments;
+
+	/**
+	 * Flags denoting whether the current spectrum block is inside 'BEGIN IONS'/'END IONS' and whether a title was found.
+	 */
+	private boolean inIons, titleFound;
+
+	/**
+	 * The number of lines added to the current spectrum block.
+	 */
+	private int spectrumLineCount;
+
+	/**
+	 * Growable primitive buffers holding the peaks of the current spectrum block.
+	 */
+	private double[] mzBuffer = new double[256], intensityBuffer = new double[256];
+
+	/**
+	 * Growable primitive buffer holding the peak charges of the current spectrum block.
+	 */
+	private int[] chargeBuffer = new int[256];
+
+	/**
+	 * Start/end index pairs of the first three tokens of a peak line.
+	 */
+	private final int[] tokens = new int[6];
+
+	/**
+	 * The number of peaks in the current spectrum block.
+	 */
+	private int peakCount;
+
+	/**
+	 * Flag denoting whether any peak of the current spectrum block carries a charge annotation.
+	 */
+	private boolean hasPeakCharges;
+
+	/**
+	 * Creates a parser reading from the specified channel using the default window size.
+	 * @param channel the file channel
+	 * @throws IOException if the channel size cannot be determined
+	 */
+	public MascotGenericFileParser(FileChannel channel) throws IOException {
+		this(channel, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * Creates a parser reading from the specified channel.
+	 * @param channel the file channel
+	 * @param windowSize the maximum number of bytes to map at once, must exceed the longest line
+	 * @throws IOException if the channel size cannot be determined
+	 */
+	public MascotGenericFileParser(FileChannel channel, int windowSize) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Creates a parser reading from the specified in-memory buffer, starting at index 0.
+	 * @param buffer the buffer
+	 */
+	public MascotGenericFileParser(ByteBuffer buffer) {
+		this.channel = null;
+		this.fileSize = buffer.limit();
+		this.windowSize = buffer.limit();
+		this.window = buffer;
+	}
+
+	/**
+	 * Advances to the next line of the file.
+	 * @return <code>true</code> if a line was read, <code>false</code> if the end of the file has been reached
+	 * @throws IOException if a line exceeds the window size or the file could not be mapped
+	 */
+	public boolean nextLine() throws IOException {
+		if (position >= fileSize) {
+			return false;
+		}
+		if ((channel != null) && ((window == null) || (position >= windowStart + window.limit()))) {
+			this.map(position);
+		}
+		while (true) {
+			int start = (int) (position - windowStart);
+			int limit = window.limit();
+			boolean windowAtEof = (windowStart + limit) >= fileSize;
+			int end = -1;
+			int next = -1;
+			for (int i = start; i < limit; i++) {
+				byte b = window.get(i);
+				if (b == '\n') {
+					end = i;
+					next = i + 1;
+					break;
+				} else if (b == '\r') {
+					if (i + 1 < limit) {
+						end = i;
+						next = (window.get(i + 1) == '\n') ? i + 2 : i + 1;
+					} else if (windowAtEof) {
+						end = i;
+						next = i + 1;
+					}
+					// otherwise the '\n' of a possible "\r\n" lies beyond the window
+					break;
+				}
+			}
+			if (end < 0 && windowAtEof) {
+				// Last line without terminator
+				end = limit;
+				next = limit;
+			}
+			if (end >= 0) {
+				// Trim leading/trailing characters the same way String.trim() does
+				int from = start;
+				while ((from < end) && ((window.get(from) & 0xff) <= ' ')) {
+					from++;
+				}
+				int to = end;
+				while ((to > from) && ((window.get(to - 1) & 0xff) <= ' ')) {
+					to--;
+				}
+				lineFrom = from;
+				lineTo = to;
+				position = windowStart + next;
+				return true;
+			}
+			// Line crosses the window boundary, re-map starting at the beginning of the line
+			if (start == 0) {
+				throw new IOException("Line at byte offset " + position + " exceeds the mapping window size of " + windowSize + " bytes.");
+			}
+			this.map(position);
+		}
+	}
+
+	/**
+	 * Maps a new window starting at the specified absolute file offset.
+	 * @param start the file offset
+	 * @throws IOException if mapping fails
+	 */
+	private void map(long start) throws IOException {
+		long size = Math.min(windowSize, fileSize - start);
+		window = channel.map(MapMode.READ_ONLY, start, size);
+		windowStart = start;
+	}
+
+	/**
+	 * Returns the absolute file offset directly behind the current line (including its line break).
+	 * @return the file offset
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Returns whether the current trimmed line is empty.
+	 * @return <code>true</code> if the line is empty
+	 */
+	public boolean isEmptyLine() {
+		return lineFrom == lineTo;
+	}
+
+	/**
+	 * Returns whether the current trimmed line starts with the specified ASCII prefix.
+	 * @param prefix the prefix
+	 * @return <code>true</code> if the line starts with the prefix
+	 */
+	public boolean lineStartsWith(String prefix) {
+		int len = prefix.length();
+		if (lineTo - lineFrom < len) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if ((window.get(lineFrom + i) & 0xff) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the current trimmed line equals the specified bytes.
+	 * @param bytes the bytes
+	 * @return <code>true</code> if the line matches
+	 */
+	private boolean lineEquals(byte[] bytes) {
+		if (lineTo - lineFrom != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (window.get(lineFrom + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the window-relative index of the first occurrence of the specified byte in the current line.
+	 * @param b the byte
+	 * @return the index or <code>-1</code> if it does not occur
+	 */
+	private int lineIndexOf(byte b) {
+		for (int i = lineFrom; i < lineTo; i++) {
+			if (window.get(i) == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the current trimmed line as string.
+	 * @return the line
+	 */
+	public String getLine() {
+		return this.toString(lineFrom, lineTo);
+	}
+
+	/**
+	 * Converts the specified window-relative byte range into a string.
+	 * @param from the start index (inclusive)
+	 * @param to the end index (exclusive)
+	 * @return the string
+	 */
+	private String toString(int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = window.get(from + i);
+		}
+		return new String(bytes, ISO_8859_1);
+	}
+
+	/**
+	 * Starts assembling a new spectrum.
+	 * @param filename the filename of the spectrum
+	 */
+	public void beginSpectrum(String filename) {
+		spectrum = new MascotGenericFile(filename);
+		spectrumComments = new StringBuilder();
+		inIons = false;
+		titleFound = false;
+		spectrumLineCount = 0;
+		peakCount = 0;
+		hasPeakCharges = false;
+	}
+
+	/**
+	 * Adds the current (non-empty) line to the spectrum being assembled.
+	 */
+	public void addSpectrumLine() {
+		spectrumLineCount++;
+		byte first = window.get(lineFrom);
+		if (first == '#') {
+			// Comment line, possibly containing the spectrum ID
+			String line = this.getLine();
+			if (line.startsWith("sid", 1)) {
+				try {
+					spectrum.setSpectrumID(Long.parseLong(line.substring(5)));
+				} catch (Exception e) {
+					// do nothing, just catch failed parse attempt
+				}
+			}
+			spectrumComments.append(line).append('\n');
+		} else if (this.lineEquals(IONS_START)) {
+			inIons = true;
+		} else if (this.lineEquals(IONS_END)) {
+			inIons = false;
+		} else if (inIons) {
+			if (this.lineIndexOf((byte) '=') >= 0) {
+				// Embedded parameters are rare, delegate them to the string-based parser
+				if (spectrum.parseEmbeddedParameter(this.getLine())) {
+					titleFound = true;
+				}
+			} else {
+				if (!titleFound) {
+					// if no title was found, substitute with filename
+					spectrum.setTitle(spectrum.getFilename());
+					titleFound = true;
+				}
+				this.parsePeakLine();
+			}
+		}
+	}
+
+	/**
+	 * Parses the current line as a peak line of the form <code>'m/z intensity [charge]'</code>.
+	 */
+	private void parsePeakLine() {
+		// Tokenize using the same delimiters as the string-based parser (space and tab)
+		int count = 0;
+		int i = lineFrom;
+		while (i < lineTo) {
+			while ((i < lineTo) && this.isDelimiter(window.get(i))) {
+				i++;
+			}
+			if (i >= lineTo) {
+				break;
+			}
+			int start = i;
+			while ((i < lineTo) && !this.isDelimiter(window.get(i))) {
+				i++;
+			}
+			if (count < 3) {
+				tokens[2 * count] = start;
+				tokens[2 * count + 1] = i;
+			}
+			count++;
+		}
+		if ((count == 2) || (count == 3)) {
+			if (peakCount == mzBuffer.length) {
+				this.growPeakBuffers();
+			}
+			mzBuffer[peakCount] = this.parseDouble(tokens[0], tokens[1]);
+			intensityBuffer[peakCount] = this.parseDouble(tokens[2], tokens[3]);
+			if (count == 3) {
+				chargeBuffer[peakCount] = MascotGenericFile.extractCharge(this.toString(tokens[4], tokens[5]));
+				hasPeakCharges = true;
+			} else {
+				chargeBuffer[peakCount] = PeakList.NO_CHARGE;
+			}
+			peakCount++;
+		} else {
+			log.warn("Unrecognized line at line number " + spectrumLineCount + ": '" + this.getLine() + "'");
+		}
+	}
+
+	/**
+	 * Returns whether the specified byte is a peak line token delimiter.
+	 * @param b the byte
+	 * @return <code>true</code> if the byte is a space or tab character
+	 */
+	private boolean isDelimiter(byte b) {
+		return (b == ' ') || (b == '\t');
+	}
+
+	/**
+	 * Doubles the capacity of the peak buffers.
+	 */
+	private void growPeakBuffers() {
+		int capacity = mzBuffer.length * 2;
+		double[] mz = new double[capacity];
+		double[] intensity = new double[capacity];
+		int[] charge = new int[capacity];
+		System.arraycopy(mzBuffer, 0, mz, 0, peakCount);
+		System.arraycopy(intensityBuffer, 0, intensity, 0, peakCount);
+		System.arraycopy(chargeBuffer, 0, charge, 0, peakCount);
+		mzBuffer = mz;
+		intensityBuffer = intensity;
+		chargeBuffer = charge;
+	}
+
+	/**
+	 * Parses a decimal number from the specified window-relative byte range. Plain decimal notation
+	 * with up to 15 significant digits is converted directly, which is exact since both the integer
+	 * mantissa and the power of ten are representable as doubles. Anything else is delegated to
+	 * {@link Double#parseDouble(String)}, so results are always identical to it.
+	 * @param from the start index (inclusive)
+	 * @param to the end index (exclusive)
+	 * @return the parsed value
+	 * @throws NumberFormatException if the bytes do not denote a number
+	 */
+	private double parseDouble(int from, int to) {
+		int i = from;
+		boolean negative = false;
+		byte b = window.get(i);
+		if ((b == '-') || (b == '+')) {
+			negative = (b == '-');
+			i++;
+		}
+		long mantissa = 0L;
+		int digits = 0;
+		int fractionDigits = -1;
+		for (; i < to; i++) {
+			b = window.get(i);
+			if ((b >= '0') && (b <= '9')) {
+				mantissa = mantissa * 10L + (b - '0');
+				if (mantissa > MAX_EXACT_MANTISSA) {
+					return Double.parseDouble(this.toString(from, to));
+				}
+				digits++;
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			} else if ((b == '.') && (fractionDigits < 0)) {
+				fractionDigits = 0;
+			} else {
+				return Double.parseDouble(this.toString(from, to));
+			}
+		}
+		if ((digits == 0) || (fractionDigits >= POWERS_OF_TEN.length)) {
+			return Double.parseDouble(this.toString(from, to));
+		}
+		double value = (double) mantissa;
+		if (fractionDigits > 0) {
+			value /= POWERS_OF_TEN[fractionDigits];
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses all remaining lines as a single spectrum block. Empty lines and a leading file-level charge
+	 * statement are skipped the same way {@link MascotGenericFile#MascotGenericFile(String, String)} does.
+	 * @param filename the filename of the spectrum
+	 * @return the parsed spectrum
+	 * @throws IOException if a line could not be read
+	 */
+	public MascotGenericFile parseSpectrum(String filename) throws IOException {
+		this.beginSpectrum(filename);
+		while (this.nextLine()) {
+			if (this.isEmptyLine()) {
+				spectrumLineCount++;
+			} else if ((spectrumLineCount == 0) && this.lineStartsWith("CHARGE")) {
+				spectrumLineCount++;
+			} else {
+				this.addSpectrumLine();
+			}
+		}
+		return this.endSpectrum();
+	}
+
+	/**
+	 * Finishes the spectrum currently being assembled.
+	 * @return the assembled spectrum
+	 */
+	public MascotGenericFile endSpectrum() {
+		MascotGenericFile res = spectrum;
+		res.setPeakList(PeakList.fromArrays(mzBuffer, intensityBuffer, hasPeakCharges ? chargeBuffer : null, peakCount));
+		res.setComments(spectrumComments.toString());
+		spectrum = null;
+		spectrumComments = null;
+		return res;
+	}
+
+}
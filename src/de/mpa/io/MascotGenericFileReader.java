@@ -7,6 +7,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -91,7 +93,8 @@ public class MascotGenericFileReader extends InputFileReader {
 	}
 
 	/**
-     * This method loads the specified file in this MergeFileReader.
+     * This method loads the specified file in this MergeFileReader. The file is scanned once through
+     * a memory-mapped {@link MascotGenericFileParser}.
      *
      * @throws java.io.IOException when the loading operation failed.
      */
@@ -99,6 +102,98 @@ public class MascotGenericFileReader extends InputFileReader {
         spectrumFiles = new ArrayList<MascotGenericFile>();
     	spectrumPositions = new ArrayList<Long>();
 
+        // See loadLegacy() for a description of the header format.
+        int commentLineCounter = 0;
+        int lineCounter = 0;
+        long oldPos = 0L;
+        long newPos = 0L;
+        
+        if (newlineCharCount == 0) {
+        	newlineCharCount = determineNewlineCharCount();
+        }
+        
+        int spectrumCounter = 0;
+        boolean inSpectrum = false;
+        StringBuffer tempComments = new StringBuffer();
+        MascotGenericFileParser parser = new MascotGenericFileParser(raf.getChannel());
+        // Cycle the file.
+        boolean runnameNotYetFound = true;
+        while (parser.nextLine()) {
+        	lineCounter++;
+        	newPos = parser.getPosition();
+            // Skip empty lines and file-level charge statement.
+            if (parser.isEmptyLine() || (lineCounter == 1 && parser.lineStartsWith("CHARGE"))) {
+                continue;
+            } else if (!inSpectrum && parser.lineStartsWith("#")) {
+                // Comment lines.
+            	String line = parser.getLine();
+                String cleanLine = this.cleanCommentMarks(line);
+                String cleanLineTrimmed = cleanLine.trim();
+                if (cleanLineTrimmed.equals("")) {
+                    continue;
+                } else if (cleanLine.startsWith(" ") || cleanLine.startsWith("\t")) {
+                    // Header comment.
+                    commentLineCounter++;
+                    if (runnameNotYetFound && commentLineCounter >= 2 && cleanLineTrimmed.indexOf("Instrument:") < 0 && cleanLineTrimmed.indexOf("Manufacturer:") < 0) {
+                        this.runName = cleanLineTrimmed;
+                        runnameNotYetFound = false;
+                    }
+                    tempComments.append(line + "\n");
+                } else {
+                    // Spectrum comment. Start a new Spectrum!
+                    fireProgressMade(oldPos, newPos);
+                    this.spectrumPositions.add(oldPos);
+                    inSpectrum = true;
+                    parser.beginSpectrum(this.createSpectrumFilename(spectrumCounter + 1));
+                    parser.addSpectrumLine();
+                }
+            } else if (inSpectrum) {
+                parser.addSpectrumLine();
+                // See if it was an 'END IONS', in which case we stop being in a spectrum.
+                if (parser.lineStartsWith("END")) {
+                    inSpectrum = false;
+                    spectrumCounter++;
+                    this.spectrumFiles.add(parser.endSpectrum());
+                }
+            } else if (parser.lineStartsWith("BEGIN")) {
+                // Start of a new spectrum.
+                fireProgressMade(oldPos, newPos);
+                this.spectrumPositions.add(oldPos);
+                inSpectrum = true;
+                parser.beginSpectrum(this.createSpectrumFilename(spectrumCounter + 1));
+                parser.addSpectrumLine();
+            }
+            oldPos = newPos;
+        }
+        // Initialize the comments.
+        this.comments = tempComments.toString();
+
+        // If we do not have a run name by now, we just take the filename, minus the extension.
+        if (this.runName == null) {
+            int location = getFilename().lastIndexOf(".");
+            if (location > 0) {
+                runName = getFilename().substring(0, location);
+            } else {
+                runName = getFilename();
+            }
+        }
+
+        // Fire final progress event
+        fireProgressMade(-1L, newPos);
+    }
+
+	/**
+     * This method loads the specified file in this MergeFileReader line by line using the reader's
+     * {@link RandomAccessFile}. Superseded by the memory-mapped {@link #load()}, kept as reference
+     * implementation.
+     *
+     * @throws java.io.IOException when the loading operation failed.
+     */
+    @Deprecated
+    public void loadLegacy() throws IOException {
+        spectrumFiles = new ArrayList<MascotGenericFile>();
+    	spectrumPositions = new ArrayList<Long>();
+
         // First parse the header.
         // First (non-empty?) line can be CHARGE= --> omit it if present.
         // Next up are comment blocks.
@@ -392,33 +487,32 @@ public class MascotGenericFileReader extends InputFileReader {
 		return loadSpectrum(index, pos1, pos2);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Spectrum blocks are fetched using positioned reads on the reader's file channel,
+	 * so this method may be invoked concurrently from multiple threads.
+	 */
 	@Override
 	public MascotGenericFile loadSpectrum(int index, long pos1, long pos2)
 			throws IOException {
 
-    	// Skip to specified line
-    	raf.seek(pos1);
-    	
     	// Prepare byte buffer
     	int len = (int) (pos2 - pos1);
-    	byte[] bytes = new byte[len];
+    	ByteBuffer buffer = ByteBuffer.allocate(len);
     	
-    	// Store file contents into buffer
-    	int res = raf.read(bytes);
-    	
-    	// Throw exceptions when number of bytes read do not match
-    	if (res != len) {
+    	// Store file contents into buffer, starting at the specified position
+    	FileChannel channel = raf.getChannel();
+    	while (buffer.hasRemaining()) {
+    		int res = channel.read(buffer, pos1 + buffer.position());
+    		// Throw exception when end of file is reached before all bytes were read
     		if (res < 0) {
     			throw new IOException("End of file has been reached prematurely.");
-    		} else {
-        		throw new IOException("Less bytes were read than expected.");
     		}
     	}
+    	buffer.flip();
     	
-    	// Generate MGF from buffered bytes (interpreted as String)
-    	MascotGenericFile mgf = new MascotGenericFile(
-    			createSpectrumFilename(index), new String(bytes));
-    	
-		return mgf;
+    	// Generate MGF from buffered bytes
+		return new MascotGenericFileParser(buffer).parseSpectrum(createSpectrumFilename(index));
 	}
 }
@@ -0,0 +1,380 @@
+package de.mpa.io;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.mpa.util.IndexSort;
+
+/**
+ * Immutable, m/z-sorted list of spectrum peaks backed by primitive arrays. Every m/z value occurs
+ * at most once, fragment ion charges are stored optionally as bytes.
+ * <p>
+ * Compared to the peak/charge map representation this needs 16 bytes per peak (plus one byte if
+ * charges are annotated) instead of roughly 80 and provides sorted access without copying.
+ */
+public class PeakList implements Serializable {
+
+	/**
+	 * Serialization ID.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Charge value denoting peaks without charge annotation.
+	 */
+	public static final byte NO_CHARGE = Byte.MIN_VALUE;
+
+	/**
+	 * The empty peak list.
+	 */
+	public static final PeakList EMPTY = new PeakList(new double[0], new double[0], null);
+
+	/**
+	 * The m/z values in ascending order.
+	 */
+	private final double[] mzValues;
+
+	/**
+	 * The intensities.
+	 */
+	private final double[] intensities;
+
+	/**
+	 * The fragment ion charges or <code>null</code> if no peak carries a charge annotation.
+	 */
+	private final byte[] charges;
+
+	/**
+	 * Creates a peak list from the specified arrays. The arrays are used as-is, i.e. they must
+	 * already be sorted by ascending, unique m/z and must not be modified afterwards.
+	 * @param mzValues the m/z values
+	 * @param intensities the intensities
+	 * @param charges the charges (with {@link #NO_CHARGE} denoting unknown charges) or <code>null</code>
+	 */
+	PeakList(double[] mzValues, double[] intensities, byte[] charges) {
+		this.mzValues = mzValues;
+		this.intensities = intensities;
+		this.charges = charges;
+	}
+
+	/**
+	 * Creates a peak list from the first <code>count</code> elements of the specified unsorted arrays.
+	 * The arrays are not modified. Duplicate m/z values are merged the same way repeatedly putting
+	 * them into a peak map and a charge map would, i.e. the last intensity and the last annotated
+	 * charge win.
+	 * @param mzValues the m/z values
+	 * @param intensities the intensities
+	 * @param charges the charges (with {@link #NO_CHARGE} denoting unknown charges) or <code>null</code>
+	 * @param count the number of peaks
+	 * @return the peak list
+	 */
+	public static PeakList fromArrays(double[] mzValues, double[] intensities, int[] charges, int count) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		// Determine sort order, most spectra are already sorted
+		int[] order = new int[count];
+		boolean sorted = true;
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+			if ((i > 0) && (Double.compare(mzValues[i - 1], mzValues[i]) >= 0)) {
+				sorted = false;
+			}
+		}
+		if (!sorted) {
+			IndexSort.mergeSort(order, count, mzValues);
+		}
+
+		double[] mz = new double[count];
+		double[] in = new double[count];
+		byte[] ch = null;
+		if (charges != null) {
+			ch = new byte[count];
+		}
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			int j = order[i];
+			byte charge = ((charges == null) || (charges[j] == NO_CHARGE)) ? NO_CHARGE : (byte) charges[j];
+			if ((size > 0) && (Double.compare(mz[size - 1], mzValues[j]) == 0)) {
+				// Duplicate m/z, stable sort guarantees file order within duplicates
+				in[size - 1] = intensities[j];
+				if ((ch != null) && (charge != NO_CHARGE)) {
+					ch[size - 1] = charge;
+				}
+			} else {
+				mz[size] = mzValues[j];
+				in[size] = intensities[j];
+				if (ch != null) {
+					ch[size] = charge;
+				}
+				size++;
+			}
+		}
+		ch = annotatedOrNull(ch, size);
+		if (size < count) {
+			mz = Arrays.copyOf(mz, size);
+			in = Arrays.copyOf(in, size);
+			if (ch != null) {
+				ch = Arrays.copyOf(ch, size);
+			}
+		}
+		return new PeakList(mz, in, ch);
+	}
+
+	/**
+	 * Creates a peak list from the specified peak and charge maps.
+	 * @param peaks the map of m/z-intensity pairs
+	 * @param charges the map of m/z-charge pairs, may be <code>null</code>
+	 * @return the peak list
+	 */
+	public static PeakList fromMaps(Map<Double, Double> peaks, Map<Double, Integer> charges) {
+		int count = peaks.size();
+		double[] mz = new double[count];
+		double[] in = new double[count];
+		int[] ch = ((charges != null) && !charges.isEmpty()) ? new int[count] : null;
+		int i = 0;
+		for (Entry<Double, Double> peak : peaks.entrySet()) {
+			mz[i] = peak.getKey();
+			in[i] = peak.getValue();
+			if (ch != null) {
+				Integer charge = charges.get(peak.getKey());
+				ch[i] = (charge != null) ? charge : NO_CHARGE;
+			}
+			i++;
+		}
+		return fromArrays(mz, in, ch, count);
+	}
+
+	/**
+	 * Returns the specified charge array or <code>null</code> if none of its first <code>size</code>
+	 * elements carries a charge annotation.
+	 */
+	private static byte[] annotatedOrNull(byte[] charges, int size) {
+		if (charges != null) {
+			for (int i = 0; i < size; i++) {
+				if (charges[i] != NO_CHARGE) {
+					return charges;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of peaks.
+	 * @return the number of peaks
+	 */
+	public int size() {
+		return mzValues.length;
+	}
+
+	/**
+	 * Returns the m/z value of the peak at the specified index.
+	 * @param index the peak index
+	 * @return the m/z value
+	 */
+	public double getMz(int index) {
+		return mzValues[index];
+	}
+
+	/**
+	 * Returns the intensity of the peak at the specified index.
+	 * @param index the peak index
+	 * @return the intensity
+	 */
+	public double getIntensity(int index) {
+		return intensities[index];
+	}
+
+	/**
+	 * Returns whether the peak at the specified index carries a charge annotation.
+	 * @param index the peak index
+	 * @return <code>true</code> if a charge is known
+	 */
+	public boolean hasCharge(int index) {
+		return (charges != null) && (charges[index] != NO_CHARGE);
+	}
+
+	/**
+	 * Returns the charge of the peak at the specified index.
+	 * @param index the peak index
+	 * @return the charge or <code>0</code> if the charge is unknown
+	 */
+	public int getCharge(int index) {
+		return this.hasCharge(index) ? charges[index] : 0;
+	}
+
+	/**
+	 * Returns whether any peak carries a charge annotation.
+	 * @return <code>true</code> if charges are annotated
+	 */
+	public boolean hasCharges() {
+		return charges != null;
+	}
+
+	/**
+	 * Returns the backing array of m/z values. The array must not be modified.
+	 * @return the m/z values
+	 */
+	public double[] getMzValues() {
+		return mzValues;
+	}
+
+	/**
+	 * Returns the backing array of intensities. The array must not be modified.
+	 * @return the intensities
+	 */
+	public double[] getIntensities() {
+		return intensities;
+	}
+
+	/**
+	 * Returns a new array containing the charges of all peaks with <code>0</code> denoting unknown charges.
+	 * @return the charges
+	 */
+	public int[] getChargeValues() {
+		int[] res = new int[mzValues.length];
+		if (charges != null) {
+			for (int i = 0; i < res.length; i++) {
+				res[i] = this.getCharge(i);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the index of the peak with the specified m/z value.
+	 * @param mz the m/z value
+	 * @return the peak index or a negative value if there is no such peak, see {@link Arrays#binarySearch(double[], double)}
+	 */
+	public int indexOf(double mz) {
+		return Arrays.binarySearch(mzValues, mz);
+	}
+
+	/**
+	 * Returns the sum of all peak intensities.
+	 * @return the total intensity
+	 */
+	public double getTotalIntensity() {
+		double total = 0.0;
+		for (double intensity : intensities) {
+			total += intensity;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the highest peak intensity.
+	 * @return the highest intensity or <code>-1.0</code> if the list is empty
+	 */
+	public double getHighestIntensity() {
+		double highest = -1.0;
+		for (double intensity : intensities) {
+			if (intensity > highest) {
+				highest = intensity;
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * Returns a peak list containing the k most intense peaks, still sorted by m/z. For equal
+	 * intensities the peaks with lower m/z are dropped first.
+	 * @param k the number of peaks to keep, <code>0</code> keeps all peaks
+	 * @return the peak list of the k highest peaks
+	 */
+	public PeakList getHighestPeaks(int k) {
+		int size = this.size();
+		if ((k == 0) || (k >= size)) {
+			return this;
+		}
+		// Find the intensity threshold of the k-th highest peak
+		double[] sortedIntensities = intensities.clone();
+		Arrays.sort(sortedIntensities);
+		double threshold = sortedIntensities[size - k];
+		// Count peaks above threshold to know how many peaks at the threshold to keep
+		int above = 0;
+		for (double intensity : intensities) {
+			if (Double.compare(intensity, threshold) > 0) {
+				above++;
+			}
+		}
+		int atThresholdToSkip = (size - above) - (k - above);
+		for (int i = 0; i < size; i++) {
+			if (Double.compare(intensities[i], threshold) < 0) {
+				atThresholdToSkip--;
+			}
+		}
+
+		double[] mz = new double[k];
+		double[] in = new double[k];
+		byte[] ch = (charges != null) ? new byte[k] : null;
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			int cmp = Double.compare(intensities[i], threshold);
+			if ((cmp == 0) && (atThresholdToSkip > 0)) {
+				atThresholdToSkip--;
+				continue;
+			}
+			if (cmp >= 0) {
+				mz[j] = mzValues[i];
+				in[j] = intensities[i];
+				if (ch != null) {
+					ch[j] = charges[i];
+				}
+				j++;
+			}
+		}
+		return new PeakList(mz, in, annotatedOrNull(ch, k));
+	}
+
+	/**
+	 * Creates a peak map of m/z-intensity pairs from this list.
+	 * @return the peak map
+	 */
+	public HashMap<Double, Double> toPeakMap() {
+		HashMap<Double, Double> peaks = new HashMap<Double, Double>();
+		for (int i = 0; i < mzValues.length; i++) {
+			peaks.put(mzValues[i], intensities[i]);
+		}
+		return peaks;
+	}
+
+	/**
+	 * Creates a charge map of m/z-charge pairs for all peaks carrying a charge annotation.
+	 * @return the charge map
+	 */
+	public HashMap<Double, Integer> toChargeMap() {
+		HashMap<Double, Integer> res = new HashMap<Double, Integer>();
+		if (charges != null) {
+			for (int i = 0; i < mzValues.length; i++) {
+				if (charges[i] != NO_CHARGE) {
+					res.put(mzValues[i], (int) charges[i]);
+				}
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PeakList)) {
+			return false;
+		}
+		PeakList that = (PeakList) obj;
+		return Arrays.equals(mzValues, that.mzValues) && Arrays.equals(intensities, that.intensities)
+				&& Arrays.equals(charges, that.charges);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(mzValues) + Arrays.hashCode(intensities);
+	}
+
+}
@@ -0,0 +1,331 @@
+package de.mpa.io;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary encoding of {@link PeakList}s for storage in database BLOBs.
+ * <p>
+ * Layout (big endian): two magic bytes <code>'P' 'L'</code>, a version byte, a flags byte
+ * and the peak count as int, followed by the payload. The payload contains the m/z values as
+ * variable-length deltas of fixed-point values with a resolution of 10<sup>-6</sup> (or as
+ * plain doubles if the values cannot be restored exactly from that resolution), the
+ * intensities as floats (or as plain doubles if any value cannot be represented exactly as a
+ * float) and, if present, the fragment ion charges as bytes. If compression is enabled and
+ * reduces the size, the payload is deflated and prefixed by its uncompressed length.
+ * <p>
+ * m/z values, intensities and charges are restored exactly.
+ */
+public class PeakListCodec {
+
+	/**
+	 * The current format version.
+	 */
+	public static final byte VERSION = 1;
+
+	/**
+	 * The magic bytes starting every encoded peak list.
+	 */
+	private static final byte MAGIC_1 = 'P', MAGIC_2 = 'L';
+
+	/**
+	 * The header size in bytes.
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Flag denoting a deflated payload.
+	 */
+	private static final int FLAG_DEFLATED = 0x01;
+
+	/**
+	 * Flag denoting stored charges.
+	 */
+	private static final int FLAG_CHARGES = 0x02;
+
+	/**
+	 * Flag denoting m/z values stored as plain doubles.
+	 */
+	private static final int FLAG_RAW_MZ = 0x04;
+
+	/**
+	 * Flag denoting intensities stored as plain doubles.
+	 */
+	private static final int FLAG_RAW_INTENSITIES = 0x08;
+
+	/**
+	 * The number of fixed-point m/z units per m/z.
+	 */
+	private static final double MZ_SCALE = 1e6;
+
+	/**
+	 * Encodes the specified peak list into a new buffer.
+	 * @param peakList the peak list
+	 * @param compress <code>true</code> if the payload shall be deflated
+	 * @return the buffer containing the encoded peak list between position <code>0</code> and its limit
+	 */
+	public static ByteBuffer encode(PeakList peakList, boolean compress) {
+		int count = peakList.size();
+		double[] mzValues = peakList.getMzValues();
+		long[] units = toFixedPoint(mzValues);
+		double[] intensities = peakList.getIntensities();
+		int flags = (units == null) ? FLAG_RAW_MZ : 0;
+		if (!isFloatExact(intensities)) {
+			flags |= FLAG_RAW_INTENSITIES;
+		}
+		if (peakList.hasCharges()) {
+			flags |= FLAG_CHARGES;
+		}
+
+		// write uncompressed payload, at most 10 bytes per variable-length m/z delta
+		ByteBuffer payload = ByteBuffer.allocate(count * (10 + 8 + 1));
+		if (units == null) {
+			for (double mz : mzValues) {
+				payload.putDouble(mz);
+			}
+		} else {
+			long previous = 0L;
+			for (int i = 0; i < count; i++) {
+				putVarLong(payload, (i == 0) ? zigZag(units[i]) : units[i] - previous);
+				previous = units[i];
+			}
+		}
+		if ((flags & FLAG_RAW_INTENSITIES) != 0) {
+			for (double intensity : intensities) {
+				payload.putDouble(intensity);
+			}
+		} else {
+			for (double intensity : intensities) {
+				payload.putFloat((float) intensity);
+			}
+		}
+		if (peakList.hasCharges()) {
+			for (int i = 0; i < count; i++) {
+				payload.put(peakList.hasCharge(i) ? (byte) peakList.getCharge(i) : PeakList.NO_CHARGE);
+			}
+		}
+		int payloadSize = payload.position();
+
+		byte[] deflated = null;
+		int deflatedSize = 0;
+		if (compress && (payloadSize > 0)) {
+			Deflater deflater = new Deflater();
+			deflater.setInput(payload.array(), 0, payloadSize);
+			deflater.finish();
+			deflated = new byte[payloadSize];
+			deflatedSize = deflater.deflate(deflated);
+			boolean smaller = deflater.finished() && (deflatedSize + 4 < payloadSize);
+			deflater.end();
+			if (smaller) {
+				flags |= FLAG_DEFLATED;
+			}
+		}
+
+		ByteBuffer res;
+		if ((flags & FLAG_DEFLATED) != 0) {
+			res = ByteBuffer.allocate(HEADER_SIZE + 4 + deflatedSize);
+			putHeader(res, flags, count);
+			res.putInt(payloadSize);
+			res.put(deflated, 0, deflatedSize);
+		} else {
+			res = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+			putHeader(res, flags, count);
+			res.put(payload.array(), 0, payloadSize);
+		}
+		res.flip();
+		return res;
+	}
+
+	/**
+	 * Encodes the specified peak list into a byte array, e.g. for use as a BLOB parameter.
+	 * @param peakList the peak list
+	 * @param compress <code>true</code> if the payload shall be deflated
+	 * @return the encoded peak list
+	 */
+	public static byte[] encodeToBytes(PeakList peakList, boolean compress) {
+		return encode(peakList, compress).array();
+	}
+
+	/**
+	 * Decodes a peak list starting at the current position of the specified buffer. The buffer's
+	 * position is advanced behind the encoded peak list, its byte order is not changed.
+	 * @param buffer the buffer
+	 * @return the decoded peak list
+	 * @throws IllegalArgumentException if the buffer does not contain a valid encoded peak list
+	 */
+	public static PeakList decode(ByteBuffer buffer) {
+		ByteBuffer in = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		try {
+			if ((in.get() != MAGIC_1) || (in.get() != MAGIC_2)) {
+				throw new IllegalArgumentException("Not an encoded peak list.");
+			}
+			byte version = in.get();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("Unsupported peak list format version " + version + ".");
+			}
+			int flags = in.get();
+			int count = in.getInt();
+			if (count == 0) {
+				buffer.position(buffer.position() + in.position());
+				return PeakList.EMPTY;
+			}
+
+			ByteBuffer payload = in;
+			if ((flags & FLAG_DEFLATED) != 0) {
+				payload = ByteBuffer.wrap(inflate(in, in.getInt()));
+			}
+
+			double[] mzValues = new double[count];
+			if ((flags & FLAG_RAW_MZ) != 0) {
+				for (int i = 0; i < count; i++) {
+					mzValues[i] = payload.getDouble();
+				}
+			} else {
+				long units = 0L;
+				for (int i = 0; i < count; i++) {
+					long value = getVarLong(payload);
+					units = (i == 0) ? unZigZag(value) : units + value;
+					mzValues[i] = units / MZ_SCALE;
+				}
+			}
+			double[] intensities = new double[count];
+			if ((flags & FLAG_RAW_INTENSITIES) != 0) {
+				for (int i = 0; i < count; i++) {
+					intensities[i] = payload.getDouble();
+				}
+			} else {
+				for (int i = 0; i < count; i++) {
+					intensities[i] = payload.getFloat();
+				}
+			}
+			byte[] charges = null;
+			if ((flags & FLAG_CHARGES) != 0) {
+				charges = new byte[count];
+				payload.get(charges);
+			}
+			buffer.position(buffer.position() + in.position());
+			return new PeakList(mzValues, intensities, charges);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated peak list data.", e);
+		}
+	}
+
+	/**
+	 * Decodes a peak list from the specified byte array.
+	 * @param bytes the encoded peak list
+	 * @return the decoded peak list
+	 * @throws IllegalArgumentException if the array does not contain a valid encoded peak list
+	 */
+	public static PeakList decode(byte[] bytes) {
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Converts the specified m/z values to fixed-point units.
+	 * @return the fixed-point values or <code>null</code> if any value cannot be restored exactly
+	 */
+	private static long[] toFixedPoint(double[] mzValues) {
+		long[] units = new long[mzValues.length];
+		for (int i = 0; i < mzValues.length; i++) {
+			double scaled = mzValues[i] * MZ_SCALE;
+			if (Math.abs(scaled) >= (1L << 53)) {
+				return null;
+			}
+			units[i] = Math.round(scaled);
+			if ((units[i] / MZ_SCALE != mzValues[i]) || ((i > 0) && (units[i] <= units[i - 1]))) {
+				return null;
+			}
+		}
+		return units;
+	}
+
+	/**
+	 * Returns whether all specified values can be represented exactly as floats.
+	 */
+	private static boolean isFloatExact(double[] values) {
+		for (double value : values) {
+			if ((double) (float) value != value) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the header.
+	 */
+	private static void putHeader(ByteBuffer buffer, int flags, int count) {
+		buffer.put(MAGIC_1).put(MAGIC_2).put(VERSION).put((byte) flags).putInt(count);
+	}
+
+	/**
+	 * Inflates the remaining bytes of the specified buffer and advances its position.
+	 */
+	private static byte[] inflate(ByteBuffer buffer, int size) {
+		byte[] input;
+		int offset;
+		int length = buffer.remaining();
+		if (buffer.hasArray()) {
+			input = buffer.array();
+			offset = buffer.arrayOffset() + buffer.position();
+		} else {
+			input = new byte[length];
+			buffer.duplicate().get(input);
+			offset = 0;
+		}
+		Inflater inflater = new Inflater();
+		inflater.setInput(input, offset, length);
+		byte[] output = new byte[size];
+		try {
+			int inflated = inflater.inflate(output);
+			if ((inflated != size) || !inflater.finished()) {
+				throw new IllegalArgumentException("Corrupt peak list payload.");
+			}
+			buffer.position(buffer.position() + length - inflater.getRemaining());
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Corrupt peak list payload.", e);
+		} finally {
+			inflater.end();
+		}
+		return output;
+	}
+
+	/**
+	 * Writes an unsigned variable-length long using 7 bits per byte.
+	 */
+	private static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0L) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned variable-length long.
+	 */
+	private static long getVarLong(ByteBuffer buffer) {
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed variable-length value.");
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
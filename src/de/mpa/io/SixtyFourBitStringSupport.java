@@ -125,6 +125,17 @@ public class SixtyFourBitStringSupport {
 		return Base64.encodeBase64String(bytes);
 	}
 	
+	/**
+	 * Encodes an array of primitive double values to a 64-bit String.
+	 * @param doubles the values to encode
+	 * @return a 64-bit String representation of the values
+	 */
+	public static String encodeDoublesToBase64String(double[] doubles) {
+		byte[] bytes = new byte[doubles.length*8];
+		ByteBuffer.wrap(bytes).asDoubleBuffer().put(doubles);
+		return Base64.encodeBase64String(bytes);
+	}
+	
 	/**
 	 * Encodes an array of integer values to a 64-bit String.
 	 * @param ints the values to encode
@@ -138,5 +149,16 @@ public class SixtyFourBitStringSupport {
 	    }
 		return Base64.encodeBase64String(bytes);
 	}
+	
+	/**
+	 * Encodes an array of primitive integer values to a 64-bit String.
+	 * @param ints the values to encode
+	 * @return a 64-bit String representation of the values
+	 */
+	public static String encodeIntsToBase64String(int[] ints) {
+		byte[] bytes = new byte[ints.length*4];
+		ByteBuffer.wrap(bytes).asIntBuffer().put(ints);
+		return Base64.encodeBase64String(bytes);
+	}
 
 }
@@ -0,0 +1,100 @@
+package de.mpa.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator lazily loading the spectra of an {@link InputFileReader} one at a time using the
+ * reader's surveyed spectrum positions. Only the spectrum returned last is referenced, so memory
+ * consumption does not grow with the size of the input file.
+ * <p>
+ * Iterators can be split into iterators over disjoint, contiguous ranges of spectra (and
+ * therefore file offsets) to be consumed by parallel workers.
+ */
+public class SpectrumIterator implements Iterator<MascotGenericFile> {
+
+	/**
+	 * The reader providing the spectra.
+	 */
+	private final InputFileReader reader;
+
+	/**
+	 * The index of the next spectrum to be loaded.
+	 */
+	private int index;
+
+	/**
+	 * The index behind the last spectrum to be loaded.
+	 */
+	private final int toIndex;
+
+	/**
+	 * Creates an iterator over the spectra in the specified index range.
+	 * @param reader the surveyed input file reader
+	 * @param fromIndex the index of the first spectrum (inclusive)
+	 * @param toIndex the index of the last spectrum (exclusive)
+	 */
+	public SpectrumIterator(InputFileReader reader, int fromIndex, int toIndex) {
+		this.reader = reader;
+		this.index = fromIndex;
+		this.toIndex = toIndex;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return index < toIndex;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @throws IllegalStateException if the spectrum could not be read
+	 */
+	@Override
+	public MascotGenericFile next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int current = index++;
+		try {
+			return reader.loadSpectrum(current);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not load spectrum #" + current + " of " + reader.getFilename(), e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Returns the number of spectra remaining in this iterator.
+	 * @return the number of remaining spectra
+	 */
+	public int remaining() {
+		return toIndex - index;
+	}
+
+	/**
+	 * Splits the remaining spectra of this iterator into the specified number of iterators over
+	 * contiguous, (almost) equally sized ranges. This iterator should not be used afterwards.
+	 * @param parts the desired number of parts
+	 * @return a list of iterators, possibly less than requested if there are fewer remaining spectra
+	 */
+	public List<SpectrumIterator> split(int parts) {
+		int remaining = this.remaining();
+		parts = Math.max(1, Math.min(parts, remaining));
+		List<SpectrumIterator> iterators = new ArrayList<SpectrumIterator>(parts);
+		int from = index;
+		for (int i = 0; i < parts; i++) {
+			int to = from + remaining / parts + ((i < remaining % parts) ? 1 : 0);
+			iterators.add(new SpectrumIterator(reader, from, to));
+			from = to;
+		}
+		return iterators;
+	}
+
+}
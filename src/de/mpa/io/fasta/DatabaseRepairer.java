@@ -45,7 +45,8 @@ public class DatabaseRepairer {
 		try {
 			fl = FastaLoader.getInstance();
 			fl.setFastaFile(new File(args[0]));
-			fl.setIndexFile(new File(args[0] + ".fb"));
+			File indexFile = new File(args[0] + FastaIndex.EXTENSION);
+			fl.setIndexFile(indexFile.exists() ? indexFile : new File(args[0] + ".fb"));
 		} catch (Exception e) {
 			e.printStackTrace();
 			return;
@@ -0,0 +1,470 @@
+package de.mpa.io.fasta;
+
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped binary index of a FASTA file mapping protein accessions to
+ * the byte ranges of their records.
+ * <p>
+ * The index consists of a header followed by five sections: the 64-bit hashes
+ * of all accessions in ascending order, the start and end offsets of the
+ * corresponding FASTA records, the offsets of the accessions in the string
+ * pool and the string pool itself, holding each accession as its UTF-8 byte
+ * length (unsigned short) followed by its bytes. Accessions are looked up by
+ * binary search over the hashes, hash collisions are resolved by comparing
+ * the pooled accessions. The sections are mapped into memory and are never
+ * copied onto the heap, so opening an index takes constant time.
+ */
+public class FastaIndex {
+
+	/**
+	 * The file extension of binary FASTA index files.
+	 */
+	public static final String EXTENSION = ".fidx";
+
+	/**
+	 * The magic number starting every index file ("FIDX").
+	 */
+	private static final int MAGIC = 0x46494458;
+
+	/**
+	 * The current format version.
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * The header size in bytes: magic, version, entry count, FASTA file length and string pool size.
+	 */
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+
+	/**
+	 * The character set of the pooled accessions.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The file channel of the index file.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The number of indexed entries.
+	 */
+	private int size;
+
+	/**
+	 * The length of the indexed FASTA file.
+	 */
+	private long fastaLength;
+
+	/**
+	 * The sorted accession hashes.
+	 */
+	private LongBuffer hashes;
+
+	/**
+	 * The record start offsets.
+	 */
+	private LongBuffer starts;
+
+	/**
+	 * The record end offsets.
+	 */
+	private LongBuffer ends;
+
+	/**
+	 * The offsets of the accessions in the string pool.
+	 */
+	private IntBuffer poolOffsets;
+
+	/**
+	 * The string pool.
+	 */
+	private ByteBuffer pool;
+
+	/**
+	 * Opens the specified index file.
+	 * @param indexFile the index file
+	 * @throws IOException if the file cannot be read or is not a valid index file
+	 */
+	public FastaIndex(File indexFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+		channel = raf.getChannel();
+		try {
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0L, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a FASTA index file: " + indexFile);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported FASTA index version " + version + ".");
+			}
+			size = header.getInt();
+			fastaLength = header.getLong();
+			long poolSize = header.getLong();
+
+			long pos = HEADER_SIZE;
+			hashes = channel.map(MapMode.READ_ONLY, pos, 8L * size).asLongBuffer();
+			pos += 8L * size;
+			starts = channel.map(MapMode.READ_ONLY, pos, 8L * size).asLongBuffer();
+			pos += 8L * size;
+			ends = channel.map(MapMode.READ_ONLY, pos, 8L * size).asLongBuffer();
+			pos += 8L * size;
+			poolOffsets = channel.map(MapMode.READ_ONLY, pos, 4L * size).asIntBuffer();
+			pos += 4L * size;
+			pool = channel.map(MapMode.READ_ONLY, pos, poolSize);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns whether the specified file is a binary FASTA index file.
+	 * @param file the file
+	 * @return <code>true</code> if the file starts with the index magic number
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isIndexFile(File file) throws IOException {
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.readInt() == MAGIC;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the position of the specified accession in the index.
+	 * @param accession the protein accession
+	 * @return the entry index or <code>-1</code> if the accession is not indexed
+	 */
+	private int indexOf(String accession) {
+		long hash = hash(accession);
+		int low = 0, high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midHash = hashes.get(mid);
+			if (midHash < hash) {
+				low = mid + 1;
+			} else if (midHash > hash) {
+				high = mid - 1;
+			} else {
+				// Check all entries sharing the hash
+				int first = mid;
+				while ((first > 0) && (hashes.get(first - 1) == hash)) {
+					first--;
+				}
+				byte[] bytes = accession.getBytes(UTF8);
+				for (int i = first; (i < size) && (hashes.get(i) == hash); i++) {
+					if (matches(i, bytes)) {
+						return i;
+					}
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the start offset of the FASTA record of the specified accession.
+	 * @param accession the protein accession
+	 * @return the start offset or <code>-1</code> if the accession is not indexed
+	 */
+	public long getStart(String accession) {
+		int index = indexOf(accession);
+		return (index < 0) ? -1L : starts.get(index);
+	}
+
+	/**
+	 * Returns the end offset (exclusive) of the FASTA record of the specified accession.
+	 * @param accession the protein accession
+	 * @return the end offset or <code>-1</code> if the accession is not indexed
+	 */
+	public long getEnd(String accession) {
+		int index = indexOf(accession);
+		return (index < 0) ? -1L : ends.get(index);
+	}
+
+	/**
+	 * Returns whether the specified accession is indexed.
+	 * @param accession the protein accession
+	 * @return <code>true</code> if the accession is indexed
+	 */
+	public boolean contains(String accession) {
+		return indexOf(accession) >= 0;
+	}
+
+	/**
+	 * Returns whether the pooled accession of the entry at the specified
+	 * position equals the specified UTF-8 encoded accession.
+	 */
+	private boolean matches(int index, byte[] bytes) {
+		int offset = poolOffsets.get(index);
+		if ((pool.getShort(offset) & 0xFFFF) != bytes.length) {
+			return false;
+		}
+		offset += 2;
+		for (int i = 0; i < bytes.length; i++) {
+			if (pool.get(offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of indexed entries.
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the length of the indexed FASTA file at the time of indexing.
+	 * @return the FASTA file length in bytes
+	 */
+	public long getFastaLength() {
+		return fastaLength;
+	}
+
+	/**
+	 * Closes the index file. Lookups must not be performed afterwards.
+	 * @throws IOException if closing the file fails
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Computes the 64-bit FNV-1a hash of the specified accession.
+	 * @param accession the accession
+	 * @return the hash value
+	 */
+	static long hash(String accession) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < accession.length(); i++) {
+			hash ^= accession.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes an index file for the specified accession-to-start offset
+	 * mapping. The end of each record is the start of the following record
+	 * or the end of the FASTA file.
+	 * @param acc2pos the accession-to-record start mapping
+	 * @param fastaLength the length of the FASTA file
+	 * @param indexFile the index file to write
+	 * @throws IOException if writing the index file fails
+	 */
+	public static void write(TObjectLongMap<String> acc2pos, long fastaLength, File indexFile) throws IOException {
+		int size = acc2pos.size();
+		String[] accessions = new String[size];
+		long[] starts = new long[size];
+		TObjectLongIterator<String> iter = acc2pos.iterator();
+		for (int i = 0; i < size; i++) {
+			iter.advance();
+			accessions[i] = iter.key();
+			starts[i] = iter.value();
+		}
+		write(accessions, starts, fastaLength, indexFile);
+	}
+
+	/**
+	 * Writes an index file for the specified accessions and record start
+	 * offsets. The end of each record is the start of the following record
+	 * or the end of the FASTA file.
+	 * @param accessions the accessions
+	 * @param starts the record start offsets, in the same order as the accessions
+	 * @param fastaLength the length of the FASTA file
+	 * @param indexFile the index file to write
+	 * @throws IOException if writing the index file fails
+	 */
+	public static void write(String[] accessions, long[] starts, long fastaLength, File indexFile) throws IOException {
+		int size = accessions.length;
+
+		// Determine record ends from the sorted distinct record starts
+		long[] sortedStarts = starts.clone();
+		Arrays.sort(sortedStarts);
+		long[] ends = new long[size];
+		for (int i = 0; i < size; i++) {
+			int pos = Arrays.binarySearch(sortedStarts, starts[i]);
+			while ((pos < size) && (sortedStarts[pos] == starts[i])) {
+				pos++;
+			}
+			ends[i] = (pos < size) ? sortedStarts[pos] : fastaLength;
+		}
+
+		// Sort entries by accession hash
+		long[] hashes = new long[size];
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			hashes[i] = hash(accessions[i]);
+			order[i] = i;
+		}
+		sort(hashes, order, 0, size - 1);
+
+		// Build string pool
+		byte[][] encoded = new byte[size][];
+		long poolSize = 0L;
+		for (int i = 0; i < size; i++) {
+			encoded[i] = accessions[order[i]].getBytes(UTF8);
+			if (encoded[i].length > 0xFFFF) {
+				throw new IOException("Accession too long: " + accessions[order[i]]);
+			}
+			poolSize += 2 + encoded[i].length;
+		}
+		if (poolSize > Integer.MAX_VALUE) {
+			throw new IOException("Too many accessions for a single index file.");
+		}
+
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 20));
+		try {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(size);
+			dos.writeLong(fastaLength);
+			dos.writeLong(poolSize);
+			for (int i = 0; i < size; i++) {
+				dos.writeLong(hashes[i]);
+			}
+			for (int i = 0; i < size; i++) {
+				dos.writeLong(starts[order[i]]);
+			}
+			for (int i = 0; i < size; i++) {
+				dos.writeLong(ends[order[i]]);
+			}
+			int poolOffset = 0;
+			for (int i = 0; i < size; i++) {
+				dos.writeInt(poolOffset);
+				poolOffset += 2 + encoded[i].length;
+			}
+			for (int i = 0; i < size; i++) {
+				dos.writeShort(encoded[i].length);
+				dos.write(encoded[i]);
+			}
+		} finally {
+			dos.close();
+		}
+	}
+
+	/**
+	 * Sorts the specified range of keys in ascending order, applying the same
+	 * permutation to the specified values. Avoids boxing millions of indices.
+	 */
+	private static void sort(long[] keys, int[] values, int low, int high) {
+		while (high - low > 16) {
+			long pivot = keys[(low + high) >>> 1];
+			int i = low, j = high;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					long key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					int value = values[i];
+					values[i] = values[j];
+					values[j] = value;
+					i++;
+					j--;
+				}
+			}
+			// Recurse into the smaller partition to bound the stack depth
+			if (j - low < high - i) {
+				sort(keys, values, low, j);
+				low = i;
+			} else {
+				sort(keys, values, i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			long key = keys[i];
+			int value = values[i];
+			int j = i - 1;
+			while ((j >= low) && (keys[j] > key)) {
+				keys[j + 1] = keys[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			values[j + 1] = value;
+		}
+	}
+
+	/**
+	 * Converts a serialized accession-to-position map as written by
+	 * {@link FastaLoader#writeIndexFile()} into a binary index file.
+	 * @param fbFile the serialized index file
+	 * @param fastaFile the indexed FASTA file
+	 * @param indexFile the binary index file to write
+	 * @throws IOException if reading or writing fails
+	 * @throws ClassNotFoundException if the serialized index cannot be read
+	 */
+	public static void convert(File fbFile, File fastaFile, File indexFile) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(fbFile));
+		try {
+			@SuppressWarnings("unchecked")
+			TObjectLongHashMap<String> acc2pos = (TObjectLongHashMap<String>) ois.readObject();
+			write(acc2pos, fastaFile.length(), indexFile);
+		} finally {
+			ois.close();
+		}
+	}
+
+	/**
+	 * Converts the serialized index of the specified FASTA file
+	 * (<code>&lt;fasta&gt;.fb</code>) into a binary index file
+	 * (<code>&lt;fasta&gt;.fidx</code>).
+	 * @param args the path of the FASTA file
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("No file provided.");
+		} else {
+			File fastaFile = new File(args[0]);
+			File fbFile = new File(fastaFile.getPath() + ".fb");
+			File indexFile = new File(fastaFile.getPath() + EXTENSION);
+			try {
+				System.out.print("Converting " + fbFile + "... ");
+				long startTime = System.currentTimeMillis();
+				convert(fbFile, fastaFile, indexFile);
+				System.out.println("done (" + (System.currentTimeMillis() - startTime) + " ms).");
+			} catch (Exception e) {
+				System.err.println("aborted.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,400 @@
+package de.mpa.io.fasta;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.compomics.util.protein.Header;
+
+/**
+ * Parallel indexer creating a {@link FastaIndex} for a FASTA file.
+ * <p>
+ * The file is split into byte ranges aligned to the start of protein
+ * records, which are scanned concurrently. Accessions of UniProt-style
+ * headers (<code>&gt;DB|ACCESSION|...</code>) are extracted directly from the
+ * header bytes, other headers are parsed by {@link Header#parseFromFASTA(String)}.
+ * The index is written once after all ranges have been scanned. As with
+ * {@link FastaLoader#loadFastaFile()}, the last record wins for duplicate
+ * accessions.
+ */
+public class FastaIndexer {
+
+	/**
+	 * The size of the read buffer of each range scanner.
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The default minimum size of a byte range.
+	 */
+	private static final long MIN_RANGE_SIZE = 1L << 22;
+
+	/**
+	 * The character set used for decoding headers.
+	 */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	/**
+	 * The FASTA file.
+	 */
+	private File fastaFile;
+
+	/**
+	 * The number of indexing threads.
+	 */
+	private int threadCount;
+
+	/**
+	 * The minimum size of a byte range.
+	 */
+	private long minRangeSize = MIN_RANGE_SIZE;
+
+	/**
+	 * The number of incorrectly formatted headers encountered.
+	 */
+	private int malformedCount;
+
+	/**
+	 * Constructs an indexer for the specified FASTA file using one thread per
+	 * available processor.
+	 * @param fastaFile the FASTA file
+	 */
+	public FastaIndexer(File fastaFile) {
+		this.fastaFile = fastaFile;
+		this.threadCount = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets the number of indexing threads.
+	 * @param threadCount the number of threads
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * Sets the minimum size of the byte ranges scanned concurrently.
+	 * @param minRangeSize the minimum range size in bytes
+	 */
+	void setMinRangeSize(long minRangeSize) {
+		this.minRangeSize = Math.max(1L, minRangeSize);
+	}
+
+	/**
+	 * Returns the number of headers not following the
+	 * <code>&gt;DB|ACCESSION|SHORT_DESCRIPTION FULL_DESCRIPTION</code> format
+	 * encountered by the last indexing run.
+	 * @return the number of incorrectly formatted headers
+	 */
+	public int getMalformedCount() {
+		return malformedCount;
+	}
+
+	/**
+	 * Scans the FASTA file and returns the accession-to-position map.
+	 * @return the accession-to-position map
+	 * @throws IOException if reading the FASTA file fails
+	 */
+	public TObjectLongMap<String> createIndexMap() throws IOException {
+		FileInputStream fis = new FileInputStream(fastaFile);
+		FileChannel channel = fis.getChannel();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			long[] boundaries = getBoundaries(channel);
+			List<RangeScanner> scanners = new ArrayList<RangeScanner>();
+			for (int i = 0; i < boundaries.length - 1; i++) {
+				if (boundaries[i] < boundaries[i + 1]) {
+					scanners.add(new RangeScanner(channel, boundaries[i], boundaries[i + 1]));
+				}
+			}
+			List<Future<RangeScanner>> futures = executor.invokeAll(scanners);
+
+			// Merge results in file order
+			int size = 0;
+			for (RangeScanner scanner : scanners) {
+				size += scanner.accessions.size();
+			}
+			TObjectLongMap<String> acc2pos = new TObjectLongHashMap<String>(size);
+			malformedCount = 0;
+			for (Future<RangeScanner> future : futures) {
+				RangeScanner scanner = future.get();
+				for (int i = 0; i < scanner.accessions.size(); i++) {
+					acc2pos.put(scanner.accessions.get(i), scanner.positions.get(i));
+				}
+				malformedCount += scanner.malformedCount;
+			}
+			return acc2pos;
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+			fis.close();
+		}
+	}
+
+	/**
+	 * Scans the FASTA file and writes its binary index.
+	 * @param indexFile the index file to write
+	 * @return the number of indexed entries
+	 * @throws IOException if reading the FASTA file or writing the index fails
+	 */
+	public int index(File indexFile) throws IOException {
+		TObjectLongMap<String> acc2pos = createIndexMap();
+		FastaIndex.write(acc2pos, fastaFile.length(), indexFile);
+		return acc2pos.size();
+	}
+
+	/**
+	 * Splits the file into byte ranges of similar size, each starting at a
+	 * record header or at the file start.
+	 */
+	private long[] getBoundaries(FileChannel channel) throws IOException {
+		long length = channel.size();
+		int rangeCount = (int) Math.max(1L, Math.min(4L * threadCount, length / minRangeSize));
+		long[] boundaries = new long[rangeCount + 1];
+		ByteBuffer buffer = ByteBuffer.allocate(8192);
+		for (int i = 1; i < rangeCount; i++) {
+			// Find the next line starting with '>'
+			long pos = Math.max(boundaries[i - 1], (length * i / rangeCount) - 1L);
+			long boundary = length;
+			boolean newline = false;
+			search:
+			while (pos < length) {
+				buffer.clear();
+				int read = channel.read(buffer, pos);
+				if (read <= 0) {
+					break;
+				}
+				for (int j = 0; j < read; j++) {
+					byte b = buffer.get(j);
+					if (newline && (b == '>')) {
+						boundary = pos + j;
+						break search;
+					}
+					newline = (b == '\n');
+				}
+				pos += read;
+			}
+			boundaries[i] = boundary;
+		}
+		boundaries[rangeCount] = length;
+		return boundaries;
+	}
+
+	/**
+	 * Extracts the accession from the specified header line.
+	 * @param header the header line including the leading '&gt;'
+	 * @return the accession
+	 */
+	static String extractAccession(String header) {
+		// Fast path for UniProt headers, other databases are left to the compomics parser
+		if ((header.length() > 4) && (header.charAt(3) == '|') && isUniProtCode(header)) {
+			int end = header.indexOf('|', 4);
+			if (end > 4) {
+				return header.substring(4, end);
+			}
+		}
+		Header parsed = Header.parseFromFASTA(header);
+		return (parsed == null) ? null : parsed.getAccession();
+	}
+
+	/**
+	 * Returns whether the specified header starts with one of the database codes
+	 * the compomics {@link Header} parser treats as UniProt, i.e. <code>&gt;sp|</code>,
+	 * <code>&gt;tr|</code> or <code>&gt;sw|</code>.
+	 */
+	private static boolean isUniProtCode(String header) {
+		return header.startsWith(">sp|") || header.startsWith(">tr|") || header.startsWith(">sw|");
+	}
+
+	/**
+	 * Returns whether the specified header follows the
+	 * <code>&gt;DB|ACCESSION|SHORT_DESCRIPTION FULL_DESCRIPTION</code> format.
+	 */
+	static boolean isWellFormed(String header) {
+		if ((header.length() < 5) || (header.charAt(3) != '|')
+				|| !isWordChar(header.charAt(1)) || !isWordChar(header.charAt(2))) {
+			return false;
+		}
+		int end = header.indexOf('|', 4);
+		if (end < 0) {
+			return false;
+		}
+		int space = header.indexOf(' ', end + 1);
+		if (space < 0) {
+			return false;
+		}
+		// Short description must contain an underscore which is neither its first nor its last character
+		int underscore = header.indexOf('_', end + 2);
+		return (underscore >= 0) && (underscore < space - 1) && !containsWhitespace(header, end + 1, space);
+	}
+
+	/**
+	 * Returns whether the specified character range contains whitespace.
+	 */
+	private static boolean containsWhitespace(String s, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (Character.isWhitespace(s.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the specified character is a regular expression word character.
+	 */
+	private static boolean isWordChar(char c) {
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '_');
+	}
+
+	/**
+	 * Task scanning a byte range of the FASTA file for record headers.
+	 */
+	private class RangeScanner implements Callable<RangeScanner> {
+
+		/**
+		 * The shared file channel.
+		 */
+		private FileChannel channel;
+
+		/**
+		 * The start position of the range.
+		 */
+		private long start;
+
+		/**
+		 * The end position (exclusive) of the range.
+		 */
+		private long end;
+
+		/**
+		 * The accessions found in the range.
+		 */
+		private List<String> accessions = new ArrayList<String>();
+
+		/**
+		 * The header positions of the accessions.
+		 */
+		private TLongArrayList positions = new TLongArrayList();
+
+		/**
+		 * The number of incorrectly formatted headers found in the range.
+		 */
+		private int malformedCount;
+
+		/**
+		 * Constructs a scanner for the specified byte range.
+		 */
+		public RangeScanner(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public RangeScanner call() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, end - start));
+			byte[] bytes = buffer.array();
+			byte[] header = new byte[256];
+			int headerLength = -1;
+			long headerStart = 0L;
+			boolean newline = true;
+			long pos = start;
+			while (pos < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - pos));
+				int read = channel.read(buffer, pos);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					byte b = bytes[i];
+					if (headerLength >= 0) {
+						// Inside header line
+						if (b == '\n') {
+							addHeader(header, headerLength, headerStart);
+							headerLength = -1;
+						} else {
+							if (headerLength == header.length) {
+								byte[] larger = new byte[2 * header.length];
+								System.arraycopy(header, 0, larger, 0, headerLength);
+								header = larger;
+							}
+							header[headerLength++] = b;
+						}
+					} else if (newline && (b == '>')) {
+						headerStart = pos + i;
+						header[0] = b;
+						headerLength = 1;
+					}
+					newline = (b == '\n');
+				}
+				pos += read;
+			}
+			if (headerLength >= 0) {
+				addHeader(header, headerLength, headerStart);
+			}
+			return this;
+		}
+
+		/**
+		 * Extracts the accession of the specified header and stores it.
+		 */
+		private void addHeader(byte[] header, int length, long position) {
+			String line = new String(header, 0, length, ISO_8859_1).trim();
+			if (!isWellFormed(line)) {
+				malformedCount++;
+			}
+			accessions.add(extractAccession(line));
+			positions.add(position);
+		}
+
+	}
+
+	/**
+	 * Indexes the specified FASTA file, writing the binary index to
+	 * <code>&lt;fasta&gt;.fidx</code>.
+	 * @param args the path of the FASTA file and optionally the number of threads
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("No file provided.");
+		} else {
+			File fastaFile = new File(args[0]);
+			FastaIndexer indexer = new FastaIndexer(fastaFile);
+			if (args.length > 1) {
+				indexer.setThreadCount(Integer.parseInt(args[1]));
+			}
+			try {
+				System.out.print("Indexing file... ");
+				long startTime = System.currentTimeMillis();
+				int count = indexer.index(new File(fastaFile.getAbsolutePath() + FastaIndex.EXTENSION));
+				System.out.println("done (" + count + " entries, " + (System.currentTimeMillis() - startTime) + " ms).");
+				if (indexer.getMalformedCount() > 0) {
+					System.out.println(indexer.getMalformedCount() + " incorrectly formatted protein headers (Please use: >DB|ACCESSION|SHORT_DESCRIPTION FULL_DESCRIPTION)");
+				}
+			} catch (Exception e) {
+				System.err.println("aborted.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -11,6 +11,16 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,6 +49,11 @@ public class FastaLoader {
 	 */
 	private TObjectLongMap<String> acc2pos;
 	
+	/**
+	 * The memory-mapped binary index, used in place of the accession-to-position map if available.
+	 */
+	private FastaIndex fastaIndex;
+	
 	/**
 	 * The random access file instance.
 	 */
@@ -59,6 +74,31 @@ public class FastaLoader {
 	 */
 	private boolean hasChanged;
 	
+	/**
+	 * The shared file channel used for reading protein records.
+	 */
+	private FileChannel channel;
+	
+	/**
+	 * Cache of recently fetched proteins.
+	 */
+	private Map<String, Protein> proteinCache = createCache();
+	
+	/**
+	 * The maximum number of cached proteins.
+	 */
+	private static final int CACHE_SIZE = 10000;
+	
+	/**
+	 * The initial read size for records of unknown length.
+	 */
+	private static final int CHUNK_SIZE = 8192;
+	
+	/**
+	 * The character set used for decoding FASTA records.
+	 */
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	
 	/**
 	 * UniProt Query Service object.
 	 */
@@ -147,7 +187,9 @@ public class FastaLoader {
 	}
 	
 	/**
-	 * Returns a specific protein from the FASTA file.
+	 * Returns a specific protein from the FASTA file. Recently fetched
+	 * proteins are served from a cache. This method may be called
+	 * concurrently.
 	 * 
 	 * @param id The protein identifier. May be the UniProt identifier or accession number.
 	 * @return The Protein object.
@@ -155,47 +197,200 @@ public class FastaLoader {
 	 */
 	public Protein getProteinFromFasta(String id) throws IOException {
 		// No mapping provided.
-		if (acc2pos == null) {
+		if (!initIndex()) {
+			return getProteinFromWebService(id);
+		}
+		Protein protein = proteinCache.get(id);
+		if (protein == null) {
+			long start = getStart(id);
+			if (start < 0L)  {
+				System.out.println("Provided string does not match any protein entry: " + id);
+				return null;
+			}
+			protein = readProtein(start, getEnd(id));
+			proteinCache.put(id, protein);
+		}
+		return protein;
+	}
+	
+	/**
+	 * Returns the specified proteins from the FASTA file. The records are
+	 * read in order of their file positions and the fetched proteins are
+	 * added to the cache, so this method may also be used to prefetch
+	 * proteins before retrieving them one by one.
+	 * 
+	 * @param ids The protein identifiers.
+	 * @return The map of identifiers to Protein objects, identifiers not found are omitted.
+	 * @throws IOException
+	 */
+	public Map<String, Protein> getProteins(Collection<String> ids) throws IOException {
+		Map<String, Protein> proteins = new LinkedHashMap<String, Protein>();
+		if (!initIndex()) {
+			for (String id : ids) {
+				proteins.put(id, getProteinFromWebService(id));
+			}
+			return proteins;
+		}
+		
+		// Collect uncached proteins and sort them by file position
+		List<String> uncached = new ArrayList<String>();
+		final TObjectLongMap<String> starts = new TObjectLongHashMap<String>();
+		for (String id : ids) {
+			if (proteins.containsKey(id)) {
+				continue;
+			}
+			Protein protein = proteinCache.get(id);
+			if (protein != null) {
+				proteins.put(id, protein);
+			} else if (!starts.containsKey(id)) {
+				long start = getStart(id);
+				if (start < 0L) {
+					System.out.println("Provided string does not match any protein entry: " + id);
+				} else {
+					starts.put(id, start);
+					uncached.add(id);
+				}
+			}
+		}
+		Collections.sort(uncached, new Comparator<String>() {
+			@Override
+			public int compare(String id1, String id2) {
+				long start1 = starts.get(id1), start2 = starts.get(id2);
+				return (start1 < start2) ? -1 : ((start1 == start2) ? 0 : 1);
+			}
+		});
+		for (String id : uncached) {
+			Protein protein = readProtein(starts.get(id), getEnd(id));
+			proteinCache.put(id, protein);
+			proteins.put(id, protein);
+		}
+		return proteins;
+	}
+	
+	/**
+	 * Ensures that the index has been loaded.
+	 * @return <code>true</code> if an index is available, <code>false</code> if no index file has been set
+	 * @throws IOException
+	 */
+	private synchronized boolean initIndex() throws IOException {
+		if ((acc2pos == null) && (fastaIndex == null)) {
 			// No index file given.
 			if ((indexFile == null) || (file == null)) {
-				return getProteinFromWebService(id);
-			} else {
-				try {
-					readIndexFile();
-				} catch (ClassNotFoundException e) {
-					e.printStackTrace();
-					return null;
-				}
+				return false;
+			}
+			try {
+				readIndexFile();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
 			}
 		}
-		Long pos = acc2pos.get(id);
-
-		if (!acc2pos.containsKey(id) || pos == null)  {
-				System.out.println("Provided string does not match any protein entry: " + id);
-				return null;
+		if (channel == null) {
+			channel = new FileInputStream(file).getChannel();
 		}
-		if (raf == null) {
-			raf = new RandomAccessFile(file, "r");
+		return true;
+	}
+	
+	/**
+	 * Returns the start position of the FASTA record of the specified protein.
+	 * @param id The protein identifier.
+	 * @return The start position or <code>-1</code> if the protein is not indexed.
+	 */
+	private long getStart(String id) {
+		if (fastaIndex != null) {
+			return fastaIndex.getStart(id);
 		}
-
-		raf.seek(pos);
-		String line = "";
-		String temp = "";
-
-		String header = "";
-		while ((line = raf.readLine()) != null) {
-			line = line.trim();
-
-			if (line.startsWith(">")) {
-				if (!temp.equals("")) {
+		return acc2pos.containsKey(id) ? acc2pos.get(id) : -1L;
+	}
+	
+	/**
+	 * Returns the end position of the FASTA record of the specified protein.
+	 * @param id The protein identifier.
+	 * @return The end position or <code>-1</code> if it is unknown.
+	 */
+	private long getEnd(String id) {
+		return (fastaIndex != null) ? fastaIndex.getEnd(id) : -1L;
+	}
+	
+	/**
+	 * Reads the FASTA record in the specified byte range using positioned
+	 * reads, which do not interfere with concurrent callers. If the end of
+	 * the record is unknown, the file is read in chunks until the next
+	 * record starts.
+	 * @param start The start position of the record.
+	 * @param end The end position of the record or <code>-1</code> if unknown.
+	 * @return The Protein object.
+	 * @throws IOException
+	 */
+	private Protein readProtein(long start, long end) throws IOException {
+		FileChannel channel = this.channel;
+		long length = channel.size();
+		if ((end < 0L) || (end > length)) {
+			end = length;
+		}
+		int size = (int) Math.min(end - start, (end == length) ? CHUNK_SIZE : Integer.MAX_VALUE);
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(size, 0));
+		while (true) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) < 0) {
 					break;
 				}
-				header = line;
-			} else {
-				temp += line;
+			}
+			int recordEnd = findRecordEnd(buffer.array(), buffer.position());
+			if ((recordEnd >= 0) || buffer.hasRemaining() || (start + buffer.position() >= end)) {
+				return parseProtein(buffer.array(), (recordEnd >= 0) ? recordEnd : buffer.position());
+			}
+			// Record exceeds the buffer, continue reading with a larger one
+			ByteBuffer larger = ByteBuffer.allocate((int) Math.min(2L * buffer.capacity(), end - start));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+	}
+	
+	/**
+	 * Returns the offset of the header line of the record following the
+	 * first record in the specified bytes.
+	 * @return The offset or <code>-1</code> if the bytes contain no further record.
+	 */
+	private static int findRecordEnd(byte[] bytes, int length) {
+		boolean inSequence = false;
+		for (int i = 0; i < length; i++) {
+			if ((i == 0) || (bytes[i - 1] == '\n')) {
+				if (bytes[i] == '>') {
+					if (inSequence) {
+						return i;
+					}
+				} else if (!Character.isWhitespace(bytes[i])) {
+					inSequence = true;
+				}
 			}
 		}
-		return new Protein(header, temp);
+		return -1;
+	}
+	
+	/**
+	 * Parses a FASTA record consisting of a header line followed by sequence
+	 * lines.
+	 */
+	private static Protein parseProtein(byte[] bytes, int length) {
+		String header = "";
+		StringBuilder sequence = new StringBuilder(length);
+		int lineStart = 0;
+		for (int i = 0; i <= length; i++) {
+			if ((i == length) || (bytes[i] == '\n')) {
+				String line = new String(bytes, lineStart, i - lineStart, ISO_8859_1).trim();
+				if (line.startsWith(">")) {
+					if (sequence.length() > 0) {
+						break;
+					}
+					header = line;
+				} else {
+					sequence.append(line);
+				}
+				lineStart = i + 1;
+			}
+		}
+		return new Protein(header, sequence.toString());
 	}
 	
 	/**
@@ -228,13 +423,33 @@ public class FastaLoader {
 	}
 	
 	/**
-	 * Read the FASTA index file and stores its contents to memory.
+	 * Read the FASTA index file and stores its contents to memory. Binary
+	 * index files are memory-mapped instead of being read into memory. A
+	 * binary index which does not match the length of the FASTA file is
+	 * out of date and will be rebuilt.
 	 * @throws IOException
 	 * @throws ClassNotFoundException
 	 */
 	@SuppressWarnings("unchecked")
 	public void readIndexFile() throws IOException, ClassNotFoundException {
 		if(hasChanged) {
+			closeIndex();
+			if (FastaIndex.isIndexFile(indexFile)) {
+				fastaIndex = new FastaIndex(indexFile);
+				if ((file != null) && (fastaIndex.getFastaLength() != file.length())) {
+					// FASTA file has been modified after indexing, record offsets are invalid
+					fastaIndex.close();
+					fastaIndex = null;
+					try {
+						new FastaIndexer(file).index(indexFile);
+					} catch (IOException e) {
+						throw new IOException("FASTA index " + indexFile + " is out of date and could not be rebuilt.", e);
+					}
+					fastaIndex = new FastaIndex(indexFile);
+				}
+				acc2pos = null;
+				return;
+			}
 			FileInputStream fis = new FileInputStream(indexFile);
 			ObjectInputStream ois = new ObjectInputStream(fis);
 			
@@ -245,6 +460,35 @@ public class FastaLoader {
 	
 	}
 
+	/**
+	 * Closes the memory-mapped binary index and the shared file channel, if
+	 * any, and clears the protein cache.
+	 */
+	private synchronized void closeIndex() throws IOException {
+		if (fastaIndex != null) {
+			fastaIndex.close();
+			fastaIndex = null;
+		}
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		proteinCache.clear();
+	}
+	
+	/**
+	 * Creates a synchronized cache evicting the least recently used proteins.
+	 */
+	private static Map<String, Protein> createCache() {
+		return Collections.synchronizedMap(new LinkedHashMap<String, Protein>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Protein> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		});
+	}
+
 	/**
 	 * Loads the FASTA file by random access and maps accessions of found 
 	 * protein blocks to their respective byte positions in the file.
@@ -309,7 +553,7 @@ public class FastaLoader {
 
 	/**
 	 * Returns the accession-to-position index map.
-	 * @return indexMap The index map. 
+	 * @return indexMap The index map or <code>null</code> if a binary index is used. 
 	 */
 	public TObjectLongMap<String> getIndexMap() {
 		return acc2pos;
@@ -323,6 +567,11 @@ public class FastaLoader {
 		this.file = file;
 		// reset map on change of FASTA file
 		this.acc2pos = null;
+		try {
+			closeIndex();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 	
 	
@@ -345,18 +594,28 @@ public class FastaLoader {
 			hasChanged = true;
 			// reset map on change of index file
 			this.acc2pos = null;
+			try {
+				closeIndex();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
 
 	/**
-	 * Utility method to load a specified FASTA file by hand.
+	 * Utility method to load a specified FASTA file by hand. The binary index
+	 * is created by the parallel {@link FastaIndexer} unless the
+	 * <code>-legacy</code> option is given, which additionally creates the
+	 * serialized index.
 	 * 
-	 * @param args String argument containing the path pointing to a FASTA file.
+	 * @param args String argument containing the path pointing to a FASTA file, optionally followed by <code>-legacy</code>.
 	 */
 	public static void main(String[] args) {
 		if (args.length < 1) {
 			System.err.println("No file provided.");
+		} else if ((args.length < 2) || !args[1].equals("-legacy")) {
+			FastaIndexer.main(new String[] { args[0] });
 		} else {
 			File file = new File(args[0]);
 			FastaLoader fastaLoader = FastaLoader.getInstance();
@@ -366,6 +625,8 @@ public class FastaLoader {
 				fastaLoader.loadFastaFile();
 				System.out.print(" done.\nWriting final output... ");
 				fastaLoader.writeIndexFile();
+				System.out.print("done.\nWriting binary index... ");
+				FastaIndex.convert(fastaLoader.getIndexFile(), file, new File(file.getAbsolutePath() + FastaIndex.EXTENSION));
 				System.out.println("done.");
 			} catch (Exception e) {
 				System.err.println("aborted.");
@@ -379,7 +640,7 @@ public class FastaLoader {
 	 * @return number of entries
 	 */
 	public int getNumberOfEntries() {
-		return acc2pos.size();
+		return (fastaIndex != null) ? fastaIndex.size() : acc2pos.size();
 	}
 	
 }
@@ -11,7 +11,6 @@ import java.io.LineNumberReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -314,41 +313,32 @@ public class FastaUtilities {
 		return peptideSet;
 	}
 	
+	/**
+	 * Maps peptides to the headers of all proteins of the specified FASTA
+	 * file containing them.
+	 * @param fastaFile FASTA file
+	 * @param peptides Set of peptide sequences
+	 * @return Mapping from peptide string to multiple protein headers.
+	 */
 	public static Map<String, Set<String>> matchPeptides(File fastaFile, Set<String> peptides) {
+		return matchPeptides(fastaFile, peptides, false);
+	}
+	
+	/**
+	 * Maps peptides to the headers of all proteins of the specified FASTA
+	 * file containing them, see {@link PeptideMapper}.
+	 * @param fastaFile FASTA file
+	 * @param peptides Set of peptide sequences
+	 * @param ilEquivalent <code>true</code> if isoleucine and leucine shall be treated as equivalent
+	 * @return Mapping from peptide string to multiple protein headers.
+	 */
+	public static Map<String, Set<String>> matchPeptides(File fastaFile, Set<String> peptides, boolean ilEquivalent) {
 		Map<String, Set<String>> multiMap = new HashMap<String, Set<String>>();
 		try {
-			final BufferedReader reader = new BufferedReader(new FileReader(fastaFile));
-			String nextLine;
-			boolean firstline = true;
-			StringBuffer stringBf = new StringBuffer();
-			String header = null;
-			int counter = 0;
-			while ((nextLine = reader.readLine()) != null) {
-						if (nextLine.length() > 0 && nextLine.charAt(0) == '>') {
-							if (!firstline) {
-								String proteinSequence = stringBf.toString();
-								Iterator<String> iterator = peptides.iterator();
-								counter++;
-								if (counter % 10000 == 0) System.out.println(counter);
-								while (iterator.hasNext()) {
-									String peptide = iterator.next();
-									if (proteinSequence.contains(peptide)) {
-										addPeptideToMultiMap(multiMap, peptide, header);
-									}
-								}
-							} else {
-								header = nextLine;
-								firstline = false;
-							}
-							stringBf = new StringBuffer(); 		
-						} else {
-							stringBf.append(nextLine);
-						}
-					}
-			reader.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			multiMap = new PeptideMapper(peptides, ilEquivalent).map(fastaFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 		return multiMap;
 	}
 	
@@ -0,0 +1,361 @@
+package de.mpa.io.fasta;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Maps peptides to the proteins containing them using an Aho-Corasick
+ * automaton built once for all peptides. Each protein sequence is scanned in
+ * a single pass regardless of the number of peptides. FASTA files are
+ * streamed and their entries matched by concurrent worker threads.
+ * <p>
+ * Peptides are matched against upper-case residue letters only, any other
+ * character in a protein sequence interrupts matching. Optionally isoleucine
+ * and leucine are treated as equivalent.
+ */
+public class PeptideMapper {
+
+	/**
+	 * The number of residue letters.
+	 */
+	private static final int ALPHABET_SIZE = 26;
+
+	/**
+	 * The number of FASTA entries passed to a worker at once.
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * End marker of the batch queue.
+	 */
+	private static final List<String[]> END = new ArrayList<String[]>();
+
+	/**
+	 * Flag denoting whether isoleucine and leucine are treated as equivalent.
+	 */
+	private boolean ilEquivalent;
+
+	/**
+	 * The automaton transitions, <code>ALPHABET_SIZE</code> entries per state.
+	 */
+	private int[] transitions;
+
+	/**
+	 * The index of the pattern ending in each state or <code>-1</code>.
+	 */
+	private int[] outputs;
+
+	/**
+	 * The nearest state on the failure path of each state having an output or <code>-1</code>.
+	 */
+	private int[] outputLinks;
+
+	/**
+	 * The number of automaton states.
+	 */
+	private int stateCount;
+
+	/**
+	 * The original peptides of each pattern. Multiple peptides share a
+	 * pattern if they are equal with respect to I/L equivalence.
+	 */
+	private List<List<String>> patterns = new ArrayList<List<String>>();
+
+	/**
+	 * The number of worker threads.
+	 */
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Constructs a mapper for the specified peptides.
+	 * @param peptides the peptide sequences
+	 * @param ilEquivalent <code>true</code> if isoleucine and leucine shall be treated as equivalent
+	 */
+	public PeptideMapper(Collection<String> peptides, boolean ilEquivalent) {
+		this.ilEquivalent = ilEquivalent;
+		buildTrie(peptides);
+		buildTransitions();
+	}
+
+	/**
+	 * Sets the number of worker threads used for mapping FASTA files.
+	 * @param threadCount the number of threads
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	/**
+	 * Returns the alphabet index of the specified residue.
+	 * @return the index or <code>-1</code> if the character is not an upper-case letter
+	 */
+	private int indexOf(char residue) {
+		if ((residue < 'A') || (residue > 'Z')) {
+			return -1;
+		}
+		if (ilEquivalent && (residue == 'L')) {
+			residue = 'I';
+		}
+		return residue - 'A';
+	}
+
+	/**
+	 * Inserts all peptides into the trie.
+	 */
+	private void buildTrie(Collection<String> peptides) {
+		int capacity = 1024;
+		transitions = new int[capacity * ALPHABET_SIZE];
+		outputs = new int[capacity];
+		Arrays.fill(transitions, -1);
+		Arrays.fill(outputs, -1);
+		stateCount = 1;
+
+		peptides:
+		for (String peptide : peptides) {
+			if (peptide.isEmpty()) {
+				continue;
+			}
+			int state = 0;
+			for (int i = 0; i < peptide.length(); i++) {
+				int index = indexOf(peptide.charAt(i));
+				if (index < 0) {
+					// peptide can never match
+					continue peptides;
+				}
+				int next = transitions[state * ALPHABET_SIZE + index];
+				if (next < 0) {
+					if (stateCount == outputs.length) {
+						capacity *= 2;
+						transitions = Arrays.copyOf(transitions, capacity * ALPHABET_SIZE);
+						Arrays.fill(transitions, stateCount * ALPHABET_SIZE, transitions.length, -1);
+						outputs = Arrays.copyOf(outputs, capacity);
+						Arrays.fill(outputs, stateCount, capacity, -1);
+					}
+					next = stateCount++;
+					transitions[state * ALPHABET_SIZE + index] = next;
+				}
+				state = next;
+			}
+			if (outputs[state] < 0) {
+				outputs[state] = patterns.size();
+				patterns.add(new ArrayList<String>(1));
+			}
+			List<String> pattern = patterns.get(outputs[state]);
+			if (!pattern.contains(peptide)) {
+				pattern.add(peptide);
+			}
+		}
+		transitions = Arrays.copyOf(transitions, stateCount * ALPHABET_SIZE);
+		outputs = Arrays.copyOf(outputs, stateCount);
+	}
+
+	/**
+	 * Completes the trie transitions along the failure links and determines
+	 * the output links by a breadth-first traversal.
+	 */
+	private void buildTransitions() {
+		int[] failures = new int[stateCount];
+		outputLinks = new int[stateCount];
+		outputLinks[0] = -1;
+		int[] queue = new int[stateCount];
+		int head = 0, tail = 0;
+		for (int c = 0; c < ALPHABET_SIZE; c++) {
+			int next = transitions[c];
+			if (next < 0) {
+				transitions[c] = 0;
+			} else {
+				failures[next] = 0;
+				outputLinks[next] = -1;
+				queue[tail++] = next;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			int failure = failures[state];
+			for (int c = 0; c < ALPHABET_SIZE; c++) {
+				int next = transitions[state * ALPHABET_SIZE + c];
+				int fallback = transitions[failure * ALPHABET_SIZE + c];
+				if (next < 0) {
+					transitions[state * ALPHABET_SIZE + c] = fallback;
+				} else {
+					failures[next] = fallback;
+					outputLinks[next] = (outputs[fallback] >= 0) ? fallback : outputLinks[fallback];
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the indices of all patterns occurring in the specified sequence.
+	 */
+	private void match(String sequence, TIntSet matches) {
+		int state = 0;
+		for (int i = 0; i < sequence.length(); i++) {
+			int index = indexOf(sequence.charAt(i));
+			if (index < 0) {
+				state = 0;
+				continue;
+			}
+			state = transitions[state * ALPHABET_SIZE + index];
+			int output = (outputs[state] >= 0) ? state : outputLinks[state];
+			while (output > 0) {
+				matches.add(outputs[output]);
+				output = outputLinks[output];
+			}
+		}
+	}
+
+	/**
+	 * Returns the peptides occurring in the specified protein sequence.
+	 * @param sequence the protein sequence
+	 * @return the set of contained peptides
+	 */
+	public Set<String> match(String sequence) {
+		TIntSet matches = new TIntHashSet();
+		match(sequence, matches);
+		Set<String> peptides = new HashSet<String>();
+		for (TIntIterator iter = matches.iterator(); iter.hasNext();) {
+			peptides.addAll(patterns.get(iter.next()));
+		}
+		return peptides;
+	}
+
+	/**
+	 * Maps the peptides to the headers of the proteins containing them in
+	 * the specified FASTA file. Peptides not contained in any protein are
+	 * omitted.
+	 * @param fastaFile the FASTA file
+	 * @return the multimap of peptides to protein headers
+	 * @throws IOException if reading the FASTA file fails
+	 */
+	public Map<String, Set<String>> map(File fastaFile) throws IOException {
+		final BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<List<String[]>>(2 * threadCount);
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < threadCount; i++) {
+			Worker worker = new Worker(queue);
+			worker.start();
+			workers.add(worker);
+		}
+
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(fastaFile));
+			try {
+				List<String[]> batch = new ArrayList<String[]>(BATCH_SIZE);
+				String header = null;
+				StringBuilder sequence = new StringBuilder();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if ((line.length() > 0) && (line.charAt(0) == '>')) {
+						if (header != null) {
+							batch.add(new String[] { header, sequence.toString() });
+							if (batch.size() == BATCH_SIZE) {
+								queue.put(batch);
+								batch = new ArrayList<String[]>(BATCH_SIZE);
+							}
+						}
+						header = line;
+						sequence.setLength(0);
+					} else {
+						sequence.append(line.trim());
+					}
+				}
+				if (header != null) {
+					batch.add(new String[] { header, sequence.toString() });
+				}
+				if (!batch.isEmpty()) {
+					queue.put(batch);
+				}
+			} finally {
+				reader.close();
+				for (int i = 0; i < threadCount; i++) {
+					queue.put(END);
+				}
+			}
+
+			// Merge partial results of the workers
+			Map<String, Set<String>> multiMap = new HashMap<String, Set<String>>();
+			for (Worker worker : workers) {
+				worker.join();
+				for (Map.Entry<String, Set<String>> entry : worker.multiMap.entrySet()) {
+					Set<String> headers = multiMap.get(entry.getKey());
+					if (headers == null) {
+						multiMap.put(entry.getKey(), entry.getValue());
+					} else {
+						headers.addAll(entry.getValue());
+					}
+				}
+			}
+			return multiMap;
+		} catch (InterruptedException e) {
+			for (Worker worker : workers) {
+				worker.interrupt();
+			}
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Worker thread matching batches of FASTA entries.
+	 */
+	private class Worker extends Thread {
+
+		/**
+		 * The batch queue.
+		 */
+		private BlockingQueue<List<String[]>> queue;
+
+		/**
+		 * The partial multimap of peptides to protein headers.
+		 */
+		private Map<String, Set<String>> multiMap = new HashMap<String, Set<String>>();
+
+		/**
+		 * Constructs a worker consuming batches of the specified queue.
+		 */
+		public Worker(BlockingQueue<List<String[]>> queue) {
+			super("PeptideMapper");
+			this.queue = queue;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			TIntSet matches = new TIntHashSet();
+			try {
+				List<String[]> batch;
+				while ((batch = queue.take()) != END) {
+					for (String[] entry : batch) {
+						matches.clear();
+						match(entry[1], matches);
+						for (TIntIterator iter = matches.iterator(); iter.hasNext();) {
+							for (String peptide : patterns.get(iter.next())) {
+								FastaUtilities.addPeptideToMultiMap(multiMap, peptide, entry[0]);
+							}
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				// mapping has been aborted
+			}
+		}
+
+	}
+
+}
@@ -55,7 +55,7 @@ public class MascotDatFileReader extends InputFileReader {
 	}
 
 	@Override
-	public MascotGenericFile loadSpectrum(int index, long summaryPos, long queryPos) throws IOException {
+	public synchronized MascotGenericFile loadSpectrum(int index, long summaryPos, long queryPos) throws IOException {
 		String line;
 		String[] split;
 		
@@ -0,0 +1,50 @@
+package de.mpa.util;
+
+/**
+ * Helper for sorting index permutations by primitive <code>double</code> keys without boxing.
+ */
+public final class IndexSort {
+
+	/**
+	 * Private constructor, this class only has static methods.
+	 */
+	private IndexSort() {
+	}
+
+	/**
+	 * Stable merge sort of the first <code>count</code> indices in <code>order</code> by ascending key,
+	 * i.e. afterwards <code>keys[order[i]] &lt;= keys[order[i + 1]]</code> holds. Keys are compared
+	 * with {@link Double#compare(double, double)}.
+	 * @param order the indices into <code>keys</code> to sort
+	 * @param count the number of indices to sort
+	 * @param keys the sort keys
+	 */
+	public static void mergeSort(int[] order, int count, double[] keys) {
+		mergeSort(order, new int[count], 0, count, keys);
+	}
+
+	/**
+	 * Sorts the index range [from, to) using the specified temporary buffer.
+	 */
+	private static void mergeSort(int[] order, int[] temp, int from, int to, double[] keys) {
+		if (to - from < 2) {
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(order, temp, from, mid, keys);
+		mergeSort(order, temp, mid, to, keys);
+		if (Double.compare(keys[order[mid - 1]], keys[order[mid]]) <= 0) {
+			return;
+		}
+		System.arraycopy(order, from, temp, from, to - from);
+		int left = from, right = mid;
+		for (int k = from; k < to; k++) {
+			if ((right >= to) || ((left < mid) && (Double.compare(keys[temp[left]], keys[temp[right]]) <= 0))) {
+				order[k] = temp[left++];
+			} else {
+				order[k] = temp[right++];
+			}
+		}
+	}
+
+}
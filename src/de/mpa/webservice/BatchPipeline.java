@@ -0,0 +1,345 @@
+package de.mpa.webservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import de.mpa.db.job.JobManager;
+import de.mpa.db.job.JobStatus;
+import de.mpa.db.job.instances.CommonJob;
+import de.mpa.db.storager.SpectrumStorager;
+
+/**
+ * Processes a batch of uploaded files in a pipeline of three stages connected
+ * by bounded queues: spectrum storage, database searches and result storage.
+ * While the searches for one file are running, the spectra of the next file
+ * are stored and the results of the previous file are stored. The database
+ * stages share the connection and therefore never overlap. As spectrum and
+ * result storage of different files may interleave, each file keeps the
+ * searchspectrum ID mappings of its own spectra for storing its results.
+ */
+abstract class BatchPipeline {
+
+	/**
+	 * The logger instance.
+	 */
+	private static Logger log = Logger.getLogger(BatchPipeline.class);
+
+	/**
+	 * The capacity of the queues between the stages of the pipeline.
+	 */
+	private static final int STAGE_QUEUE_SIZE = 2;
+
+	/**
+	 * Message queue instance for communication between server and client.
+	 */
+	private MessageQueue msgQueue = MessageQueue.getInstance();
+
+	/**
+	 * The spectrum filenames of the batch.
+	 */
+	private List<String> filenames;
+
+	/**
+	 * Lock guarding the database connection shared by the storing stages.
+	 */
+	private final Object dbLock = new Object();
+
+	/**
+	 * The files whose processing failed in any stage.
+	 */
+	private List<BatchFile> failedFiles = Collections.synchronizedList(new ArrayList<BatchFile>());
+
+	/**
+	 * The stages of the last run.
+	 */
+	private List<PipelineStage> stages;
+
+	/**
+	 * Constructs a pipeline for the specified spectrum files.
+	 * @param filenames The spectrum filenames.
+	 */
+	BatchPipeline(List<String> filenames) {
+		this.filenames = filenames;
+	}
+
+	/**
+	 * Stores the spectra of the specified file to the database.
+	 * @param batchFile The file.
+	 * @return the spectrum storager which has been run
+	 * @throws Exception if storing the spectra failed
+	 */
+	protected abstract SpectrumStorager storeSpectra(BatchFile batchFile) throws Exception;
+
+	/**
+	 * Runs the database searches of the specified file and sets the job
+	 * manager storing the results, see {@link BatchFile#setStoreManager(JobManager)}.
+	 * @param batchFile The file.
+	 * @throws Exception if searching the file failed
+	 */
+	protected abstract void search(BatchFile batchFile) throws Exception;
+
+	/**
+	 * Stores the search results of the specified file to the database.
+	 * @param batchFile The file.
+	 * @throws Exception if storing the results failed
+	 */
+	protected abstract void storeResults(BatchFile batchFile) throws Exception;
+
+	/**
+	 * Passes all files through the pipeline. Files failing in one stage are
+	 * reported to the message queue and not passed to the next stage.
+	 * @return <code>true</code> if all files have been processed, <code>false</code> if the batch failed
+	 * @throws InterruptedException if the pipeline has been interrupted
+	 * @throws ExecutionException if a stage terminated abnormally
+	 */
+	public boolean run() throws InterruptedException, ExecutionException {
+		final int total = filenames.size();
+		failedFiles.clear();
+
+		BlockingQueue<BatchFile> uploadedFiles = new LinkedBlockingQueue<BatchFile>();
+		for (int i = 0; i < total; i++) {
+			uploadedFiles.add(new BatchFile(i + 1, filenames.get(i)));
+		}
+		uploadedFiles.add(BatchFile.END);
+		BlockingQueue<BatchFile> storedFiles = new ArrayBlockingQueue<BatchFile>(STAGE_QUEUE_SIZE);
+		BlockingQueue<BatchFile> searchedFiles = new ArrayBlockingQueue<BatchFile>(STAGE_QUEUE_SIZE);
+
+		stages = new ArrayList<PipelineStage>();
+		stages.add(new PipelineStage("STORING SPECTRA", total, uploadedFiles, storedFiles) {
+			@Override
+			protected void process(BatchFile batchFile) throws Exception {
+				SpectrumStorager storager;
+				synchronized (dbLock) {
+					storager = storeSpectra(batchFile);
+				}
+				if (storager.getError() != null) {
+					throw storager.getError();
+				}
+				batchFile.title2SearchIdMap = storager.getTitle2SearchIdMap();
+				batchFile.fileName2IdMap = storager.getFileName2IdMap();
+			}
+		});
+		stages.add(new PipelineStage("BATCH SEARCH", total, storedFiles, searchedFiles) {
+			@Override
+			protected void process(BatchFile batchFile) throws Exception {
+				search(batchFile);
+			}
+		});
+		stages.add(new PipelineStage("STORING RESULTS", total, searchedFiles, null) {
+			@Override
+			protected void process(BatchFile batchFile) throws Exception {
+				synchronized (dbLock) {
+					storeResults(batchFile);
+				}
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(stages.size());
+		try {
+			List<Future<Void>> futures = executor.invokeAll(stages);
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		for (PipelineStage stage : stages) {
+			msgQueue.add(new Message(new CommonJob(JobStatus.FINISHED, String.format("%s STAGE: %.1f s BUSY, %.1f s IDLE",
+					stage.name, stage.busyTime / 1000.0, stage.idleTime / 1000.0)), new Date()), log);
+		}
+		if (!failedFiles.isEmpty()) {
+			msgQueue.add(new Message(new CommonJob(JobStatus.ERROR, "BATCH SEARCH",
+					failedFiles.size() + " of " + total + " files failed."), new Date()), log);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the files whose processing failed during the last run.
+	 * @return the failed files
+	 */
+	public List<BatchFile> getFailedFiles() {
+		return failedFiles;
+	}
+
+	/**
+	 * An uploaded file passed through the batch pipeline.
+	 */
+	static class BatchFile {
+
+		/**
+		 * Marker denoting the end of the batch.
+		 */
+		private static final BatchFile END = new BatchFile(0, null);
+
+		/**
+		 * The position of the file in the batch, starting at 1.
+		 */
+		private int index;
+
+		/**
+		 * The spectrum filename.
+		 */
+		private String filename;
+
+		/**
+		 * The mapping from spectrum title to searchspectrum ID of this file.
+		 */
+		private Map<String, Long> title2SearchIdMap;
+
+		/**
+		 * The mapping from spectrum filename to searchspectrum ID of this file.
+		 */
+		private Map<String, Long> fileName2IdMap;
+
+		/**
+		 * The job manager executing the result storing jobs.
+		 */
+		private JobManager storeManager;
+
+		private BatchFile(int index, String filename) {
+			this.index = index;
+			this.filename = filename;
+		}
+
+		/**
+		 * Returns the position of the file in the batch, starting at 1.
+		 * @return the index
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the spectrum filename.
+		 * @return the filename
+		 */
+		public String getFilename() {
+			return filename;
+		}
+
+		/**
+		 * Returns the mapping from spectrum title to searchspectrum ID of this file.
+		 * @return the title mapping, <code>null</code> before the spectra have been stored
+		 */
+		public Map<String, Long> getTitle2SearchIdMap() {
+			return title2SearchIdMap;
+		}
+
+		/**
+		 * Returns the mapping from spectrum filename to searchspectrum ID of this file.
+		 * @return the filename mapping, <code>null</code> before the spectra have been stored
+		 */
+		public Map<String, Long> getFileName2IdMap() {
+			return fileName2IdMap;
+		}
+
+		/**
+		 * Returns the job manager executing the result storing jobs.
+		 * @return the store job manager
+		 */
+		public JobManager getStoreManager() {
+			return storeManager;
+		}
+
+		/**
+		 * Sets the job manager executing the result storing jobs.
+		 * @param storeManager the store job manager
+		 */
+		public void setStoreManager(JobManager storeManager) {
+			this.storeManager = storeManager;
+		}
+	}
+
+	/**
+	 * A stage of the batch pipeline. Files are taken from the input queue,
+	 * processed and passed to the output queue. Files whose processing fails
+	 * are reported as errors and not passed on. Progress and the time spent
+	 * working and waiting for input are reported to the message queue.
+	 */
+	private abstract class PipelineStage implements Callable<Void> {
+
+		private String name;
+
+		private int total;
+
+		private BlockingQueue<BatchFile> input;
+
+		private BlockingQueue<BatchFile> output;
+
+		private long busyTime;
+
+		private long idleTime;
+
+		private PipelineStage(String name, int total, BlockingQueue<BatchFile> input, BlockingQueue<BatchFile> output) {
+			this.name = name;
+			this.total = total;
+			this.input = input;
+			this.output = output;
+		}
+
+		/**
+		 * Processes the specified file.
+		 * @param batchFile The file.
+		 * @throws Exception if processing the file failed
+		 */
+		protected abstract void process(BatchFile batchFile) throws Exception;
+
+		@Override
+		public Void call() throws InterruptedException {
+			try {
+				while (true) {
+					long startTime = System.currentTimeMillis();
+					BatchFile batchFile = input.take();
+					idleTime += System.currentTimeMillis() - startTime;
+					if (batchFile == BatchFile.END) {
+						break;
+					}
+
+					startTime = System.currentTimeMillis();
+					String description = name + " " + batchFile.index + "/" + total;
+					msgQueue.add(new Message(new CommonJob(JobStatus.RUNNING, description), new Date()), log);
+					Exception error = null;
+					try {
+						process(batchFile);
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						error = e;
+					}
+					busyTime += System.currentTimeMillis() - startTime;
+					if (error == null) {
+						msgQueue.add(new Message(new CommonJob(JobStatus.FINISHED, description), new Date()), log);
+						if (output != null) {
+							output.put(batchFile);
+						}
+					} else {
+						log.error(description + " failed for " + batchFile.filename, error);
+						failedFiles.add(batchFile);
+						msgQueue.add(new Message(new CommonJob(JobStatus.ERROR, description, error.getMessage()), new Date()), log);
+					}
+				}
+			} finally {
+				if (output != null) {
+					output.put(BatchFile.END);
+				}
+			}
+			return null;
+		}
+	}
+
+}
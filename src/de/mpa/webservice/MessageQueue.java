@@ -8,6 +8,7 @@ import de.mpa.db.job.JobStatus;
 
 /**
  * Custom collection to hold message strings to be transferred between client and server.
+ * Insertion and removal are synchronized as messages are posted by concurrently running jobs.
  * 
  * @author T. Muth, A.Behne
  */
@@ -29,7 +30,7 @@ public class MessageQueue extends ArrayDeque<String> {
 	 * Returns the message queue singleton instance.
 	 * @return The message queue singleton instance.
 	 */
-	public static MessageQueue getInstance() {
+	public static synchronized MessageQueue getInstance() {
 		if (instance == null) {
 			instance = new MessageQueue();
 		}
@@ -42,7 +43,7 @@ public class MessageQueue extends ArrayDeque<String> {
 	 * @param log The logger.
 	 * @return <code>true</code> if this collection changed as a result of the call.
 	 */
-	public boolean add(Message msg, Logger log) {
+	public synchronized boolean add(Message msg, Logger log) {
 		String composedMessage;
 		if (msg.getStatus() == JobStatus.ERROR) {
 			composedMessage = JobStatus.ERROR.toString() + ": " + msg.getDescription() + " " + msg.getError();
@@ -53,4 +54,14 @@ public class MessageQueue extends ArrayDeque<String> {
 		return super.add(composedMessage);
 	}
 	
+	@Override
+	public synchronized boolean add(String msg) {
+		return super.add(msg);
+	}
+	
+	@Override
+	public synchronized String poll() {
+		return super.poll();
+	}
+	
 }
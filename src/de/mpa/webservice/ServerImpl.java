@@ -7,10 +7,12 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Resource;
 import javax.jws.WebService;
@@ -40,13 +42,16 @@ import de.mpa.db.job.instances.InspectProcessingJob;
 import de.mpa.db.job.instances.OmssaJob;
 import de.mpa.db.job.instances.PercolatorJob;
 import de.mpa.db.job.instances.RenameJob;
+import de.mpa.db.job.instances.ShardJob;
 import de.mpa.db.job.instances.StoreJob;
 import de.mpa.db.job.instances.UniProtJob;
 import de.mpa.db.job.instances.XTandemJob;
 import de.mpa.db.job.scoring.OmssaScoreJob;
 import de.mpa.db.job.scoring.XTandemScoreJob;
+import de.mpa.db.storager.SpectrumStorager;
 import de.mpa.io.MascotGenericFile;
 import de.mpa.io.MascotGenericFileReader;
+import de.mpa.io.fasta.FastaIndex;
 import de.mpa.io.fasta.FastaLoader;
 
 
@@ -73,7 +78,7 @@ public class ServerImpl implements Server {
 	 * The JobManager instance.
 	 */
 	private JobManager jobManager;
-
+	
 	/**
 	 * The RunOptions instance.
 	 */
@@ -104,28 +109,22 @@ public class ServerImpl implements Server {
 	}
 
 	/**
-	 * Adds database search jobs. 
-	 * @param filename The spectrum filename.
-	 * @param dbSearchSettings The database search settings.
-	 * @throws Exception
+	 * Initializes the FASTA loader for the specified search database.
+	 * @param searchDB The search database name.
 	 */
-	private void addDbSearchJobs(String filename, DbSearchSettings dbSearchSettings) {	
-		File file = new File(ServerProperties.getInstance().getProperty("path.transfer") + filename);
-		
-		// Get general parameters.
+	private void initFastaLoader(String searchDB) {
 		ServerProperties jobProperties = ServerProperties.getInstance();
-		String searchDB = dbSearchSettings.getFastaFile();
-		double fragIonTol = dbSearchSettings.getFragmentIonTol();
-		double precIonTol = dbSearchSettings.getPrecursorIonTol();
-		int nMissedCleavages = dbSearchSettings.getNumMissedCleavages();
-		boolean isPrecIonTolPpm = dbSearchSettings.isPrecursorIonUnitPpm();
 		
 		// The FASTA loader
 		FastaLoader fastaLoader = FastaLoader.getInstance();
 		fastaLoader.setFastaFile(new File(jobProperties.getProperty("path.fasta") + searchDB  + ".fasta"));
 
 		try {
-			File indexFile = new File(jobProperties.getProperty("path.fasta") + searchDB  + ".fasta.fb");
+			// Prefer the memory-mapped binary index over the serialized one
+			File indexFile = new File(jobProperties.getProperty("path.fasta") + searchDB  + ".fasta" + FastaIndex.EXTENSION);
+			if (!indexFile.exists()) {
+				indexFile = new File(jobProperties.getProperty("path.fasta") + searchDB  + ".fasta.fb");
+			}
 			if(indexFile.exists()) {
 				fastaLoader.setIndexFile(indexFile);
 				fastaLoader.readIndexFile();
@@ -135,80 +134,201 @@ public class ServerImpl implements Server {
 			e.printStackTrace();
 		}
 		MapContainer.FastaLoader = fastaLoader;
+	}
+
+	/**
+	 * Adds database search jobs. Store jobs may be added to a separate job
+	 * manager which is run after the searches have been executed.
+	 * @param filename The spectrum filename.
+	 * @param dbSearchSettings The database search settings.
+	 * @param searchManager The job manager executing the search jobs.
+	 * @param storeManager The job manager executing the result storing jobs.
+	 * @param title2SearchIdMap The spectrum title to searchspectrum ID mapping of the file.
+	 * @param fileName2IdMap The spectrum filename to searchspectrum ID mapping of the file.
+	 */
+	private void addDbSearchJobs(String filename, DbSearchSettings dbSearchSettings, JobManager searchManager, JobManager storeManager,
+			Map<String, Long> title2SearchIdMap, Map<String, Long> fileName2IdMap) {	
+		File file = new File(ServerProperties.getInstance().getProperty("path.transfer") + filename);
+		
+		// Get general parameters.
+		ServerProperties jobProperties = ServerProperties.getInstance();
+		String searchDB = dbSearchSettings.getFastaFile();
+		double fragIonTol = dbSearchSettings.getFragmentIonTol();
+		double precIonTol = dbSearchSettings.getPrecursorIonTol();
+		int nMissedCleavages = dbSearchSettings.getNumMissedCleavages();
+		boolean isPrecIonTolPpm = dbSearchSettings.isPrecursorIonUnitPpm();
 		
-		// Init protein map for UniProt entry retrieval.
-		MapContainer.UniprotQueryProteins = new HashMap<String, Long>();
+		// Searches of different engines run in parallel, store jobs share the
+		// database connection and are therefore chained one after another
+		List<StoreJob> storeJobs = new ArrayList<StoreJob>();
+		
+		// Split the spectrum file into shards searched by concurrent X!Tandem and OMSSA processes
+		List<File> spectrumFiles = Collections.singletonList(file);
+		Job[] shardDependencies = new Job[0];
+		List<Job> shardSearchJobs = new ArrayList<Job>();
+		String shards = jobProperties.getProperty("app.searchshards");
+		if ((dbSearchSettings.isXTandem() || dbSearchSettings.isOmssa()) && (shards != null)) {
+			ShardJob shardJob = new ShardJob(file, Integer.parseInt(shards.trim()));
+			if (shardJob.getShardFiles().size() > 1) {
+				searchManager.addJob(shardJob);
+				spectrumFiles = shardJob.getShardFiles();
+				shardDependencies = new Job[] { shardJob };
+			}
+		}
 		
 		// X!Tandem job
 		if (dbSearchSettings.isXTandem()) {
-			Job xTandemJob = new XTandemJob(file, searchDB, dbSearchSettings.getXtandemParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.TARGET);
-			jobManager.addJob(xTandemJob);
-			// Decoy search only
+			List<Job> xTandemJobs = new ArrayList<Job>();
+			List<Job> xTandemSearchJobs = new ArrayList<Job>();
+			List<String> targetFiles = new ArrayList<String>();
+			List<String> decoyFiles = new ArrayList<String>();
+			for (File spectrumFile : spectrumFiles) {
+				Job xTandemJob = new XTandemJob(spectrumFile, searchDB, dbSearchSettings.getXtandemParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.TARGET);
+				searchManager.addJob(xTandemJob, shardDependencies);
+				xTandemJobs.add(xTandemJob);
+				xTandemSearchJobs.add(xTandemJob);
+				targetFiles.add(xTandemJob.getFilename());
+				// Decoy search only
+				if (dbSearchSettings.isDecoy()) {
+					// The X!Tandem decoy search is added here
+					Job xTandemDecoyJob = new XTandemJob(spectrumFile, searchDB, dbSearchSettings.getXtandemParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.DECOY);
+					searchManager.addJob(xTandemDecoyJob, shardDependencies);
+					xTandemSearchJobs.add(xTandemDecoyJob);
+					decoyFiles.add(xTandemDecoyJob.getFilename());
+				}
+			}
+			shardSearchJobs.addAll(xTandemSearchJobs);
+			String targetFile = XTandemJob.getResultFilename(file, SearchType.TARGET);
+			List<Job> xTandemStoreJobs = new ArrayList<Job>();
 			if (dbSearchSettings.isDecoy()) {
-				// The X!Tandem decoy search is added here
-				Job xTandemDecoyJob = new XTandemJob(file, searchDB, dbSearchSettings.getXtandemParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.DECOY);
-				jobManager.addJob(xTandemDecoyJob);
-
-				// The score job evaluates X!Tandem target + decoy results
-				Job xTandemScoreJob = new XTandemScoreJob(xTandemJob.getFilename(), xTandemDecoyJob.getFilename());
-				jobManager.addJob(xTandemScoreJob);
+				// The score job evaluates X!Tandem target + decoy results of all shards
+				Job xTandemScoreJob = new XTandemScoreJob(targetFiles, decoyFiles, targetFile);
+				searchManager.addJob(xTandemScoreJob, xTandemSearchJobs.toArray(new Job[xTandemSearchJobs.size()]));
 				
-				// Add store job
-				jobManager.addJob(new StoreJob(SearchEngineType.XTANDEM, xTandemJob.getFilename(), xTandemScoreJob.getFilename()));
+				// Add store jobs
+				for (String resultFile : targetFiles) {
+					StoreJob storeJob = new StoreJob(SearchEngineType.XTANDEM, resultFile, xTandemScoreJob.getFilename());
+					addStoreJob(storeManager, storeJob, storeJobs, xTandemScoreJob);
+					xTandemStoreJobs.add(storeJob);
+				}
 			} else {
-				// Add store job
-				jobManager.addJob(new StoreJob(SearchEngineType.XTANDEM, xTandemJob.getFilename()));
+				// Add store jobs
+				for (Job xTandemJob : xTandemJobs) {
+					StoreJob storeJob = new StoreJob(SearchEngineType.XTANDEM, xTandemJob.getFilename());
+					addStoreJob(storeManager, storeJob, storeJobs, xTandemJob);
+					xTandemStoreJobs.add(storeJob);
+				}
 			}
 			// Clear the folders
-			jobManager.addJob(new DeleteJob(xTandemJob.getFilename()));
+			storeManager.addJob(new DeleteJob(targetFile), xTandemStoreJobs.toArray(new Job[xTandemStoreJobs.size()]));
 		}
 		
 		// OMSSA job
 		if (dbSearchSettings.isOmssa()) {
-			Job omssaJob = new OmssaJob(file, searchDB, dbSearchSettings.getOmssaParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.TARGET);
-			jobManager.addJob(omssaJob);
-			
-			// Condition if decoy search is done here
+			List<Job> omssaJobs = new ArrayList<Job>();
+			List<Job> omssaSearchJobs = new ArrayList<Job>();
+			List<String> targetFiles = new ArrayList<String>();
+			List<String> decoyFiles = new ArrayList<String>();
+			for (File spectrumFile : spectrumFiles) {
+				Job omssaJob = new OmssaJob(spectrumFile, searchDB, dbSearchSettings.getOmssaParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.TARGET);
+				searchManager.addJob(omssaJob, shardDependencies);
+				omssaJobs.add(omssaJob);
+				omssaSearchJobs.add(omssaJob);
+				targetFiles.add(omssaJob.getFilename());
+				// Condition if decoy search is done here
+				if (dbSearchSettings.isDecoy()) {
+					// The Omssa decoy search is added here.
+					Job omssaDecoyJob = new OmssaJob(spectrumFile, searchDB + "_decoy", dbSearchSettings.getOmssaParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.DECOY);
+					searchManager.addJob(omssaDecoyJob, shardDependencies);
+					omssaSearchJobs.add(omssaDecoyJob);
+					decoyFiles.add(omssaDecoyJob.getFilename());
+				}
+			}
+			shardSearchJobs.addAll(omssaSearchJobs);
+			String targetFile = OmssaJob.getResultFilename(file, SearchType.TARGET);
+			List<Job> omssaStoreJobs = new ArrayList<Job>();
 			if (dbSearchSettings.isDecoy()) {
-				// The Omssa decoy search is added here.
-				Job omssaDecoyJob = new OmssaJob(file, searchDB + "_decoy", dbSearchSettings.getOmssaParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm, SearchType.DECOY);
-				jobManager.addJob(omssaDecoyJob);
-				
-				// The score job evaluates Omssa target + decoy results.
-				Job omssaScoreJob = new OmssaScoreJob(omssaJob.getFilename(), omssaDecoyJob.getFilename());
-				jobManager.addJob(omssaScoreJob);
+				// The score job evaluates Omssa target + decoy results of all shards.
+				Job omssaScoreJob = new OmssaScoreJob(targetFiles, decoyFiles, targetFile);
+				searchManager.addJob(omssaScoreJob, omssaSearchJobs.toArray(new Job[omssaSearchJobs.size()]));
 				
-				// Add store job.
-				jobManager.addJob(new StoreJob(SearchEngineType.OMSSA, omssaJob.getFilename(), omssaScoreJob.getFilename()));
+				// Add store jobs.
+				for (String resultFile : targetFiles) {
+					StoreJob storeJob = new StoreJob(SearchEngineType.OMSSA, resultFile, omssaScoreJob.getFilename());
+					addStoreJob(storeManager, storeJob, storeJobs, omssaScoreJob);
+					omssaStoreJobs.add(storeJob);
+				}
 			} else {
-				// Add store job.
-				jobManager.addJob(new StoreJob(SearchEngineType.OMSSA, omssaJob.getFilename()));
+				// Add store jobs.
+				for (Job omssaJob : omssaJobs) {
+					StoreJob storeJob = new StoreJob(SearchEngineType.OMSSA, omssaJob.getFilename());
+					addStoreJob(storeManager, storeJob, storeJobs, omssaJob);
+					omssaStoreJobs.add(storeJob);
+				}
 			}
 			// Clear the folders
-			jobManager.addJob(new DeleteJob(omssaJob.getFilename()));
+			Job[] omssaStoreDependencies = omssaStoreJobs.toArray(new Job[omssaStoreJobs.size()]);
+			storeManager.addJob(new DeleteJob(targetFile), omssaStoreDependencies);
+			if (spectrumFiles.size() > 1) {
+				// Shard results are not named after the spectrum file, remove them one by one
+				List<File> shardResultFiles = new ArrayList<File>();
+				for (String resultFile : targetFiles) {
+					shardResultFiles.add(new File(resultFile));
+				}
+				for (String resultFile : decoyFiles) {
+					shardResultFiles.add(new File(resultFile));
+				}
+				storeManager.addJob(new DeleteJob(shardResultFiles), omssaStoreDependencies);
+			}
+		}
+		
+		// Remove the spectrum file shards once searched
+		if (spectrumFiles.size() > 1) {
+			searchManager.addJob(new DeleteJob(spectrumFiles), shardSearchJobs.toArray(new Job[shardSearchJobs.size()]));
 		}
 		
 		// Crux job
 		if (dbSearchSettings.isCrux()) {
 			Job cruxJob = new CruxJob(file, searchDB, dbSearchSettings.getCruxParams(), fragIonTol, precIonTol, nMissedCleavages, isPrecIonTolPpm);
-			jobManager.addJob(cruxJob);
+			searchManager.addJob(cruxJob);
 			Job percolatorJob = new PercolatorJob(file);
-			jobManager.addJob(percolatorJob);
+			searchManager.addJob(percolatorJob, cruxJob);
 			String percolatorfile = jobProperties.getProperty("path.crux.output") + file.getName().substring(0, file.getName().length() - 4) + "_percolated.txt";
 			Job renameJob = new RenameJob(jobProperties.getProperty("path.crux.output") + "percolator.target.psms.txt", percolatorfile);
-			jobManager.addJob(renameJob);
-			jobManager.addJob(new StoreJob(SearchEngineType.CRUX, cruxJob.getFilename()));
+			searchManager.addJob(renameJob, percolatorJob);
+			addStoreJob(storeManager, new StoreJob(SearchEngineType.CRUX, cruxJob.getFilename()), storeJobs, renameJob);
 		}
 		
 		// InsPecT job
 		if (dbSearchSettings.isInspect()) {
 			Job inspectJob = new InspectJob(file, searchDB, dbSearchSettings.getInspectParams(), precIonTol, isPrecIonTolPpm, fragIonTol);			
-			jobManager.addJob(inspectJob);			
+			searchManager.addJob(inspectJob);			
 			Job postProcessorJob = new InspectProcessingJob(file);			
-			jobManager.addJob(postProcessorJob);			
-			jobManager.addJob(new StoreJob(SearchEngineType.INSPECT, postProcessorJob.getFilename()));
+			searchManager.addJob(postProcessorJob, inspectJob);			
+			addStoreJob(storeManager, new StoreJob(SearchEngineType.INSPECT, postProcessorJob.getFilename()), storeJobs, postProcessorJob);
 		}		
-		jobManager.addJob(new UniProtJob());
+		// Link the results to the searchspectra of this file
+		for (StoreJob storeJob : storeJobs) {
+			storeJob.setSearchspectrumIdMaps(title2SearchIdMap, fileName2IdMap);
+		}
+		storeManager.addJob(new UniProtJob(), storeJobs.toArray(new Job[storeJobs.size()]));
+	}
+	
+	/**
+	 * Adds a store job depending on the specified search job and the
+	 * previously added store job.
+	 * @param storeManager The job manager executing the result storing jobs.
+	 * @param storeJob The store job.
+	 * @param storeJobs The previously added store jobs.
+	 * @param searchJob The job providing the results to be stored.
+	 */
+	private void addStoreJob(JobManager storeManager, StoreJob storeJob, List<StoreJob> storeJobs, Job searchJob) {
+		if (storeJobs.isEmpty()) {
+			storeManager.addJob(storeJob, searchJob);
+		} else {
+			storeManager.addJob(storeJob, searchJob, storeJobs.get(storeJobs.size() - 1));
+		}
+		storeJobs.add(storeJob);
 	}
 
 //	/**
@@ -253,7 +373,21 @@ public class ServerImpl implements Server {
 				
 				// Initialize the job manager
 				jobManager = JobManager.getInstance();
+				String jobThreads = ServerProperties.getInstance().getProperty("app.jobthreads");
+				if (jobThreads != null) {
+					jobManager.setThreadCount(Integer.parseInt(jobThreads.trim()));
+				}
 				List<String> filenames = settings.getFilenames();
+				if (settings.isDatabase()) {
+					initFastaLoader(settings.getDbss().getFastaFile());
+				}
+				
+				// Overlap the processing of consecutive files if enabled
+				if (settings.isDatabase() && (filenames.size() > 1)
+						&& Boolean.parseBoolean(ServerProperties.getInstance().getProperty("app.batchpipeline"))) {
+					runPipelinedSearches(settings);
+					return;
+				}
 				
 				// Iterate uploaded files
 				int i = 1;
@@ -264,11 +398,14 @@ public class ServerImpl implements Server {
 					// Repair spectra
 //					repairSpectra(file, dbManager.getConnection());
 					
-					dbManager.storeSpectra(file, settings.getExpID());
+					SpectrumStorager storager = dbManager.storeSpectra(file, settings.getExpID());
 
 					// Add search jobs to job manager queue
 					if (settings.isDatabase()) {
-						addDbSearchJobs(filename, settings.getDbss());
+						// Init protein map for UniProt entry retrieval.
+						MapContainer.UniprotQueryProteins = new HashMap<String, Long>();
+						addDbSearchJobs(filename, settings.getDbss(), jobManager, jobManager,
+								storager.getTitle2SearchIdMap(), storager.getFileName2IdMap());
 					}
 //					if (settings.isSpecSim()) {
 //						addSpecSimSearchJob(storager.getSpectra(), settings.getSss());
@@ -288,7 +425,66 @@ public class ServerImpl implements Server {
 			log.error(e.getMessage(), e.getCause());
 		}
 	}
-
+	
+	/**
+	 * Processes the uploaded files in the batch pipeline, see {@link BatchPipeline}.
+	 * @param settings The search settings.
+	 * @throws Exception if the pipeline has been interrupted or a stage terminated abnormally
+	 */
+	private void runPipelinedSearches(final SearchSettings settings) throws Exception {
+		BatchPipeline pipeline = new BatchPipeline(settings.getFilenames()) {
+			@Override
+			protected SpectrumStorager storeSpectra(BatchFile batchFile) throws Exception {
+				File file = new File(ServerProperties.getInstance().getProperty("path.transfer") + batchFile.getFilename());
+				return dbManager.storeSpectra(file, settings.getExpID());
+			}
+			
+			@Override
+			protected void search(BatchFile batchFile) throws Exception {
+				JobManager storeManager = new JobManager();
+				storeManager.setThreadCount(jobManager.getThreadCount());
+				batchFile.setStoreManager(storeManager);
+				addDbSearchJobs(batchFile.getFilename(), settings.getDbss(), jobManager, storeManager,
+						batchFile.getTitle2SearchIdMap(), batchFile.getFileName2IdMap());
+				jobManager.run();
+				checkFailedJobs(jobManager);
+			}
+			
+			@Override
+			protected void storeResults(BatchFile batchFile) throws Exception {
+				// Init protein map for UniProt entry retrieval.
+				MapContainer.UniprotQueryProteins = new HashMap<String, Long>();
+				batchFile.getStoreManager().run();
+				runOptions.setRunCount(1);
+				checkFailedJobs(batchFile.getStoreManager());
+			}
+		};
+		if (!pipeline.run()) {
+			log.error("Batch search failed for " + pipeline.getFailedFiles().size() + " of " + settings.getFilenames().size() + " files.");
+		}
+	}
+	
+	/**
+	 * Checks whether any job of the last run of the specified job manager has failed.
+	 * @param manager The job manager.
+	 * @throws Exception listing the failed jobs, if any
+	 */
+	private static void checkFailedJobs(JobManager manager) throws Exception {
+		List<Job> failedJobs = manager.getFailedJobs();
+		if (!failedJobs.isEmpty()) {
+			StringBuilder sb = new StringBuilder("Failed jobs:");
+			for (Job job : failedJobs) {
+				sb.append(' ').append(job.getDescription());
+				if (job.getError() != null) {
+					sb.append(" (").append(job.getError()).append(')');
+				}
+				sb.append(';');
+			}
+			sb.setLength(sb.length() - 1);
+			throw new Exception(sb.append('.').toString());
+		}
+	}
+	
 	/**
 	 * Scans the specified spectrum file for dummy entries and replaces them 
 	 * with contents fetched from the remote database.
@@ -0,0 +1,50 @@
+package de.mpa.algorithms;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.algorithms.similarity.BinnedSpectrum;
+import de.mpa.algorithms.similarity.BinnedSpectrumCache;
+import de.mpa.algorithms.similarity.NormalizedDotProduct;
+import de.mpa.algorithms.similarity.Transformation;
+import de.mpa.algorithms.similarity.Vectorization;
+import de.mpa.algorithms.similarity.VectorizationFactory;
+import de.mpa.io.MascotGenericFile;
+import de.mpa.io.MascotGenericFileReader;
+
+public class BinnedSpectrumTest extends TestCase {
+
+	@Test
+	public void testDotProductMatchesNormalizedDotProduct() throws IOException {
+		File file = new File(getClass().getClassLoader().getResource("Test_BSA_10.mgf").getPath());
+		List<MascotGenericFile> spectra = new MascotGenericFileReader(file).getSpectrumFiles();
+
+		Vectorization[] vects = { VectorizationFactory.createDirectBinning(1.0, 0.0),
+				VectorizationFactory.createDirectBinning(0.5, 0.2),
+				VectorizationFactory.createProfiling(1.0, 0.0, 0, 1.0) };
+		double[][] binSettings = { { 1.0, 0.0 }, { 0.5, 0.2 }, { 1.0, 0.0 } };
+		for (int v = 0; v < vects.length; v++) {
+			for (Transformation trafo : Transformation.values()) {
+				BinnedSpectrumCache cache = new BinnedSpectrumCache(vects[v], trafo, binSettings[v][0], binSettings[v][1]);
+				for (MascotGenericFile source : spectra) {
+					NormalizedDotProduct comparator = new NormalizedDotProduct(vects[v], trafo);
+					comparator.prepare(source.getHighestPeaks(20));
+					BinnedSpectrum sourceVector = cache.vectorize(source.getHighestPeaks(20));
+					for (int i = 0; i < spectra.size(); i++) {
+						comparator.compareTo(spectra.get(i).getPeaks());
+						BinnedSpectrum targetVector = cache.get(i, spectra.get(i).getPeaks());
+						assertEquals(comparator.getSimilarity(), sourceVector.dotProduct(targetVector), 1e-5);
+						assertSame(targetVector, cache.get(i, spectra.get(i).getPeaks()));
+					}
+				}
+				assertEquals(spectra.size(), cache.size());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package de.mpa.analysis.taxonomy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.analysis.UniProtUtilities.TaxonomyRank;
+import de.mpa.analysis.taxonomy.TaxonomyUtils.TaxonomyDefinition;
+
+public class CommonAncestorIndexTest extends TestCase {
+
+	/**
+	 * Minimal taxonomic implementation.
+	 */
+	private static class TestTaxonomic implements Taxonomic {
+
+		private TaxonomyNode taxonomyNode;
+
+		private List<TestTaxonomic> children = new ArrayList<TestTaxonomic>();
+
+		public TestTaxonomic(TaxonomyNode taxonomyNode) {
+			this.taxonomyNode = taxonomyNode;
+		}
+
+		@Override
+		public TaxonomyNode getTaxonomyNode() {
+			return taxonomyNode;
+		}
+
+		@Override
+		public void setTaxonomyNode(TaxonomyNode taxonNode) {
+			this.taxonomyNode = taxonNode;
+		}
+
+		@Override
+		public List<? extends Taxonomic> getTaxonomicChildren() {
+			return children;
+		}
+	}
+
+	private static final String[] RANKS = { "superkingdom", "no rank", "phylum", "class",
+		"order", "family", "genus", "species", "species", "no rank" };
+
+	/**
+	 * Creates a random taxonomy tree with the ranks of {@link #RANKS} below the root.
+	 */
+	private static TaxonomyTree createTree(Random random, int perLevel) {
+		int size = 1 + RANKS.length * perLevel;
+		int[] taxIDs = new int[size];
+		int[] parentIDs = new int[size];
+		String[] ranks = new String[size];
+		String[] names = new String[size];
+		taxIDs[0] = 1;
+		ranks[0] = "root";
+		names[0] = "root";
+		for (int level = 0; level < RANKS.length; level++) {
+			int levelSize = (level == 0) ? 3 : perLevel;
+			for (int i = 0; i < perLevel; i++) {
+				int pos = 1 + level * perLevel + i;
+				taxIDs[pos] = pos + 1;
+				parentIDs[pos] = (level == 0) ? 1 : taxIDs[1 + (level - 1) * perLevel + random.nextInt(levelSize)];
+				ranks[pos] = RANKS[level];
+				names[pos] = "Taxon " + taxIDs[pos];
+			}
+		}
+		return new TaxonomyTree(taxIDs, parentIDs, ranks, names);
+	}
+
+	@Test
+	public void testPairwiseEquivalence() {
+		Random random = new Random(42L);
+		TaxonomyTree tree = createTree(random, 20);
+		TaxonomyNode unclassified = new TaxonomyNode(0, TaxonomyRank.NO_RANK, "Unclassified",
+				new TaxonomyNode(1, TaxonomyRank.NO_RANK, "root"));
+
+		for (TaxonomyDefinition definition : TaxonomyDefinition.values()) {
+			for (int round = 0; round < 200; round++) {
+				// random groups of taxonomies including the unclassified and the root taxonomy
+				List<TestTaxonomic> parents = new ArrayList<TestTaxonomic>();
+				CommonAncestorIndex index = new CommonAncestorIndex();
+				for (int i = 0; i < 20; i++) {
+					TestTaxonomic parent = new TestTaxonomic(null);
+					int numChildren = 1 + random.nextInt(5);
+					for (int j = 0; j < numChildren; j++) {
+						int draw = random.nextInt(30);
+						TaxonomyNode node;
+						if (draw == 0) {
+							node = unclassified;
+						} else if (draw == 1) {
+							node = tree.getNode(1L);
+						} else if ((draw < 10) && (j > 0)) {
+							// ancestor of a sibling's taxonomy
+							node = parent.children.get(random.nextInt(j)).getTaxonomyNode();
+							for (int steps = random.nextInt(4); (steps > 0) && (node.getParentNode() != null) && !node.getParentNode().isRoot(); steps--) {
+								node = node.getParentNode();
+							}
+						} else {
+							node = tree.getNode(2 + random.nextInt(tree.size() - 1));
+						}
+						parent.children.add(new TestTaxonomic(node));
+					}
+					index.addAll(parent.children);
+					parents.add(parent);
+				}
+				index.build();
+
+				for (TestTaxonomic parent : parents) {
+					for (boolean repeatFirst : new boolean[] { false, true }) {
+						// pairwise fold as done before
+						List<TestTaxonomic> children = parent.children;
+						TaxonomyNode expected = children.get(0).getTaxonomyNode();
+						for (int i = repeatFirst ? 0 : 1; i < children.size(); i++) {
+							expected = definition.getCommonTaxonomyNode(expected, children.get(i).getTaxonomyNode());
+						}
+						TaxonomyNode actual = index.getCommonTaxonomyNode(children, definition, repeatFirst);
+						assertEquals(expected.getID(), actual.getID());
+						assertEquals(expected.getRank(), actual.getRank());
+						assertEquals(expected.getName(), actual.getName());
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLowestCommonAncestor() {
+		TaxonomyNode root = new TaxonomyNode(1, TaxonomyRank.NO_RANK, "root");
+		TaxonomyNode bacteria = new TaxonomyNode(2, TaxonomyRank.SUPERKINGDOM, "Bacteria", root);
+		TaxonomyNode archaea = new TaxonomyNode(2157, TaxonomyRank.SUPERKINGDOM, "Archaea", root);
+		TaxonomyNode phylum = new TaxonomyNode(1224, TaxonomyRank.PHYLUM, "Proteobacteria", bacteria);
+		TaxonomyNode genus = new TaxonomyNode(561, TaxonomyRank.GENUS, "Escherichia", phylum);
+		TaxonomyNode species = new TaxonomyNode(562, TaxonomyRank.SPECIES, "Escherichia coli", genus);
+		TaxonomyNode other = new TaxonomyNode(1239, TaxonomyRank.PHYLUM, "Firmicutes", bacteria);
+
+		CommonAncestorIndex index = new CommonAncestorIndex();
+		index.add(species);
+		index.add(other);
+		index.add(archaea);
+		// equal IDs share an index
+		index.add(new TaxonomyNode(561, TaxonomyRank.GENUS, "Escherichia", phylum));
+		index.build();
+
+		assertEquals(5, index.getDepth(index.indexOf(species)) + index.getDepth(index.indexOf(bacteria)));
+		assertSame(genus, index.getNode(index.indexOf(new TaxonomyNode(561, TaxonomyRank.GENUS, "Escherichia"))));
+		assertSame(phylum, index.getNode(index.getLowestCommonAncestor(index.indexOf(species), index.indexOf(phylum))));
+		assertSame(bacteria, index.getNode(index.getLowestCommonAncestor(index.indexOf(species), index.indexOf(other))));
+		assertEquals(CommonAncestorIndex.ROOT, index.getLowestCommonAncestor(index.indexOf(species), index.indexOf(archaea)));
+		assertEquals(index.indexOf(species), index.getLowestCommonAncestor(index.indexOf(species), index.indexOf(species)));
+	}
+
+}
@@ -0,0 +1,148 @@
+package de.mpa.analysis.taxonomy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import de.mpa.db.accessor.Taxonomy;
+
+/**
+ * Benchmark of the {@link TaxonomyTree} on a synthetic taxonomy the size of
+ * the full NCBI taxonomy, comparing it with the per-hit lineages built by
+ * {@link TaxonomyUtils#createTaxonomyNode(long, Map)} from a map of taxonomy
+ * accessors. Measures load time, retained heap and lineage lookups.
+ * <p>
+ * Usage: <code>TaxonomyTreeBenchmark [hits=1000000]</code><br>
+ * The accessor map requires <code>-Xmx4g</code> or more.
+ */
+public class TaxonomyTreeBenchmark {
+
+	/**
+	 * The levels of the synthetic taxonomy below the root: rank and number of taxa.
+	 */
+	private static final Object[][] LEVELS = {
+		{ "superkingdom", 4 },
+		{ "no rank", 40 },
+		{ "phylum", 300 },
+		{ "class", 900 },
+		{ "order", 3000 },
+		{ "family", 12000 },
+		{ "genus", 110000 },
+		{ "species", 1900000 },
+		{ "no rank", 550000 }
+	};
+
+	public static void main(String[] args) throws IOException {
+		int numHits = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+		// Create taxonomy table rows, each taxon's parent is a random taxon of the level above
+		Random random = new Random(42L);
+		int size = 1;
+		for (Object[] level : LEVELS) {
+			size += (Integer) level[1];
+		}
+		int[] taxIDs = new int[size];
+		int[] parentIDs = new int[size];
+		String[] ranks = new String[size];
+		String[] names = new String[size];
+		taxIDs[0] = 1;
+		ranks[0] = "root";
+		names[0] = "root";
+		int levelStart = 0, levelSize = 1, pos = 1;
+		for (Object[] level : LEVELS) {
+			int count = (Integer) level[1];
+			for (int i = 0; i < count; i++, pos++) {
+				taxIDs[pos] = 2 + pos * 3 / 2;
+				parentIDs[pos] = taxIDs[levelStart + random.nextInt(levelSize)];
+				ranks[pos] = (String) level[0];
+				names[pos] = "Synthetic taxon " + Integer.toString(taxIDs[pos], 36) + " " + ranks[pos];
+			}
+			levelStart = pos - count;
+			levelSize = count;
+		}
+		System.out.printf(Locale.US, "Synthetic taxonomy: %,d taxa%n", size);
+
+		// Random hit taxonomies, mostly species and strains
+		long[] hitIDs = new long[numHits];
+		for (int i = 0; i < numHits; i++) {
+			hitIDs[i] = taxIDs[size - 1 - random.nextInt(2450000)];
+		}
+
+		// Taxonomy tree
+		long heap = usedHeap();
+		long start = System.nanoTime();
+		TaxonomyTree tree = new TaxonomyTree(taxIDs, parentIDs, ranks, names);
+		long load = System.nanoTime() - start;
+		long retained = usedHeap() - heap;
+		TaxonomyNode[] lineages = new TaxonomyNode[numHits];
+		long lineageHeap = usedHeap();
+		start = System.nanoTime();
+		for (int i = 0; i < numHits; i++) {
+			lineages[i] = tree.getNode(hitIDs[i]);
+		}
+		long lookup = System.nanoTime() - start;
+		lineageHeap = usedHeap() - lineageHeap;
+		report("taxonomy tree", load, retained, lookup, lineageHeap, numHits);
+
+		// Snapshot file
+		File file = File.createTempFile("benchmark", TaxonomyTree.EXTENSION);
+		file.deleteOnExit();
+		start = System.nanoTime();
+		tree.write(file);
+		long write = System.nanoTime() - start;
+		tree = null;
+		lineages = null;
+		heap = usedHeap();
+		start = System.nanoTime();
+		tree = TaxonomyTree.read(file);
+		load = System.nanoTime() - start;
+		retained = usedHeap() - heap;
+		System.out.printf(Locale.US, "%-14s written in %.2f s, %.1f MB%n", "snapshot", write / 1e9, file.length() / 1048576.0);
+		System.out.printf(Locale.US, "%-14s load %6.2f s, retained %6.1f MB%n", "snapshot", load / 1e9, retained / 1048576.0);
+		if (tree.size() != size) {
+			throw new IllegalStateException("Snapshot size mismatch");
+		}
+		tree = null;
+
+		// Accessor map and per-hit lineages
+		heap = usedHeap();
+		start = System.nanoTime();
+		Map<Long, Taxonomy> taxonomyMap = new HashMap<Long, Taxonomy>();
+		for (int i = 0; i < size; i++) {
+			HashMap<Object, Object> data = new HashMap<Object, Object>();
+			data.put(Taxonomy.TAXONOMYID, (long) taxIDs[i]);
+			data.put(Taxonomy.PARENTID, (long) parentIDs[i]);
+			data.put(Taxonomy.RANK, ranks[i]);
+			data.put(Taxonomy.DESCRIPTION, names[i]);
+			taxonomyMap.put((long) taxIDs[i], new Taxonomy(data));
+		}
+		load = System.nanoTime() - start;
+		retained = usedHeap() - heap;
+		lineages = new TaxonomyNode[numHits];
+		lineageHeap = usedHeap();
+		start = System.nanoTime();
+		for (int i = 0; i < numHits; i++) {
+			lineages[i] = TaxonomyUtils.createTaxonomyNode(hitIDs[i], taxonomyMap);
+		}
+		lookup = System.nanoTime() - start;
+		lineageHeap = usedHeap() - lineageHeap;
+		report("accessor map", load, retained, lookup, lineageHeap, numHits);
+	}
+
+	private static void report(String name, long load, long retained, long lookup, long lineageHeap, int numHits) {
+		System.out.printf(Locale.US, "%-14s load %6.2f s, retained %6.1f MB, %,d lineages in %.2f s (%.1f MB)%n",
+				name, load / 1e9, retained / 1048576.0, numHits, lookup / 1e9, lineageHeap / 1048576.0);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
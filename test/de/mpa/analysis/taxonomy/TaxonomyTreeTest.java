@@ -0,0 +1,241 @@
+package de.mpa.analysis.taxonomy;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.analysis.UniProtUtilities.TaxonomyRank;
+import de.mpa.db.accessor.Taxonomy;
+
+public class TaxonomyTreeTest extends TestCase {
+
+	/**
+	 * Taxonomy table rows: ID, parent ID, rank and name.
+	 */
+	private static final Object[][] ROWS = {
+		{ 1, 0, "root", "root" },
+		{ 131567, 1, "no rank", "cellular organisms" },
+		{ 2, 131567, "superkingdom", "Bacteria" },
+		{ 1224, 2, "phylum", "Proteobacteria" },
+		{ 1236, 1224, "class", "Gammaproteobacteria" },
+		{ 91347, 1236, "order", "Enterobacterales" },
+		{ 543, 91347, "family", "Enterobacteriaceae" },
+		{ 561, 543, "genus", "Escherichia" },
+		{ 562, 561, "species", "Escherichia coli" },
+		{ 83333, 562, "species", "Escherichia coli K-12" },
+		{ 511145, 83333, "no rank", "Escherichia coli str. K-12 substr. MG1655" },
+		{ 1783272, 2, "no rank", "Terrabacteria group" },
+		{ 1239, 1783272, "phylum", "Firmicutes" },
+		{ 2157, 131567, "superkingdom", "Archaea" },
+		{ 12908, 1, "no rank", "unclassified sequences" }
+	};
+
+	private TaxonomyTree tree;
+
+	private Map<Long, Taxonomy> taxonomyMap;
+
+	@Override
+	protected void setUp() {
+		int[] taxIDs = new int[ROWS.length];
+		int[] parentIDs = new int[ROWS.length];
+		String[] ranks = new String[ROWS.length];
+		String[] names = new String[ROWS.length];
+		taxonomyMap = new HashMap<Long, Taxonomy>();
+		// reverse order to check sorting
+		for (int i = 0; i < ROWS.length; i++) {
+			Object[] row = ROWS[ROWS.length - 1 - i];
+			taxIDs[i] = (Integer) row[0];
+			parentIDs[i] = (Integer) row[1];
+			ranks[i] = (String) row[2];
+			names[i] = (String) row[3];
+
+			HashMap<Object, Object> data = new HashMap<Object, Object>();
+			data.put(Taxonomy.TAXONOMYID, (long) taxIDs[i]);
+			data.put(Taxonomy.PARENTID, (long) parentIDs[i]);
+			data.put(Taxonomy.RANK, ranks[i]);
+			data.put(Taxonomy.DESCRIPTION, names[i]);
+			taxonomyMap.put((long) taxIDs[i], new Taxonomy(data));
+		}
+		tree = new TaxonomyTree(taxIDs, parentIDs, ranks, names);
+	}
+
+	@Test
+	public void testLineages() {
+		assertEquals(ROWS.length, tree.size());
+		for (Object[] row : ROWS) {
+			long taxID = (Integer) row[0];
+			if (taxID == 1L) {
+				continue;
+			}
+			assertLineageEquals(TaxonomyUtils.createTaxonomyNode(taxID, taxonomyMap), tree.getNode(taxID));
+		}
+
+		TaxonomyNode node = tree.getNode(511145L);
+		assertEquals(TaxonomyRank.SUBSPECIES, node.getRank());
+		assertEquals(TaxonomyRank.SUBSPECIES, node.getParentNode().getRank());
+		assertEquals(83333, node.getParentNode().getID());
+		assertEquals(TaxonomyRank.GENUS, node.getParentNode(TaxonomyRank.GENUS).getRank());
+		assertEquals(9, node.getPath().length);
+		assertTrue(tree.getNode(1L).isRoot());
+		assertNull(tree.getNode(1L).getParentNode());
+	}
+
+	@Test
+	public void testInterning() {
+		TaxonomyNode ecoli = tree.getNode(562L);
+		TaxonomyNode k12 = tree.getNode(83333L);
+		assertSame(ecoli, k12.getParentNode());
+		assertSame(ecoli, tree.getNode(562L));
+		assertSame(tree.getNode(1L), tree.getNode(1239L).getParentNode().getParentNode());
+		assertSame(tree.getNode(2L), tree.getNode(1239L).getParentNode());
+	}
+
+	@Test
+	public void testUnknownID() {
+		assertFalse(tree.contains(999999L));
+		assertTrue(tree.contains(511145L));
+		assertSame(tree.getNode(1L), tree.getNode(999999L));
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		File file = File.createTempFile("test", TaxonomyTree.EXTENSION);
+		try {
+			tree.write(file);
+			TaxonomyTree copy = TaxonomyTree.read(file);
+			assertEquals(tree.size(), copy.size());
+			for (Object[] row : ROWS) {
+				long taxID = (Integer) row[0];
+				assertLineageEquals(tree.getNode(taxID), copy.getNode(taxID));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testReloadOnlyIfTableChanged() throws Exception {
+		final List<Object[]> table = new ArrayList<Object[]>(Arrays.asList(ROWS));
+		final int[] loads = new int[1];
+		final int[] checks = new int[1];
+		Connection conn = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (!method.getName().equals("createStatement")) {
+					throw new UnsupportedOperationException(method.getName());
+				}
+				return createStatement(table, loads, checks);
+			}
+		});
+		TaxonomyTree tree = TaxonomyTree.reload(conn);
+		assertEquals(1, loads[0]);
+
+		// an ID missing from the unchanged table is checked once and resolves to the root
+		assertSame(tree, TaxonomyTree.getInstance(conn, Arrays.asList(562L, 999999L)));
+		assertSame(tree, TaxonomyTree.getInstance(conn, Arrays.asList(999999L)));
+		assertEquals(1, loads[0]);
+		assertEquals(1, checks[0]);
+		assertSame(tree.getNode(1L), tree.getNode(999999L));
+
+		// a new ID added to the table triggers a single reload
+		table.add(new Object[] { 1000000, 562, "no rank", "Escherichia coli new strain" });
+		TaxonomyTree reloaded = TaxonomyTree.getInstance(conn, Arrays.asList(1000000L, 999999L));
+		assertNotSame(tree, reloaded);
+		assertTrue(reloaded.contains(1000000L));
+		assertEquals(562, reloaded.getNode(1000000L).getParentNode().getID());
+		assertEquals(2, loads[0]);
+		assertEquals(2, checks[0]);
+		assertSame(reloaded, TaxonomyTree.getInstance(conn, Arrays.asList(1000000L, 999999L)));
+		assertEquals(2, checks[0]);
+	}
+
+	/**
+	 * Creates a statement stub answering the taxonomy table queries from the specified rows.
+	 */
+	private static Statement createStatement(final List<Object[]> table, final int[] loads, final int[] checks) {
+		return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+				new Class<?>[] { Statement.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("setFetchSize") || name.equals("close")) {
+					return null;
+				} else if (name.equals("executeQuery")) {
+					String sql = (String) args[0];
+					if (sql.contains("COUNT(*)")) {
+						checks[0]++;
+						int maxTaxID = 0;
+						for (Object[] row : table) {
+							maxTaxID = Math.max(maxTaxID, (Integer) row[0]);
+						}
+						return createResultSet(Arrays.asList(new Object[][] { { table.size(), maxTaxID } }));
+					}
+					// columns: ID, parent ID, name, rank
+					loads[0]++;
+					List<Object[]> rows = new ArrayList<Object[]>();
+					for (Object[] row : table) {
+						rows.add(new Object[] { row[0], row[1], row[3], row[2] });
+					}
+					return createResultSet(rows);
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	/**
+	 * Creates a result set stub iterating the specified rows.
+	 */
+	private static ResultSet createResultSet(final List<Object[]> rows) {
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+			private int row = -1;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("next")) {
+					return ++row < rows.size();
+				} else if (name.equals("getLong")) {
+					return ((Number) rows.get(row)[(Integer) args[0] - 1]).longValue();
+				} else if (name.equals("getString")) {
+					return (String) rows.get(row)[(Integer) args[0] - 1];
+				} else if (name.equals("close")) {
+					return null;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	/**
+	 * Asserts that both lineages consist of the same IDs, ranks and names.
+	 */
+	private static void assertLineageEquals(TaxonomyNode expected, TaxonomyNode actual) {
+		while (expected != null) {
+			assertNotNull(actual);
+			assertEquals(expected.getID(), actual.getID());
+			assertEquals(expected.getRank(), actual.getRank());
+			assertEquals(expected.getName(), actual.getName());
+			expected = expected.getParentNode();
+			actual = actual.getParentNode();
+		}
+		assertNull(actual);
+	}
+
+}
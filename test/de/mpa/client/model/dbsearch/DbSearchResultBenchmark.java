@@ -0,0 +1,56 @@
+package de.mpa.client.model.dbsearch;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark assembling a {@link DbSearchResult} from synthetic search hits, as
+ * done when opening an experiment. Each spectrum is matched to one peptide
+ * and each peptide belongs to one to three proteins, so spectrum matches,
+ * peptides and proteins are shared among the hits.
+ * <p>
+ * Usage: <code>DbSearchResultBenchmark [hits=1000000]</code><br>
+ * One million hits require <code>-Xmx4g</code> or more.
+ */
+public class DbSearchResultBenchmark {
+
+	public static void main(String[] args) {
+		int numHits = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int numPeptides = Math.max(1, numHits / 5);
+		int numProteins = Math.max(1, numHits / 10);
+
+		// Assemble growing prefixes of the same hit stream to show the scaling
+		for (int size = Math.min(numHits, 10000); ; size = Math.min(numHits, size * 10)) {
+			Random random = new Random(42L);
+			System.gc();
+			long start = System.nanoTime();
+			DbSearchResult result = new DbSearchResult("Benchmark", "Experiment", null);
+			for (int i = 0; i < size; i++) {
+				long spectrumID = i / 2;
+				int peptide = (int) (spectrumID % numPeptides);
+				int protein = (peptide * 31 + random.nextInt(3)) % numProteins;
+				result.addProtein(DbSearchResultTest.createProteinHit(
+						"P" + protein, "PEPTIDE" + peptide + "K", spectrumID, 0.0));
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf(Locale.US, "%,9d hits: %6.2f s (%.2f us/hit), %,d proteins, %,d peptides, %,d spectra%n",
+					size, seconds, seconds * 1e6 / size, result.getProteinHitList().size(),
+					result.getDistinctPeptideCount(), result.getIdentifiedSpectrumCount());
+
+			// Look up every protein once
+			start = System.nanoTime();
+			int found = 0;
+			for (int i = 0; i < numProteins; i++) {
+				if (result.getProteinHit("P" + i) != null) {
+					found++;
+				}
+			}
+			System.out.printf(Locale.US, "%,9d protein lookups: %.3f s (%,d found)%n",
+					numProteins, (System.nanoTime() - start) / 1e9, found);
+			if (size == numHits) {
+				break;
+			}
+		}
+	}
+
+}
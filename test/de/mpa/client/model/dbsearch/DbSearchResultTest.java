@@ -0,0 +1,181 @@
+package de.mpa.client.model.dbsearch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.client.model.SpectrumMatch;
+import de.mpa.db.accessor.SearchHit;
+
+public class DbSearchResultTest extends TestCase {
+
+	/**
+	 * Minimal search hit implementation.
+	 */
+	private static class TestHit implements SearchHit, Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private String sequence;
+		private String accession;
+		private long spectrumID;
+		private double qValue;
+
+		public TestHit(String sequence, String accession, long spectrumID, double qValue) {
+			this.sequence = sequence;
+			this.accession = accession;
+			this.spectrumID = spectrumID;
+			this.qValue = qValue;
+		}
+
+		@Override
+		public SearchEngineType getType() {
+			return SearchEngineType.XTANDEM;
+		}
+
+		@Override
+		public String getSequence() {
+			return sequence;
+		}
+
+		@Override
+		public String getAccession() {
+			return accession;
+		}
+
+		@Override
+		public Number getQvalue() {
+			return qValue;
+		}
+
+		@Override
+		public double getScore() {
+			return 0.0;
+		}
+
+		@Override
+		public long getCharge() {
+			return 2L;
+		}
+
+		@Override
+		public long getFk_searchspectrumid() {
+			return spectrumID;
+		}
+
+		@Override
+		public long getFk_peptideid() {
+			return 0L;
+		}
+
+		@Override
+		public long getFk_proteinid() {
+			return 0L;
+		}
+	}
+
+	/**
+	 * Creates a protein hit wrapping a single search hit, as done when
+	 * retrieving results from the database.
+	 */
+	static ProteinHit createProteinHit(String accession, String sequence, long spectrumID, double qValue) {
+		SearchHit hit = new TestHit(sequence, accession, spectrumID, qValue);
+		PeptideHit peptideHit = new PeptideHit(sequence, new PeptideSpectrumMatch(spectrumID, hit));
+		return new ProteinHit(accession, "", "", peptideHit, null, null, 1L);
+	}
+
+	/**
+	 * Creates a result of two proteins sharing a peptide and a third protein
+	 * identified only by a hit with a high q-value.
+	 */
+	private static DbSearchResult createSearchResult() {
+		DbSearchResult result = new DbSearchResult("Project", "Experiment", null);
+		result.addProtein(createProteinHit("P1", "AAAK", 1L, 0.0));
+		result.addProtein(createProteinHit("P1", "CCCK", 2L, 0.0));
+		result.addProtein(createProteinHit("P2", "AAAK", 1L, 0.0));
+		result.addProtein(createProteinHit("P2", "AAAK", 3L, 0.0));
+		result.addProtein(createProteinHit("P3", "DDDK", 4L, 0.5));
+		return result;
+	}
+
+	@Test
+	public void testAddProtein() {
+		DbSearchResult result = createSearchResult();
+		assertEquals(3, result.getMetaProteins().size());
+		assertEquals(3, result.getProteinHitList().size());
+
+		ProteinHit p1 = result.getProteinHit("P1");
+		ProteinHit p2 = result.getProteinHit("P2");
+		assertEquals(2, p1.getPeptideHits().size());
+		assertEquals(1, p2.getPeptideHits().size());
+		assertNull(result.getProteinHit("P4"));
+
+		// Shared elements are merged into the same instances
+		PeptideHit peptideHit = result.getPeptideHit("AAAK");
+		assertSame(peptideHit, p1.getPeptideHit("AAAK"));
+		assertSame(peptideHit, p2.getPeptideHit("AAAK"));
+		assertEquals(2, peptideHit.getProteinCount());
+		assertEquals(2, peptideHit.getSpectralCount());
+		SpectrumMatch spectrumMatch = result.getSpectrumMatch("AAAK1");
+		assertSame(spectrumMatch, peptideHit.getSpectrumMatch("AAAK1"));
+		assertNotNull(result.getSpectrumMatch("AAAK3"));
+		assertNull(result.getSpectrumMatch("CCCK1"));
+		assertEquals(4, result.getIdentifiedSpectrumCount());
+		assertEquals(3, result.getDistinctPeptideCount());
+	}
+
+	@Test
+	public void testSetFDR() {
+		DbSearchResult result = createSearchResult();
+		ProteinHit p3 = result.getProteinHit("P3");
+		assertNotNull(p3);
+
+		// Lookups are restricted to the visible hits
+		result.setFDR(0.05);
+		assertEquals(2, result.getMetaProteins().size());
+		assertNull(result.getProteinHit("P3"));
+		assertNull(result.getPeptideHit("DDDK"));
+		assertNull(result.getSpectrumMatch("DDDK4"));
+		assertNotNull(result.getProteinHit("P1"));
+		assertNotNull(result.getSpectrumMatch("CCCK2"));
+
+		result.setFDR(1.0);
+		assertSame(p3, result.getProteinHit("P3"));
+		assertNotNull(result.getPeptideHit("DDDK"));
+		assertNotNull(result.getSpectrumMatch("DDDK4"));
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		DbSearchResult result = createSearchResult();
+		result.setFDR(0.05);
+		// Build the indexes before serializing
+		assertNotNull(result.getProteinHit("P1"));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(result);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		DbSearchResult copy = (DbSearchResult) ois.readObject();
+		ois.close();
+
+		// Lookups return the deserialized instances
+		ProteinHit p1 = copy.getProteinHit("P1");
+		assertNotNull(p1);
+		assertNotSame(result.getProteinHit("P1"), p1);
+		assertSame(p1, ((MetaProteinHit) copy.getMetaProteins().get(0)).getProteinHitList().get(0));
+		assertSame(p1.getPeptideHit("AAAK"), copy.getPeptideHit("AAAK"));
+		assertNull(copy.getProteinHit("P3"));
+
+		copy.setFDR(1.0);
+		assertNotNull(copy.getProteinHit("P3"));
+	}
+
+}
@@ -0,0 +1,99 @@
+package de.mpa.client.model.dbsearch;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import de.mpa.analysis.taxonomy.TaxonomyTree;
+import de.mpa.client.Client;
+import de.mpa.client.settings.ResultParameters;
+
+/**
+ * Benchmark of the result processing pipeline of
+ * {@link MetaProteinFactory#determineTaxonomyAndCreateMetaProteins(DbSearchResult, ResultParameters)}
+ * on a synthetic search result whose proteins are assigned random taxonomies
+ * of a synthetic taxonomy tree. The pipeline logs its per-phase timing
+ * breakdown, the benchmark additionally counts the fired client events.
+ * <p>
+ * Usage: <code>MetaProteinFactoryBenchmark [hits=1000000]</code><br>
+ * One million hits require <code>-Xmx4g</code> or more.
+ */
+public class MetaProteinFactoryBenchmark {
+
+	/**
+	 * The ranks of the synthetic taxonomy below the root.
+	 */
+	private static final String[] RANKS = { "superkingdom", "phylum", "class",
+		"order", "family", "genus", "species", "no rank" };
+
+	public static void main(String[] args) {
+		int numHits = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int numPeptides = Math.max(1, numHits / 5);
+		int numProteins = Math.max(1, numHits / 10);
+
+		// Count client events by name
+		Client.init(false, false);
+		final Map<String, Integer> events = new TreeMap<String, Integer>();
+		Client.getInstance().addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				Integer count = events.get(evt.getPropertyName());
+				events.put(evt.getPropertyName(), (count == null) ? 1 : count + 1);
+			}
+		});
+
+		// Synthetic taxonomy, each level ten times the size of the level above
+		Random random = new Random(42L);
+		int size = 1, levelSize = 1;
+		for (int level = 0; level < RANKS.length; level++) {
+			levelSize = Math.min(levelSize * 10, 100000);
+			size += levelSize;
+		}
+		int[] taxIDs = new int[size];
+		int[] parentIDs = new int[size];
+		String[] ranks = new String[size];
+		String[] names = new String[size];
+		taxIDs[0] = 1;
+		ranks[0] = "root";
+		names[0] = "root";
+		int levelStart = 0, pos = 1;
+		levelSize = 1;
+		for (String rank : RANKS) {
+			int count = Math.min(levelSize * 10, 100000);
+			for (int i = 0; i < count; i++, pos++) {
+				taxIDs[pos] = pos + 1;
+				parentIDs[pos] = taxIDs[levelStart + random.nextInt(levelSize)];
+				ranks[pos] = rank;
+				names[pos] = "Taxon " + taxIDs[pos];
+			}
+			levelStart = pos - count;
+			levelSize = count;
+		}
+		TaxonomyTree tree = new TaxonomyTree(taxIDs, parentIDs, ranks, names);
+
+		// Synthetic result, proteins are assigned taxonomies of the lowest three levels
+		DbSearchResult result = new DbSearchResult("Benchmark", "Experiment", null);
+		for (int i = 0; i < numHits; i++) {
+			long spectrumID = i / 2;
+			int peptide = (int) (spectrumID % numPeptides);
+			int protein = (peptide * 31 + random.nextInt(3)) % numProteins;
+			double qValue = (random.nextInt(20) == 0) ? 0.5 : 0.0;
+			result.addProtein(DbSearchResultTest.createProteinHit(
+					"P" + protein, "PEPTIDE" + peptide + "K", spectrumID, qValue));
+		}
+		for (ProteinHit proteinHit : result.getProteinHitList()) {
+			proteinHit.setTaxonomyNode(tree.getNode(taxIDs[size - 1 - random.nextInt(300000)]));
+		}
+		System.out.printf(Locale.US, "%,d hits: %,d proteins, %,d peptides, %,d taxa%n",
+				numHits, result.getProteinHitList().size(), result.getDistinctPeptideCount(), size);
+
+		long start = System.nanoTime();
+		MetaProteinFactory.determineTaxonomyAndCreateMetaProteins(result, new ResultParameters());
+		System.out.printf(Locale.US, "Pipeline: %.2f s, %,d meta-proteins, events %s%n",
+				(System.nanoTime() - start) / 1e9, result.getMetaProteins().size(), events);
+	}
+
+}
@@ -0,0 +1,150 @@
+package de.mpa.client.model.dbsearch;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.client.model.SpectrumMatch;
+import de.mpa.client.model.dbsearch.MetaProteinFactory.ClusterRule;
+import de.mpa.client.model.dbsearch.MetaProteinFactory.PeptideRule;
+import de.mpa.client.model.dbsearch.MetaProteinFactory.TaxonomyRule;
+
+public class MetaProteinGrouperTest extends TestCase {
+
+	/**
+	 * Creates random single-protein meta-proteins sharing peptides and UniRef clusters.
+	 */
+	private static ProteinHitList createMetaProteins(long seed, int count) {
+		Random random = new Random(seed);
+		List<String> peptides = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			StringBuilder sequence = new StringBuilder();
+			int length = 5 + random.nextInt(4);
+			for (int j = 0; j < length; j++) {
+				sequence.append("ADEIKLR".charAt(random.nextInt(7)));
+			}
+			peptides.add(sequence.toString());
+		}
+		ProteinHitList metaProteins = new ProteinHitList();
+		for (int i = 0; i < count; i++) {
+			String uniRef = (random.nextInt(10) == 0) ? null : "UniRef50_" + random.nextInt(4);
+			ReducedUniProtEntry upe = new ReducedUniProtEntry(0L, "", "", "", null, null, uniRef);
+			ProteinHit ph = new ProteinHit("P" + i, "Protein " + i, "", null, upe, null, 0L);
+			int peptideCount = 1 + random.nextInt(3);
+			for (int j = 0; j < peptideCount; j++) {
+				ph.addPeptideHit(new PeptideHit(peptides.get(random.nextInt(peptides.size())), new SpectrumMatch()));
+			}
+			MetaProteinHit mph = new MetaProteinHit("Meta-Protein " + i, ph);
+			mph.setFDR(0.05);
+			metaProteins.add(mph);
+		}
+		return metaProteins;
+	}
+
+	/**
+	 * Pairwise reference implementation of the meta-protein condensation.
+	 */
+	private static void condensePairwise(ProteinHitList metaProteins, ClusterRule clusterRule,
+			PeptideRule peptideRule, TaxonomyRule taxonomyRule) {
+		Iterator<ProteinHit> rowIter = metaProteins.iterator();
+		while (rowIter.hasNext()) {
+			MetaProteinHit rowMP = (MetaProteinHit) rowIter.next();
+			Set<String> rowPepSeqs = getSequences(rowMP, peptideRule.isDistinctIL());
+			ListIterator<ProteinHit> colIter = metaProteins.listIterator(metaProteins.size());
+			while (colIter.hasPrevious()) {
+				MetaProteinHit colMP = (MetaProteinHit) colIter.previous();
+				if (rowMP == colMP) {
+					break;
+				}
+				Set<String> colPepSeqs = getSequences(colMP, peptideRule.isDistinctIL());
+				if (clusterRule.shouldCondense(rowMP, colMP)
+						&& peptideRule.shouldCondense(rowPepSeqs, colPepSeqs)
+						&& taxonomyRule.shouldCondense(rowMP, colMP)) {
+					colMP.addAll(rowMP.getProteinHitList());
+					rowIter.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	private static Set<String> getSequences(MetaProteinHit mph, boolean distinctIL) {
+		Set<String> sequences = new HashSet<String>();
+		for (PeptideHit peptideHit : mph.getPeptideSet()) {
+			String sequence = new String(peptideHit.getSequence());
+			if (!distinctIL) {
+				sequence = sequence.replaceAll("[IL]", "L");
+			}
+			sequences.add(sequence);
+		}
+		return sequences;
+	}
+
+	/**
+	 * Asserts that the grouping engine yields the same meta-proteins as the pairwise comparison.
+	 */
+	private static void assertSameGrouping(ClusterRule clusterRule, PeptideRule peptideRule, int maxDistance, boolean distinctIL) {
+		peptideRule.setMaximumDistance(maxDistance);
+		peptideRule.setDistinctIL(distinctIL);
+		try {
+			for (long seed = 0L; seed < 5L; seed++) {
+				ProteinHitList expected = createMetaProteins(seed, 200);
+				condensePairwise(expected, clusterRule, peptideRule, TaxonomyRule.ALWAYS);
+				ProteinHitList actual = createMetaProteins(seed, 200);
+				new MetaProteinGrouper(clusterRule, peptideRule, TaxonomyRule.ALWAYS).condense(actual);
+
+				String message = clusterRule + "/" + peptideRule + "/" + maxDistance + "/" + distinctIL + "/" + seed;
+				assertEquals(message, expected.size(), actual.size());
+				for (int i = 0; i < expected.size(); i++) {
+					assertEquals(message, getAccessions(expected.get(i)), getAccessions(actual.get(i)));
+				}
+			}
+		} finally {
+			peptideRule.setMaximumDistance(0);
+			peptideRule.setDistinctIL(false);
+		}
+	}
+
+	private static List<String> getAccessions(ProteinHit metaProtein) {
+		List<String> accessions = new ArrayList<String>();
+		for (ProteinHit ph : ((MetaProteinHit) metaProtein).getProteinHitList()) {
+			accessions.add(ph.getAccession());
+		}
+		return accessions;
+	}
+
+	@Test
+	public void testSharedPeptide() {
+		assertSameGrouping(ClusterRule.ALWAYS, PeptideRule.SHARED_PEPTIDE, 0, false);
+		assertSameGrouping(ClusterRule.ALWAYS, PeptideRule.SHARED_PEPTIDE, 0, true);
+		assertSameGrouping(ClusterRule.UNIREF50, PeptideRule.SHARED_PEPTIDE, 0, false);
+	}
+
+	@Test
+	public void testSharedPeptideWithDistance() {
+		assertSameGrouping(ClusterRule.ALWAYS, PeptideRule.SHARED_PEPTIDE, 1, false);
+		assertSameGrouping(ClusterRule.UNIREF50, PeptideRule.SHARED_PEPTIDE, 2, true);
+	}
+
+	@Test
+	public void testSharedSubset() {
+		assertSameGrouping(ClusterRule.ALWAYS, PeptideRule.SHARED_SUBSET, 0, false);
+		assertSameGrouping(ClusterRule.UNIREF50, PeptideRule.SHARED_SUBSET, 1, true);
+	}
+
+	@Test
+	public void testTrivialRules() {
+		assertSameGrouping(ClusterRule.UNIREF50, PeptideRule.ALWAYS, 0, false);
+		assertSameGrouping(ClusterRule.ALWAYS, PeptideRule.NEVER, 0, false);
+		assertSameGrouping(ClusterRule.NEVER, PeptideRule.ALWAYS, 0, false);
+	}
+
+}
@@ -0,0 +1,72 @@
+package de.mpa.client.model.specsim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the linear candidate scan formerly used by the spectral similarity search job with the
+ * precursor-sorted {@link CandidateIndex} on a synthetic spectral library. Only candidate lookup
+ * is measured, the scoring cost per visited candidate is the same for both variants.
+ * <p>
+ * Usage: <code>CandidateIndexBenchmark [library=100000] [queries=10000] [tolMz=10.0]</code>
+ */
+public class CandidateIndexBenchmark {
+
+	public static void main(String[] args) {
+		int numCandidates = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int numQueries = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+		double tolMz = (args.length > 2) ? Double.parseDouble(args[2]) : 10.0;
+
+		Random random = new Random(42L);
+		List<SpectralSearchCandidate> candidates = new ArrayList<SpectralSearchCandidate>(numCandidates);
+		HashMap<Double, Double> peaks = new HashMap<Double, Double>();
+		for (int i = 0; i < numCandidates; i++) {
+			candidates.add(new SpectralSearchCandidate(i, "Candidate " + i, 300.0 + random.nextDouble() * 1500.0,
+					2 + random.nextInt(2), peaks, i, "PEPTIDE"));
+		}
+		double[] queries = new double[numQueries];
+		for (int i = 0; i < numQueries; i++) {
+			queries[i] = 300.0 + random.nextDouble() * 1500.0;
+		}
+
+		long buildNanos = 0L, scanNanos = 0L, indexNanos = 0L;
+		long scanVisited = 0L, indexVisited = 0L;
+		// repeated for JIT warm-up, last round is reported
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			scanVisited = 0L;
+			for (double precursorMz : queries) {
+				for (SpectralSearchCandidate candidate : candidates) {
+					if (Math.abs(precursorMz - candidate.getPrecursorMz()) < tolMz) {
+						scanVisited += candidate.getLibpectrumID();
+					}
+				}
+			}
+			scanNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			CandidateIndex index = new CandidateIndex(candidates);
+			buildNanos = System.nanoTime() - start;
+			indexVisited = 0L;
+			for (double precursorMz : queries) {
+				for (SpectralSearchCandidate candidate : index.getCandidates(precursorMz, tolMz)) {
+					indexVisited += candidate.getLibpectrumID();
+				}
+			}
+			indexNanos = System.nanoTime() - start;
+		}
+
+		System.out.printf(Locale.US, "%d candidates, %d queries, tolerance %.2f m/z%n", numCandidates, numQueries, tolMz);
+		System.out.printf(Locale.US, "linear scan: %10.2f ms (%8.2f us/query)%n", scanNanos / 1e6, scanNanos / 1e3 / numQueries);
+		System.out.printf(Locale.US, "index      : %10.2f ms (%8.2f us/query, build %.2f ms)%n",
+				indexNanos / 1e6, indexNanos / 1e3 / numQueries, buildNanos / 1e6);
+		System.out.printf(Locale.US, "speedup    : %10.1fx%n", scanNanos / (double) indexNanos);
+		if (scanVisited != indexVisited) {
+			throw new AssertionError("Candidate sets differ");
+		}
+	}
+
+}
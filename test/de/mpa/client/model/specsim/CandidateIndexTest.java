@@ -0,0 +1,49 @@
+package de.mpa.client.model.specsim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class CandidateIndexTest extends TestCase {
+
+	@Test
+	public void testMatchesLinearScan() {
+		Random random = new Random(7L);
+		List<SpectralSearchCandidate> candidates = new ArrayList<SpectralSearchCandidate>();
+		for (int i = 0; i < 5000; i++) {
+			// coarse grid to provoke duplicates and values exactly at the window borders
+			double precursorMz = 300.0 + random.nextInt(2000) * 0.25;
+			candidates.add(new SpectralSearchCandidate(i, "Candidate " + i, precursorMz, 2,
+					new HashMap<Double, Double>(), i, "PEPTIDE"));
+		}
+		CandidateIndex index = new CandidateIndex(candidates);
+		assertEquals(candidates.size(), index.size());
+
+		double[] tolerances = { 0.0, 0.1, 0.25, 1.0, 10.0 };
+		for (int i = 0; i < 500; i++) {
+			double precursorMz = (i % 2 == 0) ? 300.0 + random.nextInt(2000) * 0.25 : 250.0 + random.nextDouble() * 600.0;
+			for (double tolMz : tolerances) {
+				List<SpectralSearchCandidate> expected = new ArrayList<SpectralSearchCandidate>();
+				for (SpectralSearchCandidate candidate : candidates) {
+					if (Math.abs(precursorMz - candidate.getPrecursorMz()) < tolMz) {
+						expected.add(candidate);
+					}
+				}
+				assertEquals(expected, index.getCandidates(precursorMz, tolMz));
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyIndex() {
+		CandidateIndex index = new CandidateIndex(new ArrayList<SpectralSearchCandidate>());
+		assertEquals(0, index.size());
+		assertTrue(index.getCandidates(500.0, 10.0).isEmpty());
+	}
+
+}
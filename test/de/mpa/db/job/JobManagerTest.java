@@ -0,0 +1,143 @@
+package de.mpa.db.job;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class JobManagerTest extends TestCase {
+
+	/**
+	 * The number of currently executed test jobs.
+	 */
+	private static AtomicInteger running = new AtomicInteger();
+
+	/**
+	 * The maximum number of concurrently executed test jobs.
+	 */
+	private static AtomicInteger maxRunning = new AtomicInteger();
+
+	/**
+	 * Test job sleeping for a specified time.
+	 */
+	private static class SleepJob extends Job {
+
+		private long duration;
+
+		private long started, ended;
+
+		public SleepJob(String description, long duration) {
+			this.description = description;
+			this.duration = duration;
+		}
+
+		@Override
+		public void run() {
+			started = System.nanoTime();
+			int count = running.incrementAndGet();
+			synchronized (maxRunning) {
+				maxRunning.set(Math.max(maxRunning.get(), count));
+			}
+			try {
+				Thread.sleep(duration);
+				done();
+			} catch (InterruptedException e) {
+				setStatus(JobStatus.CANCELED);
+			} finally {
+				running.decrementAndGet();
+				ended = System.nanoTime();
+			}
+		}
+	}
+
+	@Override
+	protected void setUp() {
+		running.set(0);
+		maxRunning.set(0);
+	}
+
+	@Test
+	public void testDependencies() {
+		JobManager jobManager = JobManager.getInstance();
+		jobManager.setThreadCount(4);
+		SleepJob target = new SleepJob("TARGET", 200L);
+		SleepJob decoy = new SleepJob("DECOY", 200L);
+		SleepJob score = new SleepJob("SCORE", 50L);
+		SleepJob store = new SleepJob("STORE", 50L);
+		jobManager.addJob(target);
+		jobManager.addJob(decoy);
+		jobManager.addJob(score, target, decoy);
+		jobManager.addJob(store, score);
+		jobManager.run();
+
+		assertEquals(0, jobManager.getRemainingJobs());
+		for (SleepJob job : new SleepJob[] { target, decoy, score, store }) {
+			assertEquals(JobStatus.FINISHED, job.getStatus());
+			assertTrue(job.getRuntime() >= 0L);
+		}
+		// independent jobs run in parallel
+		assertTrue(target.started < decoy.ended && decoy.started < target.ended);
+		assertTrue(score.started >= target.ended && score.started >= decoy.ended);
+		assertTrue(store.started >= score.ended);
+	}
+
+	@Test
+	public void testThreadCount() {
+		JobManager jobManager = JobManager.getInstance();
+		jobManager.setThreadCount(2);
+		for (int i = 0; i < 6; i++) {
+			jobManager.addJob(new SleepJob("JOB " + i, 50L));
+		}
+		jobManager.run();
+		assertEquals(2, maxRunning.get());
+	}
+
+	@Test
+	public void testFailedDependency() {
+		JobManager jobManager = JobManager.getInstance();
+		jobManager.setThreadCount(2);
+		Job failing = new SleepJob("FAILING", 0L) {
+			@Override
+			public void run() {
+				throw new IllegalStateException("Search failed.");
+			}
+		};
+		SleepJob dependent = new SleepJob("DEPENDENT", 0L);
+		jobManager.addJob(failing);
+		jobManager.addJob(dependent, failing);
+		jobManager.run();
+
+		assertEquals(JobStatus.ERROR, failing.getStatus());
+		assertEquals("Search failed.", failing.getError());
+		assertEquals(JobStatus.FINISHED, dependent.getStatus());
+		assertEquals(1, jobManager.getFailedJobs().size());
+		assertSame(failing, jobManager.getFailedJobs().get(0));
+
+		// failed jobs are reset with the next run
+		jobManager.addJob(new SleepJob("NEXT", 0L));
+		jobManager.run();
+		assertTrue(jobManager.getFailedJobs().isEmpty());
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		final JobManager jobManager = JobManager.getInstance();
+		jobManager.setThreadCount(1);
+		SleepJob first = new SleepJob("FIRST", 10000L);
+		SleepJob second = new SleepJob("SECOND", 0L);
+		jobManager.addJob(first);
+		jobManager.addJob(second, first);
+		Thread runner = new Thread(jobManager);
+		runner.start();
+		Thread.sleep(200L);
+		jobManager.cancel();
+		runner.join(5000L);
+
+		assertFalse(runner.isAlive());
+		assertEquals(JobStatus.CANCELED, first.getStatus());
+		assertEquals(JobStatus.CANCELED, second.getStatus());
+		assertEquals(0, jobManager.getRemainingJobs());
+	}
+
+}
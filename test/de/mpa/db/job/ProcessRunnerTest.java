@@ -0,0 +1,96 @@
+package de.mpa.db.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.webservice.MessageQueue;
+
+public class ProcessRunnerTest extends TestCase {
+
+	/**
+	 * Child process writing the specified number of lines to both output
+	 * streams, sleeping for the specified time and exiting with the specified
+	 * exit code.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int lineCount = Integer.parseInt(args[0]);
+		for (int i = 0; i < lineCount; i++) {
+			System.out.println("stdout line " + i);
+			System.err.println("stderr line " + i);
+		}
+		System.out.println("Spectra loaded.");
+		System.out.flush();
+		Thread.sleep(Long.parseLong(args[1]));
+		System.exit(Integer.parseInt(args[2]));
+	}
+
+	/**
+	 * Returns a process builder for a child process running {@link #main(String[])}.
+	 */
+	private static ProcessBuilder createBuilder(int lineCount, long sleep, int exitCode) {
+		return new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+				"-cp", System.getProperty("java.class.path"), ProcessRunnerTest.class.getName(),
+				Integer.toString(lineCount), Long.toString(sleep), Integer.toString(exitCode));
+	}
+
+	@Test
+	public void testVerboseOutput() throws IOException, InterruptedException {
+		// far more output than fits into the pipe buffers of both streams
+		while (MessageQueue.getInstance().poll() != null);
+		ProcessRunner runner = new ProcessRunner(createBuilder(50000, 0L, 3), "TEST");
+		runner.start();
+		assertEquals(3, runner.waitFor());
+		assertFalse(runner.isTimedOut());
+		assertEquals(100001, runner.getLineCount());
+
+		List<String> output = runner.getOutput();
+		assertEquals(ProcessRunner.BUFFER_SIZE, output.size());
+		// the streams are drained independently, either may finish last
+		String lastLine = output.get(output.size() - 1);
+		assertTrue(lastLine.equals("Spectra loaded.") || lastLine.equals("stderr line 49999"));
+
+		// only the progress marker is posted to the message queue, ignore
+		// messages of other jobs sharing the queue
+		List<String> messages = new ArrayList<String>();
+		String message;
+		while ((message = MessageQueue.getInstance().poll()) != null) {
+			if (message.startsWith("TEST") || message.startsWith("ERROR: TEST")) {
+				messages.add(message);
+			}
+		}
+		assertEquals(1, messages.size());
+		assertEquals("TEST: Spectra loaded. RUNNING", messages.get(0));
+	}
+
+	@Test
+	public void testNonZeroExitCode() {
+		Job job = new Job() {
+			{
+				procBuilder = createBuilder(1, 0L, 2);
+				setDescription("TEST");
+			}
+		};
+		job.run();
+		assertEquals(Integer.valueOf(2), job.getExitCode());
+		assertEquals(JobStatus.ERROR, job.getStatus());
+		assertEquals("Process exited with code 2.", job.getError());
+	}
+
+	@Test
+	public void testTimeout() throws IOException, InterruptedException {
+		ProcessRunner runner = new ProcessRunner(createBuilder(1, 60000L, 0), "TEST");
+		runner.setTimeout(1000L);
+		long startTime = System.currentTimeMillis();
+		runner.start();
+		runner.waitFor();
+		assertTrue(runner.isTimedOut());
+		assertTrue(System.currentTimeMillis() - startTime < 30000L);
+	}
+
+}
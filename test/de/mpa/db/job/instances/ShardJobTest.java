@@ -0,0 +1,108 @@
+package de.mpa.db.job.instances;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.db.job.JobStatus;
+import de.mpa.io.MascotGenericFile;
+import de.mpa.io.MascotGenericFileReader;
+
+public class ShardJobTest extends TestCase {
+
+	/**
+	 * The temporary directory containing the spectrum file and its shards.
+	 */
+	private File tempDir;
+
+	@Override
+	protected void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("shards").toFile();
+	}
+
+	@Override
+	protected void tearDown() {
+		for (File file : tempDir.listFiles()) {
+			file.delete();
+		}
+		tempDir.delete();
+	}
+
+	@Test
+	public void testBalancedShards() throws IOException {
+		File mgfFile = new File(tempDir, "Test1000Ecoli.mgf");
+		Files.copy(new File("test/de/mpa/resources/Test1000Ecoli.mgf").toPath(), mgfFile.toPath());
+		List<MascotGenericFile> spectra = new MascotGenericFileReader(mgfFile).getSpectrumFiles();
+
+		ShardJob shardJob = new ShardJob(mgfFile, 3);
+		assertEquals(3, shardJob.getShardFiles().size());
+		assertEquals("Test1000Ecoli_shard01.mgf", shardJob.getShardFiles().get(0).getName());
+		shardJob.run();
+		assertEquals(JobStatus.FINISHED, shardJob.getStatus());
+
+		List<MascotGenericFile> merged = new ArrayList<MascotGenericFile>();
+		for (File shardFile : shardJob.getShardFiles()) {
+			List<MascotGenericFile> shard = new MascotGenericFileReader(shardFile).getSpectrumFiles();
+			int expected = spectra.size() / 3;
+			assertTrue(shard.size() == expected || shard.size() == expected + 1);
+			merged.addAll(shard);
+		}
+		assertEquals(spectra.size(), merged.size());
+		for (int i = 0; i < spectra.size(); i++) {
+			assertEquals(spectra.get(i).getTitle(), merged.get(i).getTitle());
+			assertEquals(spectra.get(i).getPeakList().size(), merged.get(i).getPeakList().size());
+		}
+	}
+
+	@Test
+	public void testHeaderAndSmallFile() throws IOException {
+		File mgfFile = new File(tempDir, "small.mgf");
+		FileOutputStream fos = new FileOutputStream(mgfFile);
+		fos.write(("CHARGE=2+\n\nBEGIN IONS\nTITLE=first\nPEPMASS=500.0\n100.0 10.0\nEND IONS\n\n"
+				+ "BEGIN IONS\nTITLE=second\nPEPMASS=600.0\n200.0 20.0\nEND IONS\n").getBytes());
+		fos.close();
+
+		// surplus shards contain the header only
+		ShardJob shardJob = new ShardJob(mgfFile, 4);
+		assertEquals(4, shardJob.getShardFiles().size());
+		shardJob.run();
+		assertEquals(JobStatus.FINISHED, shardJob.getStatus());
+
+		String first = new String(Files.readAllBytes(shardJob.getShardFiles().get(0).toPath()));
+		String second = new String(Files.readAllBytes(shardJob.getShardFiles().get(1).toPath()));
+		assertTrue(first.startsWith("CHARGE=2+\n"));
+		assertTrue(second.startsWith("CHARGE=2+\n"));
+		assertTrue(first.contains("TITLE=first") && !first.contains("TITLE=second"));
+		assertTrue(second.contains("TITLE=second") && !second.contains("TITLE=first"));
+		for (int i = 2; i < 4; i++) {
+			File surplus = shardJob.getShardFiles().get(i);
+			assertTrue(new String(Files.readAllBytes(surplus.toPath())).startsWith("CHARGE=2+\n"));
+			assertTrue(new MascotGenericFileReader(surplus).getSpectrumFiles().isEmpty());
+		}
+	}
+
+	@Test
+	public void testFileReadOnRun() throws IOException {
+		// the spectrum file is not read before the job is executed
+		File mgfFile = new File(tempDir, "pending.mgf");
+		ShardJob shardJob = new ShardJob(mgfFile, 2);
+		assertNull(shardJob.getError());
+		assertEquals("pending_shard01.mgf", shardJob.getShardFiles().get(0).getName());
+
+		FileOutputStream fos = new FileOutputStream(mgfFile);
+		fos.write(("BEGIN IONS\nTITLE=first\nPEPMASS=500.0\n100.0 10.0\nEND IONS\n\n"
+				+ "BEGIN IONS\nTITLE=second\nPEPMASS=600.0\n200.0 20.0\nEND IONS\n").getBytes());
+		fos.close();
+		shardJob.run();
+		assertEquals(JobStatus.FINISHED, shardJob.getStatus());
+		assertEquals(1, new MascotGenericFileReader(shardJob.getShardFiles().get(1)).getSpectrumFiles().size());
+	}
+
+}
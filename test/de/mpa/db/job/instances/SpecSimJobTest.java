@@ -0,0 +1,78 @@
+package de.mpa.db.job.instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.client.SpecSimSettings;
+import de.mpa.client.model.specsim.CandidateIndex;
+import de.mpa.client.model.specsim.SpectralSearchCandidate;
+import de.mpa.client.model.specsim.SpectrumSpectrumMatch;
+import de.mpa.db.MapContainer;
+import de.mpa.io.MascotGenericFile;
+import de.mpa.io.MascotGenericFileReader;
+
+public class SpecSimJobTest extends TestCase {
+
+	@Test
+	public void testParallelSearchMatchesSerial() throws IOException {
+		for (int vectIndex = 0; vectIndex < 3; vectIndex++) {
+			SpecSimSettings settings = new SpecSimSettings();
+			settings.setTolMz(10.0);
+			settings.setPickCount(20);
+			settings.setThreshScore(0.1);
+			settings.setVectIndex(vectIndex);
+			settings.setTrafoIndex(1);
+			settings.setCompIndex(1);
+			settings.setBinWidth(1.0);
+			settings.setBinShift(0.0);
+			settings.setBaseWidth(1.0);
+
+			List<SpectrumSpectrumMatch> serial = new SpecSimJob(loadQueries(), settings, 1).search(loadCandidates());
+			List<SpectrumSpectrumMatch> parallel = new SpecSimJob(loadQueries(), settings, 4).search(loadCandidates());
+
+			assertFalse(serial.isEmpty());
+			assertEquals(serial.size(), parallel.size());
+			for (int i = 0; i < serial.size(); i++) {
+				assertEquals(serial.get(i).getSearchSpectrumID(), parallel.get(i).getSearchSpectrumID());
+				assertEquals(serial.get(i).getLibSpectrumID(), parallel.get(i).getLibSpectrumID());
+				assertEquals(serial.get(i).getSimilarity(), parallel.get(i).getSimilarity());
+			}
+		}
+	}
+
+	/**
+	 * Loads the query spectra and registers their IDs.
+	 */
+	private List<MascotGenericFile> loadQueries() throws IOException {
+		List<MascotGenericFile> queries = new MascotGenericFileReader(
+				new File("test/de/mpa/resources/Test1000Ecoli.mgf")).getSpectrumFiles();
+		MapContainer.SpectrumTitle2IdMap = new HashMap<String, Long>();
+		for (int i = 0; i < queries.size(); i++) {
+			MapContainer.SpectrumTitle2IdMap.put(queries.get(i).getTitle().trim(), (long) i);
+		}
+		return queries;
+	}
+
+	/**
+	 * Uses the spectra of another file as library candidates.
+	 */
+	private CandidateIndex loadCandidates() throws IOException {
+		List<MascotGenericFile> spectra = new MascotGenericFileReader(
+				new File("test/de/mpa/resources/Test_100.mgf")).getSpectrumFiles();
+		List<SpectralSearchCandidate> candidates = new ArrayList<SpectralSearchCandidate>();
+		for (int i = 0; i < spectra.size(); i++) {
+			MascotGenericFile mgf = spectra.get(i);
+			candidates.add(new SpectralSearchCandidate(i, mgf.getTitle(), mgf.getPrecursorMZ(),
+					mgf.getCharge(), mgf.getPeaks(), i, "PEPTIDE"));
+		}
+		return new CandidateIndex(candidates);
+	}
+
+}
@@ -0,0 +1,192 @@
+package de.mpa.db.storager;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.db.MapContainer;
+import de.mpa.db.accessor.Searchspectrum;
+import de.mpa.db.accessor.Spectrum;
+
+public class SpectrumStoragerTest extends TestCase {
+
+	/**
+	 * The temporary spectrum file.
+	 */
+	private File mgfFile;
+
+	@Override
+	protected void setUp() throws IOException {
+		mgfFile = File.createTempFile("spectra", ".mgf");
+	}
+
+	@Override
+	protected void tearDown() {
+		mgfFile.delete();
+	}
+
+	@Test
+	public void testDuplicateTitlesWithRedundancyCheck() throws Exception {
+		this.writeSpectra(new String[] { "A", "B", "A", "C", "B" }, null);
+		InMemorySpectrumStorager storager = new InMemorySpectrumStorager(mgfFile, true);
+		storager.load();
+		storager.store();
+
+		// every title is stored once and linked once despite sharing a batch
+		assertEquals(3, storager.spectra.size());
+		assertEquals(3, storager.searchspectra.size());
+		assertEquals(3, MapContainer.SpectrumTitle2IdMap.size());
+		for (String title : new String[] { "A", "B", "C" }) {
+			long searchspectrumID = MapContainer.SpectrumTitle2IdMap.get(title);
+			long spectrumID = storager.searchspectra.get((int) searchspectrumID - 1);
+			assertEquals(title, storager.spectra.get((int) spectrumID - 1).getTitle());
+		}
+	}
+
+	@Test
+	public void testDuplicateSpectrumIDsWithoutRedundancyCheck() throws Exception {
+		this.writeSpectra(new String[] { "A", "B", "C", "D" }, new Long[] { 7L, 7L, null, 9L });
+		InMemorySpectrumStorager storager = new InMemorySpectrumStorager(mgfFile, false);
+		storager.load();
+		storager.store();
+
+		// only the spectrum without ID is new, spectra 7 and 9 are linked once each
+		assertEquals(1, storager.spectra.size());
+		assertEquals(3, storager.searchspectra.size());
+		assertEquals(4, MapContainer.SpectrumTitle2IdMap.size());
+		assertEquals(MapContainer.SpectrumTitle2IdMap.get("A"), MapContainer.SpectrumTitle2IdMap.get("B"));
+		assertEquals(7L, storager.searchspectra.get(MapContainer.SpectrumTitle2IdMap.get("A").intValue() - 1).longValue());
+		assertEquals(9L, storager.searchspectra.get(MapContainer.SpectrumTitle2IdMap.get("D").intValue() - 1).longValue());
+	}
+
+	@Test
+	public void testDuplicateSpectrumIDsAcrossBatches() throws Exception {
+		this.writeSpectra(new String[] { "A", "B", "C" }, new Long[] { 7L, 8L, 7L });
+		InMemorySpectrumStorager storager = new InMemorySpectrumStorager(mgfFile, false);
+		storager.setBatchSize(2);
+		storager.load();
+		storager.store();
+
+		// the search spectrum of the first batch is found instead of inserted again
+		assertEquals(2, storager.searchspectra.size());
+		assertEquals(MapContainer.SpectrumTitle2IdMap.get("A"), MapContainer.SpectrumTitle2IdMap.get("C"));
+	}
+
+	/**
+	 * Writes spectra with the specified titles and optional spectrum IDs to the temporary file.
+	 */
+	private void writeSpectra(String[] titles, Long[] spectrumIDs) throws IOException {
+		FileWriter writer = new FileWriter(mgfFile);
+		for (int i = 0; i < titles.length; i++) {
+			if ((spectrumIDs != null) && (spectrumIDs[i] != null)) {
+				writer.write("#sid " + spectrumIDs[i] + "\n");
+			}
+			writer.write("BEGIN IONS\n");
+			writer.write("TITLE=" + titles[i] + "\n");
+			writer.write("PEPMASS=" + (500.0 + i) + " 1000.0\n");
+			writer.write("CHARGE=2+\n");
+			writer.write("100.0 10.0\n200.0 20.0\n");
+			writer.write("END IONS\n\n");
+		}
+		writer.close();
+	}
+
+	/**
+	 * Creates a connection stub which only supports transaction control.
+	 */
+	public static Connection createConnection() {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("commit") || name.equals("rollback") || name.equals("close")) {
+					return null;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	/**
+	 * Spectrum storager writing to in-memory tables, row IDs start at 1.
+	 */
+	public static class InMemorySpectrumStorager extends SpectrumStorager {
+
+		/**
+		 * The stored spectra in order of their IDs.
+		 */
+		public final List<Spectrum> spectra;
+
+		/**
+		 * The spectrum IDs of the stored search spectra in order of their IDs.
+		 */
+		public final List<Long> searchspectra;
+
+		public InMemorySpectrumStorager(File file, boolean redundancyCheck) {
+			this(file, redundancyCheck, new ArrayList<Spectrum>(), new ArrayList<Long>());
+		}
+
+		/**
+		 * Constructs a storager writing to the specified tables, e.g. those of a previous storager.
+		 */
+		public InMemorySpectrumStorager(File file, boolean redundancyCheck, List<Spectrum> spectra, List<Long> searchspectra) {
+			super(createConnection(), file, 1L, redundancyCheck);
+			this.spectra = spectra;
+			this.searchspectra = searchspectra;
+		}
+
+		@Override
+		protected Spectrum findSpectrum(String title) {
+			for (Spectrum spectrum : spectra) {
+				if (spectrum.getTitle().equals(title)) {
+					return spectrum;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		protected Searchspectrum findSearchspectrum(long spectrumid) {
+			int index = searchspectra.indexOf(spectrumid);
+			if (index < 0) {
+				return null;
+			}
+			HashMap<Object, Object> params = new HashMap<Object, Object>();
+			params.put(Searchspectrum.SEARCHSPECTRUMID, (long) (index + 1));
+			params.put(Searchspectrum.FK_SPECTRUMID, spectrumid);
+			return new Searchspectrum(params);
+		}
+
+		@Override
+		protected void insertSpectra(List<Spectrum> newSpectra) throws SQLException {
+			for (Spectrum spectrum : newSpectra) {
+				spectra.add(spectrum);
+				spectrum.setSpectrumid(spectra.size());
+			}
+		}
+
+		@Override
+		protected long[] insertSearchspectra(long[] spectrumIDs) {
+			long[] res = new long[spectrumIDs.length];
+			for (int i = 0; i < spectrumIDs.length; i++) {
+				searchspectra.add(spectrumIDs[i]);
+				res[i] = searchspectra.size();
+			}
+			return res;
+		}
+	}
+
+}
@@ -0,0 +1,320 @@
+package de.mpa.db.storager;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.client.model.dbsearch.SearchEngineType;
+
+public class StorageCacheTest extends TestCase {
+
+	/**
+	 * The committed peptides mapped to their IDs.
+	 */
+	private Map<String, Long> peptides;
+
+	/**
+	 * The committed peptide-to-protein links.
+	 */
+	private Set<String> pep2prot;
+
+	/**
+	 * The last generated peptide ID.
+	 */
+	private long lastPeptideID;
+
+	@Override
+	protected void setUp() {
+		peptides = new HashMap<String, Long>();
+		pep2prot = new LinkedHashSet<String>();
+		lastPeptideID = 0L;
+	}
+
+	@Test
+	public void testRollback() throws Exception {
+		final long[] peptideIDs = new long[2];
+		TestStorager storager = new TestStorager(new Transaction()) {
+			@Override
+			public void store() throws Exception {
+				peptideIDs[0] = this.storePeptide("PEPTIDE");
+				this.getStorageCache().addPep2Prot(peptideIDs[0], 5L);
+				throw new SQLException("Storing failed.");
+			}
+		};
+		storager.run();
+		assertTrue(peptides.isEmpty());
+		assertTrue(pep2prot.isEmpty());
+
+		// the next run must not reuse the rolled back peptide ID and link
+		storager = new TestStorager(storager.transaction) {
+			@Override
+			public void store() throws Exception {
+				peptideIDs[1] = this.storePeptide("PEPTIDE");
+				this.getStorageCache().addPep2Prot(peptideIDs[1], 5L);
+			}
+		};
+		storager.run();
+		assertTrue(peptideIDs[0] != peptideIDs[1]);
+		assertEquals(Long.valueOf(peptideIDs[1]), peptides.get("PEPTIDE"));
+		assertEquals(1, pep2prot.size());
+		assertTrue(pep2prot.contains(peptideIDs[1] + "-5"));
+	}
+
+	@Test
+	public void testConcurrentStoragers() throws Exception {
+		final CountDownLatch queued = new CountDownLatch(2);
+		final CountDownLatch failed = new CountDownLatch(1);
+		final Transaction failing = new Transaction(), succeeding = new Transaction();
+
+		final TestStorager first = new TestStorager(failing) {
+			@Override
+			public void store() throws Exception {
+				long peptideID = this.storePeptide("AAA");
+				this.getStorageCache().addPep2Prot(peptideID, 1L);
+				this.getStorageCache().addPep2Prot(peptideID, 2L);
+				queued.countDown();
+				queued.await(10, TimeUnit.SECONDS);
+				throw new SQLException("Storing failed.");
+			}
+		};
+		final TestStorager second = new TestStorager(succeeding) {
+			@Override
+			public void store() throws Exception {
+				long peptideID = this.storePeptide("BBB");
+				this.getStorageCache().addPep2Prot(peptideID, 1L);
+				this.getStorageCache().addPep2Prot(peptideID, 2L);
+				queued.countDown();
+				// keep the links queued until the other storager has rolled back
+				failed.await(10, TimeUnit.SECONDS);
+			}
+		};
+		Thread firstThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				first.run();
+				failed.countDown();
+			}
+		});
+		Thread secondThread = new Thread(second);
+		firstThread.start();
+		secondThread.start();
+		firstThread.join();
+		secondThread.join();
+
+		// only the links of the successful storager have been written, all on its own connection
+		assertEquals(1, peptides.size());
+		long peptideID = peptides.get("BBB");
+		assertEquals(2, pep2prot.size());
+		assertTrue(pep2prot.contains(peptideID + "-1"));
+		assertTrue(pep2prot.contains(peptideID + "-2"));
+		assertEquals(0, failing.insertedLinks);
+		assertEquals(2, succeeding.insertedLinks);
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		List<String> sequences = new ArrayList<String>();
+		for (int i = 0; i < StorageCache.CHUNK_SIZE + 10; i++) {
+			sequences.add("PEP" + i);
+			if (i % 2 == 0) {
+				peptides.put("PEP" + i, ++lastPeptideID);
+				pep2prot.add(lastPeptideID + "-7");
+			}
+		}
+		TestStorageCache cache = new TestStorageCache(new Transaction());
+		cache.prefetchPeptides(sequences);
+		// two chunks of sequences and two chunks of the found peptides' links
+		assertEquals(3, cache.selectQueries);
+
+		for (String sequence : sequences) {
+			cache.getPeptideID(sequence);
+		}
+		for (long peptideID = 1L; peptideID <= lastPeptideID; peptideID++) {
+			cache.addPep2Prot(peptideID, 7L);
+		}
+		// prefetched peptides and links are not looked up again
+		assertEquals(3, cache.selectQueries);
+		assertEquals(sequences.size(), peptides.size() + cache.transaction.newPeptides.size());
+		assertTrue(cache.transaction.newPep2Prot.isEmpty());
+
+		// a peptide missing from the prefetched file is looked up on its own
+		cache.getPeptideID("OTHER");
+		assertEquals(4, cache.selectQueries);
+	}
+
+	@Test
+	public void testLinkSet() {
+		StorageCache.LinkSet links = new StorageCache.LinkSet();
+		long wide = 1L << 32;
+		assertTrue(links.add(0L, 1L));
+		assertTrue(links.add(1L, 1L));
+		// IDs exceeding 32 bits must not collide with the packed links
+		assertTrue(links.add(0L, wide + 1L));
+		assertTrue(links.add(wide + 1L, 1L));
+		assertFalse(links.add(wide + 1L, 1L));
+		assertFalse(links.add(0L, 1L));
+	}
+
+	/**
+	 * Transaction of a single connection to the in-memory tables.
+	 */
+	private class Transaction {
+
+		/**
+		 * The connection stub controlling this transaction.
+		 */
+		private final Connection conn;
+
+		/**
+		 * The uncommitted peptides.
+		 */
+		private final Map<String, Long> newPeptides = new HashMap<String, Long>();
+
+		/**
+		 * The uncommitted peptide-to-protein links.
+		 */
+		private final Set<String> newPep2Prot = new LinkedHashSet<String>();
+
+		/**
+		 * The total number of links inserted through this connection.
+		 */
+		private int insertedLinks;
+
+		private Transaction() {
+			conn = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("commit")) {
+						commit();
+					} else if (method.getName().equals("rollback")) {
+						rollback();
+					} else {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					return null;
+				}
+			});
+		}
+
+		private void commit() {
+			synchronized (StorageCacheTest.this) {
+				peptides.putAll(newPeptides);
+				pep2prot.addAll(newPep2Prot);
+			}
+			this.rollback();
+		}
+
+		private void rollback() {
+			newPeptides.clear();
+			newPep2Prot.clear();
+		}
+	}
+
+	/**
+	 * Storage cache reading and writing the in-memory tables.
+	 */
+	private class TestStorageCache extends StorageCache {
+
+		private final Transaction transaction;
+
+		/**
+		 * The number of executed select queries.
+		 */
+		private int selectQueries;
+
+		private TestStorageCache(Transaction transaction) {
+			super(transaction.conn);
+			this.transaction = transaction;
+		}
+
+		@Override
+		protected TObjectLongHashMap<String> selectPeptides(List<String> sequences) {
+			assertTrue(sequences.size() <= CHUNK_SIZE);
+			selectQueries++;
+			synchronized (StorageCacheTest.this) {
+				TObjectLongHashMap<String> res = new TObjectLongHashMap<String>();
+				for (String sequence : sequences) {
+					Long peptideID = transaction.newPeptides.containsKey(sequence)
+							? transaction.newPeptides.get(sequence) : peptides.get(sequence);
+					if (peptideID != null) {
+						res.put(sequence, peptideID);
+					}
+				}
+				return res;
+			}
+		}
+
+		@Override
+		protected long insertPeptide(String sequence) {
+			synchronized (StorageCacheTest.this) {
+				long peptideID = ++lastPeptideID;
+				transaction.newPeptides.put(sequence, peptideID);
+				return peptideID;
+			}
+		}
+
+		@Override
+		protected TLongArrayList selectPep2Prot(TLongArrayList peptideIDs) {
+			assertTrue(peptideIDs.size() <= CHUNK_SIZE);
+			selectQueries++;
+			synchronized (StorageCacheTest.this) {
+				TLongArrayList res = new TLongArrayList();
+				for (String link : pep2prot) {
+					String[] ids = link.split("-");
+					if (peptideIDs.contains(Long.parseLong(ids[0]))) {
+						res.add(Long.parseLong(ids[0]));
+						res.add(Long.parseLong(ids[1]));
+					}
+				}
+				return res;
+			}
+		}
+
+		@Override
+		protected void insertLinks(String sql, TLongArrayList pairs) {
+			assertEquals(INSERT_PEP2PROT, sql);
+			for (int i = 0; i < pairs.size(); i += 2) {
+				transaction.newPep2Prot.add(pairs.get(i) + "-" + pairs.get(i + 1));
+			}
+			transaction.insertedLinks += pairs.size() / 2;
+		}
+	}
+
+	/**
+	 * Storager running on its own transaction, subclasses implement {@link #store()}.
+	 */
+	private abstract class TestStorager extends BasicStorager {
+
+		private final Transaction transaction;
+
+		private TestStorager(Transaction transaction) {
+			this.transaction = transaction;
+			this.conn = transaction.conn;
+			this.searchEngineType = SearchEngineType.XTANDEM;
+		}
+
+		@Override
+		protected StorageCache createStorageCache() {
+			return new TestStorageCache(transaction);
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+package de.mpa.graphdb.insert;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import de.mpa.analysis.UniProtUtilities;
+import de.mpa.analysis.taxonomy.TaxonomyTree;
+import de.mpa.client.Client;
+import de.mpa.client.model.dbsearch.DbSearchResult;
+import de.mpa.client.model.dbsearch.PeptideHit;
+import de.mpa.client.model.dbsearch.PeptideSpectrumMatch;
+import de.mpa.client.model.dbsearch.ProteinHit;
+import de.mpa.client.model.dbsearch.ReducedUniProtEntry;
+import de.mpa.client.model.dbsearch.SearchEngineType;
+import de.mpa.db.accessor.SearchHit;
+import de.mpa.graphdb.setup.GraphDatabase;
+
+/**
+ * Benchmark building the graph database of a synthetic search result with
+ * {@link GraphDatabaseHandler#setData(DbSearchResult)}, once checking the
+ * database indices for existing elements and once in bulk import mode.
+ * Each protein is identified by ten hits on shared peptides and spectra and
+ * carries a taxonomy, E.C. numbers, KO numbers and keywords.
+ * <p>
+ * Usage: <code>GraphDatabaseHandlerBenchmark [proteins=100000] [modes=index,bulk]</code>
+ */
+public class GraphDatabaseHandlerBenchmark {
+
+	/**
+	 * The ranks of the synthetic taxonomy below the root.
+	 */
+	private static final String[] RANKS = { "superkingdom", "phylum", "class",
+		"order", "family", "genus", "species" };
+
+	/**
+	 * Minimal search hit implementation.
+	 */
+	private static class BenchmarkHit implements SearchHit {
+
+		private long spectrumID;
+
+		public BenchmarkHit(long spectrumID) {
+			this.spectrumID = spectrumID;
+		}
+
+		@Override
+		public SearchEngineType getType() {
+			return SearchEngineType.XTANDEM;
+		}
+
+		@Override
+		public String getSequence() {
+			return null;
+		}
+
+		@Override
+		public String getAccession() {
+			return null;
+		}
+
+		@Override
+		public Number getQvalue() {
+			return 0.0;
+		}
+
+		@Override
+		public double getScore() {
+			return 0.0;
+		}
+
+		@Override
+		public long getCharge() {
+			return 2L;
+		}
+
+		@Override
+		public long getFk_searchspectrumid() {
+			return spectrumID;
+		}
+
+		@Override
+		public long getFk_peptideid() {
+			return 0L;
+		}
+
+		@Override
+		public long getFk_proteinid() {
+			return 0L;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int numProteins = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		String modes = (args.length > 1) ? args[1] : "index,bulk";
+		Client.init(false, false);
+
+		DbSearchResult result = createResult(numProteins);
+		System.out.printf(Locale.US, "%,d proteins, %,d peptides, %,d spectra%n", result.getProteinHitList().size(),
+				result.getDistinctPeptideCount(), result.getIdentifiedSpectrumCount());
+
+		for (String mode : modes.split(",")) {
+			File dir = File.createTempFile("graphdb", "");
+			dir.delete();
+			GraphDatabase graphDb = new GraphDatabase(dir.getPath(), true);
+			GraphDatabaseHandler handler = new GraphDatabaseHandler(graphDb, "bulk".equals(mode));
+			long start = System.nanoTime();
+			handler.setData(result);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			// Count written elements
+			GraphDatabaseService service = handler.getGraphDatabaseService();
+			long numNodes = 0L, numRelationships = 0L;
+			for (@SuppressWarnings("unused") Node node : GlobalGraphOperations.at(service).getAllNodes()) {
+				numNodes++;
+			}
+			for (@SuppressWarnings("unused") Relationship relationship : GlobalGraphOperations.at(service).getAllRelationships()) {
+				numRelationships++;
+			}
+			System.out.printf(Locale.US, "%-5s setData %8.2f s, %,d vertices, %,d edges%n",
+					mode, seconds, numNodes, numRelationships);
+			handler.shutDown();
+		}
+	}
+
+	/**
+	 * Creates a processed search result of the specified number of proteins.
+	 */
+	private static DbSearchResult createResult(int numProteins) {
+		Random random = new Random(42L);
+
+		// Synthetic taxonomy, each level ten times the size of the level above
+		List<Integer> taxIDs = new ArrayList<Integer>();
+		List<Integer> parentIDs = new ArrayList<Integer>();
+		List<String> ranks = new ArrayList<String>();
+		taxIDs.add(1);
+		parentIDs.add(0);
+		ranks.add("root");
+		int levelStart = 0, levelSize = 1;
+		for (String rank : RANKS) {
+			int count = Math.min(levelSize * 10, 20000);
+			for (int i = 0; i < count; i++) {
+				taxIDs.add(taxIDs.size() + 1);
+				parentIDs.add(taxIDs.get(levelStart + random.nextInt(levelSize)));
+				ranks.add(rank);
+			}
+			levelStart = taxIDs.size() - count;
+			levelSize = count;
+		}
+		int size = taxIDs.size();
+		int[] ids = new int[size], parents = new int[size];
+		String[] names = new String[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = taxIDs.get(i);
+			parents[i] = parentIDs.get(i);
+			names[i] = "Taxon " + ids[i];
+		}
+		TaxonomyTree tree = new TaxonomyTree(ids, parents, ranks.toArray(new String[size]), names);
+
+		// Keywords, E.C. and KO numbers to draw from
+		List<String> keywords = new ArrayList<String>(UniProtUtilities.ONTOLOGY_MAP.keySet());
+		String[] ecNumbers = new String[500];
+		for (int i = 0; i < ecNumbers.length; i++) {
+			ecNumbers[i] = (1 + random.nextInt(6)) + "." + (1 + random.nextInt(10)) + "." + (1 + random.nextInt(10))
+					+ "." + ((random.nextInt(5) == 0) ? "-" : String.valueOf(1 + random.nextInt(100)));
+		}
+
+		DbSearchResult result = new DbSearchResult("Benchmark", "Experiment", null);
+		int numHits = numProteins * 10;
+		int numPeptides = Math.max(1, numHits / 5);
+		ReducedUniProtEntry[] entries = new ReducedUniProtEntry[numProteins];
+		for (int i = 0; i < numProteins; i++) {
+			StringBuilder keywordString = new StringBuilder();
+			for (int j = random.nextInt(4); (j > 0) && !keywords.isEmpty(); j--) {
+				keywordString.append(keywords.get(random.nextInt(keywords.size()))).append(';');
+			}
+			entries[i] = new ReducedUniProtEntry(0L, keywordString.toString(),
+					ecNumbers[random.nextInt(ecNumbers.length)] + ";",
+					String.format("K%05d;", random.nextInt(5000)), null, null, null);
+		}
+		for (int i = 0; i < numHits; i++) {
+			long spectrumID = i / 2;
+			int peptide = (int) (spectrumID % numPeptides);
+			int protein = (peptide * 31 + random.nextInt(3)) % numProteins;
+			PeptideHit peptideHit = new PeptideHit("PEPTIDE" + peptide + "K",
+					new PeptideSpectrumMatch(spectrumID, new BenchmarkHit(spectrumID)));
+			ProteinHit proteinHit = new ProteinHit("P" + protein, "Protein " + protein, "", peptideHit,
+					entries[protein], tree.getNode(ids[size - 1 - (protein % 20000)]), 1L);
+			proteinHit.setMolecularWeight(100.0);
+			proteinHit.setCoverage(0.5);
+			result.addProtein(proteinHit);
+		}
+		result.setRaw(false);
+		return result;
+	}
+
+}
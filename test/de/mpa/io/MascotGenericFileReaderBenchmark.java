@@ -0,0 +1,91 @@
+package de.mpa.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import de.mpa.io.MascotGenericFileReader.LoadMode;
+
+/**
+ * Throughput benchmark comparing the memory-mapped {@link MascotGenericFileReader#load()} with the
+ * line-by-line {@link MascotGenericFileReader#loadLegacy()} on a synthetic MGF file.
+ * <p>
+ * Usage: <code>MascotGenericFileReaderBenchmark [spectra=1000000] [peaks=20] [legacy=true]</code><br>
+ * Loading one million spectra keeps all of them in memory, run with <code>-Xmx6g</code> or more.
+ */
+public class MascotGenericFileReaderBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int numSpectra = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int numPeaks = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+		boolean runLegacy = (args.length > 2) ? Boolean.parseBoolean(args[2]) : true;
+
+		File file = File.createTempFile("benchmark", ".mgf");
+		file.deleteOnExit();
+		writeSyntheticFile(file, numSpectra, numPeaks);
+		System.out.printf(Locale.US, "Synthetic file: %d spectra, %d peaks each, %.1f MB%n",
+				numSpectra, numPeaks, file.length() / 1048576.0);
+
+		// Warm up both code paths on a small portion of the file
+		File warmupFile = File.createTempFile("warmup", ".mgf");
+		warmupFile.deleteOnExit();
+		writeSyntheticFile(warmupFile, 20000, numPeaks);
+		for (int i = 0; i < 3; i++) {
+			run(warmupFile, false);
+			run(warmupFile, true);
+		}
+
+		report("mapped", file, run(file, false), numSpectra);
+		if (runLegacy) {
+			report("legacy", file, run(file, true), numSpectra);
+		}
+	}
+
+	/**
+	 * Loads the specified file and returns the elapsed time in nanoseconds.
+	 */
+	private static long run(File file, boolean legacy) throws IOException {
+		System.gc();
+		MascotGenericFileReader reader = new MascotGenericFileReader(file, LoadMode.NONE);
+		long start = System.nanoTime();
+		if (legacy) {
+			reader.loadLegacy();
+		} else {
+			reader.load();
+		}
+		long elapsed = System.nanoTime() - start;
+		reader.close();
+		return elapsed;
+	}
+
+	private static void report(String label, File file, long nanos, int numSpectra) {
+		double seconds = nanos / 1e9;
+		System.out.printf(Locale.US, "%-6s: %8.2f s, %10.0f spectra/s, %7.1f MB/s%n",
+				label, seconds, numSpectra / seconds, file.length() / 1048576.0 / seconds);
+	}
+
+	/**
+	 * Writes a synthetic MGF file containing random spectra.
+	 */
+	private static void writeSyntheticFile(File file, int numSpectra, int numPeaks) throws IOException {
+		Random random = new Random(42L);
+		BufferedWriter bw = new BufferedWriter(new FileWriter(file), 1 << 20);
+		for (int i = 1; i <= numSpectra; i++) {
+			bw.write("BEGIN IONS\n");
+			bw.write("TITLE=Synthetic spectrum " + i + " (rt=" + (i / 100.0) + ")\n");
+			bw.write(String.format(Locale.US, "PEPMASS=%.5f %.1f%n", 300.0 + random.nextDouble() * 1500.0, random.nextDouble() * 1e5));
+			bw.write("CHARGE=" + (2 + random.nextInt(2)) + "+\n");
+			double mz = 100.0;
+			for (int j = 0; j < numPeaks; j++) {
+				mz += 0.5 + random.nextDouble() * 50.0;
+				bw.write(String.format(Locale.US, "%.4f %.4f%n", mz, random.nextDouble() * 1e4));
+			}
+			bw.write("END IONS\n\n");
+		}
+		bw.close();
+	}
+
+}
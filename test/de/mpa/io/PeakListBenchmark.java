@@ -0,0 +1,105 @@
+package de.mpa.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the memory footprint per spectrum and the top-k peak extraction time of the
+ * HashMap-based peak representation with {@link PeakList}.
+ * <p>
+ * Usage: <code>PeakListBenchmark [spectra=100000] [peaks=100] [k=20]</code>
+ */
+public class PeakListBenchmark {
+
+	public static void main(String[] args) {
+		int numSpectra = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int numPeaks = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+		int k = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+
+		Random random = new Random(42L);
+		double[][] mzs = new double[numSpectra][numPeaks];
+		double[][] ins = new double[numSpectra][numPeaks];
+		for (int i = 0; i < numSpectra; i++) {
+			double mz = 100.0;
+			for (int j = 0; j < numPeaks; j++) {
+				mz += 0.5 + random.nextDouble() * 20.0;
+				mzs[i][j] = mz;
+				ins[i][j] = Math.round(random.nextDouble() * 1e5) / 10.0;
+			}
+		}
+
+		// Memory footprint
+		long before = usedMemory();
+		List<HashMap<Double, Double>> maps = new ArrayList<HashMap<Double, Double>>(numSpectra);
+		for (int i = 0; i < numSpectra; i++) {
+			HashMap<Double, Double> peaks = new HashMap<Double, Double>();
+			for (int j = 0; j < numPeaks; j++) {
+				peaks.put(mzs[i][j], ins[i][j]);
+			}
+			maps.add(peaks);
+		}
+		long mapBytes = usedMemory() - before;
+
+		before = usedMemory();
+		List<PeakList> lists = new ArrayList<PeakList>(numSpectra);
+		for (int i = 0; i < numSpectra; i++) {
+			lists.add(PeakList.fromArrays(mzs[i], ins[i], null, numPeaks));
+		}
+		long listBytes = usedMemory() - before;
+
+		System.out.printf(Locale.US, "%d spectra, %d peaks each%n", numSpectra, numPeaks);
+		System.out.printf(Locale.US, "memory  HashMap : %8.1f bytes/spectrum, %6.1f bytes/peak%n",
+				mapBytes / (double) numSpectra, mapBytes / (double) numSpectra / numPeaks);
+		System.out.printf(Locale.US, "memory  PeakList: %8.1f bytes/spectrum, %6.1f bytes/peak%n",
+				listBytes / (double) numSpectra, listBytes / (double) numSpectra / numPeaks);
+
+		// Top-k extraction, repeated for JIT warm-up, last round is reported
+		long mapNanos = 0L, listNanos = 0L;
+		int checksum = 0;
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			for (HashMap<Double, Double> peaks : maps) {
+				checksum += highestPeaksFromMap(peaks, k).size();
+			}
+			mapNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (PeakList peakList : lists) {
+				checksum += peakList.getHighestPeaks(k).size();
+			}
+			listNanos = System.nanoTime() - start;
+		}
+		System.out.printf(Locale.US, "top-%d   HashMap : %8.2f us/spectrum%n", k, mapNanos / 1e3 / numSpectra);
+		System.out.printf(Locale.US, "top-%d   PeakList: %8.2f us/spectrum%n", k, listNanos / 1e3 / numSpectra);
+		System.out.println("(checksum " + checksum + ")");
+	}
+
+	/**
+	 * The previous map-based top-k implementation of {@link MascotGenericFile#getHighestPeaks(int)}.
+	 */
+	private static HashMap<Double, Double> highestPeaksFromMap(HashMap<Double, Double> peaks, int k) {
+		HashMap<Double, Double> res = new HashMap<Double, Double>(peaks);
+		ArrayList<Double> sortedList = new ArrayList<Double>(res.values());
+		Collections.sort(sortedList);
+		Iterator<Double> iter = sortedList.listIterator();
+		while (res.size() > k) {
+			res.values().remove(iter.next());
+			iter.remove();
+		}
+		return res;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,98 @@
+package de.mpa.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.db.accessor.Spectrum;
+
+public class PeakListCodecTest extends TestCase {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		List<MascotGenericFile> spectra = new MascotGenericFileReader(
+				new File("test/de/mpa/resources/Test1000Ecoli.mgf")).getSpectrumFiles();
+		for (MascotGenericFile mgf : spectra) {
+			PeakList peakList = mgf.getPeakList();
+			for (boolean compress : new boolean[] { false, true }) {
+				assertRestored(peakList, PeakListCodec.decode(PeakListCodec.encode(peakList, compress)));
+			}
+		}
+	}
+
+	@Test
+	public void testChargesAndRawMz() {
+		// m/z values exceeding the fixed-point resolution are stored as plain doubles
+		double[] mz = { 100.123456789, 100.1234568, 250.5, 900.25 };
+		double[] in = { 1.5, 20.0, 300.25, 4.0 };
+		int[] ch = { 1, PeakList.NO_CHARGE, 2, 0 };
+		PeakList peakList = PeakList.fromArrays(mz, in, ch, mz.length);
+		assertRestored(peakList, PeakListCodec.decode(PeakListCodec.encodeToBytes(peakList, true)));
+
+		assertSame(PeakList.EMPTY, PeakListCodec.decode(PeakListCodec.encodeToBytes(PeakList.EMPTY, true)));
+	}
+
+	@Test
+	public void testRawIntensities() {
+		// intensities exceeding float precision are stored as plain doubles
+		double[] mz = { 100.5, 200.25, 300.125 };
+		double[] in = { 1234.56789012345, 0.1, 20.0 };
+		PeakList peakList = PeakList.fromArrays(mz, in, null, mz.length);
+		for (boolean compress : new boolean[] { false, true }) {
+			assertRestored(peakList, PeakListCodec.decode(PeakListCodec.encodeToBytes(peakList, compress)));
+		}
+
+		// float-exact intensities keep the compact layout
+		PeakList compact = PeakList.fromArrays(mz, new double[] { 1.5, 20.0, 300.25 }, null, mz.length);
+		assertTrue(PeakListCodec.encodeToBytes(compact, false).length < PeakListCodec.encodeToBytes(peakList, false).length);
+	}
+
+	@Test
+	public void testSequentialBuffer() {
+		PeakList first = PeakList.fromArrays(new double[] { 101.1, 202.2 }, new double[] { 1.0, 2.0 }, null, 2);
+		PeakList second = PeakList.fromArrays(new double[] { 303.3 }, new double[] { 3.0 }, null, 1);
+		ByteBuffer a = PeakListCodec.encode(first, false), b = PeakListCodec.encode(second, true);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(a.remaining() + b.remaining());
+		buffer.put(a).put(b).flip();
+		assertEquals(first, PeakListCodec.decode(buffer));
+		assertEquals(second, PeakListCodec.decode(buffer));
+		assertFalse(buffer.hasRemaining());
+
+		try {
+			PeakListCodec.decode(new byte[] { 'P', 'L', 99, 0, 0, 0, 0, 0 });
+			fail("Unsupported version must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testBase64Fallback() {
+		PeakList peakList = PeakList.fromArrays(new double[] { 110.5, 220.25 }, new double[] { 5.0, 6.0 },
+				new int[] { 2, PeakList.NO_CHARGE }, 2);
+		PeakList decoded = Spectrum.decodePeakList(null,
+				SixtyFourBitStringSupport.encodeDoublesToBase64String(peakList.getMzValues()),
+				SixtyFourBitStringSupport.encodeDoublesToBase64String(peakList.getIntensities()),
+				SixtyFourBitStringSupport.encodeIntsToBase64String(peakList.getChargeValues()));
+		assertEquals(peakList, decoded);
+	}
+
+	/**
+	 * Checks exact m/z values, intensities and charges.
+	 */
+	private static void assertRestored(PeakList expected, PeakList actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getMz(i), actual.getMz(i));
+			assertEquals(expected.getIntensity(i), actual.getIntensity(i));
+			assertEquals(expected.getCharge(i), actual.getCharge(i));
+			assertEquals(expected.hasCharge(i), actual.hasCharge(i));
+		}
+	}
+
+}
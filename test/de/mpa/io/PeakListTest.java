@@ -0,0 +1,73 @@
+package de.mpa.io;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PeakListTest extends TestCase {
+
+	@Test
+	public void testFromArraysSortsAndMerges() {
+		double[] mz = { 300.0, 100.0, 200.0, 100.0 };
+		double[] in = { 3.0, 1.0, 2.0, 4.0 };
+		int[] ch = { PeakList.NO_CHARGE, 1, 2, PeakList.NO_CHARGE };
+		PeakList peakList = PeakList.fromArrays(mz, in, ch, mz.length);
+
+		// Duplicate m/z: last intensity wins, last annotated charge is kept
+		assertEquals(3, peakList.size());
+		assertEquals(100.0, peakList.getMz(0));
+		assertEquals(4.0, peakList.getIntensity(0));
+		assertEquals(1, peakList.getCharge(0));
+		assertEquals(200.0, peakList.getMz(1));
+		assertEquals(2, peakList.getCharge(1));
+		assertFalse(peakList.hasCharge(2));
+		assertEquals(9.0, peakList.getTotalIntensity());
+		assertEquals(4.0, peakList.getHighestIntensity());
+
+		// Same content as the equivalent maps
+		HashMap<Double, Double> peaks = new HashMap<Double, Double>();
+		HashMap<Double, Integer> charges = new HashMap<Double, Integer>();
+		for (int i = 0; i < mz.length; i++) {
+			peaks.put(mz[i], in[i]);
+			if (ch[i] != PeakList.NO_CHARGE) {
+				charges.put(mz[i], ch[i]);
+			}
+		}
+		assertEquals(peaks, peakList.toPeakMap());
+		assertEquals(charges, peakList.toChargeMap());
+		assertEquals(peakList, PeakList.fromMaps(peaks, charges));
+	}
+
+	@Test
+	public void testHighestPeaks() {
+		double[] mz = { 100.0, 200.0, 300.0, 400.0, 500.0 };
+		double[] in = { 5.0, 1.0, 3.0, 3.0, 4.0 };
+		PeakList peakList = PeakList.fromArrays(mz, in, null, mz.length);
+
+		PeakList highest = peakList.getHighestPeaks(3);
+		assertEquals(3, highest.size());
+		// Tie at intensity 3.0 drops the peak with lower m/z
+		assertEquals(100.0, highest.getMz(0));
+		assertEquals(400.0, highest.getMz(1));
+		assertEquals(500.0, highest.getMz(2));
+
+		assertSame(peakList, peakList.getHighestPeaks(0));
+		assertSame(peakList, peakList.getHighestPeaks(10));
+	}
+
+	@Test
+	public void testMapViewTakesPrecedence() {
+		MascotGenericFile mgf = new MascotGenericFile("test.mgf");
+		mgf.setPeakList(PeakList.fromArrays(new double[] { 100.0, 200.0 }, new double[] { 1.0, 2.0 }, null, 2));
+
+		// Modifications of the map view are reflected by the peak list
+		mgf.getPeaks().put(150.0, 5.0);
+		PeakList peakList = mgf.getPeakList();
+		assertEquals(3, peakList.size());
+		assertEquals(150.0, peakList.getMz(1));
+		assertEquals(5.0, mgf.getHighestIntensity());
+	}
+
+}
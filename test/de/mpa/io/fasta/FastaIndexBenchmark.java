@@ -0,0 +1,113 @@
+package de.mpa.io.fasta;
+
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark comparing the serialized accession-to-position map (<code>.fb</code>) with the
+ * memory-mapped {@link FastaIndex} (<code>.fidx</code>) on synthetic accessions, measuring
+ * startup time, retained heap and lookup latency.
+ * <p>
+ * Usage: <code>FastaIndexBenchmark [entries=5000000] [lookups=1000000]</code><br>
+ * Deserializing the map of five million entries requires <code>-Xmx4g</code> or more.
+ */
+public class FastaIndexBenchmark {
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		int numEntries = (args.length > 0) ? Integer.parseInt(args[0]) : 5000000;
+		int numLookups = (args.length > 1) ? Integer.parseInt(args[1]) : 1000000;
+
+		// Create synthetic UniProt-like accessions at increasing offsets
+		TObjectLongHashMap<String> acc2pos = new TObjectLongHashMap<String>(numEntries);
+		String[] accessions = new String[numEntries];
+		for (int i = 0; i < numEntries; i++) {
+			accessions[i] = String.format(Locale.US, "Q%c%04d%c", 'A' + (i % 26), i / 26 % 10000, 'A' + (i / 260000 % 26));
+			accessions[i] += i / 6760000;
+			acc2pos.put(accessions[i], 350L * i);
+		}
+		long fastaLength = 350L * numEntries;
+
+		File fbFile = File.createTempFile("benchmark", ".fb");
+		fbFile.deleteOnExit();
+		ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fbFile), 1 << 20));
+		oos.writeObject(acc2pos);
+		oos.close();
+		File indexFile = File.createTempFile("benchmark", FastaIndex.EXTENSION);
+		indexFile.deleteOnExit();
+		long start = System.nanoTime();
+		FastaIndex.write(acc2pos, fastaLength, indexFile);
+		System.out.printf(Locale.US, "Synthetic index: %d entries, .fb %.1f MB, .fidx %.1f MB (written in %.2f s)%n",
+				numEntries, fbFile.length() / 1048576.0, indexFile.length() / 1048576.0, (System.nanoTime() - start) / 1e9);
+		acc2pos = null;
+
+		// Random lookup keys, every tenth of them missing
+		Random random = new Random(42L);
+		String[] keys = new String[numLookups];
+		for (int i = 0; i < numLookups; i++) {
+			keys[i] = (i % 10 == 0) ? "MISSING" + i : accessions[random.nextInt(numEntries)];
+		}
+		accessions = null;
+
+		// Serialized map
+		long heap = usedHeap();
+		start = System.nanoTime();
+		ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fbFile), 1 << 20));
+		@SuppressWarnings("unchecked")
+		TObjectLongHashMap<String> map = (TObjectLongHashMap<String>) ois.readObject();
+		ois.close();
+		long startup = System.nanoTime() - start;
+		long retained = usedHeap() - heap;
+		long checksum = 0L;
+		start = System.nanoTime();
+		for (String key : keys) {
+			checksum += map.containsKey(key) ? map.get(key) : -1L;
+		}
+		report("fb", startup, retained, System.nanoTime() - start, numLookups);
+		map = null;
+
+		// Memory-mapped index
+		heap = usedHeap();
+		start = System.nanoTime();
+		FastaIndex index = new FastaIndex(indexFile);
+		startup = System.nanoTime() - start;
+		retained = usedHeap() - heap;
+		long indexChecksum = 0L;
+		start = System.nanoTime();
+		for (String key : keys) {
+			indexChecksum += index.getStart(key);
+		}
+		report("fidx", startup, retained, System.nanoTime() - start, numLookups);
+		index.close();
+
+		if (checksum != indexChecksum) {
+			System.err.println("Lookup results differ!");
+		}
+	}
+
+	/**
+	 * Returns the used heap after garbage collection in bytes.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static void report(String label, long startupNanos, long heapBytes, long lookupNanos, int numLookups) {
+		System.out.printf(Locale.US, "%-4s: startup %8.3f s, heap %8.1f MB, lookup %8.0f ns/op%n",
+				label, startupNanos / 1e9, Math.max(0L, heapBytes) / 1048576.0, (double) lookupNanos / numLookups);
+	}
+
+}
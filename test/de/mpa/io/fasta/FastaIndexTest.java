@@ -0,0 +1,110 @@
+package de.mpa.io.fasta;
+
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.compomics.util.protein.Protein;
+
+public class FastaIndexTest extends TestCase {
+
+	private String filePath = "test/de/mpa/resources/fasta/test.fasta";
+
+	private File indexFile;
+
+	@Override
+	protected void setUp() throws IOException {
+		indexFile = File.createTempFile("test", FastaIndex.EXTENSION);
+	}
+
+	@Override
+	protected void tearDown() {
+		indexFile.delete();
+	}
+
+	@Test
+	public void testWriteAndLookup() throws IOException {
+		File fastaFile = new File(filePath);
+		FastaLoader fastaLoader = FastaLoader.getInstance();
+		fastaLoader.setFastaFile(fastaFile);
+		fastaLoader.loadFastaFile();
+		TObjectLongMap<String> acc2pos = new TObjectLongHashMap<String>(fastaLoader.getIndexMap());
+		FastaIndex.write(acc2pos, fastaFile.length(), indexFile);
+
+		assertTrue(FastaIndex.isIndexFile(indexFile));
+		assertFalse(FastaIndex.isIndexFile(fastaFile));
+
+		FastaIndex index = new FastaIndex(indexFile);
+		assertEquals(76, index.size());
+		assertEquals(fastaFile.length(), index.getFastaLength());
+		long maxStart = 0L;
+		for (TObjectLongIterator<String> iter = acc2pos.iterator(); iter.hasNext();) {
+			iter.advance();
+			assertEquals(iter.value(), index.getStart(iter.key()));
+			assertTrue(index.getEnd(iter.key()) > iter.value());
+			maxStart = Math.max(maxStart, iter.value());
+		}
+		assertEquals(-1L, index.getStart("NOT_AN_ACCESSION"));
+		assertEquals(-1L, index.getEnd("NOT_AN_ACCESSION"));
+		assertFalse(index.contains("NOT_AN_ACCESSION"));
+		index.close();
+	}
+
+	@Test
+	public void testRecordEnds() throws IOException {
+		// the second and third accession share a record
+		FastaIndex.write(new String[] { "B", "A", "C", "D" }, new long[] { 100L, 0L, 100L, 250L }, 400L, indexFile);
+		FastaIndex index = new FastaIndex(indexFile);
+		assertEquals(0L, index.getStart("A"));
+		assertEquals(100L, index.getEnd("A"));
+		assertEquals(250L, index.getEnd("B"));
+		assertEquals(250L, index.getEnd("C"));
+		assertEquals(400L, index.getEnd("D"));
+		index.close();
+	}
+
+	@Test
+	public void testConvertAndLoad() throws IOException, ClassNotFoundException {
+		File fastaFile = new File(filePath);
+		FastaIndex.convert(new File(filePath + ".fb"), fastaFile, indexFile);
+
+		FastaLoader fastaLoader = FastaLoader.getInstance();
+		fastaLoader.setFastaFile(fastaFile);
+		fastaLoader.setIndexFile(indexFile);
+		fastaLoader.readIndexFile();
+		assertNull(fastaLoader.getIndexMap());
+		assertEquals(76, fastaLoader.getNumberOfEntries());
+		Protein protein = fastaLoader.getProteinFromFasta("Q197F8");
+		assertEquals("002R_IIV3 Uncharacterized protein 002R OS=Invertebrate iridescent virus 3 GN=IIV3-002R PE=4 SV=1", protein.getHeader().getDescription());
+		assertNull(fastaLoader.getProteinFromFasta("NOT_AN_ACCESSION"));
+		fastaLoader.setIndexFile(new File(filePath + ".fb"));
+	}
+
+	@Test
+	public void testStaleIndex() throws IOException, ClassNotFoundException {
+		File fastaFile = new File(filePath);
+		// index of a previous version of the FASTA file
+		FastaIndex.write(new String[] { "Q197F8" }, new long[] { 0L }, fastaFile.length() - 1L, indexFile);
+
+		FastaLoader fastaLoader = FastaLoader.getInstance();
+		fastaLoader.setFastaFile(fastaFile);
+		fastaLoader.setIndexFile(indexFile);
+		fastaLoader.readIndexFile();
+		assertEquals(76, fastaLoader.getNumberOfEntries());
+		Protein protein = fastaLoader.getProteinFromFasta("Q197F8");
+		assertEquals("002R_IIV3 Uncharacterized protein 002R OS=Invertebrate iridescent virus 3 GN=IIV3-002R PE=4 SV=1", protein.getHeader().getDescription());
+		fastaLoader.setIndexFile(new File(filePath + ".fb"));
+
+		FastaIndex index = new FastaIndex(indexFile);
+		assertEquals(fastaFile.length(), index.getFastaLength());
+		index.close();
+	}
+
+}
@@ -0,0 +1,92 @@
+package de.mpa.io.fasta;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark comparing the parallel {@link FastaIndexer} with the legacy
+ * {@link FastaLoader#loadFastaFile()} and {@link FastaLoader#writeIndexFile()}
+ * path on a synthetic UniProt-style FASTA file.
+ * <p>
+ * Usage: <code>FastaIndexerBenchmark [entries=1000000] [threads=&lt;processors&gt;] [legacy=true]</code>
+ */
+public class FastaIndexerBenchmark {
+
+	private static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+	public static void main(String[] args) throws Exception {
+		int numEntries = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int numThreads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		boolean runLegacy = (args.length > 2) ? Boolean.parseBoolean(args[2]) : true;
+
+		File file = File.createTempFile("benchmark", ".fasta");
+		file.deleteOnExit();
+		writeSyntheticFile(file, numEntries);
+		System.out.printf(Locale.US, "Synthetic file: %d entries, %.1f MB%n", numEntries, file.length() / 1048576.0);
+
+		File indexFile = new File(file.getPath() + FastaIndex.EXTENSION);
+		indexFile.deleteOnExit();
+		for (int threads = 1; threads <= numThreads; threads *= 2) {
+			FastaIndexer indexer = new FastaIndexer(file);
+			indexer.setThreadCount(threads);
+			long start = System.nanoTime();
+			int count = indexer.index(indexFile);
+			report("parallel (" + threads + " threads)", System.nanoTime() - start, count, file);
+		}
+
+		if (runLegacy) {
+			File fbFile = new File(file.getAbsolutePath() + ".fb");
+			fbFile.deleteOnExit();
+			// Suppress progress output of the legacy loader
+			PrintStream out = System.out;
+			System.setOut(new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) { }
+			}));
+			long start = System.nanoTime();
+			FastaLoader fastaLoader = FastaLoader.getInstance();
+			fastaLoader.setFastaFile(file);
+			fastaLoader.loadFastaFile();
+			fastaLoader.writeIndexFile();
+			long elapsed = System.nanoTime() - start;
+			System.setOut(out);
+			report("legacy", elapsed, numEntries, file);
+		}
+	}
+
+	private static void report(String label, long nanos, int numEntries, File file) {
+		double seconds = nanos / 1e9;
+		System.out.printf(Locale.US, "%-22s: %8.2f s, %10.0f entries/s, %7.1f MB/s%n",
+				label, seconds, numEntries / seconds, file.length() / 1048576.0 / seconds);
+	}
+
+	/**
+	 * Writes a synthetic FASTA file containing random protein sequences.
+	 */
+	private static void writeSyntheticFile(File file, int numEntries) throws IOException {
+		Random random = new Random(42L);
+		BufferedWriter bw = new BufferedWriter(new FileWriter(file), 1 << 20);
+		char[] line = new char[60];
+		for (int i = 0; i < numEntries; i++) {
+			String accession = String.format(Locale.US, "A%09d", i);
+			bw.write(">tr|" + accession + "|" + accession + "_SYNTH Synthetic protein " + i + " OS=Synthetic organism GN=syn" + i + " PE=4 SV=1\n");
+			int length = 100 + random.nextInt(500);
+			for (int j = 0; j < length; j += line.length) {
+				int count = Math.min(line.length, length - j);
+				for (int k = 0; k < count; k++) {
+					line[k] = AMINO_ACIDS.charAt(random.nextInt(AMINO_ACIDS.length()));
+				}
+				bw.write(line, 0, count);
+				bw.write('\n');
+			}
+		}
+		bw.close();
+	}
+
+}
@@ -0,0 +1,87 @@
+package de.mpa.io.fasta;
+
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.compomics.util.protein.Header;
+
+import org.junit.Test;
+
+public class FastaIndexerTest extends TestCase {
+
+	private String filePath = "test/de/mpa/resources/fasta/test.fasta";
+	private String filePath2 = "test/de/mpa/resources/fasta/uniprot_methanomicrobiales.fasta";
+
+	/**
+	 * Compares the index map of the parallel indexer with the one of the legacy loader.
+	 */
+	private void assertSameIndex(File fastaFile, int threadCount, long minRangeSize) throws IOException {
+		FastaLoader fastaLoader = FastaLoader.getInstance();
+		fastaLoader.setFastaFile(fastaFile);
+		fastaLoader.loadFastaFile();
+		TObjectLongMap<String> expected = new TObjectLongHashMap<String>(fastaLoader.getIndexMap());
+
+		FastaIndexer indexer = new FastaIndexer(fastaFile);
+		indexer.setThreadCount(threadCount);
+		indexer.setMinRangeSize(minRangeSize);
+		TObjectLongMap<String> actual = indexer.createIndexMap();
+		assertEquals(expected.size(), actual.size());
+		for (TObjectLongIterator<String> iter = expected.iterator(); iter.hasNext();) {
+			iter.advance();
+			assertTrue(iter.key(), actual.containsKey(iter.key()));
+			assertEquals(iter.key(), iter.value(), actual.get(iter.key()));
+		}
+	}
+
+	@Test
+	public void testSingleRange() throws IOException {
+		assertSameIndex(new File(filePath), 1, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testParallelRanges() throws IOException {
+		assertSameIndex(new File(filePath), 4, 1000L);
+		assertSameIndex(new File(filePath2), 4, 1000L);
+	}
+
+	@Test
+	public void testExtractAccession() {
+		assertEquals("Q6GZX4", FastaIndexer.extractAccession(">sp|Q6GZX4|001R_FRG3G Putative transcription factor 001R"));
+		assertEquals("P12345-2", FastaIndexer.extractAccession(">sp|P12345-2|ABC_HUMAN Isoform 2"));
+		assertEquals("IPI00000001.2", FastaIndexer.extractAccession(">IPI:IPI00000001.2|SWISS-PROT:O95793-1|REFSEQ:NP_059347 Tax_Id=9606"));
+		// other database codes yield the accessions of the compomics parser used for protein lookups
+		for (String header : new String[] { ">gb|AAA12345.1| Some protein", ">SP|P12345|ABC_HUMAN Upper case code",
+				">UP|P12345|ABC_HUMAN Description", ">nr|ACC123|Description" }) {
+			assertEquals(Header.parseFromFASTA(header).getAccession(), FastaIndexer.extractAccession(header));
+		}
+
+		assertTrue(FastaIndexer.isWellFormed(">tr|A0A000|A0A000_9BACT Description"));
+		assertFalse(FastaIndexer.isWellFormed(">tr|A0A000|A0A0009BACT Description"));
+		assertFalse(FastaIndexer.isWellFormed(">tr|A0A000|_9BACT Description"));
+		assertFalse(FastaIndexer.isWellFormed(">sp|Q6GZX4|001R_FRG3G"));
+		assertFalse(FastaIndexer.isWellFormed(">IPI:IPI00000001.2|SWISS-PROT:O95793-1|REFSEQ:NP_059347 Tax_Id=9606"));
+	}
+
+	@Test
+	public void testIndexFile() throws IOException {
+		File indexFile = File.createTempFile("test", FastaIndex.EXTENSION);
+		try {
+			FastaIndexer indexer = new FastaIndexer(new File(filePath));
+			assertEquals(76, indexer.index(indexFile));
+			assertEquals(0, indexer.getMalformedCount());
+			FastaIndex index = new FastaIndex(indexFile);
+			assertEquals(76, index.size());
+			assertEquals(0L, index.getStart("Q6GZX4"));
+			index.close();
+		} finally {
+			indexFile.delete();
+		}
+	}
+
+}
@@ -4,7 +4,13 @@ import gnu.trove.map.TObjectLongMap;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
@@ -56,5 +62,87 @@ public class FastaLoaderTest extends TestCase {
 		assertEquals("002R_IIV3 Uncharacterized protein 002R OS=Invertebrate iridescent virus 3 GN=IIV3-002R PE=4 SV=1", protein.getHeader().getDescription());
 
 	}
+	
+	@Test
+	public void testGetProteins() throws IOException {
+		fastaLoader.setIndexFile(new File(filePath + ".fb"));
+		Map<String, Protein> proteins = fastaLoader.getProteins(Arrays.asList("Q197F8", "NOT_AN_ACCESSION", "Q6GZX4", "Q197F8"));
+		assertEquals(2, proteins.size());
+		assertTrue(proteins.get("Q6GZX4").getSequence().getSequence().startsWith("MAFSAEDVLKEYDRRRRMEALLLSLYYPNDRKLLDYKEWSPPRVQVECPKAPVEWNNPPS"));
+		assertSame(proteins.get("Q197F8"), fastaLoader.getProteinFromFasta("Q197F8"));
+	}
+	
+	@Test
+	public void testLongRecord() throws IOException {
+		// records exceeding the initial read size
+		File longFile = File.createTempFile("long", ".fasta");
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sequence.append("ACDEFGHIKLMNPQRSTVWY".charAt(i % 20));
+		}
+		FileWriter writer = new FileWriter(longFile);
+		for (String accession : new String[] { "P00001", "P00002", "P00003" }) {
+			writer.write(">sp|" + accession + "|TEST_HUMAN Test protein\n\n");
+			for (int i = 0; i < sequence.length(); i += 60) {
+				writer.write(sequence.substring(i, Math.min(i + 60, sequence.length())) + "\n");
+			}
+		}
+		writer.close();
+		try {
+			fastaLoader.setFastaFile(longFile);
+			fastaLoader.loadFastaFile();
+			for (String accession : new String[] { "P00001", "P00002", "P00003" }) {
+				Protein protein = fastaLoader.getProteinFromFasta(accession);
+				assertEquals(accession, protein.getHeader().getAccession());
+				assertEquals(sequence.toString(), protein.getSequence().getSequence());
+			}
+		} finally {
+			fastaLoader.setFastaFile(new File(filePath));
+			longFile.delete();
+		}
+	}
+	
+	@Test
+	public void testBinaryIndexRetrieval() throws Exception {
+		final List<String> accessions = new ArrayList<String>(fastaLoader.getIndexMap().keySet());
+		File fidxFile = File.createTempFile("test", FastaIndex.EXTENSION);
+		try {
+			fastaLoader.setIndexFile(new File(filePath + ".fb"));
+			final Map<String, Protein> expected = fastaLoader.getProteins(accessions);
+			assertEquals(76, expected.size());
+			
+			// fetch all proteins concurrently using the binary index
+			FastaIndex.convert(new File(filePath + ".fb"), new File(filePath), fidxFile);
+			fastaLoader.setIndexFile(fidxFile);
+			final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+			Thread[] threads = new Thread[4];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+					public void run() {
+						try {
+							for (String accession : accessions) {
+								Protein actual = fastaLoader.getProteinFromFasta(accession);
+								Protein protein = expected.get(accession);
+								if (!protein.getHeader().getDescription().equals(actual.getHeader().getDescription())
+										|| !protein.getSequence().getSequence().equals(actual.getSequence().getSequence())) {
+									errors.add(accession);
+								}
+							}
+						} catch (IOException e) {
+							errors.add(e.getMessage());
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertTrue(errors.toString(), errors.isEmpty());
+		} finally {
+			fastaLoader.setIndexFile(new File(filePath + ".fb"));
+			fidxFile.delete();
+		}
+	}
 
 }
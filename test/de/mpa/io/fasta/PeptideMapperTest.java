@@ -0,0 +1,91 @@
+package de.mpa.io.fasta;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PeptideMapperTest extends TestCase {
+
+	private String filePath = "test/de/mpa/resources/fasta/uniprot_methanomicrobiales.fasta";
+
+	@Test
+	public void testOverlappingPeptides() {
+		PeptideMapper mapper = new PeptideMapper(Arrays.asList("PEP", "PEPTIDE", "EPT", "TIDES", "IDE", "X1"), false);
+		assertEquals(new HashSet<String>(Arrays.asList("PEP", "PEPTIDE", "EPT", "IDE")), mapper.match("MPEPTIDEK"));
+		assertEquals(new HashSet<String>(Arrays.asList("PEP", "IDE")), mapper.match("PEP*TIDE"));
+		assertTrue(mapper.match("").isEmpty());
+	}
+
+	@Test
+	public void testIsoleucineLeucineEquivalence() {
+		List<String> peptides = Arrays.asList("LEIK", "IEIK", "KLL");
+		assertEquals(new HashSet<String>(Arrays.asList("IEIK")), new PeptideMapper(peptides, false).match("AIEIKR"));
+		assertEquals(new HashSet<String>(Arrays.asList("LEIK", "IEIK")), new PeptideMapper(peptides, true).match("AIEIKR"));
+		assertEquals(new HashSet<String>(Arrays.asList("LEIK", "IEIK", "KLL")), new PeptideMapper(peptides, true).match("AKLLEIKR"));
+	}
+
+	@Test
+	public void testMapFasta() throws IOException {
+		// Read proteins for naive matching
+		List<String> headers = new ArrayList<String>();
+		List<String> sequences = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(filePath));
+		String line;
+		StringBuilder sequence = new StringBuilder();
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith(">")) {
+				if (!headers.isEmpty()) {
+					sequences.add(sequence.toString());
+				}
+				headers.add(line);
+				sequence.setLength(0);
+			} else {
+				sequence.append(line.trim());
+			}
+		}
+		sequences.add(sequence.toString());
+		reader.close();
+
+		// Sample peptides from the proteins, add some not contained in any protein
+		Random random = new Random(42L);
+		Set<String> peptides = new HashSet<String>();
+		for (int i = 0; i < 500; i++) {
+			String protein = sequences.get(random.nextInt(sequences.size()));
+			int length = 4 + random.nextInt(12);
+			if (protein.length() > length) {
+				int start = random.nextInt(protein.length() - length);
+				peptides.add(protein.substring(start, start + length));
+			}
+		}
+		peptides.add("WWWWWWWWWW");
+		peptides.add("LLLLLLLLLL");
+
+		Map<String, Set<String>> expected = new HashMap<String, Set<String>>();
+		for (String peptide : peptides) {
+			for (int i = 0; i < sequences.size(); i++) {
+				if (sequences.get(i).contains(peptide)) {
+					FastaUtilities.addPeptideToMultiMap(expected, peptide, headers.get(i));
+				}
+			}
+		}
+
+		PeptideMapper mapper = new PeptideMapper(peptides, false);
+		mapper.setThreadCount(4);
+		assertEquals(expected, mapper.map(new File(filePath)));
+		assertEquals(expected, FastaUtilities.matchPeptides(new File(filePath), peptides));
+	}
+
+}
@@ -2,6 +2,8 @@ package de.mpa.io.parser.mgf;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -10,8 +12,10 @@ import org.junit.Before;
 import org.junit.Test;
 
 import de.mpa.io.MascotGenericFile;
+import de.mpa.io.MascotGenericFileParser;
 import de.mpa.io.MascotGenericFileReader;
 import de.mpa.io.MascotGenericFileReader.LoadMode;
+import de.mpa.io.SpectrumIterator;
 
 public class MascotGenericFileReaderTest extends TestCase {
 	
@@ -85,4 +89,106 @@ public class MascotGenericFileReaderTest extends TestCase {
 		assertEquals(6371.3626816, spectrumFiles.get(99).getTotalIntensity(), 0.01);
 	}
 	
+	@Test
+	public void testMappedLoadMatchesLegacy() throws IOException {
+		String[] fileNames = { "Test_100.mgf", "Test_30.mgf", "FewProteins2.mgf", "Test1000Ecoli.mgf" };
+		for (String fileName : fileNames) {
+			File file = new File("test/de/mpa/resources/" + fileName);
+			
+			MascotGenericFileReader legacyReader = new MascotGenericFileReader(file, LoadMode.NONE);
+			legacyReader.loadLegacy();
+			MascotGenericFileReader mappedReader = new MascotGenericFileReader(file, LoadMode.NONE);
+			mappedReader.load();
+			
+			assertEquals(legacyReader.getSpectrumPositions(false), mappedReader.getSpectrumPositions(false));
+			
+			List<MascotGenericFile> expected = legacyReader.getSpectrumFiles();
+			List<MascotGenericFile> actual = mappedReader.getSpectrumFiles();
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				MascotGenericFile exp = expected.get(i);
+				MascotGenericFile act = actual.get(i);
+				assertEquals(exp.getFilename(), act.getFilename());
+				assertEquals(exp.getTitle(), act.getTitle());
+				assertEquals(exp.getCharge(), act.getCharge());
+				assertEquals(exp.getPeaks(), act.getPeaks());
+				assertEquals(exp.getCharges(), act.getCharges());
+				assertEquals(exp.getPrecursorMZ(), act.getPrecursorMZ());
+				assertEquals(exp.getIntensity(), act.getIntensity());
+				assertEquals(exp.getComments(), act.getComments());
+				assertEquals(exp.getSpectrumID(), act.getSpectrumID());
+				assertEquals(exp.toString(), act.toString());
+			}
+		}
+	}
+	
+	@Test
+	public void testMappedLinesAcrossWindows() throws IOException {
+		File file = new File("test/de/mpa/resources/Test_100.mgf");
+		RandomAccessFile expectedRaf = new RandomAccessFile(file, "r");
+		RandomAccessFile actualRaf = new RandomAccessFile(file, "r");
+		
+		// Use a tiny window to force lines (and CR/LF pairs) across window boundaries
+		MascotGenericFileParser parser = new MascotGenericFileParser(actualRaf.getChannel(), 257);
+		String line;
+		while ((line = expectedRaf.readLine()) != null) {
+			assertTrue(parser.nextLine());
+			assertEquals(expectedRaf.getFilePointer(), parser.getPosition());
+			assertEquals(line.trim(), parser.getLine());
+		}
+		assertFalse(parser.nextLine());
+		
+		expectedRaf.close();
+		actualRaf.close();
+	}
+	
+	@Test
+	public void testSpectrumIterator() throws Exception {
+		File file = new File("test/de/mpa/resources/Test1000Ecoli.mgf");
+		List<MascotGenericFile> expected = new MascotGenericFileReader(file).getSpectrumFiles();
+		
+		final MascotGenericFileReader surveyReader = new MascotGenericFileReader(file, LoadMode.SURVEY);
+		SpectrumIterator iterator = surveyReader.spectrumIterator();
+		assertEquals(expected.size(), iterator.remaining());
+		
+		// Consume split iterators concurrently
+		List<SpectrumIterator> parts = iterator.split(4);
+		assertEquals(4, parts.size());
+		final List<List<MascotGenericFile>> results = new ArrayList<List<MascotGenericFile>>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final SpectrumIterator part : parts) {
+			final List<MascotGenericFile> result = new ArrayList<MascotGenericFile>();
+			results.add(result);
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					while (part.hasNext()) {
+						result.add(part.next());
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		surveyReader.close();
+		
+		List<MascotGenericFile> actual = new ArrayList<MascotGenericFile>();
+		for (List<MascotGenericFile> result : results) {
+			actual.addAll(result);
+		}
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			MascotGenericFile exp = expected.get(i);
+			MascotGenericFile act = actual.get(i);
+			assertEquals(exp.getFilename(), act.getFilename());
+			assertEquals(exp.getTitle(), act.getTitle());
+			assertEquals(exp.getPrecursorMZ(), act.getPrecursorMZ());
+			assertEquals(exp.getCharge(), act.getCharge());
+			assertEquals(exp.getPeaks(), act.getPeaks());
+		}
+	}
+	
 }
@@ -0,0 +1,257 @@
+package de.mpa.webservice;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.mpa.db.MapContainer;
+import de.mpa.db.accessor.Spectrum;
+import de.mpa.db.storager.BasicStorager;
+import de.mpa.db.storager.SpectrumStorager;
+import de.mpa.db.storager.SpectrumStoragerTest.InMemorySpectrumStorager;
+
+public class BatchPipelineTest extends TestCase {
+
+	/**
+	 * The spectrum titles contained in every spectrum file.
+	 */
+	private static final String[] TITLES = { "S1", "S2", "S3" };
+
+	/**
+	 * The temporary spectrum files.
+	 */
+	private List<String> filenames;
+
+	/**
+	 * The stored spectra shared by all files.
+	 */
+	private List<Spectrum> spectra;
+
+	/**
+	 * The spectrum IDs of the search spectra shared by all files.
+	 */
+	private List<Long> searchspectra;
+
+	/**
+	 * The index of the file which inserted each searchspectrum, by searchspectrum ID.
+	 */
+	private Map<Long, Integer> searchspectrumFiles;
+
+	@Override
+	protected void setUp() throws IOException {
+		filenames = new ArrayList<String>();
+		for (int i = 0; i < 2; i++) {
+			File file = File.createTempFile("batch" + i, ".mgf");
+			this.writeSpectra(file);
+			filenames.add(file.getPath());
+		}
+		spectra = new ArrayList<Spectrum>();
+		searchspectra = new ArrayList<Long>();
+		searchspectrumFiles = new ConcurrentHashMap<Long, Integer>();
+		while (MessageQueue.getInstance().poll() != null);
+	}
+
+	@Override
+	protected void tearDown() {
+		for (String filename : filenames) {
+			new File(filename).delete();
+		}
+	}
+
+	@Test
+	public void testResultsLinkToOwnSpectra() throws Exception {
+		final CountDownLatch secondStored = new CountDownLatch(1);
+		final Map<Integer, List<Long>> hits = new ConcurrentHashMap<Integer, List<Long>>();
+		final boolean[] overwritten = new boolean[1];
+
+		BatchPipeline pipeline = new BatchPipeline(filenames) {
+			@Override
+			protected SpectrumStorager storeSpectra(BatchFile batchFile) {
+				SpectrumStorager storager = new TrackingSpectrumStorager(batchFile);
+				storager.run();
+				if (batchFile.getIndex() == 2) {
+					secondStored.countDown();
+				}
+				return storager;
+			}
+
+			@Override
+			protected void search(BatchFile batchFile) throws InterruptedException {
+				// the results of the first file are stored after the spectra of the second file
+				if (batchFile.getIndex() == 1) {
+					assertTrue(secondStored.await(10, TimeUnit.SECONDS));
+				}
+			}
+
+			@Override
+			protected void storeResults(final BatchFile batchFile) throws Exception {
+				if (batchFile.getIndex() == 1) {
+					overwritten[0] = (MapContainer.SpectrumTitle2IdMap != batchFile.getTitle2SearchIdMap());
+				}
+				BasicStorager storager = new BasicStorager() {
+					@Override
+					public void store() {
+						// look up the hit spectra like the search engine storagers
+						List<Long> searchspectrumIDs = new ArrayList<Long>();
+						for (String title : TITLES) {
+							searchspectrumIDs.add(this.getTitle2SearchIdMap().get(title));
+						}
+						hits.put(batchFile.getIndex(), searchspectrumIDs);
+					}
+				};
+				storager.setSearchspectrumIdMaps(batchFile.getTitle2SearchIdMap(), batchFile.getFileName2IdMap());
+				storager.store();
+			}
+		};
+		assertTrue(pipeline.run());
+		assertTrue(overwritten[0]);
+
+		assertEquals(6, searchspectra.size());
+		for (int index = 1; index <= 2; index++) {
+			List<Long> searchspectrumIDs = hits.get(index);
+			assertEquals(TITLES.length, searchspectrumIDs.size());
+			for (int i = 0; i < TITLES.length; i++) {
+				long searchspectrumID = searchspectrumIDs.get(i);
+				assertEquals(Integer.valueOf(index), searchspectrumFiles.get(searchspectrumID));
+				long spectrumID = searchspectra.get((int) searchspectrumID - 1);
+				assertEquals(TITLES[i], spectra.get((int) spectrumID - 1).getTitle());
+			}
+		}
+	}
+
+	@Test
+	public void testFailedFile() throws Exception {
+		final List<Integer> storedResults = new ArrayList<Integer>();
+		BatchPipeline pipeline = new BatchPipeline(filenames) {
+			@Override
+			protected SpectrumStorager storeSpectra(BatchFile batchFile) {
+				SpectrumStorager storager;
+				if (batchFile.getIndex() == 1) {
+					storager = new TrackingSpectrumStorager(batchFile) {
+						@Override
+						protected void insertSpectra(List<Spectrum> newSpectra) throws SQLException {
+							throw new SQLException("Disk full.");
+						}
+					};
+				} else {
+					storager = new TrackingSpectrumStorager(batchFile);
+				}
+				storager.run();
+				return storager;
+			}
+
+			@Override
+			protected void search(BatchFile batchFile) {
+			}
+
+			@Override
+			protected void storeResults(BatchFile batchFile) {
+				storedResults.add(batchFile.getIndex());
+			}
+		};
+		assertFalse(pipeline.run());
+		assertEquals(1, pipeline.getFailedFiles().size());
+		assertEquals(1, pipeline.getFailedFiles().get(0).getIndex());
+		// the other file is processed nevertheless
+		assertEquals(Arrays.asList(2), storedResults);
+
+		List<String> messages = new ArrayList<String>();
+		String message;
+		while ((message = MessageQueue.getInstance().poll()) != null) {
+			messages.add(message);
+		}
+		assertTrue(messages.contains("ERROR: STORING SPECTRA 1/2 Disk full."));
+		assertTrue(messages.contains("ERROR: BATCH SEARCH 1 of 2 files failed."));
+		assertFalse(messages.contains("STORING SPECTRA 1/2 FINISHED"));
+	}
+
+	@Test
+	public void testFailedSearch() throws Exception {
+		final List<Integer> storedResults = new ArrayList<Integer>();
+		BatchPipeline pipeline = new BatchPipeline(filenames) {
+			@Override
+			protected SpectrumStorager storeSpectra(BatchFile batchFile) {
+				SpectrumStorager storager = new TrackingSpectrumStorager(batchFile);
+				storager.run();
+				return storager;
+			}
+
+			@Override
+			protected void search(BatchFile batchFile) throws Exception {
+				if (batchFile.getIndex() == 2) {
+					throw new Exception("Failed jobs: X!TANDEM SEARCH.");
+				}
+			}
+
+			@Override
+			protected void storeResults(BatchFile batchFile) {
+				storedResults.add(batchFile.getIndex());
+			}
+		};
+		assertFalse(pipeline.run());
+		assertEquals(1, pipeline.getFailedFiles().size());
+		assertEquals(2, pipeline.getFailedFiles().get(0).getIndex());
+		// the results of the failed file are not stored
+		assertEquals(Arrays.asList(1), storedResults);
+
+		List<String> messages = new ArrayList<String>();
+		String message;
+		while ((message = MessageQueue.getInstance().poll()) != null) {
+			messages.add(message);
+		}
+		assertTrue(messages.contains("ERROR: BATCH SEARCH 2/2 Failed jobs: X!TANDEM SEARCH."));
+		assertTrue(messages.contains("ERROR: BATCH SEARCH 1 of 2 files failed."));
+	}
+
+	/**
+	 * Writes spectra with the common titles to the specified file.
+	 */
+	private void writeSpectra(File file) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		for (int i = 0; i < TITLES.length; i++) {
+			writer.write("BEGIN IONS\n");
+			writer.write("TITLE=" + TITLES[i] + "\n");
+			writer.write("PEPMASS=" + (500.0 + i) + " 1000.0\n");
+			writer.write("CHARGE=2+\n");
+			writer.write("100.0 10.0\n200.0 20.0\n");
+			writer.write("END IONS\n\n");
+		}
+		writer.close();
+	}
+
+	/**
+	 * Spectrum storager writing to the shared in-memory tables and recording
+	 * which file inserted each searchspectrum.
+	 */
+	private class TrackingSpectrumStorager extends InMemorySpectrumStorager {
+
+		private final int index;
+
+		private TrackingSpectrumStorager(BatchPipeline.BatchFile batchFile) {
+			super(new File(batchFile.getFilename()), false, BatchPipelineTest.this.spectra, BatchPipelineTest.this.searchspectra);
+			this.index = batchFile.getIndex();
+		}
+
+		@Override
+		protected long[] insertSearchspectra(long[] spectrumIDs) {
+			long[] searchspectrumIDs = super.insertSearchspectra(spectrumIDs);
+			for (long searchspectrumID : searchspectrumIDs) {
+				searchspectrumFiles.put(searchspectrumID, index);
+			}
+			return searchspectrumIDs;
+		}
+	}
+
+}